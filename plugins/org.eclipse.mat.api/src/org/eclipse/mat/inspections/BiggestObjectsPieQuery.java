@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 SAP AG.
+ * Copyright (c) 2008, 2023 SAP AG and IBM Corporation.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -9,6 +9,7 @@
  *
  * Contributors:
  *    SAP AG - initial API and implementation
+ *    IBM Corporation - biggest objects by retained size
  *******************************************************************************/
 package org.eclipse.mat.inspections;
 
@@ -33,7 +34,7 @@ public class BiggestObjectsPieQuery implements IQuery
 
     public IResultPie execute(IProgressListener listener) throws Exception
     {
-        int[] objects = snapshot.getImmediateDominatedIds(-1);
+        int[] objects = snapshot.getBiggestRetainedIds(null, 10, 0, listener);
 
         final long totalHeapSize = snapshot.getSnapshotInfo().getUsedHeapSize();
 
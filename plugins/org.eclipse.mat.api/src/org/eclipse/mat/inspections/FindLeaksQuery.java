@@ -10,12 +10,14 @@
  * Contributors:
  *    SAP AG - initial API and implementation
  *    Andrew Johnson (IBM Corporation)- for comparisons
+ *    IBM Corporation - find paths for groups of objects in parallel
+ *    IBM Corporation - biggest objects by retained size
+ *    IBM Corporation - suspect classes from the summary of the top-level dominators
  *******************************************************************************/
 package org.eclipse.mat.inspections;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
@@ -24,11 +26,17 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.eclipse.mat.SnapshotException;
 import org.eclipse.mat.collect.ArrayInt;
 import org.eclipse.mat.collect.ArrayIntBig;
 import org.eclipse.mat.collect.BitField;
+import org.eclipse.mat.collect.HashMapIntLong;
 import org.eclipse.mat.internal.Messages;
 import org.eclipse.mat.internal.snapshot.inspections.Path2GCRootsQuery;
 import org.eclipse.mat.query.Bytes;
@@ -46,7 +54,6 @@ import org.eclipse.mat.query.annotations.CommandName;
 import org.eclipse.mat.query.annotations.HelpUrl;
 import org.eclipse.mat.query.annotations.Icon;
 import org.eclipse.mat.snapshot.ClassHistogramRecord;
-import org.eclipse.mat.snapshot.ClassLoaderHistogramRecord;
 import org.eclipse.mat.snapshot.Histogram;
 import org.eclipse.mat.snapshot.IMultiplePathsFromGCRootsComputer;
 import org.eclipse.mat.snapshot.ISnapshot;
@@ -113,13 +120,9 @@ public class FindLeaksQuery implements IQuery
          */
         listener.subTask(Messages.FindLeaksQuery_SearchingSingleObjects);
 
-        ArrayInt suspiciousObjects = new ArrayInt();
-        int i = 0;
-        while (i < topDominators.length && snapshot.getRetainedHeapSize(topDominators[i]) > threshold)
-        {
-            suspiciousObjects.add(topDominators[i]);
-            i++;
-        }
+        ArrayInt suspiciousObjects = new ArrayInt(snapshot.getBiggestRetainedIds(null, Integer.MAX_VALUE,
+                        threshold + 1, listener));
+        int i = suspiciousObjects.size();
 
         if (listener.isCanceled())
             throw new IProgressListener.OperationCanceledException();
@@ -130,25 +133,56 @@ public class FindLeaksQuery implements IQuery
         listener.subTask(Messages.FindLeaksQuery_SearchingGroupsOfObjects);
 
         /*
-         * Remove single suspects from list.
+         * Remove single suspects from the totals of the top-level dominators of each class.
          */
         int topDominatorsX[] = Arrays.copyOfRange(topDominators, i, topDominators.length);
-        Histogram histogram = groupByClasses(topDominatorsX, new SilentProgressListener(listener));
+        Histogram histogram = snapshot.getTopDominatorsHistogram(new SilentProgressListener(listener));
         ArrayList<ClassHistogramRecord> suspiciousClasses = new ArrayList<ClassHistogramRecord>();
+        BitField dominated = null;
+        // Sizes of the single suspects by class, so each class is not compared with every single suspect
+        HashMapIntLong suspiciousUsedByClass = new HashMapIntLong();
+        HashMapIntLong suspiciousRetainedByClass = new HashMapIntLong();
+        for (int j = 0; j < i; j++)
+        {
+            int objectId = suspiciousObjects.get(j);
+            int classId = snapshot.getClassOf(objectId).getObjectId();
+            long used = snapshot.getHeapSize(objectId);
+            long retained = snapshot.getRetainedHeapSize(objectId);
+            if (suspiciousUsedByClass.containsKey(classId))
+            {
+                used += suspiciousUsedByClass.get(classId);
+                retained += suspiciousRetainedByClass.get(classId);
+            }
+            suspiciousUsedByClass.put(classId, used);
+            suspiciousRetainedByClass.put(classId, retained);
+        }
 
-        ClassHistogramRecord[] classRecords = histogram.getClassHistogramRecords().toArray(new ClassHistogramRecord[0]);
-        Arrays.sort(classRecords, Histogram.reverseComparator(Histogram.COMPARATOR_FOR_RETAINEDHEAPSIZE));
-
-        int k = 0;
-        while (k < classRecords.length && classRecords[k].getRetainedHeapSize() > threshold)
+        for (ClassHistogramRecord record : histogram.getClassHistogramRecords())
         {
+            long usedHeapSize = record.getUsedHeapSize();
+            long retainedHeapSize = record.getRetainedHeapSize();
+            if (suspiciousUsedByClass.containsKey(record.getClassId()))
+            {
+                usedHeapSize -= suspiciousUsedByClass.get(record.getClassId());
+                retainedHeapSize -= suspiciousRetainedByClass.get(record.getClassId());
+            }
             /*
              * No need to avoid showing class-suspect for s.th. which was found on object
              * level as we excluded the objects earlier.
              */
-            suspiciousClasses.add(classRecords[k]);
-            k++;
+            if (retainedHeapSize > threshold)
+            {
+                if (dominated == null)
+                {
+                    dominated = new BitField(snapshot.getSnapshotInfo().getNumberOfObjects());
+                    for (int objectId : topDominatorsX)
+                        dominated.set(objectId);
+                }
+                suspiciousClasses.add(new ClassHistogramRecord(record.getLabel(), record.getClassId(),
+                                topDominatorsOf(record.getClassId(), dominated), usedHeapSize, retainedHeapSize));
+            }
         }
+        Collections.sort(suspiciousClasses, Histogram.reverseComparator(Histogram.COMPARATOR_FOR_RETAINEDHEAPSIZE));
 
         if (listener.isCanceled())
             throw new IProgressListener.OperationCanceledException();
@@ -161,52 +195,21 @@ public class FindLeaksQuery implements IQuery
 
     }
 
-    private Histogram groupByClasses(int[] dominated, IProgressListener listener) throws SnapshotException
+    /**
+     * The top-level dominators of a class.
+     * @param classId the class
+     * @param dominated the top-level dominators to choose from
+     * @return the objects of the class in the top-level dominators, sorted by object id
+     */
+    private int[] topDominatorsOf(int classId, BitField dominated) throws SnapshotException
     {
-        Histogram histogram = snapshot.getHistogram(dominated, listener);
-        if (listener.isCanceled())
-            throw new IProgressListener.OperationCanceledException();
-
-        Collection<ClassHistogramRecord> records = histogram.getClassHistogramRecords();
-        ClassHistogramRecord[] arr = new ClassHistogramRecord[records.size()];
-        int i = 0;
-
-        for (ClassHistogramRecord record : records)
+        ArrayInt result = new ArrayInt();
+        for (int id : ((IClass) snapshot.getObject(classId)).getObjectIds())
         {
-            record.setRetainedHeapSize(sumRetainedSize(record.getObjectIds(), snapshot));
-            arr[i++] = record;
-            if (i % 10 == 0 && listener.isCanceled())
-                throw new IProgressListener.OperationCanceledException();
+            if (dominated.get(id))
+                result.add(id);
         }
-
-        Collection<ClassLoaderHistogramRecord> loaderRecords = histogram.getClassLoaderHistogramRecords();
-        ClassLoaderHistogramRecord[] loaderArr = new ClassLoaderHistogramRecord[loaderRecords.size()];
-        i = 0;
-
-        for (ClassLoaderHistogramRecord record : loaderRecords)
-        {
-            long retainedSize = 0;
-            for (ClassHistogramRecord classRecord : record.getClassHistogramRecords())
-            {
-                retainedSize += classRecord.getRetainedHeapSize();
-            }
-
-            record.setRetainedHeapSize(retainedSize);
-            loaderArr[i++] = record;
-        }
-
-        return histogram;
-
-    }
-
-    private long sumRetainedSize(int[] objectIds, ISnapshot snapshot) throws SnapshotException
-    {
-        long sum = 0;
-        for (int id : objectIds)
-        {
-            sum += snapshot.getRetainedHeapSize(id);
-        }
-        return sum;
+        return result.toArray();
     }
 
     private AccumulationPoint findAccumulationPoint(int bigObjectId) throws SnapshotException
@@ -291,6 +294,9 @@ public class FindLeaksQuery implements IQuery
 
             while (parentRecord.getCount() > threshold)
             {
+                if (listener.isCanceled())
+                    throw new IProgressListener.OperationCanceledException();
+
                 // System.out.println("count: " + parentRecord.getCount());
                 commonPath.add(parentRecord.getObjectId());
 
@@ -363,19 +369,9 @@ public class FindLeaksQuery implements IQuery
             listener.worked(1);
         }
 
-        for (ClassHistogramRecord record : suspiciousClasses)
+        for (SuspectRecord r : buildSuspectRecordsGroupOfObjects(suspiciousClasses, listener))
         {
-            if (listener.isCanceled())
-                throw new IProgressListener.OperationCanceledException();
-
-            SuspectRecord r = buildSuspectRecordGroupOfObjects(record, /*
-                                                                        * (long)
-                                                                        * (
-                                                                        * threshold
-                                                                        * 0.7),
-                                                                        */new SilentProgressListener(listener));
             allSuspects[j++] = r;
-            listener.worked(1);
         }
 
         // Have single and group of suspects all arranged by size
@@ -384,6 +380,91 @@ public class FindLeaksQuery implements IQuery
         return new SuspectsResultTable(allSuspects, totalHeap);
     }
 
+    /**
+     * The paths from the GC roots for each group of objects are independent,
+     * so find them using several threads.
+     */
+    private List<SuspectRecord> buildSuspectRecordsGroupOfObjects(List<ClassHistogramRecord> suspiciousClasses,
+                    IProgressListener listener) throws SnapshotException
+    {
+        List<SuspectRecord> suspects = new ArrayList<SuspectRecord>(suspiciousClasses.size());
+        final IProgressListener silent = new SilentProgressListener(listener);
+        int threads = Math.min(suspiciousClasses.size(), Runtime.getRuntime().availableProcessors());
+        if (threads <= 1)
+        {
+            for (ClassHistogramRecord record : suspiciousClasses)
+            {
+                if (listener.isCanceled())
+                    throw new IProgressListener.OperationCanceledException();
+
+                suspects.add(buildSuspectRecordGroupOfObjects(record, silent));
+                listener.worked(1);
+            }
+            return suspects;
+        }
+
+        ExecutorService es = Executors.newFixedThreadPool(threads, task -> {
+            Thread t = new Thread(task, "MAT leak suspect paths"); //$NON-NLS-1$
+            t.setDaemon(true);
+            return t;
+        });
+        List<Future<SuspectRecord>> groups = new ArrayList<Future<SuspectRecord>>();
+        try
+        {
+            for (final ClassHistogramRecord record : suspiciousClasses)
+            {
+                groups.add(es.submit(new Callable<SuspectRecord>()
+                {
+                    public SuspectRecord call() throws SnapshotException
+                    {
+                        if (silent.isCanceled())
+                            throw new IProgressListener.OperationCanceledException();
+                        return buildSuspectRecordGroupOfObjects(record, silent);
+                    }
+                }));
+            }
+            for (Future<SuspectRecord> group : groups)
+            {
+                if (listener.isCanceled())
+                    throw new IProgressListener.OperationCanceledException();
+                try
+                {
+                    suspects.add(group.get());
+                }
+                catch (ExecutionException e)
+                {
+                    // No point finishing the other groups
+                    cancel(groups);
+                    Throwable cause = e.getCause();
+                    if (cause instanceof SnapshotException)
+                        throw (SnapshotException) cause;
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    if (cause instanceof Error)
+                        throw (Error) cause;
+                    throw new SnapshotException(cause);
+                }
+                catch (InterruptedException e)
+                {
+                    cancel(groups);
+                    throw new IProgressListener.OperationCanceledException();
+                }
+                listener.worked(1);
+            }
+            return suspects;
+        }
+        finally
+        {
+            es.shutdownNow();
+        }
+    }
+
+    private static void cancel(List<? extends Future<?>> futures)
+    {
+        for (Future<?> f : futures)
+            f.cancel(true);
+    }
+
     private int[] getRandomIds(int[] objectIds)
     {
         if (objectIds.length <= max_paths)
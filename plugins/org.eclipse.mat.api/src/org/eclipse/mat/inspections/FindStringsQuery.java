@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2023 SAP AG.
+ * Copyright (c) 2008, 2023 SAP AG and IBM Corporation.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -9,6 +9,7 @@
  *
  * Contributors:
  *    SAP AG - initial API and implementation
+ *    IBM Corporation - search using several threads
  *******************************************************************************/
 package org.eclipse.mat.inspections;
 
@@ -31,6 +32,7 @@ import org.eclipse.mat.snapshot.model.IClass;
 import org.eclipse.mat.snapshot.model.IObject;
 import org.eclipse.mat.snapshot.query.IHeapObjectArgument;
 import org.eclipse.mat.snapshot.query.ObjectListResult;
+import org.eclipse.mat.snapshot.query.ObjectScan;
 import org.eclipse.mat.util.IProgressListener;
 
 @CommandName("find_strings")
@@ -66,7 +68,6 @@ public class FindStringsQuery implements IQuery
 
     public IResult execute(IProgressListener listener) throws Exception
     {
-        boolean onlyStrings = false;
         ArrayInt result = new ArrayInt();
 
         Collection<IClass> classes = snapshot.getClassesByName("java.lang.String", false); //$NON-NLS-1$
@@ -98,46 +99,32 @@ public class FindStringsQuery implements IQuery
         {
             if (classes != null && !classes.isEmpty())
             {
-                IClass javaLangString = classes.iterator().next();
-                HeapObjectsTracker hot = new HeapObjectsTracker(objects);
-
-                listener.beginTask(Messages.FindStringsQuery_SearchingStrings, hot.totalWork());
-
-                ObjectsLoop: for (Iterator<int[]> it = objects.iterator(); it.hasNext();)
+                result = new ObjectScan<ArrayInt>(snapshot)
                 {
-                    int objectIds[] = it.next();
-                    hot.beginBlock(objectIds, !it.hasNext());
-                    for (int id : objectIds)
+                    protected ArrayInt createAccumulator()
                     {
-                        if (listener.isCanceled())
-                            break ObjectsLoop;
+                        return new ArrayInt();
+                    }
 
+                    protected void visit(ArrayInt found, int id) throws SnapshotException
+                    {
                         if (snapshot.isArray(id) || snapshot.isClass(id) || snapshot.isClassLoader(id))
-                        {
-                            listener.worked(hot.work());
-                            continue;
-                        }
-
-                        IObject instance = snapshot.getObject(id);
-                        // if (!classes.contains(instance.getClazz()))
-                        if (onlyStrings && !javaLangString.equals(instance.getClazz()))
-                        {
-                            listener.worked(hot.work());
-                            continue;
-                        }
+                            return;
+                        super.visit(found, id);
+                    }
 
+                    protected void visit(ArrayInt found, IObject instance)
+                    {
                         String value = instance.getClassSpecificName();
                         if (value != null && pattern.matcher(value).matches())
-                        {
-                            result.add(id);
-                        }
-
-                        listener.worked(hot.work());
+                            found.add(instance.getObjectId());
                     }
-                    listener.worked(hot.endBlock());
-                }
 
-                listener.done();
+                    protected void merge(ArrayInt found, ArrayInt other)
+                    {
+                        found.addAll(other);
+                    }
+                }.run(objects, Messages.FindStringsQuery_SearchingStrings, listener);
             }
         }
 
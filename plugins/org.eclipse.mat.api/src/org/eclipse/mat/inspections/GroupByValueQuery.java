@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2021 SAP AG.
+ * Copyright (c) 2008, 2023 SAP AG and IBM Corporation.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -9,11 +9,15 @@
  *
  * Contributors:
  *    SAP AG - initial API and implementation
+ *    IBM Corporation - read primitive fields from stored columns, group using several threads
  *******************************************************************************/
 package org.eclipse.mat.inspections;
 
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
 
+import org.eclipse.mat.SnapshotException;
 import org.eclipse.mat.internal.Messages;
 import org.eclipse.mat.query.IQuery;
 import org.eclipse.mat.query.IResult;
@@ -23,11 +27,15 @@ import org.eclipse.mat.query.annotations.CommandName;
 import org.eclipse.mat.query.annotations.HelpUrl;
 import org.eclipse.mat.query.annotations.Icon;
 import org.eclipse.mat.query.quantize.Quantize;
+import org.eclipse.mat.snapshot.IFieldColumns;
 import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.snapshot.model.IClass;
 import org.eclipse.mat.snapshot.model.IObject;
 import org.eclipse.mat.snapshot.query.IHeapObjectArgument;
+import org.eclipse.mat.snapshot.query.ObjectScan;
 import org.eclipse.mat.snapshot.query.RetainedSizeDerivedData;
 import org.eclipse.mat.util.IProgressListener;
+import org.eclipse.mat.util.SilentProgressListener;
 
 @CommandName("group_by_value")
 @Icon("/META-INF/icons/group_by_value.gif")
@@ -43,6 +51,9 @@ public class GroupByValueQuery implements IQuery
     @Argument(isMandatory = false)
     public String field;
 
+    /** A single field name, rather than a path or an attribute */
+    private static final Pattern FIELD_NAME = Pattern.compile("[\\p{javaJavaIdentifierStart}][\\p{javaJavaIdentifierPart}]*"); //$NON-NLS-1$
+
     public IResult execute(IProgressListener listener) throws Exception
     {
         Quantize quantize = Quantize.valueDistribution(Messages.GroupByValueQuery_Column_StringValue) //
@@ -52,26 +63,43 @@ public class GroupByValueQuery implements IQuery
                         .addDerivedData(RetainedSizeDerivedData.APPROXIMATE) //
                         .build();
 
-        HeapObjectsTracker hot = new HeapObjectsTracker(objects);
-
-        listener.beginTask(Messages.GroupByValueQuery_GroupingObjects, hot.totalWork());
+        // Primitive fields can be read from stored columns instead of each object
+        final IFieldColumns fieldColumns = field != null && FIELD_NAME.matcher(field).matches()
+                        ? snapshot.getSnapshotAddons(IFieldColumns.class) : null;
+        final Map<Integer, IFieldColumns.Column> columns = new HashMap<Integer, IFieldColumns.Column>();
 
-        boolean canceled = false;
-        for (Iterator<int[]> it = objects.iterator(); it.hasNext();)
+        quantize.merge(new ObjectScan<Quantize>(snapshot)
         {
-            int objectIds[] = it.next();
-            hot.beginBlock(objectIds, !it.hasNext());
-            for (int ii = 0; ii < objectIds.length; ii++)
+            protected Quantize createAccumulator()
+            {
+                return quantize.split();
+            }
+
+            protected void beginBlock(int[] objectIds, IProgressListener listener) throws SnapshotException
             {
-                if (listener.isCanceled())
+                if (fieldColumns != null)
+                    findColumns(fieldColumns, objectIds, columns, listener);
+            }
+
+            protected void visit(Quantize part, int objectId) throws SnapshotException
+            {
+                // Class objects resolve the name to a static field, so are read as objects
+                if (fieldColumns != null && !snapshot.isClass(objectId))
                 {
-                    canceled = true;
-                    break;
+                    IFieldColumns.Column column = columns.get(snapshot.getClassOf(objectId).getObjectId());
+                    if (column != null)
+                    {
+                        Object subject = column.getValue(column.indexOf(objectId));
+                        part.addValue(objectId, subject, null, snapshot.getHeapSize(objectId),
+                                        snapshot.getRetainedHeapSize(objectId));
+                        return;
+                    }
                 }
+                super.visit(part, objectId);
+            }
 
-                int objectId = objectIds[ii];
-                IObject object = snapshot.getObject(objectId);
-
+            protected void visit(Quantize part, IObject object) throws SnapshotException
+            {
                 Object subject = object;
                 if (field != null)
                     subject = object.resolveValue(field);
@@ -79,17 +107,47 @@ public class GroupByValueQuery implements IQuery
                 if (subject instanceof IObject)
                     subject = ((IObject) subject).getClassSpecificName();
 
-                quantize.addValue(objectId, subject, null, object.getUsedHeapSize(), object.getRetainedHeapSize());
-
-                listener.worked(hot.work());
+                part.addValue(object.getObjectId(), subject, null, object.getUsedHeapSize(), object.getRetainedHeapSize());
             }
-            if (canceled)
-                break;
-            listener.worked(hot.endBlock());
-        }
 
-        listener.done();
+            protected void merge(Quantize part, Quantize other)
+            {
+                part.merge(other);
+            }
+        }.run(objects, Messages.GroupByValueQuery_GroupingObjects, listener));
 
         return quantize.getResult();
     }
+
+    /**
+     * Find the columns for the field for the classes of a block of objects.
+     * A column is read from the heap dump if the block holds at least half of the
+     * instances of a class, otherwise only a stored column is used.
+     * Reference fields are not read from columns as the value is the class specific name
+     * of the referenced object.
+     * Class objects are not counted as the column for java.lang.Class does not hold their static fields.
+     */
+    private void findColumns(IFieldColumns fieldColumns, int[] objectIds, Map<Integer, IFieldColumns.Column> columns,
+                    IProgressListener listener) throws SnapshotException
+    {
+        Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        for (int objectId : objectIds)
+        {
+            if (snapshot.isClass(objectId))
+                continue;
+            Integer classId = snapshot.getClassOf(objectId).getObjectId();
+            if (!columns.containsKey(classId))
+                counts.merge(classId, 1, Integer::sum);
+        }
+        for (Map.Entry<Integer, Integer> e : counts.entrySet())
+        {
+            IClass type = (IClass) snapshot.getObject(e.getKey());
+            IFieldColumns.Column column = fieldColumns.findColumn(type, field);
+            if (column == null && e.getValue() * 2 >= type.getNumberOfObjects())
+                column = fieldColumns.getColumn(type, field, new SilentProgressListener(listener));
+            if (column != null && column.getType() == IObject.Type.OBJECT)
+                column = null;
+            columns.put(e.getKey(), column);
+        }
+    }
 }
@@ -10,6 +10,7 @@
  * Contributors:
  *    SAP AG - initial API and implementation
  *    Andrew Johnson - improve progress monitor checking
+ *    IBM Corporation - describe the suspects in parallel
  *******************************************************************************/
 package org.eclipse.mat.inspections;
 
@@ -25,6 +26,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -89,6 +94,7 @@ import org.eclipse.mat.util.HTMLUtils;
 import org.eclipse.mat.util.IProgressListener;
 import org.eclipse.mat.util.MessageUtil;
 import org.eclipse.mat.util.SimpleMonitor;
+import org.eclipse.mat.util.VoidProgressListener;
 
 import com.ibm.icu.text.NumberFormat;
 
@@ -100,7 +106,8 @@ public class LeakHunterQuery implements IQuery
 
     static final String SYSTEM_CLASSLOADER = Messages.LeakHunterQuery_SystemClassLoader;
 
-    // Use per-instance formatters to avoid thread safety problems
+    // Use per-instance formatters to avoid thread safety problems,
+    // and only in synchronized methods as the suspects are described in parallel
     NumberFormat percentFormatter;
     {
         // Use com.ibm.icu
@@ -139,7 +146,7 @@ public class LeakHunterQuery implements IQuery
          */
         SimpleMonitor monitor = new SimpleMonitor(
                         Messages.LeakHunterQuery_ProgressName, listener,
-                        new int[] { 30, 70 });
+                        new int[] { 30, 50, 20 });
 
         /* call find_leaks */
         listener.subTask(Messages.LeakHunterQuery_FindingProblemSuspects);
@@ -151,17 +158,6 @@ public class LeakHunterQuery implements IQuery
 
         if (leakSuspects.length > 0)
         {
-            /**
-             * Find Leaks
-             */
-            int ticks2[] = new int[leakSuspects.length + 1];
-            for (int i = 0; i < leakSuspects.length - 1; ++i)
-            {
-                ticks2[i] = 100;
-            }
-            ticks2[leakSuspects.length] = 50;
-            SimpleMonitor monitor2 = new SimpleMonitor(Messages.LeakHunterQuery_ProgressName, monitor.nextMonitor(),
-                            ticks2);
             PieFactory pie = new PieFactory(snapshot);
             for (int num = 0; num < leakSuspects.length; num++)
             {
@@ -171,43 +167,98 @@ public class LeakHunterQuery implements IQuery
             }
             result.add(new QuerySpec(Messages.LeakHunterQuery_Overview, pie.build()));
 
+            /*
+             * Describe the suspects using a few threads. The report waits for each
+             * description in turn, so can show the first suspects while the others
+             * are still being described.
+             */
+            int threads = Math.min(leakSuspects.length, Runtime.getRuntime().availableProcessors());
+            ExecutorService es = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "MAT leak suspect description"); //$NON-NLS-1$
+                t.setDaemon(true);
+                return t;
+            });
+            // if the report stops waiting for one description then cancel them all
+            final DescriptionProgress background = new DescriptionProgress(monitor.nextMonitor(), leakSuspects.length);
+            List<FutureTask<IResult>> descriptions = new ArrayList<FutureTask<IResult>>();
             HashMap<Integer, List<Integer>> accPoint2ProblemNr = new HashMap<Integer, List<Integer>>();
             int problemNum = 0;
-            for (SuspectRecord rec : leakSuspects)
+            boolean done = false;
+            try
             {
-                problemNum++;
-
-                AccumulationPoint ap = rec.getAccumulationPoint();
-                if (ap != null)
+                for (final SuspectRecord rec : leakSuspects)
                 {
-                    List<Integer> numbers = accPoint2ProblemNr.get(ap.getObject().getObjectId());
-                    if (numbers == null)
+                    problemNum++;
+
+                    AccumulationPoint ap = rec.getAccumulationPoint();
+                    if (ap != null)
                     {
-                        numbers = new ArrayList<Integer>(2);
-                        accPoint2ProblemNr.put(ap.getObject().getObjectId(), numbers);
+                        List<Integer> numbers = accPoint2ProblemNr.get(ap.getObject().getObjectId());
+                        if (numbers == null)
+                        {
+                            numbers = new ArrayList<Integer>(2);
+                            accPoint2ProblemNr.put(ap.getObject().getObjectId(), numbers);
+                        }
+                        numbers.add(problemNum);
                     }
-                    numbers.add(problemNum);
-                }
 
-                CompositeResult suspectDetails = getLeakSuspectDescription(rec, monitor2.nextMonitor());
-                suspectDetails.setStatus(ITestResult.Status.ERROR);
+                    FutureTask<IResult> suspectDetails = new FutureTask<IResult>(new Callable<IResult>()
+                    {
+                        public IResult call() throws SnapshotException
+                        {
+                            if (background.isCanceled())
+                                throw new IProgressListener.OperationCanceledException();
+                            CompositeResult details = getLeakSuspectDescription(rec, background);
+                            details.setStatus(ITestResult.Status.ERROR);
+                            background.finished();
+                            return details;
+                        }
+                    })
+                    {
+                        @Override
+                        public boolean cancel(boolean mayInterruptIfRunning)
+                        {
+                            background.setCanceled(true);
+                            return super.cancel(mayInterruptIfRunning);
+                        }
+                    };
+                    descriptions.add(suspectDetails);
+                    es.execute(suspectDetails);
+
+                    QuerySpec spec = new QuerySpec(MessageUtil.format(Messages.LeakHunterQuery_ProblemSuspect, problemNum));
+                    spec.setPendingResult(suspectDetails);
+                    spec.set(Params.Rendering.PATTERN, Params.Rendering.PATTERN_OVERVIEW_DETAILS);
+                    spec.set(Params.Html.IS_IMPORTANT, Boolean.TRUE.toString());
+                    result.add(spec);
+                }
+                // the descriptions are all errors, so the section is too
+                result.setStatus(ITestResult.Status.ERROR);
 
-                QuerySpec spec = new QuerySpec(MessageUtil.format(Messages.LeakHunterQuery_ProblemSuspect, problemNum));
-                spec.setResult(suspectDetails);
-                spec.set(Params.Rendering.PATTERN, Params.Rendering.PATTERN_OVERVIEW_DETAILS);
-                spec.set(Params.Html.IS_IMPORTANT, Boolean.TRUE.toString());
-                result.add(spec);
+                // give hints for problems which could be related
+                List<CompositeResult> hints = findCommonPathForSuspects(accPoint2ProblemNr, monitor.nextMonitor());
+                for (int k = 0; k < hints.size(); k++)
+                {
+                    QuerySpec spec = new QuerySpec(MessageUtil.format(Messages.LeakHunterQuery_Hint, (k + 1)));
+                    spec.setResult(hints.get(k));
+                    spec.set(Params.Rendering.PATTERN, Params.Rendering.PATTERN_OVERVIEW_DETAILS);
+                    spec.set(Params.Html.IS_IMPORTANT, Boolean.TRUE.toString());
+                    result.add(spec);
+                }
+                if (listener.isCanceled())
+                    throw new IProgressListener.OperationCanceledException();
+                done = true;
             }
-
-            // give hints for problems which could be related
-            List<CompositeResult> hints = findCommonPathForSuspects(accPoint2ProblemNr, monitor2.nextMonitor());
-            for (int k = 0; k < hints.size(); k++)
+            finally
             {
-                QuerySpec spec = new QuerySpec(MessageUtil.format(Messages.LeakHunterQuery_Hint, (k + 1)));
-                spec.setResult(hints.get(k));
-                spec.set(Params.Rendering.PATTERN, Params.Rendering.PATTERN_OVERVIEW_DETAILS);
-                spec.set(Params.Html.IS_IMPORTANT, Boolean.TRUE.toString());
-                result.add(spec);
+                // nobody will wait for the descriptions if the query fails
+                if (!done)
+                {
+                    for (FutureTask<IResult> description : descriptions)
+                        description.cancel(false);
+                }
+                background.stopReporting();
+                // the threads end once the descriptions are finished
+                es.shutdown();
             }
         }
 
@@ -665,7 +716,7 @@ public class LeakHunterQuery implements IQuery
 
         String classloaderName = getClassLoaderName(classloader, keywords);
 
-        String numberOfInstances = numberFormatter.format(suspect.getSuspectInstances().length);
+        String numberOfInstances = formatNumber(suspect.getSuspectInstances().length);
         builder.append(MessageUtil.format(Messages.LeakHunterQuery_Msg_InstancesOccupy, numberOfInstances, HTMLUtils.escapeText(className),
                         classloaderName, formatRetainedHeap(suspect.getSuspectRetained(), totalHeap)));
 
@@ -1132,7 +1183,12 @@ public class LeakHunterQuery implements IQuery
         return "0x" + Long.toHexString(ic.getObjectAddress()); //$NON-NLS-1$
     }
 
-    private String formatRetainedHeap(long retained, long totalHeap)
+    private synchronized String formatNumber(long number)
+    {
+        return numberFormatter.format(number);
+    }
+
+    private synchronized String formatRetainedHeap(long retained, long totalHeap)
     {
         return bytesFormatter.format(retained) + " (" //$NON-NLS-1$
                         + percentFormatter.format((double) retained / (double) totalHeap) + ")"; //$NON-NLS-1$
@@ -1894,4 +1950,63 @@ public class LeakHunterQuery implements IQuery
         return -1;
     }
 
+    /**
+     * Progress of the suspect descriptions running on other threads.
+     * Each finished description is reported to the query's listener until the query returns,
+     * as the report then waits for the descriptions with its own listener.
+     * The descriptions are canceled if the query's listener is canceled
+     * or the report stops waiting for one of them.
+     */
+    private static class DescriptionProgress implements IProgressListener
+    {
+        private final IProgressListener delegate;
+        private volatile boolean canceled;
+        private boolean reporting = true;
+
+        DescriptionProgress(IProgressListener delegate, int suspects)
+        {
+            this.delegate = delegate;
+            delegate.beginTask(Messages.LeakHunterQuery_ProgressName, suspects);
+        }
+
+        synchronized void finished()
+        {
+            if (reporting)
+                delegate.worked(1);
+        }
+
+        synchronized void stopReporting()
+        {
+            if (reporting)
+                delegate.done();
+            reporting = false;
+        }
+
+        public void beginTask(String name, int totalWork)
+        {}
+
+        public void subTask(String name)
+        {}
+
+        public void worked(int work)
+        {}
+
+        public void done()
+        {}
+
+        public boolean isCanceled()
+        {
+            return canceled || delegate.isCanceled();
+        }
+
+        public void setCanceled(boolean value)
+        {
+            canceled = value;
+        }
+
+        public synchronized void sendUserMessage(Severity severity, String message, Throwable exception)
+        {
+            delegate.sendUserMessage(severity, message, exception);
+        }
+    }
 }
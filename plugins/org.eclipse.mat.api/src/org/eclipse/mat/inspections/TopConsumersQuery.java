@@ -10,6 +10,7 @@
  * Contributors:
  *    SAP AG - initial API and implementation
  *    Andrew Johnson/IBM Corporation - add icon
+ *    IBM Corporation - summary of the top-level dominators
  *******************************************************************************/
 package org.eclipse.mat.inspections;
 
@@ -115,12 +116,7 @@ public class TopConsumersQuery implements IQuery
         ArrayInt suspects = new ArrayInt();
         if (objects == null || objects.length == 0) // nothing specified
         {
-            int i = 0;
-            while (i < topDominators.length && snapshot.getRetainedHeapSize(topDominators[i]) > threshold)
-            {
-                suspects.add(topDominators[i]);
-                i++;
-            }
+            suspects.addAll(snapshot.getBiggestRetainedIds(null, Integer.MAX_VALUE, threshold + 1, listener));
         }
         else
         {
@@ -135,7 +131,9 @@ public class TopConsumersQuery implements IQuery
             throw new IProgressListener.OperationCanceledException();
 
         listener = monitor.nextMonitor();
-        Histogram histogram = groupByClasses(topDominators, listener);
+        // the totals for the top-level dominators are stored with the dominator tree
+        Histogram histogram = objects == null ? snapshot.getTopDominatorsHistogram(listener)
+                        : groupByClasses(topDominators, listener);
 
         // find suspect classes
         ClassHistogramRecord[] classRecords = histogram.getClassHistogramRecords().toArray(new ClassHistogramRecord[0]);
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2021 SAP AG, IBM Corporation and others
+ * Copyright (c) 2008, 2023 SAP AG, IBM Corporation and others
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -11,11 +11,10 @@
  *    SAP AG - initial API and implementation
  *    IBM Corporation - enhancements and fixes
  *    James Livingston - expose collection utils as API
+ *    IBM Corporation - extract using several threads
  *******************************************************************************/
 package org.eclipse.mat.inspections.collections;
 
-import java.util.Arrays;
-
 import org.eclipse.mat.SnapshotException;
 import org.eclipse.mat.collect.ArrayInt;
 import org.eclipse.mat.collect.ArrayIntBig;
@@ -35,66 +34,24 @@ import org.eclipse.mat.internal.Messages;
 import org.eclipse.mat.query.quantize.Quantize;
 import org.eclipse.mat.snapshot.ISnapshot;
 import org.eclipse.mat.snapshot.SnapshotInfo;
-import org.eclipse.mat.snapshot.model.IClass;
 import org.eclipse.mat.snapshot.model.IObject;
 import org.eclipse.mat.snapshot.model.IObjectArray;
 import org.eclipse.mat.util.IProgressListener;
-import org.eclipse.mat.util.MessageUtil;
 
 public class AbstractFillRatioQuery
 {
-    private static class Result
-    {
-        final double fill;
-        final long used;
-        final long wasted;
-        public Result(double fill, long used, long wasted)
-        {
-            this.fill = fill;
-            this.used = used;
-            this.wasted = wasted;
-        }
-    }
-
     protected void runQuantizer(IProgressListener listener, Quantize quantize, ICollectionExtractor specificExtractor,
-                    String specificClass, ISnapshot snapshot, Iterable<int[]> objects, String msg) throws SnapshotException
+                    final String specificClass, ISnapshot snapshot, Iterable<int[]> objects, String msg) throws SnapshotException
     {
         SnapshotInfo info = snapshot.getSnapshotInfo();
         final int refsize = info.getIdentifierSize() == 8
                         && Boolean.TRUE.equals((Boolean) info.getProperty("$useCompressedOops")) //$NON-NLS-1$
                                         ? 4
                                         : info.getIdentifierSize();
-        final long LIMIT = 20;
-        HashMapIntLong exceptions = new HashMapIntLong();
-        int counter = 0;
-        IClass type = null;
-        for (int[] objectIds : objects)
+        CollectionValues values = new CollectionValues.Scan(snapshot, quantize)
         {
-            HashMapIntObject<Result> resultMap = null;
-            int sortedObjs[] = objectIds;
-            int prev = Integer.MIN_VALUE;
-            for (int objectId : objectIds)
+            protected void visit(CollectionValues values, IObject obj) throws SnapshotException
             {
-                if (objectId < prev)
-                {
-                    sortedObjs = objectIds.clone();
-                    Arrays.sort(sortedObjs);
-                    resultMap = new HashMapIntObject<Result>();
-                    break;
-                }
-                prev = objectId;
-            }
-            for (int objectId : sortedObjs)
-            {
-                if (listener.isCanceled())
-                    break;
-
-                IObject obj = snapshot.getObject(objectId);
-                if (counter++ % 1000 == 0 && !obj.getClazz().equals(type))
-                {
-                    type = obj.getClazz();
-                    listener.subTask(msg + "\n" + type.getName()); //$NON-NLS-1$
-                }
                 try
                 {
                     AbstractExtractedCollection<?, ?> coll = CollectionExtractionUtils.extractCollection(obj, specificClass,
@@ -161,44 +118,17 @@ public class AbstractFillRatioQuery
                                     }
                                 }
                             }
-                            if (resultMap != null)
-                                resultMap.put(objectId, new Result(fillRatio, coll.getUsedHeapSize(),wasted));
-                            else
-                                quantize.addValue(objectId, fillRatio, 1, coll.getUsedHeapSize(), wasted);
+                            values.add(obj.getObjectId(), fillRatio, 1, coll.getUsedHeapSize(), wasted);
                         }
                     }
                 }
                 catch (RuntimeException e)
                 {
-                    int classId = obj.getClazz().getObjectId();
-                    if (!exceptions.containsKey(classId))
-                    {
-                        exceptions.put(classId, 0);
-                    }
-                    long c =  exceptions.get(classId);
-                    exceptions.put(classId, c + 1);
-                    if (c < LIMIT)
-                    {
-                        listener.sendUserMessage(
-                                        IProgressListener.Severity.INFO,
-                                        MessageUtil.format(Messages.CollectionFillRatioQuery_IgnoringCollection,
-                                                        obj.getTechnicalName()), e);
-                    }
-                }
-            }
-            if (resultMap != null)
-            {
-                for (int objectId : objectIds)
-                {
-                    if (resultMap.containsKey(objectId))
-                    {
-                        Result r = resultMap.get(objectId);
-                        quantize.addValue(objectId, r.fill, 1, r.used, r.wasted);
-                    }
+                    values.fail(obj, e);
                 }
             }
-            if (listener.isCanceled())
-                break;
-        }
+        }.run(objects, msg, listener);
+        values.addTo(quantize);
+        values.report(snapshot, listener, Messages.CollectionFillRatioQuery_IgnoringCollection);
     }
 }
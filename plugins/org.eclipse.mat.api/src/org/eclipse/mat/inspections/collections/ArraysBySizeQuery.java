@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2021 SAP AG and IBM Corporation.
+ * Copyright (c) 2008, 2023 SAP AG and IBM Corporation.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -10,12 +10,11 @@
  * Contributors:
  *    SAP AG - initial API and implementation
  *    IBM Corporation - enhancements and fixes
+ *    IBM Corporation - extract using several threads
  *******************************************************************************/
 package org.eclipse.mat.inspections.collections;
 
-import java.util.Arrays;
-
-import org.eclipse.mat.collect.HashMapIntObject;
+import org.eclipse.mat.SnapshotException;
 import org.eclipse.mat.internal.Messages;
 import org.eclipse.mat.query.Bytes;
 import org.eclipse.mat.query.Column;
@@ -30,9 +29,9 @@ import org.eclipse.mat.query.quantize.Quantize;
 import org.eclipse.mat.snapshot.ISnapshot;
 import org.eclipse.mat.snapshot.extension.Subjects;
 import org.eclipse.mat.snapshot.model.IArray;
-import org.eclipse.mat.snapshot.model.IClass;
 import org.eclipse.mat.snapshot.model.IObject;
 import org.eclipse.mat.snapshot.query.IHeapObjectArgument;
+import org.eclipse.mat.snapshot.query.ObjectScan;
 import org.eclipse.mat.snapshot.query.RetainedSizeDerivedData;
 import org.eclipse.mat.util.IProgressListener;
 
@@ -49,17 +48,6 @@ public class ArraysBySizeQuery implements IQuery
     @Argument(flag = Argument.UNFLAGGED)
     public IHeapObjectArgument objects;
 
-    private static class Result
-    {
-        final int len;
-        final long size;
-        public Result(int len, long size)
-        {
-            this.len = len;
-            this.size = size;
-        }
-    }
-
     public IResult execute(IProgressListener listener) throws Exception
     {
         listener.subTask(Messages.ArraysBySizeQuery_ExtractingArraySizes);
@@ -73,60 +61,31 @@ public class ArraysBySizeQuery implements IQuery
         builder.addDerivedData(RetainedSizeDerivedData.APPROXIMATE);
         Quantize quantize = builder.build();
 
-        int counter = 0;
-        IClass type = null;
-        for (int[] objectIds : objects)
+        quantize.merge(new ObjectScan<Quantize>(snapshot)
         {
-            HashMapIntObject<Result> resultMap = null;
-            int sortedObjs[] = objectIds;
-            int prev = Integer.MIN_VALUE;
-            for (int objectId : objectIds)
+            protected Quantize createAccumulator()
             {
-                if (objectId < prev)
-                {
-                    sortedObjs = objectIds.clone();
-                    Arrays.sort(sortedObjs);
-                    resultMap = new HashMapIntObject<Result>();
-                    break;
-                }
-                prev = objectId;
+                return quantize.split();
             }
-            for (int objectId : sortedObjs)
-            {
-                if (listener.isCanceled())
-                    break;
 
-                if (!snapshot.isArray(objectId))
-                    continue;
-                
-                if (counter++ % 1000 == 0 && snapshot.getClassOf(objectId).equals(type))
-                {
-                    type = snapshot.getClassOf(objectId);
-                    listener.subTask(Messages.ArraysBySizeQuery_ExtractingArraySizes + "\n" + type.getName()); //$NON-NLS-1$
-                }
+            protected void visit(Quantize part, int objectId) throws SnapshotException
+            {
+                if (snapshot.isArray(objectId))
+                    super.visit(part, objectId);
+            }
 
-                IObject obj = snapshot.getObject(objectId);
+            protected void visit(Quantize part, IObject obj) throws SnapshotException
+            {
                 int len = (obj instanceof IArray) ? ((IArray)obj).getLength() : 0;
-                long size = snapshot.getHeapSize(objectId);
-                if (resultMap != null)
-                    resultMap.put(objectId, new Result(len, size));
-                else
-                    quantize.addValue(objectId, len, size, null, size);
+                long size = snapshot.getHeapSize(obj.getObjectId());
+                part.addValue(obj.getObjectId(), len, size, null, size);
             }
-            if (resultMap != null)
+
+            protected void merge(Quantize part, Quantize other)
             {
-                for (int objectId : objectIds)
-                {
-                    if (resultMap.containsKey(objectId))
-                    {
-                        Result r = resultMap.get(objectId);
-                        quantize.addValue(objectId, r.len, r.size, null, r.size);
-                    }
-                }
+                part.merge(other);
             }
-            if (listener.isCanceled())
-                break;
-        }
+        }.run(objects, Messages.ArraysBySizeQuery_ExtractingArraySizes, listener));
         return quantize.getResult();
     }
 }
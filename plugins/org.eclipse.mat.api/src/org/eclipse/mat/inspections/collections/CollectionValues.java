@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.inspections.collections;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.collect.ArrayInt;
+import org.eclipse.mat.collect.HashMapIntLong;
+import org.eclipse.mat.query.quantize.Quantize;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.snapshot.model.IObject;
+import org.eclipse.mat.snapshot.query.ObjectScan;
+import org.eclipse.mat.util.IProgressListener;
+import org.eclipse.mat.util.MessageUtil;
+
+/**
+ * The values found for collections by an {@link ObjectScan} as part of a distribution,
+ * together with the collections which could not be extracted.
+ * The problems are reported once the scan is complete, as only a few for each class
+ * are worth reporting.
+ */
+class CollectionValues
+{
+    private static final long LIMIT = 20;
+
+    private final Quantize part;
+
+    /** Problems for each class seen by this accumulator */
+    private final HashMapIntLong exceptions = new HashMapIntLong();
+    private final ArrayInt failedIds = new ArrayInt();
+    private final List<Exception> failures = new ArrayList<Exception>();
+
+    CollectionValues(Quantize part)
+    {
+        this.part = part;
+    }
+
+    /**
+     * Add the values for a collection.
+     * @param objectId the collection
+     * @param values the values, as for {@link Quantize#addValue(int, Object...)}
+     * @throws SnapshotException if there is a problem adding the values
+     */
+    void add(int objectId, Object... values) throws SnapshotException
+    {
+        part.addValue(objectId, values);
+    }
+
+    /**
+     * Record a collection which could not be extracted.
+     * @param obj the collection
+     * @param e the problem
+     */
+    void fail(IObject obj, Exception e)
+    {
+        int classId = obj.getClazz().getObjectId();
+        long c = exceptions.containsKey(classId) ? exceptions.get(classId) : 0;
+        exceptions.put(classId, c + 1);
+        if (c < LIMIT)
+        {
+            failedIds.add(obj.getObjectId());
+            failures.add(e);
+        }
+    }
+
+    void addAll(CollectionValues other)
+    {
+        part.merge(other.part);
+        failedIds.addAll(other.failedIds);
+        failures.addAll(other.failures);
+    }
+
+    /**
+     * Add the values to the whole distribution.
+     * @param quantize the distribution this is a part of
+     */
+    void addTo(Quantize quantize)
+    {
+        quantize.merge(part);
+    }
+
+    /**
+     * Report the first few problems for each class.
+     * @param snapshot the snapshot holding the collections
+     * @param listener to report the problems
+     * @param message the message for a collection, with the name of the collection as the argument
+     * @throws SnapshotException if there is a problem reading a collection
+     */
+    void report(ISnapshot snapshot, IProgressListener listener, String message) throws SnapshotException
+    {
+        HashMapIntLong reported = new HashMapIntLong();
+        for (int i = 0; i < failedIds.size(); ++i)
+        {
+            IObject obj = snapshot.getObject(failedIds.get(i));
+            int classId = obj.getClazz().getObjectId();
+            long c = reported.containsKey(classId) ? reported.get(classId) : 0;
+            reported.put(classId, c + 1);
+            if (c < LIMIT)
+            {
+                listener.sendUserMessage(IProgressListener.Severity.INFO,
+                                MessageUtil.format(message, obj.getTechnicalName()), failures.get(i));
+            }
+        }
+    }
+
+    /**
+     * A scan of collections, each range of objects collecting its own values.
+     */
+    static abstract class Scan extends ObjectScan<CollectionValues>
+    {
+        private final Quantize quantize;
+
+        Scan(ISnapshot snapshot, Quantize quantize)
+        {
+            super(snapshot);
+            this.quantize = quantize;
+        }
+
+        protected CollectionValues createAccumulator()
+        {
+            return new CollectionValues(quantize.split());
+        }
+
+        protected void merge(CollectionValues values, CollectionValues other)
+        {
+            values.addAll(other);
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2021 SAP AG, IBM Corporation and others
+ * Copyright (c) 2008, 2023 SAP AG, IBM Corporation and others
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -11,14 +11,11 @@
  *    SAP AG - initial API and implementation
  *    IBM Corporation - enhancements and fixes
  *    James Livingston - expose collection utils as API
+ *    IBM Corporation - extract using several threads
  *******************************************************************************/
 package org.eclipse.mat.inspections.collections;
 
-import java.util.Arrays;
-
 import org.eclipse.mat.SnapshotException;
-import org.eclipse.mat.collect.HashMapIntLong;
-import org.eclipse.mat.collect.HashMapIntObject;
 import org.eclipse.mat.inspections.collectionextract.AbstractExtractedCollection;
 import org.eclipse.mat.inspections.collectionextract.CollectionExtractionUtils;
 import org.eclipse.mat.inspections.collectionextract.ICollectionExtractor;
@@ -35,12 +32,10 @@ import org.eclipse.mat.query.annotations.Icon;
 import org.eclipse.mat.query.quantize.Quantize;
 import org.eclipse.mat.snapshot.ISnapshot;
 import org.eclipse.mat.snapshot.extension.Subjects;
-import org.eclipse.mat.snapshot.model.IClass;
 import org.eclipse.mat.snapshot.model.IObject;
 import org.eclipse.mat.snapshot.query.IHeapObjectArgument;
 import org.eclipse.mat.snapshot.query.RetainedSizeDerivedData;
 import org.eclipse.mat.util.IProgressListener;
-import org.eclipse.mat.util.MessageUtil;
 
 @CommandName("collections_grouped_by_size")
 @Icon("/META-INF/icons/collection_size.gif")
@@ -146,51 +141,13 @@ public class CollectionsBySizeQuery implements IQuery
         return quantize.getResult();
     }
 
-    private static class Result
-    {
-        final int size;
-        final long used;
-        public Result(int size, long used)
-        {
-            this.size = size;
-            this.used = used;
-        }
-    }
-    private void runQuantizer(IProgressListener listener, Quantize quantize, ICollectionExtractor specificExtractor,
-                    String specificClass) throws SnapshotException
+    private void runQuantizer(IProgressListener listener, Quantize quantize, final ICollectionExtractor specificExtractor,
+                    final String specificClass) throws SnapshotException
     {
-
-        final long LIMIT = 20;
-        HashMapIntLong exceptions = new HashMapIntLong();
-        int counter = 0;
-        IClass type = null;
-        for (int[] objectIds : objects)
+        CollectionValues values = new CollectionValues.Scan(snapshot, quantize)
         {
-            HashMapIntObject<Result> resultMap = null;
-            int sortedObjs[] = objectIds;
-            int prev = Integer.MIN_VALUE;
-            for (int objectId : objectIds)
+            protected void visit(CollectionValues values, IObject obj) throws SnapshotException
             {
-                if (objectId < prev)
-                {
-                    sortedObjs = objectIds.clone();
-                    Arrays.sort(sortedObjs);
-                    resultMap = new HashMapIntObject<Result>();
-                    break;
-                }
-                prev = objectId;
-            }
-            for (int objectId : sortedObjs)
-            {
-                if (listener.isCanceled())
-                    break;
-
-                IObject obj = snapshot.getObject(objectId);
-                if (counter++ % 1000 == 0 && !obj.getClazz().equals(type))
-                {
-                    type = obj.getClazz();
-                    listener.subTask(Messages.CollectionsBySizeQuery_CollectingSizes + "\n" + type.getName()); //$NON-NLS-1$
-                }
                 try
                 {
                     AbstractExtractedCollection<?, ?> coll = CollectionExtractionUtils.extractCollection(obj, specificClass,
@@ -199,45 +156,16 @@ public class CollectionsBySizeQuery implements IQuery
                     {
                         Integer size = coll.size();
                         if (size != null)
-                        {
-                            if (resultMap != null)
-                                resultMap.put(objectId, new Result(size, coll.getUsedHeapSize()));
-                            else
-                                quantize.addValue(objectId, size, null, coll.getUsedHeapSize());
-                        }
+                            values.add(obj.getObjectId(), size, null, coll.getUsedHeapSize());
                     }
                 }
                 catch (RuntimeException e)
                 {
-                    int classId = obj.getClazz().getObjectId();
-                    if (!exceptions.containsKey(classId))
-                    {
-                        exceptions.put(classId, 0);
-                    }
-                    long c =  exceptions.get(classId);
-                    exceptions.put(classId, c + 1);
-                    if (c < LIMIT)
-                    {
-                        listener.sendUserMessage(
-                                        IProgressListener.Severity.INFO,
-                                        MessageUtil.format(Messages.CollectionsBySizeQuery_IgnoringCollection,
-                                                        obj.getTechnicalName()), e);
-                    }
-                }
-            }
-            if (resultMap != null)
-            {
-                for (int objectId : objectIds)
-                {
-                    if (resultMap.containsKey(objectId))
-                    {
-                        Result r = resultMap.get(objectId);
-                        quantize.addValue(objectId, r.size, null, r.used);
-                    }
+                    values.fail(obj, e);
                 }
             }
-            if (listener.isCanceled())
-                break;
-        }
+        }.run(objects, Messages.CollectionsBySizeQuery_CollectingSizes, listener);
+        values.addTo(quantize);
+        values.report(snapshot, listener, Messages.CollectionsBySizeQuery_IgnoringCollection);
     }
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2021 SAP AG, IBM Corporation and others
+ * Copyright (c) 2008, 2023 SAP AG, IBM Corporation and others
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -11,14 +11,11 @@
  *    SAP AG - initial API and implementation
  *    IBM Corporation - enhancements and fixes
  *    James Livingston - expose collection utils as API
+ *    IBM Corporation - extract using several threads
  *******************************************************************************/
 package org.eclipse.mat.inspections.collections;
 
-import java.util.Arrays;
-
 import org.eclipse.mat.SnapshotException;
-import org.eclipse.mat.collect.HashMapIntLong;
-import org.eclipse.mat.collect.HashMapIntObject;
 import org.eclipse.mat.inspections.collectionextract.CollectionExtractionUtils;
 import org.eclipse.mat.inspections.collectionextract.ExtractedMap;
 import org.eclipse.mat.inspections.collectionextract.IMapExtractor;
@@ -33,12 +30,10 @@ import org.eclipse.mat.query.annotations.Icon;
 import org.eclipse.mat.query.quantize.Quantize;
 import org.eclipse.mat.snapshot.ISnapshot;
 import org.eclipse.mat.snapshot.extension.Subjects;
-import org.eclipse.mat.snapshot.model.IClass;
 import org.eclipse.mat.snapshot.model.IObject;
 import org.eclipse.mat.snapshot.query.IHeapObjectArgument;
 import org.eclipse.mat.snapshot.query.RetainedSizeDerivedData;
 import org.eclipse.mat.util.IProgressListener;
-import org.eclipse.mat.util.MessageUtil;
 
 @CommandName("map_collision_ratio")
 @Icon("/META-INF/icons/map_collision.gif")
@@ -92,16 +87,6 @@ public class MapCollisionRatioQuery implements IQuery
     @Argument(isMandatory = false)
     public String array_attribute;
 
-    private static class Result
-    {
-        final double ratio;
-        final long used;
-        public Result(double ratio, long used)
-        {
-            this.ratio = ratio;
-            this.used = used;
-        }
-    }
     public IResult execute(IProgressListener listener) throws Exception
     {
         listener.subTask(Messages.MapCollisionRatioQuery_CalculatingCollisionRatios);
@@ -114,38 +99,11 @@ public class MapCollisionRatioQuery implements IQuery
         builder.addDerivedData(RetainedSizeDerivedData.APPROXIMATE);
         Quantize quantize = builder.build();
 
-        IMapExtractor specificExtractor = new HashMapCollectionExtractor(size_attribute, array_attribute, null, null);
-        final long LIMIT = 20;
-        HashMapIntLong exceptions = new HashMapIntLong();
-        int counter = 0;
-        IClass type = null;
-        for (int[] objectIds : objects)
+        final IMapExtractor specificExtractor = new HashMapCollectionExtractor(size_attribute, array_attribute, null, null);
+        CollectionValues values = new CollectionValues.Scan(snapshot, quantize)
         {
-            HashMapIntObject<Result> resultMap = null;
-            int sortedObjs[] = objectIds;
-            int prev = Integer.MIN_VALUE;
-            for (int objectId : objectIds)
+            protected void visit(CollectionValues values, IObject obj)
             {
-                if (objectId < prev)
-                {
-                    sortedObjs = objectIds.clone();
-                    Arrays.sort(sortedObjs);
-                    resultMap = new HashMapIntObject<Result>();
-                    break;
-                }
-                prev = objectId;
-            }
-            for (int objectId : sortedObjs)
-            {
-                if (listener.isCanceled())
-                    break;
-
-                IObject obj = snapshot.getObject(objectId);
-                if (counter++ % 1000 == 0 && !obj.getClazz().equals(type))
-                {
-                    type = obj.getClazz();
-                    listener.subTask(Messages.MapCollisionRatioQuery_CalculatingCollisionRatios + "\n" + type.getName()); //$NON-NLS-1$
-                }
                 try
                 {
                     ExtractedMap coll = CollectionExtractionUtils.extractMap(obj, collection, specificExtractor);
@@ -161,45 +119,18 @@ public class MapCollisionRatioQuery implements IQuery
                             Double collisionRatio = coll.getCollisionRatio();
                             if (collisionRatio == null)
                                 collisionRatio = 0.0;
-                            if (resultMap != null)
-                                resultMap.put(objectId, new Result(collisionRatio, coll.getUsedHeapSize()));
-                            else
-                                quantize.addValue(objectId, collisionRatio, null, coll.getUsedHeapSize());
+                            values.add(obj.getObjectId(), collisionRatio, null, coll.getUsedHeapSize());
                         }
                     }
                 }
                 catch (RuntimeException | SnapshotException e)
                 {
-                    int classId = obj.getClazz().getObjectId();
-                    if (!exceptions.containsKey(classId))
-                    {
-                        exceptions.put(classId, 0);
-                    }
-                    long c =  exceptions.get(classId);
-                    exceptions.put(classId, c + 1);
-                    if (c < LIMIT)
-                    {
-                        listener.sendUserMessage(
-                                        IProgressListener.Severity.INFO,
-                                        MessageUtil.format(Messages.MapCollisionRatioQuery_IgnoringCollection,
-                                                        obj.getTechnicalName()), e);
-                    }
-                }
-            }
-            if (resultMap != null)
-            {
-                for (int objectId : objectIds)
-                {
-                    if (resultMap.containsKey(objectId))
-                    {
-                        Result r = resultMap.get(objectId);
-                        quantize.addValue(objectId, r.ratio, null, r.used);
-                    }
+                    values.fail(obj, e);
                 }
             }
-            if (listener.isCanceled())
-                break;
-        }
+        }.run(objects, Messages.MapCollisionRatioQuery_CalculatingCollisionRatios, listener);
+        values.addTo(quantize);
+        values.report(snapshot, listener, Messages.MapCollisionRatioQuery_IgnoringCollection);
 
         return quantize.getResult();
     }
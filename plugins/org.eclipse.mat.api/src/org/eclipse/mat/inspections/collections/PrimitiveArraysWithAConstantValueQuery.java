@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2021 Chris Grindstaff, James Livingston and IBM Corporation
+ * Copyright (c) 2008, 2023 Chris Grindstaff, James Livingston and IBM Corporation
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -11,13 +11,13 @@
  *    Chris Grindstaff - initial API and implementation
  *    James Livingston - expose collection utils as API
  *    Andrew Johnson/IBM Corporation - add icon
+ *    IBM Corporation - search using several threads
  *******************************************************************************/
 package org.eclipse.mat.inspections.collections;
 
 import java.lang.reflect.Array;
-import java.util.Arrays;
 
-import org.eclipse.mat.collect.HashMapIntObject;
+import org.eclipse.mat.SnapshotException;
 import org.eclipse.mat.inspections.InspectionAssert;
 import org.eclipse.mat.internal.Messages;
 import org.eclipse.mat.query.Column;
@@ -32,11 +32,11 @@ import org.eclipse.mat.query.annotations.Icon;
 import org.eclipse.mat.query.quantize.Quantize;
 import org.eclipse.mat.snapshot.ISnapshot;
 import org.eclipse.mat.snapshot.extension.Subjects;
-import org.eclipse.mat.snapshot.model.IClass;
 import org.eclipse.mat.snapshot.model.IObject;
 import org.eclipse.mat.snapshot.model.IObjectArray;
 import org.eclipse.mat.snapshot.model.IPrimitiveArray;
 import org.eclipse.mat.snapshot.query.IHeapObjectArgument;
+import org.eclipse.mat.snapshot.query.ObjectScan;
 import org.eclipse.mat.snapshot.query.RetainedSizeDerivedData;
 import org.eclipse.mat.util.IProgressListener;
 
@@ -53,18 +53,6 @@ public class PrimitiveArraysWithAConstantValueQuery implements IQuery
     @Help("The array objects. Only primitive arrays will be examined.")
     public IHeapObjectArgument objects;
 
-    private static class Result
-    {
-        final int len;
-        final Object value;
-        final long used;
-        public Result(int len, Object value, long used)
-        {
-            this.len = len;
-            this.value = value;
-            this.used = used;
-        }
-    }
     public IResult execute(IProgressListener listener) throws Exception
     {
         InspectionAssert.heapFormatIsNot(snapshot, "DTFJ-PHD"); //$NON-NLS-1$
@@ -79,40 +67,23 @@ public class PrimitiveArraysWithAConstantValueQuery implements IQuery
         builder.addDerivedData(RetainedSizeDerivedData.APPROXIMATE);
         Quantize quantize = builder.build();
 
-        int counter = 0;
-        IClass type = null;
-        for (int[] objectIds : objects)
+        quantize.merge(new ObjectScan<Quantize>(snapshot)
         {
-            HashMapIntObject<Result> resultMap = null;
-            int sortedObjs[] = objectIds;
-            int prev = Integer.MIN_VALUE;
-            for (int objectId : objectIds)
+            protected Quantize createAccumulator()
             {
-                if (objectId < prev)
-                {
-                    sortedObjs = objectIds.clone();
-                    Arrays.sort(sortedObjs);
-                    resultMap = new HashMapIntObject<Result>();
-                    break;
-                }
-                prev = objectId;
+                return quantize.split();
             }
-            for (int objectId : sortedObjs)
-            {
-                if (listener.isCanceled())
-                    break;
 
-                if (!snapshot.isArray(objectId))
-                    continue;
+            protected void visit(Quantize part, int objectId) throws SnapshotException
+            {
+                if (snapshot.isArray(objectId))
+                    super.visit(part, objectId);
+            }
 
-                IObject obj = snapshot.getObject(objectId);
+            protected void visit(Quantize part, IObject obj) throws SnapshotException
+            {
                 if (obj instanceof IObjectArray)
-                    continue;
-                if (counter++ % 1000 == 0 && !obj.getClazz().equals(type))
-                {
-                    type = obj.getClazz();
-                    listener.subTask(Messages.PrimitiveArraysWithAConstantValueQuery_SearchingArrayValues + "\n" + type.getName()); //$NON-NLS-1$
-                }
+                    return;
 
                 IPrimitiveArray array = (IPrimitiveArray) obj;
 
@@ -130,7 +101,7 @@ public class PrimitiveArraysWithAConstantValueQuery implements IQuery
                         int j;
                         if (i == 0)
                         {
-                            value0 = Array.get(objectIds, 0);
+                            value0 = Array.get(o, 0);
                             j = 1;
                         }
                         else
@@ -153,29 +124,18 @@ public class PrimitiveArraysWithAConstantValueQuery implements IQuery
                     }
                     if (allSame)
                     {
-                        long size = snapshot.getHeapSize(objectId);
+                        long size = snapshot.getHeapSize(obj.getObjectId());
                         // Key by length and value
-                        if (resultMap != null)
-                            resultMap.put(objectId, new Result(length, value0, size));
-                        else
-                            quantize.addValue(objectId, length, value0, null, size);
+                        part.addValue(obj.getObjectId(), length, value0, null, size);
                     }
                 }
             }
-            if (resultMap != null)
+
+            protected void merge(Quantize part, Quantize other)
             {
-                for (int objectId : objectIds)
-                {
-                    if (resultMap.containsKey(objectId))
-                    {
-                        Result r = resultMap.get(objectId);
-                        quantize.addValue(objectId, r.len, r.value, null, r.used);
-                    }
-                }
+                part.merge(other);
             }
-            if (listener.isCanceled())
-                break;
-        }
+        }.run(objects, Messages.PrimitiveArraysWithAConstantValueQuery_SearchingArrayValues, listener));
         return quantize.getResult();
     }
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2021 SAP AG and IBM Corporation.
+ * Copyright (c) 2008, 2023 SAP AG and IBM Corporation.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -10,6 +10,7 @@
  * Contributors:
  *    SAP AG - initial API and implementation
  *    IBM Corporation - enhancements and fixes
+ *    IBM Corporation - cached and parallel groupings
  *******************************************************************************/
 package org.eclipse.mat.snapshot;
 
@@ -23,6 +24,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RecursiveTask;
 import java.util.regex.Pattern;
 
 import org.eclipse.mat.SnapshotException;
@@ -59,6 +61,9 @@ public class Histogram extends HistogramRecord implements IResultTable, IIconPro
     private boolean showPlusMinus = false;
     private ArrayList<ClassHistogramRecord> classHistogramRecords;
     private ArrayList<ClassLoaderHistogramRecord> classLoaderHistogramRecords;
+    /** The groupings, built when first needed and kept so that switching back is quick */
+    private transient ClassLoaderTree classLoaderTree;
+    private transient PackageTree packageTree;
 
     /* package */Histogram()
     {
@@ -796,9 +801,11 @@ public class Histogram extends HistogramRecord implements IResultTable, IIconPro
     /**
      * implementation as result tree grouped by class loader
      */
-    public IResultTree groupByClassLoader()
+    public synchronized IResultTree groupByClassLoader()
     {
-        return new ClassLoaderTree(this);
+        if (classLoaderTree == null)
+            classLoaderTree = new ClassLoaderTree(this);
+        return classLoaderTree;
     }
 
     public final static class ClassLoaderTree implements IResultTree, IIconProvider
@@ -942,9 +949,11 @@ public class Histogram extends HistogramRecord implements IResultTable, IIconPro
     /**
      * implementation as result tree grouped by package
      */
-    public IResultTree groupByPackage()
+    public synchronized IResultTree groupByPackage()
     {
-        return new PackageTree(this);
+        if (packageTree == null)
+            packageTree = new PackageTree(this);
+        return packageTree;
     }
 
     private static class PackageNode extends HistogramRecord
@@ -961,25 +970,70 @@ public class Histogram extends HistogramRecord implements IResultTable, IIconPro
             this.parent = parent;
         }
 
+        /**
+         * Add the packages and classes of another tree built for the same package.
+         * @param other the other tree, which is taken apart
+         */
+        void merge(PackageNode other)
+        {
+            for (PackageNode child : other.subPackages.values())
+            {
+                PackageNode node = subPackages.get(child.getLabel());
+                if (node == null)
+                {
+                    child.parent = this;
+                    subPackages.put(child.getLabel(), child);
+                }
+                else
+                {
+                    node.incNumberOfObjects(child.getNumberOfObjects());
+                    node.incUsedHeapSize(child.getUsedHeapSize());
+                    node.merge(child);
+                }
+            }
+            classes.addAll(other.classes);
+        }
     }
 
-    public static final class PackageTree implements IResultTree, IIconProvider
+    /**
+     * Builds the package tree for a range of the class records, splitting
+     * large ranges and merging the trees so that big histograms are grouped
+     * using several threads.
+     */
+    private static class PackageTreeBuilder extends RecursiveTask<PackageNode>
     {
-        private Histogram histogram;
-        PackageNode root;
+        private static final long serialVersionUID = 1L;
+        /** Build ranges of up to this many classes in one thread */
+        private static final int CHUNK = 10000;
 
-        public PackageTree(Histogram histogram)
-        {
-            this.histogram = histogram;
+        private final List<ClassHistogramRecord> records;
+        private final int start;
+        private final int end;
 
-            buildTree(histogram);
+        PackageTreeBuilder(List<ClassHistogramRecord> records, int start, int end)
+        {
+            this.records = records;
+            this.start = start;
+            this.end = end;
         }
 
-        private void buildTree(Histogram histogram)
+        @Override
+        protected PackageNode compute()
         {
-            root = new PackageNode("<ROOT>", null); //$NON-NLS-1$
+            if (end - start > CHUNK)
+            {
+                int mid = (start + end) >>> 1;
+                PackageTreeBuilder left = new PackageTreeBuilder(records, start, mid);
+                left.fork();
+                PackageNode right = new PackageTreeBuilder(records, mid, end).compute();
+                PackageNode root = left.join();
+                // the classes of the left range stay first
+                root.merge(right);
+                return root;
+            }
 
-            for (ClassHistogramRecord record : histogram.getClassHistogramRecords())
+            PackageNode root = new PackageNode("<ROOT>", null); //$NON-NLS-1$
+            for (ClassHistogramRecord record : records.subList(start, end))
             {
                 PackageNode current = root;
 
@@ -997,6 +1051,26 @@ public class Histogram extends HistogramRecord implements IResultTable, IIconPro
 
                 current.classes.add(record);
             }
+            return root;
+        }
+    }
+
+    public static final class PackageTree implements IResultTree, IIconProvider
+    {
+        private Histogram histogram;
+        PackageNode root;
+
+        public PackageTree(Histogram histogram)
+        {
+            this.histogram = histogram;
+
+            buildTree(histogram);
+        }
+
+        private void buildTree(Histogram histogram)
+        {
+            List<ClassHistogramRecord> records = histogram.classHistogramRecords;
+            root = new PackageTreeBuilder(records, 0, records.size()).invoke();
         }
 
         public Histogram getHistogram()
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.snapshot;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.snapshot.model.IClass;
+import org.eclipse.mat.snapshot.model.IObject;
+import org.eclipse.mat.util.IProgressListener;
+
+/**
+ * Columns of instance field values, so that queries can read one field
+ * of all the instances of a class without reading each object from the heap dump.
+ * A column is read from the heap dump the first time it is needed, then
+ * stored with the index files of the snapshot.
+ * <p>
+ * Available from snapshots which support it with
+ * <code>snapshot.getSnapshotAddons(IFieldColumns.class)</code>.
+ * @since 1.15
+ */
+public interface IFieldColumns
+{
+    /**
+     * The values of one field for all the instances of a class.
+     */
+    public interface Column
+    {
+        /**
+         * The type of the field.
+         * @return one of {@link IObject.Type}
+         */
+        int getType();
+
+        /**
+         * The instances, in ascending order, which is also the order of the values.
+         * @return the object ids
+         */
+        int[] getObjectIds();
+
+        /**
+         * Find the position of an instance in the column.
+         * @param objectId the object id
+         * @return the position, or a negative number if the object is not an instance of the class
+         */
+        int indexOf(int objectId);
+
+        /**
+         * The value of a boolean, byte, char, short or int field,
+         * the raw bits of a float field, or the object id for a reference field.
+         * @param index the position in the column
+         * @return the value, or -1 for a null reference or a reference to an object
+         * not in the snapshot
+         */
+        int getInt(int index);
+
+        /**
+         * The value of a field as a long, with the raw bits of a float or double field.
+         * @param index the position in the column
+         * @return the value
+         */
+        long getLong(int index);
+
+        /**
+         * The value of a primitive field as a boxed value, as from
+         * {@link org.eclipse.mat.snapshot.model.Field#getValue()}.
+         * For reference fields this is the object id of the referenced object as an Integer,
+         * or null.
+         * @param index the position in the column
+         * @return the value
+         */
+        Object getValue(int index);
+    }
+
+    /**
+     * Get the values of an instance field for all the instances of a class.
+     * Only instances of exactly this class are included, not instances of subclasses.
+     * Class objects in the column for java.lang.Class have no instance field values,
+     * so their values are those of a null field.
+     * @param type the class of the instances
+     * @param fieldName the name of an instance field of the class or a superclass
+     * @param listener to show progress if the column has to be read from the heap dump
+     * @return the column, or null if the class does not have the field
+     * @throws SnapshotException if there is a problem reading the heap dump or writing the column
+     */
+    Column getColumn(IClass type, String fieldName, IProgressListener listener) throws SnapshotException;
+
+    /**
+     * Get the values of an instance field for all the instances of a class,
+     * only if the column has already been stored.
+     * Callers interested in only a few instances can use this to avoid
+     * reading all the instances from the heap dump.
+     * @param type the class of the instances
+     * @param fieldName the name of an instance field of the class or a superclass
+     * @return the column, or null if the class does not have the field or the column has not been stored
+     * @throws SnapshotException if there is a problem reading the column
+     */
+    Column findColumn(IClass type, String fieldName) throws SnapshotException;
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2022 SAP AG and IBM Corporation.
+ * Copyright (c) 2008, 2023 SAP AG and IBM Corporation.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -497,6 +497,54 @@ public interface ISnapshot
      */
     public int[] getTopAncestorsInDominatorTree(int[] objectIds, IProgressListener listener) throws SnapshotException;
 
+    /**
+     * Get the objects with the biggest retained sizes from the supplied objectIds.
+     * Only the biggest objects found so far are kept while the retained sizes are
+     * read, so this is cheaper than reading and sorting all the retained sizes
+     * when only a few objects are wanted.
+     * <p>
+     * Performance: Depends on the number of objects - a single pass over the
+     * retained size index in object id order. Fast for the top-level dominators,
+     * which are already sorted by retained size.
+     *
+     * @param objectIds
+     *            the objects to choose from, for example the result of
+     *            {@link #getTopAncestorsInDominatorTree(int[], IProgressListener)},
+     *            or null for the top-level dominators of the snapshot
+     * @param n
+     *            the most objects to return
+     * @param minRetainedSize
+     *            only return objects retaining at least this many bytes
+     * @param listener
+     *            progress listener informing about the current state of
+     *            execution
+     * @return the objects, biggest retained size first, each object only once
+     *         even if it is given more than once
+     * @throws SnapshotException if the dominator tree has not been calculated
+     * @since 1.15
+     */
+    public int[] getBiggestRetainedIds(int[] objectIds, int n, long minRetainedSize, IProgressListener listener)
+                    throws SnapshotException;
+
+    /**
+     * Get a histogram of the top-level dominators, the objects returned by
+     * {@link #getImmediateDominatedIds(int)} for -1, with the retained sizes
+     * of the top-level dominators of each class and class loader.
+     * The class histogram records hold the number of objects but not the object ids.
+     * <p>
+     * Performance: Fast - read from a summary stored with the dominator tree.
+     * The summary is calculated and stored the first time for snapshots parsed
+     * without it, which needs the retained size of every top-level dominator.
+     *
+     * @param listener
+     *            progress listener informing about the current state of
+     *            execution
+     * @return the histogram with the retained sizes
+     * @throws SnapshotException if the dominator tree has not been calculated
+     * @since 1.15
+     */
+    public Histogram getTopDominatorsHistogram(IProgressListener listener) throws SnapshotException;
+
     /**
      * Get object abstracting the real Java Object from the heap dump identified
      * by the given id.
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2020,2021 IBM Corporation.
+ * Copyright (c) 2020,2023 IBM Corporation.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -10,11 +10,10 @@
  * Contributors:
  *    Andrew Johnson (IBM Corporation) - initial API and implementation
  *******************************************************************************/
-package org.eclipse.mat.inspections;
+package org.eclipse.mat.snapshot.query;
 
 import java.util.Locale;
 
-import org.eclipse.mat.snapshot.query.IHeapObjectArgument;
 import org.eclipse.mat.util.IProgressListener;
 
 /**
@@ -62,12 +61,13 @@ class HeapObjectsTracker
 
     /**
      * Construct the tracker from a {@link IHeapObjectArgument} supplied to
-     * a query.
+     * a query, or other arrays of object ids.
      * @param objects
      */
-    public HeapObjectsTracker(IHeapObjectArgument objects)
+    public HeapObjectsTracker(Iterable<int[]> objects)
     {
-        if (objects.getLabel().toUpperCase(Locale.ENGLISH).contains("SELECT ")) //$NON-NLS-1$
+        if (objects instanceof IHeapObjectArgument
+                        && ((IHeapObjectArgument) objects).getLabel().toUpperCase(Locale.ENGLISH).contains("SELECT ")) //$NON-NLS-1$
         {
             /*
              * This could be expensive to evaluate twice, so use the
@@ -139,7 +139,17 @@ class HeapObjectsTracker
      */
     public int work()
     {
-        ++k;
+        return work(1);
+    }
+
+    /**
+     * Processed several heap items, so see how much work that was.
+     * @param count the number of items
+     * @return the amount for {@link IProgressListener#worked}
+     */
+    public int work(int count)
+    {
+        k += count;
         int work = (int)((long)k * (totalWork - workPrev) / est) + workPrev;
         int delta = work - workDone;
         workDone = work;
@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.snapshot.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.query.quantize.Quantize;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.snapshot.model.IObject;
+import org.eclipse.mat.util.IProgressListener;
+
+/**
+ * Visits the objects of an {@link IHeapObjectArgument} using several threads.
+ * Each int[] from the iterator is sorted, so that objects stored near each other
+ * are read together, then split into ranges of object ids.
+ * Each range is visited by a task in a fork-join pool of the scan into its own accumulator,
+ * as reading objects from the heap dump can block.
+ * The accumulators are then merged on the calling thread in the order of the object ids,
+ * so the result is the same as visiting the objects of each int[] one at a time in ascending order.
+ * <pre>{@code
+ArrayInt found = new ObjectScan<ArrayInt>(snapshot)
+{
+    protected ArrayInt createAccumulator()
+    {
+        return new ArrayInt();
+    }
+
+    protected void visit(ArrayInt found, IObject object) throws SnapshotException
+    {
+        if (object.getUsedHeapSize() > 1000)
+            found.add(object.getObjectId());
+    }
+
+    protected void merge(ArrayInt found, ArrayInt other)
+    {
+        found.addAll(other);
+    }
+}.run(objects, "My long task", listener);
+}</pre>
+ * The visit methods are called on worker threads, so should only update the accumulator.
+ * A {@link Quantize} distribution can be the accumulator, with the parts made by
+ * {@link Quantize#split()} and combined by {@link Quantize#merge(Quantize)}.
+ * Progress is reported and cancellation checked through the listener. If the
+ * listener is cancelled then the accumulator holds the objects visited so far.
+ * @param <A> the type of the accumulator
+ * @since 1.15
+ */
+public abstract class ObjectScan<A>
+{
+    /** Fewest objects worth a task of their own */
+    private static final int MIN_CHUNK = 1024;
+
+    protected final ISnapshot snapshot;
+
+    /**
+     * Create a scan of objects from a snapshot.
+     * @param snapshot the snapshot holding the objects
+     */
+    protected ObjectScan(ISnapshot snapshot)
+    {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Create an empty accumulator for a range of objects.
+     * @return the accumulator
+     */
+    protected abstract A createAccumulator();
+
+    /**
+     * Visit an object by id. By default the object is read from the snapshot
+     * and passed to {@link #visit(Object, IObject)}, override to skip objects
+     * without reading them.
+     * @param accumulator the accumulator of the range holding the object
+     * @param objectId the object id
+     * @throws SnapshotException if there is a problem reading the object
+     */
+    protected void visit(A accumulator, int objectId) throws SnapshotException
+    {
+        visit(accumulator, snapshot.getObject(objectId));
+    }
+
+    /**
+     * Visit an object.
+     * @param accumulator the accumulator of the range holding the object
+     * @param object the object
+     * @throws SnapshotException if there is a problem with the object
+     */
+    protected abstract void visit(A accumulator, IObject object) throws SnapshotException;
+
+    /**
+     * Called on the calling thread before the objects of an int[] from the argument
+     * are visited, for example to find data used by the visits.
+     * @param objectIds the object ids
+     * @param listener for progress and cancellation
+     * @throws SnapshotException if there is a problem
+     */
+    protected void beginBlock(int[] objectIds, IProgressListener listener) throws SnapshotException
+    {}
+
+    /**
+     * Merge the accumulator of the next range of objects.
+     * @param accumulator the accumulator of all the objects so far
+     * @param other the accumulator of the next range
+     */
+    protected abstract void merge(A accumulator, A other);
+
+    /**
+     * Visit all the objects.
+     * @param objects the objects, usually an {@link IHeapObjectArgument} supplied to a query
+     * @param task the name of the task for the progress listener
+     * @param listener for progress and cancellation
+     * @return the merged accumulator
+     * @throws SnapshotException if there is a problem visiting an object
+     */
+    public A run(Iterable<int[]> objects, String task, IProgressListener listener) throws SnapshotException
+    {
+        HeapObjectsTracker hot = new HeapObjectsTracker(objects);
+        listener.beginTask(task, hot.totalWork());
+        int threads = Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try
+        {
+            A accumulator = createAccumulator();
+            for (Iterator<int[]> it = objects.iterator(); it.hasNext() && !listener.isCanceled();)
+            {
+                int objectIds[] = sorted(it.next());
+                hot.beginBlock(objectIds, !it.hasNext());
+                beginBlock(objectIds, listener);
+
+                int chunk = Math.max(MIN_CHUNK, objectIds.length / (threads * 4) + 1);
+                AtomicBoolean failed = new AtomicBoolean();
+                List<Range> ranges = new ArrayList<Range>();
+                for (int start = 0; start < objectIds.length; start += chunk)
+                    ranges.add(new Range(objectIds, start, Math.min(objectIds.length, start + chunk), listener, failed));
+
+                for (Range range : ranges)
+                    pool.execute(range);
+                for (Range range : ranges)
+                {
+                    try
+                    {
+                        merge(accumulator, range.join());
+                    }
+                    catch (RuntimeException e)
+                    {
+                        // Stop the other ranges
+                        failed.set(true);
+                        for (Range r : ranges)
+                            r.cancel(true);
+                        // the exception from a task might be a copy, with the original as the cause
+                        for (Throwable t = e; t != null; t = t.getCause())
+                        {
+                            if (t instanceof SnapshotException)
+                                throw (SnapshotException) t;
+                        }
+                        throw e;
+                    }
+                    listener.worked(hot.work(range.end - range.start));
+                }
+                listener.worked(hot.endBlock());
+            }
+            listener.done();
+            return accumulator;
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * The object ids in ascending order, which is the order the objects are stored in the indices.
+     */
+    private static int[] sorted(int[] objectIds)
+    {
+        for (int i = 1; i < objectIds.length; ++i)
+        {
+            if (objectIds[i] < objectIds[i - 1])
+            {
+                int sorted[] = objectIds.clone();
+                Arrays.sort(sorted);
+                return sorted;
+            }
+        }
+        return objectIds;
+    }
+
+    /**
+     * Visits a range of the object ids from one int[] of the argument.
+     */
+    private class Range extends RecursiveTask<A>
+    {
+        private static final long serialVersionUID = 1L;
+        private final int[] objectIds;
+        private final int start;
+        private final int end;
+        private final IProgressListener listener;
+        /** Set when a range of the same int[] fails, so the others stop */
+        private final AtomicBoolean failed;
+
+        Range(int[] objectIds, int start, int end, IProgressListener listener, AtomicBoolean failed)
+        {
+            this.objectIds = objectIds;
+            this.start = start;
+            this.end = end;
+            this.listener = listener;
+            this.failed = failed;
+        }
+
+        @Override
+        protected A compute()
+        {
+            A accumulator = createAccumulator();
+            try
+            {
+                for (int i = start; i < end && !listener.isCanceled() && !failed.get(); ++i)
+                    visit(accumulator, objectIds[i]);
+            }
+            catch (SnapshotException e)
+            {
+                failed.set(true);
+                throw new RuntimeException(e);
+            }
+            catch (RuntimeException e)
+            {
+                failed.set(true);
+                throw e;
+            }
+            return accumulator;
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2018 SAP AG, IBM Corporation and others.
+ * Copyright (c) 2008, 2023 SAP AG, IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -9,6 +9,7 @@
  *
  * Contributors:
  *    SAP AG - initial API and implementation
+ *    IBM Corporation - keep the retained sizes of groups of classes
  *******************************************************************************/
 package org.eclipse.mat.snapshot.query;
 
@@ -35,6 +36,7 @@ import org.eclipse.mat.query.refined.Filter;
 import org.eclipse.mat.snapshot.ClassHistogramRecord;
 import org.eclipse.mat.snapshot.ClassLoaderHistogramRecord;
 import org.eclipse.mat.snapshot.Histogram;
+import org.eclipse.mat.snapshot.HistogramRecord;
 import org.eclipse.mat.snapshot.ISnapshot;
 import org.eclipse.mat.util.IProgressListener;
 import org.eclipse.mat.util.MessageUtil;
@@ -338,6 +340,12 @@ public class RetainedSizeDerivedData extends ContextDerivedData
                 long size = ((ClassLoaderHistogramRecord) row).getRetainedHeapSize();
                 return size != 0 ? size : null;
             }
+            else if (row instanceof HistogramRecord)
+            {
+                // a package or superclass, kept with the grouping of the histogram
+                long size = ((HistogramRecord) row).getRetainedHeapSize();
+                return size != 0 ? size : super.lookup(row);
+            }
             else
             {
                 return super.lookup(row);
@@ -357,6 +365,17 @@ public class RetainedSizeDerivedData extends ContextDerivedData
                 ((ClassLoaderHistogramRecord) row).calculateRetainedSize(snapshot, true, operation == APPROXIMATE,
                                 listener);
             }
+            else if (row instanceof HistogramRecord)
+            {
+                HistogramRecord record = (HistogramRecord) row;
+                long size = record.getRetainedHeapSize();
+                if (size > 0 || size < 0 && operation == APPROXIMATE)
+                    return;
+                super.calculate(operation, row, listener);
+                Object calculated = super.lookup(row);
+                if (calculated != null)
+                    record.setRetainedHeapSize((Long) calculated);
+            }
             else
             {
                 super.calculate(operation, row, listener);
@@ -9,10 +9,13 @@
  *  pass-through mode for multi-chunk zips
  *  mark/reset
  *  merge of output buffer and dictionary
+ *  saving and restoring the state
  */
 
 package io.nayuki.deflate;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.EOFException;
 import java.io.FilterInputStream;
 import java.io.IOException;
@@ -173,7 +176,23 @@ public final class InflaterInputStream extends FilterInputStream {
      */
     public InflaterInputStream(InflaterInputStream copy)
     {
-        this(copy.in, copy.isDetachable);
+        this(copy, copy.in);
+    }
+
+    /**
+     * Extra constructor added for org.eclipse.mat.hprof
+     * 
+     * Duplicates the state of the original stream, but reads from
+     * a different underlying stream, which must be positioned to the
+     * same place as the underlying stream of the original.
+     * This allows several copies to be used at once.
+     * Added by Eclipse MAT.
+     * @param copy the original stream
+     * @param in the new underlying stream
+     */
+    public InflaterInputStream(InflaterInputStream copy, InputStream in)
+    {
+        this(in, copy.isDetachable);
         if (copy.inputBuffer != null)
             inputBuffer = Arrays.copyOf(copy.inputBuffer, copy.inputBuffer.length);
         inputBufferLength = copy.inputBufferLength;
@@ -203,6 +222,120 @@ public final class InflaterInputStream extends FilterInputStream {
         if (copy.distanceCodeTable != null)
             distanceCodeTable = Arrays.copyOf(copy.distanceCodeTable, copy.distanceCodeTable.length);
     }
+
+    /**
+     * Extra constructor added for org.eclipse.mat.hprof
+     * 
+     * Restores the state saved by {@link #writeState(DataOutput)}.
+     * The underlying stream must be positioned at the saved position less
+     * the {@link #unreadInput()} bytes at the time the state was saved.
+     * Added by Eclipse MAT.
+     * @param saved the saved state
+     * @param in the new underlying stream
+     * @throws IOException if the saved state cannot be read or is invalid
+     */
+    public InflaterInputStream(DataInput saved, InputStream in) throws IOException
+    {
+        this(in, saved.readBoolean());
+        state = saved.readInt();
+        if (state < -1 && state != -4)
+            throw new DataFormatException("Invalid saved state " + state);
+        isLastBlock = saved.readBoolean();
+        inputBitBuffer = saved.readLong();
+        inputBitBufferLength = saved.readInt();
+        outputBufferLength = saved.readInt();
+        outputBufferIndex = saved.readInt();
+        markPos = saved.readInt();
+        dictionaryIndex = saved.readInt();
+        if (saved.readBoolean())
+            saved.readFully(dictionary);
+        else
+            dictionary = null;
+        literalLengthCodeTree = readCodeTree(saved, FIXED_LITERAL_LENGTH_CODE_TREE);
+        if (literalLengthCodeTree == FIXED_LITERAL_LENGTH_CODE_TREE)
+            literalLengthCodeTable = FIXED_LITERAL_LENGTH_CODE_TABLE;
+        else if (literalLengthCodeTree != null)
+            literalLengthCodeTable = codeTreeToCodeTable(literalLengthCodeTree);
+        distanceCodeTree = readCodeTree(saved, FIXED_DISTANCE_CODE_TREE);
+        if (distanceCodeTree == FIXED_DISTANCE_CODE_TREE)
+            distanceCodeTable = FIXED_DISTANCE_CODE_TABLE;
+        else if (distanceCodeTree != null)
+            distanceCodeTable = codeTreeToCodeTable(distanceCodeTree);
+    }
+
+    /**
+     * Extra method added for org.eclipse.mat.hprof
+     * 
+     * Saves the state of the decompressor, apart from the compressed bytes
+     * read from the underlying stream but not yet used, so that decompression
+     * can be resumed later with {@link #InflaterInputStream(DataInput, InputStream)}.
+     * Added by Eclipse MAT.
+     * @param out where to save the state
+     * @throws IOException if the state cannot be written or the stream has failed or is closed
+     */
+    public void writeState(DataOutput out) throws IOException
+    {
+        if (exception != null)
+            throw exception;
+        if (state == -3)
+            throw new IllegalStateException("Stream already closed");
+        out.writeBoolean(isDetachable);
+        out.writeInt(state);
+        out.writeBoolean(isLastBlock);
+        out.writeLong(inputBitBuffer);
+        out.writeInt(inputBitBufferLength);
+        out.writeInt(outputBufferLength);
+        out.writeInt(outputBufferIndex);
+        out.writeInt(markPos);
+        out.writeInt(dictionaryIndex);
+        out.writeBoolean(dictionary != null);
+        if (dictionary != null)
+            out.write(dictionary);
+        writeCodeTree(out, literalLengthCodeTree, FIXED_LITERAL_LENGTH_CODE_TREE);
+        writeCodeTree(out, distanceCodeTree, FIXED_DISTANCE_CODE_TREE);
+    }
+
+    /**
+     * Extra method added for org.eclipse.mat.hprof
+     * 
+     * The number of compressed bytes read from the underlying stream
+     * but not yet used. These are not saved by {@link #writeState(DataOutput)}.
+     * Added by Eclipse MAT.
+     * @return the number of bytes
+     */
+    public int unreadInput()
+    {
+        return inputBufferLength - inputBufferIndex;
+    }
+
+    // A null tree has length -1, a fixed tree has length -2
+    private static void writeCodeTree(DataOutput out, short[] tree, short[] fixed) throws IOException
+    {
+        if (tree == null) {
+            out.writeInt(-1);
+        } else if (tree == fixed) {
+            out.writeInt(-2);
+        } else {
+            out.writeInt(tree.length);
+            for (short s : tree)
+                out.writeShort(s);
+        }
+    }
+
+    private static short[] readCodeTree(DataInput in, short[] fixed) throws IOException
+    {
+        int len = in.readInt();
+        if (len == -1)
+            return null;
+        if (len == -2)
+            return fixed;
+        if (len < 0 || len > 2 * 288)
+            throw new DataFormatException("Invalid saved code tree length " + len);
+        short[] tree = new short[len];
+        for (int i = 0; i < len; i++)
+            tree[i] = in.readShort();
+        return tree;
+    }
     
     
     /*---- Public API methods ----*/
@@ -10,6 +10,7 @@
  * Contributors:
  *    Netflix (Jason Koch) - refactors for increased concurrency and performance
  *    IBM Corporation (Andrew Johnson) - tidy EOF processing and compressed dumps
+ *    IBM Corporation - parallel decompression of Gzipped dumps
  *******************************************************************************/
 package org.eclipse.mat.hprof;
 
@@ -42,6 +43,10 @@ public class BufferingRafPositionInputStream implements IPositionInputStream, Cl
             {
                 raf = cgraf;
             }
+            else if (ParallelGZIPRandomAccessFile.isWorthwhile())
+            {
+                raf = new ParallelGZIPRandomAccessFile(file, prefix, estlen);
+            }
             else
             {
                 raf = new CompressedRandomAccessFile(file, false, estlen);
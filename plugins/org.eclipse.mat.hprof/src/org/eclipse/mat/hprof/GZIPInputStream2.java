@@ -9,10 +9,14 @@
  *
  * Contributors:
  *    IBM Corporation - initial API and implementation
+ *    IBM Corporation - duplicate onto a different stream
+ *    IBM Corporation - save and restore the state
  *******************************************************************************/
 package org.eclipse.mat.hprof;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.EOFException;
 import java.io.FilterInputStream;
 import java.io.IOException;
@@ -61,8 +65,26 @@ public class GZIPInputStream2 extends FilterInputStream
      */
     public GZIPInputStream2(GZIPInputStream2 gs) throws IOException
     {
-        super(new InflaterInputStream((InflaterInputStream)gs.in));
-        is = gs.is;
+        this(gs, gs.is, new InflaterInputStream((InflaterInputStream)gs.in));
+    }
+
+    /**
+     * Copy constructor used for duplicating a stream onto a different
+     * underlying stream, so that both streams can be used at once.
+     * @param gs the stream to be duplicated
+     * @param is the compressed data, positioned to the same place as
+     * the underlying stream of the original
+     * @throws IOException
+     */
+    public GZIPInputStream2(GZIPInputStream2 gs, InputStream is) throws IOException
+    {
+        this(gs, is, new InflaterInputStream((InflaterInputStream)gs.in, is));
+    }
+
+    private GZIPInputStream2(GZIPInputStream2 gs, InputStream is, InflaterInputStream inflater)
+    {
+        super(inflater);
+        this.is = is;
         crc = gs.crc.clone();
         uncompressedLen = gs.uncompressedLen;
         uncompressedLocationAtHeader = gs.uncompressedLocationAtHeader;
@@ -71,6 +93,53 @@ public class GZIPInputStream2 extends FilterInputStream
         eof = gs.eof;
     }
 
+    /**
+     * Restores the state saved by {@link #writeState(DataOutput)}.
+     * @param saved the saved state
+     * @param is the compressed data, positioned to the saved position less the
+     * {@link #unreadInput()} bytes at the time the state was saved
+     * @throws IOException if the saved state cannot be read
+     */
+    GZIPInputStream2(DataInput saved, InputStream is) throws IOException
+    {
+        super(new InflaterInputStream(saved, is));
+        this.is = is;
+        crc = new CRC32();
+        crc.value = saved.readInt();
+        uncompressedLen = saved.readLong();
+        uncompressedLocationAtHeader = saved.readLong();
+        mark = saved.readLong();
+        reset = saved.readLong();
+        eof = saved.readBoolean();
+    }
+
+    /**
+     * Saves the state of the stream, so that reading can be resumed later
+     * from the same place in the compressed data.
+     * @param out where to save the state
+     * @throws IOException if the state cannot be written
+     */
+    void writeState(DataOutput out) throws IOException
+    {
+        ((InflaterInputStream)in).writeState(out);
+        out.writeInt(crc.value);
+        out.writeLong(uncompressedLen);
+        out.writeLong(uncompressedLocationAtHeader);
+        out.writeLong(mark);
+        out.writeLong(reset);
+        out.writeBoolean(eof);
+    }
+
+    /**
+     * The number of compressed bytes read from the underlying stream
+     * but not yet decompressed, so not included in the saved state.
+     * @return the number of bytes
+     */
+    int unreadInput()
+    {
+        return ((InflaterInputStream)in).unreadInput();
+    }
+
     /**
      * Normal constructor
      * @param is the compressed data
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2021 SAP AG and IBM Corporation.
+ * Copyright (c) 2008, 2023 SAP AG and IBM Corporation.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -10,6 +10,7 @@
  * Contributors:
  *    SAP AG - initial API and implementation
  *    Andrew Johnson (IBM Corporation) - additional properties
+ *    IBM Corporation - concurrent reads
  *******************************************************************************/
 package org.eclipse.mat.hprof;
 
@@ -203,7 +204,7 @@ public class HprofHeapObjectReader implements IObjectReader
     public IObject read(int objectId, ISnapshot snapshot) throws SnapshotException, IOException
     {
         long filePosition = o2hprof.get(objectId);
-        return hprofDump.read(objectId, filePosition, snapshot, o2hprof);
+        return hprofDump.read(objectId, filePosition, snapshot);
     }
 
     /**
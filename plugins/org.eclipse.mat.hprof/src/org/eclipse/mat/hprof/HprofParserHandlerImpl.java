@@ -11,6 +11,7 @@
  *    SAP AG - initial API and implementation
  *    Andrew Johnson - bug fix for missing classes
  *    Netflix (Jason Koch) - refactors for increased performance and concurrency
+ *    IBM Corporation - off-heap collection of object addresses
  *******************************************************************************/
 package org.eclipse.mat.hprof;
 
@@ -205,7 +206,16 @@ public class HprofParserHandlerImpl implements IHprofParserHandler
     public void beforePass1(XSnapshotInfo snapshotInfo) throws IOException
     {
         this.info = snapshotInfo;
-        this.identifiers0 = new IndexWriter.Identifier();
+        if (Boolean.TRUE.equals(info.getProperty("off_heap"))) //$NON-NLS-1$
+        {
+            // Collect the addresses in a scratch file next to the index files
+            File scratchDirectory = new File(info.getPrefix()).getAbsoluteFile().getParentFile();
+            this.identifiers0 = new IndexWriter.Identifier(scratchDirectory);
+        }
+        else
+        {
+            this.identifiers0 = new IndexWriter.Identifier();
+        }
         if (info.getProperty("discard_ratio") instanceof Integer) //$NON-NLS-1$
         {
             discardRatio = (Integer)info.getProperty("discard_ratio") / 100.0; //$NON-NLS-1$
@@ -11,6 +11,8 @@
  *    SAP AG - initial API and implementation
  *    Netflix (Jason Koch) - refactors for increased performance and concurrency
  *    IBM Corporation (Andrew Johnson) - compressed dumps
+ *    IBM Corporation - concurrent reads using a pool of streams
+ *    IBM Corporation - random access to compressed dumps using saved states
  *******************************************************************************/
 package org.eclipse.mat.hprof;
 
@@ -21,6 +23,8 @@ import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.eclipse.mat.SnapshotException;
 import org.eclipse.mat.hprof.AbstractParser.Constants.Record;
@@ -49,23 +53,45 @@ import org.eclipse.mat.util.MessageUtil;
 public class HprofRandomAccessParser extends AbstractParser
 {
     public static final int LAZY_LOADING_LIMIT = 256;
-    private final IPositionInputStream in;
+    /** How many idle streams to keep open for later reads */
+    private static final int MAX_IDLE_STREAMS = Runtime.getRuntime().availableProcessors();
+
+    private final File file;
+    /**
+     * Idle streams over an uncompressed dump. Each read borrows one, so
+     * concurrent readers do not block each other.
+     */
+    private final ConcurrentLinkedQueue<IPositionInputStream> streams = new ConcurrentLinkedQueue<IPositionInputStream>();
+    /**
+     * The single stream over a compressed dump. Reopening a compressed dump is
+     * expensive, so readers take turns using the lock.
+     */
+    private final IPositionInputStream shared;
+    private final ReentrantLock sharedLock = new ReentrantLock();
+    private volatile boolean closed;
 
     public HprofRandomAccessParser(File file, String prefix, Version version, int identifierSize, long len,
                     HprofPreferences.HprofStrictness strictnessPreference) throws IOException
     {
         super(strictnessPreference);
+        this.file = file;
         RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
         boolean gzip = CompressedRandomAccessFile.isGZIP(raf);
         if (gzip)
         {
             ChunkedGZIPRandomAccessFile cgraf = ChunkedGZIPRandomAccessFile.get(raf, file, prefix);
             raf.close();
+            ParallelGZIPRandomAccessFile pgraf;
 
             if (cgraf != null)
             {
                 raf = cgraf;
             }
+            else if ((pgraf = ParallelGZIPRandomAccessFile.getRandomAccess(file, prefix)) != null)
+            {
+                // Decompress from the saved state nearest to each read
+                raf = pgraf;
+            }
             else
             {
                 long requested = len / 10;
@@ -76,35 +102,111 @@ public class HprofRandomAccessParser extends AbstractParser
                 else
                     raf = new CompressedRandomAccessFile(file, true, len);
             }
+            this.shared = new DefaultPositionInputStream(new BufferedRandomAccessInputStream(raf, 512));
+        }
+        else
+        {
+            this.shared = null;
+            streams.add(new DefaultPositionInputStream(new BufferedRandomAccessInputStream(raf, 512)));
         }
-        this.in = new DefaultPositionInputStream(new BufferedRandomAccessInputStream(raf, 512));
         this.version = version;
         this.idSize = identifierSize;
     }
 
-    public synchronized void close() throws IOException
+    public void close() throws IOException
     {
-        in.close();
+        closed = true;
+        if (shared != null)
+        {
+            sharedLock.lock();
+            try
+            {
+                shared.close();
+            }
+            finally
+            {
+                sharedLock.unlock();
+            }
+        }
+        IPositionInputStream s;
+        while ((s = streams.poll()) != null)
+            s.close();
     }
 
-    public synchronized IObject read(int objectId, long position, ISnapshot dump, IOne2LongIndex o2hprof) throws IOException, SnapshotException
+    /**
+     * Borrow a stream for one read operation.
+     * Must be returned with {@link #release(IPositionInputStream)}.
+     * @throws IOException if the parser has been closed
+     */
+    private IPositionInputStream acquire() throws IOException
+    {
+        if (shared != null)
+        {
+            sharedLock.lock();
+            if (closed)
+            {
+                sharedLock.unlock();
+                throw new IOException(MessageUtil.format(Messages.HprofRandomAccessParser_Error_Closed, file.getAbsolutePath()));
+            }
+            return shared;
+        }
+        if (closed)
+            throw new IOException(MessageUtil.format(Messages.HprofRandomAccessParser_Error_Closed, file.getAbsolutePath()));
+        IPositionInputStream s = streams.poll();
+        if (s == null)
+            s = new DefaultPositionInputStream(new BufferedRandomAccessInputStream(new RandomAccessFile(file, "r"), 512)); //$NON-NLS-1$
+        return s;
+    }
+
+    private void release(IPositionInputStream s) throws IOException
+    {
+        if (s == shared)
+        {
+            sharedLock.unlock();
+            return;
+        }
+        if (closed || streams.size() >= MAX_IDLE_STREAMS)
+        {
+            s.close();
+            return;
+        }
+        streams.add(s);
+        // close() might have drained the pool before the stream was added
+        if (closed && streams.remove(s))
+            s.close();
+    }
+
+    public IObject read(int objectId, long position, ISnapshot dump) throws IOException, SnapshotException
+    {
+        IPositionInputStream in = acquire();
+        try
+        {
+            return read(in, objectId, position, dump);
+        }
+        finally
+        {
+            release(in);
+        }
+    }
+
+    private IObject read(IPositionInputStream in, int objectId, long position, ISnapshot dump) throws IOException, SnapshotException
     {
         in.seek(position);
         int segmentType = in.readUnsignedByte();
         if (objectId == -1)
         {
-            segmentType = skipRecords(segmentType);
+            segmentType = skipRecords(in, segmentType);
         }
         switch (segmentType)
         {
             case Constants.Record.STACK_FRAME:
-                return readStackFrame(objectId, dump);
+                return readStackFrame(in, objectId, dump);
             case Constants.DumpSegment.INSTANCE_DUMP:
-                return readInstanceDump(objectId, dump);
+                return readInstanceDump(in, objectId, dump);
             case Constants.DumpSegment.OBJECT_ARRAY_DUMP:
-                return readObjectArrayDump(objectId, dump);
+                return readObjectArrayDump(in, objectId, dump);
             case Constants.DumpSegment.PRIMITIVE_ARRAY_DUMP:
-                return readPrimitiveArrayDump(objectId, dump);
+                return readPrimitiveArrayDump(in, objectId, dump);
             default:
                 throw new IOException(MessageUtil.format(Messages.HprofRandomAccessParser_Error_IllegalDumpSegment,
                                 segmentType, Long.toHexString(position)));
@@ -112,7 +214,7 @@ public class HprofRandomAccessParser extends AbstractParser
 
     }
 
-    private IObject readStackFrame(int objectId, ISnapshot dump) throws SnapshotException, IOException
+    private IObject readStackFrame(IPositionInputStream in, int objectId, ISnapshot dump) throws SnapshotException, IOException
     {
         in.readUnsignedInt(); // time
         in.readUnsignedInt(); // length
@@ -314,11 +416,16 @@ public class HprofRandomAccessParser extends AbstractParser
                 do
                 {
                     IObject o;
-                    synchronized (parser)
+                    IPositionInputStream in = parser.acquire();
+                    try
                     {
-                        // Need final position without interference
-                        o = parser.read(-1, pos, snapshot, o2hprof);
-                        pos = parser.in.position();
+                        // Need final position from the same stream
+                        o = parser.read(in, -1, pos, snapshot);
+                        pos = in.position();
+                    }
+                    finally
+                    {
+                        parser.release(in);
                     }
                     if (o.getObjectAddress() == getObjectAddress())
                     {
@@ -345,21 +452,21 @@ public class HprofRandomAccessParser extends AbstractParser
         }
     }
 
-    private IObject readInstanceDump(int objectId, ISnapshot dump) throws IOException, SnapshotException
+    private IObject readInstanceDump(IPositionInputStream in, int objectId, ISnapshot dump) throws IOException, SnapshotException
     {
         long address = in.readID(idSize);
         IClass oclazz;
         if (objectId >= 0)
         {
             // Skip serial number, class ID, length
-            if (checkSkipBytes(8 + idSize) != 8 + idSize)
+            if (checkSkipBytes(in, 8 + idSize) != 8 + idSize)
                 throw new IOException();
             oclazz = dump.getClassOf(objectId);
         }
         else
         {
             // skip serial number
-            if (checkSkipBytes(4) != 4)
+            if (checkSkipBytes(in, 4) != 4)
                 throw new IOException();
             // class ID
             long classAddr = in.readID(idSize);
@@ -377,7 +484,7 @@ public class HprofRandomAccessParser extends AbstractParser
             catch (SnapshotException e)
             {
                 // move to end of object
-                if (checkSkipBytes(len) != len)
+                if (checkSkipBytes(in, len) != len)
                     throw new IOException();
                 // Invalid object, but might be good enough for skipping over
                 return new InstanceImpl(objectId, address, null, null);
@@ -414,11 +521,11 @@ public class HprofRandomAccessParser extends AbstractParser
         }
     }
 
-    private IArray readObjectArrayDump(int objectId, ISnapshot dump) throws IOException, SnapshotException
+    private IArray readObjectArrayDump(IPositionInputStream in, int objectId, ISnapshot dump) throws IOException, SnapshotException
     {
         long id = in.readID(idSize);
 
-        checkSkipBytes(4);
+        checkSkipBytes(in, 4);
         int size = in.readInt();
         long len = (long)size * idSize;
 
@@ -435,7 +542,7 @@ public class HprofRandomAccessParser extends AbstractParser
             {
                 ObjectArrayImpl array = new ObjectArrayImpl(objectId, id, null, size);
                 // Move to end of object
-                if (checkSkipBytes(len) != len)
+                if (checkSkipBytes(in, len) != len)
                     throw new IOException();
                 return array;
             }
@@ -462,7 +569,7 @@ public class HprofRandomAccessParser extends AbstractParser
             if (objectId == -1)
             {
                 // Move to end of object
-                if (checkSkipBytes(len) != len)
+                if (checkSkipBytes(in, len) != len)
                     throw new IOException();
             }
         }
@@ -472,11 +579,11 @@ public class HprofRandomAccessParser extends AbstractParser
         return array;
     }
 
-    private IArray readPrimitiveArrayDump(int objectId, ISnapshot dump) throws IOException, SnapshotException
+    private IArray readPrimitiveArrayDump(IPositionInputStream in, int objectId, ISnapshot dump) throws IOException, SnapshotException
     {
         long id = in.readID(idSize);
 
-        checkSkipBytes(4);
+        checkSkipBytes(in, 4);
         int arraySize = in.readInt();
 
         long elementType = in.readByte();
@@ -499,7 +606,7 @@ public class HprofRandomAccessParser extends AbstractParser
             if (objectId == -1)
             {
                 // Move to end of object
-                if (checkSkipBytes(len) != len)
+                if (checkSkipBytes(in, len) != len)
                     throw new IOException();
             }
         }
@@ -529,31 +636,47 @@ public class HprofRandomAccessParser extends AbstractParser
         return array;
     }
 
-    public synchronized long[] readObjectArray(ArrayDescription.Offline descriptor, int offset, int length)
+    public long[] readObjectArray(ArrayDescription.Offline descriptor, int offset, int length)
                     throws IOException
     {
         int elementSize = this.idSize;
 
-        in.seek(descriptor.getPosition() + ((long)offset * elementSize));
-        long[] data = new long[length];
-        for (int ii = 0; ii < data.length; ii++)
-            data[ii] = in.readID(idSize);
-        return data;
+        IPositionInputStream in = acquire();
+        try
+        {
+            in.seek(descriptor.getPosition() + ((long)offset * elementSize));
+            long[] data = new long[length];
+            for (int ii = 0; ii < data.length; ii++)
+                data[ii] = in.readID(idSize);
+            return data;
+        }
+        finally
+        {
+            release(in);
+        }
     }
 
-    public synchronized byte[] readPrimitiveArray(ArrayDescription.Offline descriptor, int offset, int length)
+    public byte[] readPrimitiveArray(ArrayDescription.Offline descriptor, int offset, int length)
                     throws IOException
     {
         int elementSize = descriptor.getElementSize();
 
-        in.seek(descriptor.getPosition() + ((long)offset * elementSize));
+        IPositionInputStream in = acquire();
+        try
+        {
+            in.seek(descriptor.getPosition() + ((long)offset * elementSize));
 
-        byte[] data = new byte[length * elementSize];
-        in.readFully(data);
-        return data;
+            byte[] data = new byte[length * elementSize];
+            in.readFully(data);
+            return data;
+        }
+        finally
+        {
+            release(in);
+        }
     }
 
-    private int skipRecords(int segmentType) throws IOException
+    private int skipRecords(IPositionInputStream in, int segmentType) throws IOException
     {
         boolean again = true;
         do
@@ -582,7 +705,7 @@ public class HprofRandomAccessParser extends AbstractParser
                     skip = idSize + 4;
                     break;
                 case Constants.DumpSegment.CLASS_DUMP:
-                    skipClassDump();
+                    skipClassDump(in);
                     // Already skipped enough, so just reread
                     skip = 0;
                     break;
@@ -593,7 +716,7 @@ public class HprofRandomAccessParser extends AbstractParser
             if (skip >= 0)
             {
                 // Skip over new segment header etc.
-                checkSkipBytes(skip);
+                checkSkipBytes(in, skip);
                 segmentType = in.readUnsignedByte();
             }
         }
@@ -601,29 +724,29 @@ public class HprofRandomAccessParser extends AbstractParser
         return segmentType;
     }
 
-    private void skipClassDump() throws IOException
+    private void skipClassDump(IPositionInputStream in) throws IOException
     {
-        checkSkipBytes(7 * idSize + 8);
+        checkSkipBytes(in, 7 * idSize + 8);
 
         int constantPoolSize = in.readUnsignedShort();
         for (int ii = 0; ii < constantPoolSize; ii++)
         {
-            checkSkipBytes(2);
+            checkSkipBytes(in, 2);
             skipValue(in);
         }
 
         int numStaticFields = in.readUnsignedShort();
         for (int i = 0; i < numStaticFields; i++)
         {
-            checkSkipBytes(idSize);
+            checkSkipBytes(in, idSize);
             skipValue(in);
         }
 
         int numInstanceFields = in.readUnsignedShort();
-        checkSkipBytes((idSize + 1) * numInstanceFields);
+        checkSkipBytes(in, (idSize + 1) * numInstanceFields);
     }
 
-    private int checkSkipBytes(int skip) throws IOException
+    private int checkSkipBytes(IPositionInputStream in, int skip) throws IOException
     {
         int left = skip;
         while (left > 0)
@@ -639,7 +762,7 @@ public class HprofRandomAccessParser extends AbstractParser
         return skip - left;
     }
 
-    private long checkSkipBytes(long skip) throws IOException
+    private long checkSkipBytes(IPositionInputStream in, long skip) throws IOException
     {
         long left = skip;
         while (left > 0)
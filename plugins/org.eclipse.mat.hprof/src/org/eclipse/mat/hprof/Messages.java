@@ -60,6 +60,7 @@ public class Messages extends NLS
     public static String HprofParserHandlerImpl_Error_ExpectedClassSegment;
     public static String HprofParserHandlerImpl_Error_MultipleClassInstancesExist;
     public static String HprofParserHandlerImpl_HeapContainsObjects;
+    public static String HprofRandomAccessParser_Error_Closed;
     public static String HprofRandomAccessParser_Error_DumpIncomplete;
     public static String HprofRandomAccessParser_Error_DuplicateClass;
     public static String HprofRandomAccessParser_Error_IllegalDumpSegment;
@@ -0,0 +1,840 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *    IBM Corporation - saved states stored in an index file for random access
+ *******************************************************************************/
+package org.eclipse.mat.hprof;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Creates an unzipped view of a plain (not chunked) Gzipped file,
+ * decompressing several regions of the file at once on other threads.
+ * <p>
+ * The uncompressed data is split into regions of equal size. The first read
+ * through a file decompresses one region at a time ahead of the reader and saves
+ * the state of the decompressor at the start of each region, so is limited to the
+ * speed of one decompressor, but does the decompression on another thread.
+ * The saved states are kept for the file, so later reads, for example the second pass
+ * of parsing, start a decompressor for each region from its saved state and
+ * decompress several regions in parallel.
+ * <p>
+ * This works best for sequential reading.
+ * <p>
+ * If a snapshot prefix is given then once the whole file has been read the saved
+ * states are also stored in an index file, so that later the file can be
+ * opened with {@link #getRandomAccess(File, String)} without reading it all again.
+ * Random access then decompresses just the region holding the data, from
+ * the nearest saved state, and keeps the last few regions.
+ * Do not call any methods other than
+ * {@link #seek(long)}
+ * {@link #getFilePointer()}
+ * {@link #length()} - not known until the end of the data has been read
+ * {@link #read(byte[])}
+ * {@link #read(byte[], int, int)}
+ * {@link #close()}
+ */
+public class ParallelGZIPRandomAccessFile extends RandomAccessFile
+{
+    /** The smallest default region */
+    private static final int MIN_REGION_SIZE = 4 * 1024 * 1024;
+    /** The largest region */
+    private static final int MAX_REGION_SIZE = 256 * 1024 * 1024;
+    /** Limit the number of saved states, as each uses about 50kB */
+    private static final int MAX_CHECKPOINTS = 512;
+    /** Buffer for reading the compressed data */
+    private static final int READ_SIZE = 65536;
+    /** Maximum number of files to remember the saved states for */
+    private static final int MAX_STORED_FILES = 5;
+    /**
+     * Decompression in Java is slower than the native decompression used by
+     * {@link CompressedRandomAccessFile}, so only worthwhile with several processors.
+     */
+    private static final int MIN_PROCESSORS = 3;
+    /** How many decompressed regions to keep for random access */
+    private static final int RANDOM_CACHED_REGIONS = 4;
+    /** The index file of saved states */
+    private static final String INDEX_SUFFIX = "gzipcheckpoint.index"; //$NON-NLS-1$
+    private static final int INDEX_VERSION = 1;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    /** The saved states for recently read files */
+    private static final HashMap<File, Checkpoints> cachedCheckpoints = new HashMap<File, Checkpoints>();
+
+    private final File file;
+    /** The prefix of the snapshot, or null if the saved states are not to be stored */
+    private final String prefix;
+    private final Checkpoints checkpoints;
+    private final int regionSize;
+    /** Regions decompressed at once, or for random access the regions kept */
+    private final int inFlight;
+    /** Decompresses regions ahead of the reader, null for random access */
+    private final ExecutorService executor;
+    /** The recently read regions, for random access */
+    private final Map<Integer, byte[]> recent;
+    /** Regions being decompressed, in order */
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+    /** The region of the first pending decompression */
+    private int pendingFirst;
+    /** The region of the next decompression to be submitted */
+    private int nextRegion;
+    /** The uncompressed data of the current region */
+    private byte[] current;
+    private int currentRegion = -1;
+    /** The current uncompressed position */
+    private long pos;
+    /** Whether this view has stopped using the saved states */
+    private boolean released;
+
+    /**
+     * Create an unzipped view of the file, choosing the size of the regions
+     * and number of threads automatically.
+     * @param file the Gzipped file
+     * @param estimatedLength an estimate of the uncompressed length, or 0 if not known
+     * @throws IOException if the file cannot be read or is not Gzipped
+     */
+    public ParallelGZIPRandomAccessFile(File file, long estimatedLength) throws IOException
+    {
+        this(file, null, estimatedLength);
+    }
+
+    /**
+     * Create an unzipped view of the file, choosing the size of the regions
+     * and number of threads automatically.
+     * Saved states from an earlier read are loaded from the index file for the snapshot,
+     * and once the whole file has been read the saved states are stored in the index file.
+     * @param file the Gzipped file
+     * @param prefix the prefix of the snapshot, or null if the saved states are not to be stored
+     * @param estimatedLength an estimate of the uncompressed length, or 0 if not known
+     * @throws IOException if the file cannot be read or is not Gzipped
+     */
+    public ParallelGZIPRandomAccessFile(File file, String prefix, long estimatedLength) throws IOException
+    {
+        this(file, prefix, 0, estimatedLength, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create an unzipped view of the file.
+     * If the file has been read before with the same region size then
+     * the saved states are used to decompress regions in parallel.
+     * @param file the Gzipped file
+     * @param regionSize the size of uncompressed data between saved states
+     * @param threads the maximum number of regions to decompress at once
+     * @throws IOException if the file cannot be read or is not Gzipped
+     */
+    public ParallelGZIPRandomAccessFile(File file, int regionSize, int threads) throws IOException
+    {
+        this(file, null, regionSize, threads);
+    }
+
+    /**
+     * Create an unzipped view of the file.
+     * If the file has been read before with the same region size then
+     * the saved states, from memory or the index file for the snapshot,
+     * are used to decompress regions in parallel.
+     * @param file the Gzipped file
+     * @param prefix the prefix of the snapshot, or null if the saved states are not to be stored
+     * @param regionSize the size of uncompressed data between saved states
+     * @param threads the maximum number of regions to decompress at once
+     * @throws IOException if the file cannot be read or is not Gzipped
+     */
+    public ParallelGZIPRandomAccessFile(File file, String prefix, int regionSize, int threads) throws IOException
+    {
+        this(file, prefix, checkRegionSize(regionSize), 0, threads);
+    }
+
+    private ParallelGZIPRandomAccessFile(File file, String prefix, int regionSize, long estimatedLength, int threads)
+                    throws IOException
+    {
+        this(file, prefix, getCheckpoints(file, prefix, regionSize, estimatedLength), threads, false);
+    }
+
+    private ParallelGZIPRandomAccessFile(File file, String prefix, Checkpoints checkpoints, int threads,
+                    boolean random) throws IOException
+    {
+        super(file, "r"); //$NON-NLS-1$
+        this.file = file;
+        this.prefix = prefix;
+        this.checkpoints = checkpoints;
+        this.regionSize = checkpoints.regionSize;
+        // Limit the decompressed regions held in memory to 1/4 of the spare memory
+        long memoryLimit = CompressedRandomAccessFile.checkMemSpace((long) threads * this.regionSize * 4) / 4
+                        / this.regionSize;
+        this.inFlight = (int) Math.max(1, Math.min(threads, memoryLimit));
+        if (random)
+        {
+            this.executor = null;
+            this.recent = new LinkedHashMap<Integer, byte[]>(inFlight * 2, 0.75f, true)
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest)
+                {
+                    return size() > inFlight;
+                }
+            };
+        }
+        else
+        {
+            this.executor = Executors.newWorkStealingPool(inFlight);
+            this.recent = null;
+        }
+        acquire(checkpoints);
+    }
+
+    /**
+     * Create an unzipped view of the file for random access, using the saved
+     * states from an earlier complete read of the file, either still in memory
+     * or stored in the index file for the snapshot.
+     * @param file the Gzipped file
+     * @param prefix the prefix of the snapshot
+     * @return the view, or null if the saved states for the whole file are not known
+     * @throws IOException if the file cannot be read
+     */
+    public static ParallelGZIPRandomAccessFile getRandomAccess(File file, String prefix) throws IOException
+    {
+        Checkpoints cps = getCheckpoints(file, prefix, 0, -1);
+        if (cps == null || !cps.isComplete())
+            return null;
+        return new ParallelGZIPRandomAccessFile(file, prefix, cps, RANDOM_CACHED_REGIONS, true);
+    }
+
+    /**
+     * Whether this is likely to be faster than {@link CompressedRandomAccessFile}
+     * for sequential reading.
+     * @return true if there are enough processors
+     */
+    static boolean isWorthwhile()
+    {
+        return Runtime.getRuntime().availableProcessors() >= MIN_PROCESSORS;
+    }
+
+    private static int checkRegionSize(int regionSize)
+    {
+        if (regionSize <= 0)
+            throw new IllegalArgumentException(Integer.toString(regionSize));
+        return regionSize;
+    }
+
+    private static int chooseRegionSize(File file, long estimatedLength) throws IOException
+    {
+        if (estimatedLength <= 0)
+            estimatedLength = CompressedRandomAccessFile.estimatedLength(file);
+        if (estimatedLength == Long.MAX_VALUE)
+            estimatedLength = file.length() * 8;
+        long size = (estimatedLength / MAX_CHECKPOINTS + 0xffff) & ~0xffffL;
+        return (int) Math.min(MAX_REGION_SIZE, Math.max(MIN_REGION_SIZE, size));
+    }
+
+    /**
+     * Find the saved states for the file, in memory or in the index file, or start a new set.
+     * @param prefix the prefix of the snapshot, or null if there is no index file
+     * @param regionSize the required region size, or 0 to reuse any saved states
+     * @param estimatedLength an estimate of the uncompressed length, or 0 if not known,
+     * or -1 to not start a new set
+     */
+    private static synchronized Checkpoints getCheckpoints(File file, String prefix, int regionSize,
+                    long estimatedLength) throws IOException
+    {
+        File key = file.getAbsoluteFile();
+        Checkpoints cps = cachedCheckpoints.get(key);
+        if (cps != null && cps.matches(file, regionSize))
+            return cps;
+        cps = prefix != null ? Checkpoints.load(file, prefix) : null;
+        if (cps == null || !cps.matches(file, regionSize))
+        {
+            if (estimatedLength < 0)
+                return null;
+            if (regionSize == 0)
+                regionSize = chooseRegionSize(file, estimatedLength);
+            cps = new Checkpoints(file, regionSize);
+        }
+        cachedCheckpoints.put(key, cps);
+        // Remove the oldest if there are too many
+        while (cachedCheckpoints.size() > MAX_STORED_FILES)
+        {
+            Iterator<Entry<File, Checkpoints>> it = cachedCheckpoints.entrySet().iterator();
+            Entry<File, Checkpoints> oldest = it.next();
+            while (it.hasNext())
+            {
+                Entry<File, Checkpoints> e = it.next();
+                if (e.getValue().creationTime < oldest.getValue().creationTime)
+                    oldest = e;
+            }
+            cachedCheckpoints.remove(oldest.getKey());
+        }
+        return cps;
+    }
+
+    /**
+     * Forget the saved states for the file.
+     *
+     * @param file The file to forget.
+     */
+    public static synchronized void forget(File file)
+    {
+        cachedCheckpoints.remove(file.getAbsoluteFile());
+    }
+
+    private static synchronized void acquire(Checkpoints cps)
+    {
+        cps.users++;
+    }
+
+    /**
+     * Stop using the saved states. Once no view of a file belonging to a snapshot
+     * uses them they are forgotten, as they can be found again from the index file
+     * and otherwise the decompressor states would stay in memory after the snapshot is closed.
+     */
+    private static synchronized void release(File file, String prefix, Checkpoints cps)
+    {
+        if (--cps.users == 0 && prefix != null)
+        {
+            File key = file.getAbsoluteFile();
+            if (cachedCheckpoints.get(key) == cps)
+                cachedCheckpoints.remove(key);
+        }
+    }
+
+    @Override
+    public void seek(long newPos) throws IOException
+    {
+        if (newPos < 0)
+            throw new IOException(Long.toString(newPos));
+        pos = newPos;
+    }
+
+    @Override
+    public long getFilePointer()
+    {
+        return pos;
+    }
+
+    /**
+     * Unknown length is Long.MAX_VALUE
+     */
+    @Override
+    public long length()
+    {
+        long length = checkpoints.getLength();
+        return length >= 0 ? length : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        byte b[] = new byte[1];
+        int r = read(b, 0, 1);
+        return r <= 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte buf[]) throws IOException
+    {
+        return read(buf, 0, buf.length);
+    }
+
+    @Override
+    public int read(byte buf[], int off, int len) throws IOException
+    {
+        if (len == 0)
+            return 0;
+        int region = (int) (pos / regionSize);
+        if (region != currentRegion)
+        {
+            current = null;
+            current = fetch(region);
+            currentRegion = region;
+        }
+        int offset = (int) (pos - (long) region * regionSize);
+        if (offset >= current.length)
+            return -1;
+        int n = Math.min(len, current.length - offset);
+        System.arraycopy(current, offset, buf, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (executor != null)
+        {
+            cancelPending();
+            executor.shutdownNow();
+        }
+        current = null;
+        if (prefix != null)
+        {
+            try
+            {
+                checkpoints.store(prefix);
+            }
+            catch (IOException e)
+            {
+                // Just live with it, since the saved states can be found again (albeit slowly).
+            }
+        }
+        if (!released)
+        {
+            released = true;
+            release(file, prefix, checkpoints);
+        }
+        super.close();
+    }
+
+    /**
+     * Get the uncompressed data for a region, starting the decompression
+     * of the following regions.
+     * @param region the region
+     * @return the data, shorter than the region size at the end of the data
+     */
+    private byte[] fetch(int region) throws IOException
+    {
+        if (checkpoints.beyondEnd(region))
+            return EMPTY;
+        if (recent != null)
+        {
+            byte[] data = recent.get(region);
+            if (data == null)
+            {
+                data = inflate(region);
+                recent.put(region, data);
+            }
+            return data;
+        }
+        int known = checkpoints.size();
+        // Restart if going backwards, or if a saved state allows a jump forwards
+        if (region < pendingFirst || region >= nextRegion && (region < known || pending.isEmpty()))
+        {
+            cancelPending();
+            pendingFirst = nextRegion = Math.min(region, known - 1);
+        }
+        while (true)
+        {
+            schedule();
+            if (pending.isEmpty())
+                return EMPTY;
+            byte[] data = await(pending.removeFirst());
+            int r = pendingFirst++;
+            if (r == region)
+            {
+                // Decompress the next regions while this one is read
+                schedule();
+                return data;
+            }
+            if (data.length < regionSize)
+                return EMPTY;
+        }
+    }
+
+    /**
+     * Decompress as many of the following regions at once as allowed.
+     * A region can only be started once the state at its start is known.
+     */
+    private void schedule()
+    {
+        while (pending.size() < inFlight && nextRegion < checkpoints.size() && !checkpoints.beyondEnd(nextRegion))
+        {
+            final int region = nextRegion++;
+            pending.addLast(executor.submit(new Callable<byte[]>()
+            {
+                public byte[] call() throws IOException
+                {
+                    return inflate(region);
+                }
+            }));
+        }
+    }
+
+    private void cancelPending()
+    {
+        for (Future<byte[]> f : pending)
+            f.cancel(true);
+        pending.clear();
+    }
+
+    private static byte[] await(Future<byte[]> f) throws IOException
+    {
+        try
+        {
+            return f.get();
+        }
+        catch (InterruptedException e)
+        {
+            IOException e1 = new IOException();
+            e1.initCause(e);
+            throw e1;
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Decompress one region from its saved state.
+     * If this is the last known region then save the state at the end
+     * so the following region can be decompressed.
+     * @param region the region
+     * @return the uncompressed data
+     */
+    private byte[] inflate(int region) throws IOException
+    {
+        Checkpoint cp = checkpoints.get(region);
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            ch.position(cp.compressedPosition);
+            CountingInputStream cin = new CountingInputStream(
+                            new BufferedInputStream(Channels.newInputStream(ch), READ_SIZE), cp.compressedPosition);
+            GZIPInputStream2 gz = cp.restore(cin);
+            byte[] data = new byte[regionSize];
+            int n = 0;
+            while (n < data.length)
+            {
+                int r = gz.read(data, n, data.length - n);
+                if (r < 0)
+                    break;
+                n += r;
+            }
+            // Do not close the decompressor, as that loses the state
+            cin.detach();
+            if (n < data.length)
+            {
+                checkpoints.setLength((long) region * regionSize + n);
+                return Arrays.copyOf(data, n);
+            }
+            checkpoints.add(region + 1, new Checkpoint(cin.count, gz));
+            return data;
+        }
+    }
+
+    /**
+     * The state of the decompressor at the start of a region,
+     * either in memory or stored in an index file.
+     * The state is never used directly, only copied.
+     */
+    private static final class Checkpoint
+    {
+        final long compressedPosition;
+        final GZIPInputStream2 state;
+        final File indexFile;
+        final long stateOffset;
+
+        Checkpoint(long compressedPosition, GZIPInputStream2 state)
+        {
+            this.compressedPosition = compressedPosition;
+            this.state = state;
+            this.indexFile = null;
+            this.stateOffset = -1;
+        }
+
+        Checkpoint(long compressedPosition, File indexFile, long stateOffset)
+        {
+            this.compressedPosition = compressedPosition;
+            this.state = null;
+            this.indexFile = indexFile;
+            this.stateOffset = stateOffset;
+        }
+
+        /**
+         * Create a decompressor with this state.
+         * @param in the compressed data, positioned at {@link #compressedPosition}
+         */
+        GZIPInputStream2 restore(InputStream in) throws IOException
+        {
+            if (state != null)
+                return new GZIPInputStream2(state, in);
+            try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) //$NON-NLS-1$
+            {
+                raf.seek(stateOffset);
+                return new GZIPInputStream2(new DataInputStream(new BufferedInputStream(
+                                Channels.newInputStream(raf.getChannel()))), in);
+            }
+        }
+    }
+
+    /**
+     * The saved states for a file.
+     * <p>
+     * The index file holds a header, the states, a table of the compressed position
+     * and the offset of the state for each region, then the offset of the table.
+     */
+    private static final class Checkpoints
+    {
+        final long fileSize;
+        final long modTime;
+        final long creationTime;
+        final int regionSize;
+        private final ArrayList<Checkpoint> list = new ArrayList<Checkpoint>();
+        /** The uncompressed length, or -1 if not yet known */
+        private long length = -1;
+        /** The index file holding the states, or null if they are in memory */
+        private File indexFile;
+        /** The number of open views using the states, guarded by the outer class */
+        int users;
+
+        /**
+         * Reads the saved states from the index file for the snapshot.
+         * @return the saved states, or null if there is no usable index file
+         */
+        static Checkpoints load(File file, String prefix)
+        {
+            File indexFile = new File(prefix + INDEX_SUFFIX);
+            if (!indexFile.isFile())
+                return null;
+            try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) //$NON-NLS-1$
+            {
+                if (raf.readInt() != INDEX_VERSION)
+                    return null;
+                long fileSize = raf.readLong();
+                long modTime = raf.readLong();
+                int regionSize = raf.readInt();
+                long length = raf.readLong();
+                if (fileSize != file.length() || modTime != file.lastModified() || regionSize <= 0 || length < 0)
+                    return null;
+                raf.seek(raf.length() - 8);
+                raf.seek(raf.readLong());
+                DataInputStream dis = new DataInputStream(new BufferedInputStream(Channels.newInputStream(raf.getChannel())));
+                int count = dis.readInt();
+                if (count <= 0)
+                    return null;
+                Checkpoints cps = new Checkpoints(fileSize, modTime, regionSize);
+                cps.length = length;
+                cps.indexFile = indexFile;
+                for (int i = 0; i < count; ++i)
+                {
+                    long compressedPosition = dis.readLong();
+                    long stateOffset = dis.readLong();
+                    cps.list.add(new Checkpoint(compressedPosition, indexFile, stateOffset));
+                }
+                return cps;
+            }
+            catch (IOException e)
+            {
+                // OK, maybe it is in the wrong format, so find the states again.
+                return null;
+            }
+        }
+
+        private Checkpoints(long fileSize, long modTime, int regionSize)
+        {
+            this.fileSize = fileSize;
+            this.modTime = modTime;
+            this.creationTime = System.currentTimeMillis();
+            this.regionSize = regionSize;
+        }
+
+        Checkpoints(File file, int regionSize) throws IOException
+        {
+            this(file.length(), file.lastModified(), regionSize);
+            // The first state is after the header
+            try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+            {
+                CountingInputStream cin = new CountingInputStream(
+                                new BufferedInputStream(Channels.newInputStream(ch), READ_SIZE), 0);
+                GZIPInputStream2 gz = new GZIPInputStream2(cin);
+                cin.detach();
+                list.add(new Checkpoint(cin.count, gz));
+            }
+        }
+
+        /**
+         * Whether these states are for the current version of the file.
+         * @param regionSize the required region size, or 0 for any size
+         */
+        synchronized boolean matches(File file, int regionSize)
+        {
+            return fileSize == file.length() && modTime == file.lastModified()
+                            && (regionSize == 0 || this.regionSize == regionSize)
+                            && (indexFile == null || indexFile.isFile());
+        }
+
+        /**
+         * Whether the states at the start of every region are known.
+         */
+        synchronized boolean isComplete()
+        {
+            if (length < 0)
+                return false;
+            long regions = Math.max(1, (length + regionSize - 1) / regionSize);
+            return list.size() >= regions;
+        }
+
+        /**
+         * Write the states to the index file for the snapshot once they are all known,
+         * then free the memory used by the states as they can be read back from the file.
+         */
+        synchronized void store(String prefix) throws IOException
+        {
+            if (indexFile != null || !isComplete())
+                return;
+            File indexFile = new File(prefix + INDEX_SUFFIX);
+            long compressedPositions[] = new long[list.size()];
+            long stateOffsets[] = new long[list.size()];
+            try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(indexFile))))
+            {
+                dos.writeInt(INDEX_VERSION);
+                dos.writeLong(fileSize);
+                dos.writeLong(modTime);
+                dos.writeInt(regionSize);
+                dos.writeLong(length);
+                for (int i = 0; i < list.size(); ++i)
+                {
+                    Checkpoint cp = list.get(i);
+                    // The compressed data read but not yet used is not stored, so will be read again
+                    compressedPositions[i] = cp.compressedPosition - cp.state.unreadInput();
+                    stateOffsets[i] = dos.size();
+                    cp.state.writeState(dos);
+                }
+                long tableOffset = dos.size();
+                dos.writeInt(list.size());
+                for (int i = 0; i < list.size(); ++i)
+                {
+                    dos.writeLong(compressedPositions[i]);
+                    dos.writeLong(stateOffsets[i]);
+                }
+                dos.writeLong(tableOffset);
+            }
+            catch (IOException e)
+            {
+                indexFile.delete();
+                throw e;
+            }
+            for (int i = 0; i < list.size(); ++i)
+                list.set(i, new Checkpoint(compressedPositions[i], indexFile, stateOffsets[i]));
+            this.indexFile = indexFile;
+        }
+
+        synchronized int size()
+        {
+            return list.size();
+        }
+
+        synchronized Checkpoint get(int region)
+        {
+            return list.get(region);
+        }
+
+        /**
+         * Save the state at the start of a region, if not already known.
+         */
+        synchronized void add(int region, Checkpoint cp)
+        {
+            if (region == list.size())
+                list.add(cp);
+        }
+
+        synchronized long getLength()
+        {
+            return length;
+        }
+
+        synchronized void setLength(long length)
+        {
+            this.length = length;
+        }
+
+        synchronized boolean beyondEnd(int region)
+        {
+            return length >= 0 && (long) region * regionSize >= length;
+        }
+    }
+
+    /**
+     * Counts the compressed bytes read, so the position in the file
+     * of a saved state is known.
+     */
+    private static final class CountingInputStream extends FilterInputStream
+    {
+        long count;
+
+        CountingInputStream(InputStream in, long start)
+        {
+            super(in);
+            count = start;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int r = in.read();
+            if (r >= 0)
+                ++count;
+            return r;
+        }
+
+        @Override
+        public int read(byte b[], int off, int len) throws IOException
+        {
+            int r = in.read(b, off, len);
+            if (r > 0)
+                count += r;
+            return r;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long r = in.skip(n);
+            if (r > 0)
+                count += r;
+            return r;
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        /**
+         * Drop the underlying stream and its buffer,
+         * as saved states keep a reference to this stream.
+         */
+        void detach()
+        {
+            in = null;
+        }
+    }
+}
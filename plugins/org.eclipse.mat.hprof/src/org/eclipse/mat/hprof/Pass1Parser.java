@@ -20,16 +20,23 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.eclipse.core.runtime.Platform;
 import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.collect.ArrayLong;
 import org.eclipse.mat.collect.HashMapLongObject;
 import org.eclipse.mat.collect.SetLong;
 import org.eclipse.mat.hprof.ui.HprofPreferences;
@@ -81,6 +88,11 @@ public class Pass1Parser extends AbstractParser
     private long stackFrameClassBase = 0x100;
     /** Alignment of stack frame classes frames - should not be stricter than rest of heap */
     private long stackFrameClassAlign = 0x100;
+    /** Heap dump segments being decoded by other threads, in file order */
+    private PendingSegments<PendingSegment> pending;
+    private ExecutorService segmentExecutor;
+    /** Where a segment decoder records what it found, null when parsing directly */
+    private SegmentEvents events;
 
     public Pass1Parser(IHprofParserHandler handler, SimpleMonitor.Listener monitor,
                     HprofPreferences.HprofStrictness strictnessPreference)
@@ -91,6 +103,24 @@ public class Pass1Parser extends AbstractParser
         this.biggestArrays = new int[Runtime.getRuntime().availableProcessors()];
     }
 
+    /**
+     * Create a parser to decode a heap dump segment on another thread.
+     * The string and class name tables are shared with the main parser
+     * as they are not modified while segments are being decoded.
+     */
+    private Pass1Parser(Pass1Parser parent, BufferingRafPositionInputStream in, SegmentEvents events)
+    {
+        super(parent.strictnessPreference);
+        this.handler = parent.handler;
+        this.monitor = parent.monitor;
+        this.class2name = parent.class2name;
+        this.constantPool = parent.constantPool;
+        this.idSize = parent.idSize;
+        this.version = parent.version;
+        this.in = in;
+        this.events = events;
+    }
+
     public void read(File file, String prefix, String dumpNrToRead, long estimatedLength) throws SnapshotException, IOException
     {
         // See http://java.net/downloads/heap-snapshot/hprof-binary-format.html
@@ -121,6 +151,7 @@ public class Pass1Parser extends AbstractParser
 
             // Actual file size
             long fileSize0 = file.length();
+            startSegmentDecoders(file);
             // Estimated stream length
             long fileSize = estimatedLength;
             long curPos = in.position();
@@ -137,6 +168,19 @@ public class Pass1Parser extends AbstractParser
                  * so that we can detect the end of a zipped stream.
                  */
                 int r = in.read();
+                if (r != Constants.Record.HEAP_DUMP_SEGMENT)
+                {
+                    PendingSegment retry = replaySegments(0);
+                    if (retry != null)
+                    {
+                        // Continue sequentially from the segment which could not be decoded on its own
+                        in.seek(retry.recordStart);
+                        prevTimeOffset = retry.timeOffset;
+                        timeWrap = retry.timeWrap;
+                        curPos = retry.recordStart;
+                        continue;
+                    }
+                }
                 if (r == -1)
                     break;
                 int record = r & 0xff;
@@ -222,7 +266,29 @@ public class Pass1Parser extends AbstractParser
                                 handler.addProperty(IHprofParserHandler.CREATION_DATE, String.valueOf(dumpTime));
                                 foundDump = true;
                             }
-                            long posnext = readDumpSegments(length);
+                            // Complete segments can be decoded on other threads
+                            boolean decode = record == Constants.Record.HEAP_DUMP_SEGMENT && segmentExecutor != null
+                                            && curPos + 9 + length <= fileSize0;
+                            PendingSegment retry = replaySegments(decode ? length : 0);
+                            if (retry != null)
+                            {
+                                in.seek(retry.recordStart);
+                                prevTimeOffset = retry.timeOffset;
+                                timeWrap = retry.timeWrap;
+                                curPos = retry.recordStart;
+                                continue recordLoop;
+                            }
+                            long posnext;
+                            if (decode)
+                            {
+                                submitSegment(file, prefix, curPos, timeOffset, timeWrap, length);
+                                checkSkipBytes(length);
+                                posnext = in.position();
+                            }
+                            else
+                            {
+                                posnext = readDumpSegments(length);
+                            }
                             if (posnext < curPos + length)
                             {
                                 // Truncated file, so could not read to end of segment
@@ -282,6 +348,7 @@ public class Pass1Parser extends AbstractParser
         }
         finally
         {
+            stopSegmentDecoders();
             try
             {
                 in.close();
@@ -419,7 +486,7 @@ public class Pass1Parser extends AbstractParser
         subrecordLoop: while (segmentStartPos < segmentsEndPos)
         {
             long workDone = segmentStartPos / 1000;
-            if (this.monitor.getWorkDone() < workDone)
+            if (events == null && this.monitor.getWorkDone() < workDone)
             {
                 if (this.monitor.isProbablyCanceled())
                     throw new IProgressListener.OperationCanceledException();
@@ -480,6 +547,9 @@ public class Pass1Parser extends AbstractParser
             }
             catch (EOFException e)
             {
+                // The main parser will read the segment again and report the problem
+                if (events != null)
+                    throw e;
                 switch (strictnessPreference)
                 {
                     case STRICTNESS_STOP:
@@ -505,7 +575,7 @@ public class Pass1Parser extends AbstractParser
         }
         if (verbose)
             System.out.println("    Finished heap sub-records."); //$NON-NLS-1$
-        if (segmentStartPos != segmentsEndPos)
+        if (segmentStartPos != segmentsEndPos && events == null)
         {
             switch (strictnessPreference)
             {
@@ -530,6 +600,240 @@ public class Pass1Parser extends AbstractParser
         return segmentStartPos;
     }
 
+    /**
+     * Prepare to decode complete heap dump segments on other threads.
+     * Compressed dumps are read sequentially as random access to them is expensive.
+     * @param file the dump file
+     * @throws IOException if the file cannot be read
+     */
+    private void startSegmentDecoders(File file) throws IOException
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (threads <= 1)
+            return;
+        RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+        try
+        {
+            if (CompressedRandomAccessFile.isGZIP(raf))
+                return;
+        }
+        finally
+        {
+            raf.close();
+        }
+        segmentExecutor = Executors.newWorkStealingPool(threads);
+        // Decoded segments are held in memory until they are replayed, but keep every thread busy
+        pending = new PendingSegments<PendingSegment>(Runtime.getRuntime().maxMemory() / 8, threads);
+    }
+
+    private void stopSegmentDecoders()
+    {
+        if (segmentExecutor == null)
+            return;
+        for (PendingSegment seg = pending.removeFirst(); seg != null; seg = pending.removeFirst())
+            seg.result.cancel(true);
+        pending = null;
+        segmentExecutor.shutdownNow();
+        segmentExecutor = null;
+    }
+
+    /**
+     * Decode a heap dump segment on another thread.
+     * @param file the dump file
+     * @param prefix the prefix for index files
+     * @param recordStart the position of the segment record
+     * @param timeOffset the time stamp of the record
+     * @param timeWrap the time stamp wrap-around so far
+     * @param length the length of the sub-records
+     */
+    private void submitSegment(final File file, final String prefix, long recordStart, long timeOffset, long timeWrap,
+                    final long length)
+    {
+        final long start = recordStart + 9;
+        final Pass1Parser parent = this;
+        Future<SegmentEvents> result = segmentExecutor.submit(new Callable<SegmentEvents>()
+        {
+            public SegmentEvents call() throws IOException, SnapshotException
+            {
+                BufferingRafPositionInputStream segmentIn = new BufferingRafPositionInputStream(file, prefix, start, 8 * 1024, 0);
+                try
+                {
+                    SegmentEvents events = new SegmentEvents();
+                    Pass1Parser decoder = new Pass1Parser(parent, segmentIn, events);
+                    if (decoder.readDumpSegments(length) != start + length)
+                        return null;
+                    return events;
+                }
+                finally
+                {
+                    segmentIn.close();
+                }
+            }
+        });
+        pending.add(new PendingSegment(recordStart, timeOffset, timeWrap, result), length);
+    }
+
+    /**
+     * Process the segments decoded so far, in file order.
+     * @param length the length of a segment about to be decoded, or 0 to process all the segments
+     * @return null, or the segment which needs to be read again sequentially, in which case
+     * segments are no longer decoded on other threads
+     */
+    private PendingSegment replaySegments(long length) throws IOException, SnapshotException
+    {
+        if (pending == null)
+            return null;
+        while (pending.mustReplay(length))
+        {
+            PendingSegment seg = pending.removeFirst();
+            if (!replaySegment(seg))
+            {
+                stopSegmentDecoders();
+                return seg;
+            }
+        }
+        return null;
+    }
+
+    private boolean replaySegment(PendingSegment seg) throws IOException
+    {
+        SegmentEvents decoded;
+        try
+        {
+            decoded = seg.result.get();
+        }
+        catch (InterruptedException e)
+        {
+            IOException ioe = new IOException(e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        }
+        catch (ExecutionException e)
+        {
+            // Problem with the segment, so read it again to report it as usual
+            return false;
+        }
+        if (decoded == null)
+            return false;
+        replay(decoded);
+        return true;
+    }
+
+    /**
+     * Apply the results of decoding a segment as though
+     * the segment had been read by this parser.
+     */
+    private void replay(SegmentEvents decoded) throws IOException
+    {
+        ArrayLong ev = decoded.events;
+        int classes = 0;
+        for (int i = 0; i < ev.size();)
+        {
+            if (monitor.isProbablyCanceled())
+                throw new IProgressListener.OperationCanceledException();
+            int kind = (int) ev.get(i++);
+            switch (kind)
+            {
+                case SegmentEvents.GC_ROOT:
+                    handler.addGCRoot(ev.get(i), 0, (int) ev.get(i + 1));
+                    i += 2;
+                    break;
+                case SegmentEvents.THREAD_OBJECT:
+                    addThreadObject(ev.get(i), (int) ev.get(i + 1), (int) ev.get(i + 2));
+                    i += 3;
+                    break;
+                case SegmentEvents.THREAD_ROOT:
+                case SegmentEvents.THREAD_ROOT_WITH_LINE:
+                    addGCRootWithThreadContext(ev.get(i), (int) ev.get(i + 1), (int) ev.get(i + 2),
+                                    (int) ev.get(i + 3), kind == SegmentEvents.THREAD_ROOT_WITH_LINE);
+                    i += 4;
+                    break;
+                case SegmentEvents.CLASS:
+                    handler.addClass(decoded.classes.get(classes++), ev.get(i), idSize, (int) ev.get(i + 1));
+                    i += 2;
+                    break;
+                case SegmentEvents.INSTANCE:
+                    if (!skipFrameObject(ev.get(i)))
+                        handler.reportInstanceWithClass(ev.get(i), ev.get(i + 1), ev.get(i + 2), (int) ev.get(i + 3));
+                    i += 4;
+                    break;
+                case SegmentEvents.OBJECT_ARRAY:
+                    addObjectArray(ev.get(i), ev.get(i + 1), (int) ev.get(i + 2), ev.get(i + 3));
+                    i += 4;
+                    break;
+                case SegmentEvents.PRIMITIVE_ARRAY:
+                    handler.reportInstanceOfPrimitiveArray(ev.get(i), ev.get(i + 1), (byte) ev.get(i + 2));
+                    i += 3;
+                    break;
+                default:
+                    throw new IllegalStateException(Integer.toString(kind));
+            }
+        }
+    }
+
+    /**
+     * A heap dump segment which is being decoded by another thread.
+     */
+    private static class PendingSegment
+    {
+        final long recordStart;
+        final long timeOffset;
+        final long timeWrap;
+        final Future<SegmentEvents> result;
+
+        PendingSegment(long recordStart, long timeOffset, long timeWrap, Future<SegmentEvents> result)
+        {
+            this.recordStart = recordStart;
+            this.timeOffset = timeOffset;
+            this.timeWrap = timeWrap;
+            this.result = result;
+        }
+    }
+
+    /**
+     * The sub-records found when decoding a heap dump segment,
+     * held compactly as a kind followed by the values for that kind.
+     */
+    private static class SegmentEvents
+    {
+        static final int GC_ROOT = 1;
+        static final int THREAD_OBJECT = 2;
+        static final int THREAD_ROOT = 3;
+        static final int THREAD_ROOT_WITH_LINE = 4;
+        static final int CLASS = 5;
+        static final int INSTANCE = 6;
+        static final int OBJECT_ARRAY = 7;
+        static final int PRIMITIVE_ARRAY = 8;
+
+        final ArrayLong events = new ArrayLong();
+        final List<ClassImpl> classes = new ArrayList<ClassImpl>();
+
+        void add(int kind, long a, long b)
+        {
+            events.add(kind);
+            events.add(a);
+            events.add(b);
+        }
+
+        void add(int kind, long a, long b, long c)
+        {
+            add(kind, a, b);
+            events.add(c);
+        }
+
+        void add(int kind, long a, long b, long c, long d)
+        {
+            add(kind, a, b, c);
+            events.add(d);
+        }
+
+        void add(ClassImpl clazz, long segmentStartPos, int instsize)
+        {
+            add(CLASS, segmentStartPos, instsize);
+            classes.add(clazz);
+        }
+    }
+
     /**
      * Guaranteed skip of skips, and that
      * we can read the last byte, so we haven't
@@ -571,16 +875,27 @@ public class Pass1Parser extends AbstractParser
     {
         long id = in.readID(idSize);
         int threadSerialNo = in.readInt();
-        thread2id.put(threadSerialNo, id);
-        handler.addGCRoot(id, 0, gcType);
+        if (events != null)
+            events.add(SegmentEvents.THREAD_OBJECT, id, threadSerialNo, gcType);
+        else
+            addThreadObject(id, threadSerialNo, gcType);
 
         checkSkipBytes(4);
     }
 
+    private void addThreadObject(long id, int threadSerialNo, int gcType) throws IOException
+    {
+        thread2id.put(threadSerialNo, id);
+        handler.addGCRoot(id, 0, gcType);
+    }
+
     private void readGC(int gcType, int skip) throws IOException
     {
         long id = in.readID(idSize);
-        handler.addGCRoot(id, 0, gcType);
+        if (events != null)
+            events.add(SegmentEvents.GC_ROOT, id, gcType);
+        else
+            handler.addGCRoot(id, 0, gcType);
 
         if (skip > 0)
             checkSkipBytes(skip);
@@ -590,12 +905,22 @@ public class Pass1Parser extends AbstractParser
     {
         long id = in.readID(idSize);
         int threadSerialNo = in.readInt();
-        Long tid = thread2id.get(threadSerialNo);
         int lineNumber;
         if (hasLineInfo)
             lineNumber = in.readInt();
         else
             lineNumber = -1;
+
+        if (events != null)
+            events.add(hasLineInfo ? SegmentEvents.THREAD_ROOT_WITH_LINE : SegmentEvents.THREAD_ROOT, id,
+                            threadSerialNo, lineNumber, gcType);
+        else
+            addGCRootWithThreadContext(id, threadSerialNo, lineNumber, gcType, hasLineInfo);
+    }
+
+    private void addGCRootWithThreadContext(long id, int threadSerialNo, int lineNumber, int gcType, boolean hasLineInfo) throws IOException
+    {
+        Long tid = thread2id.get(threadSerialNo);
         if (tid != null)
         {
             // With METHODSASCLASSES instead we add references from the stack
@@ -747,7 +1072,10 @@ public class Pass1Parser extends AbstractParser
         ClassImpl clazz = new ClassImpl(address, className, superClassObjectId, classLoaderObjectId, statics, fields);
         // This will be replaced by a size calculated from the field sizes
         clazz.setHeapSizePerInstance(instsize);
-        handler.addClass(clazz, segmentStartPos, idSize, instsize);
+        if (events != null)
+            events.add(clazz, segmentStartPos, instsize);
+        else
+            handler.addClass(clazz, segmentStartPos, idSize, instsize);
 
         // TODO do we actually need this code?
         // if so - move it to HprofParserHandlerImpl
@@ -810,13 +1138,29 @@ public class Pass1Parser extends AbstractParser
 
         checkSkipBytes(payload);
 
-        if (!skipFrameObject(address))
+        if (events != null)
+            events.add(SegmentEvents.INSTANCE, address, segmentStartPos, classID, payload);
+        else if (!skipFrameObject(address))
             handler.reportInstanceWithClass(address, segmentStartPos, classID, payload);
     }
 
     private void readObjectArrayDump(long segmentStartPos) throws IOException
     {
         long address = in.readID(idSize);
+        checkSkipBytes(4); // stack trace serial
+        int size = in.readInt();
+        long arrayClassObjectID = in.readID(idSize);
+
+        checkSkipBytes((long) size * idSize);
+
+        if (events != null)
+            events.add(SegmentEvents.OBJECT_ARRAY, address, segmentStartPos, size, arrayClassObjectID);
+        else
+            addObjectArray(address, segmentStartPos, size, arrayClassObjectID);
+    }
+
+    private void addObjectArray(long address, long segmentStartPos, int size, long arrayClassObjectID) throws IOException
+    {
         if (!foundCompressed && idSize == 8 && address > previousArrayStart && address < previousArrayUncompressedEnd)
         {
             monitor.sendUserMessage(
@@ -827,11 +1171,6 @@ public class Pass1Parser extends AbstractParser
             foundCompressed = true;
         }
 
-        checkSkipBytes(4); // stack trace serial
-        int size = in.readInt();
-        long arrayClassObjectID = in.readID(idSize);
-
-        checkSkipBytes((long) size * idSize);
         previousArrayStart = address;
         previousArrayUncompressedEnd = address + 16 + (long)size * 8;
         if (size > biggestArrays[0])
@@ -857,7 +1196,10 @@ public class Pass1Parser extends AbstractParser
         int elementSize = IPrimitiveArray.ELEMENT_SIZE[elementType];
         checkSkipBytes((long) elementSize * size);
 
-        handler.reportInstanceOfPrimitiveArray(address, segmentStartPos, elementType);
+        if (events != null)
+            events.add(SegmentEvents.PRIMITIVE_ARRAY, address, segmentStartPos, elementType);
+        else
+            handler.reportInstanceOfPrimitiveArray(address, segmentStartPos, elementType);
     }
 
     private String getStringConstant(long address)
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.hprof;
+
+import java.util.ArrayDeque;
+
+/**
+ * Heap dump segments being decoded by other threads, in file order,
+ * together with the total length of the segments held until they are replayed.
+ * @param <S> the type of a segment
+ */
+public class PendingSegments<S>
+{
+    private final ArrayDeque<Entry<S>> segments = new ArrayDeque<Entry<S>>();
+    /** Limit on the total length of the pending segments */
+    private final long limit;
+    /** Number of segments which may be pending whatever their length */
+    private final int minSegments;
+    /** Total length of the pending segments */
+    private long pendingBytes;
+
+    private static class Entry<S>
+    {
+        final S segment;
+        final long length;
+
+        Entry(S segment, long length)
+        {
+            this.segment = segment;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Create an empty queue.
+     * @param limit the limit on the total length of the pending segments
+     * @param minSegments the number of segments which can always be pending, however big,
+     * so that big segments are still decoded in parallel
+     */
+    public PendingSegments(long limit, int minSegments)
+    {
+        this.limit = limit;
+        this.minSegments = minSegments;
+    }
+
+    /**
+     * Add a segment after the others.
+     * @param segment the segment
+     * @param length the length of the segment
+     */
+    public void add(S segment, long length)
+    {
+        segments.addLast(new Entry<S>(segment, length));
+        pendingBytes += length;
+    }
+
+    /**
+     * Whether the first segment should be removed and replayed before
+     * another segment is decoded.
+     * The minimum number of segments can always be pending, however big.
+     * @param length the length of a segment about to be decoded, or 0 to replay all the segments
+     * @return true if the first segment should be replayed
+     */
+    public boolean mustReplay(long length)
+    {
+        if (segments.isEmpty())
+            return false;
+        if (length == 0)
+            return true;
+        return segments.size() >= minSegments && pendingBytes + length > limit;
+    }
+
+    /**
+     * Remove the first segment.
+     * @return the first segment, or null if there are none
+     */
+    public S removeFirst()
+    {
+        Entry<S> entry = segments.pollFirst();
+        if (entry == null)
+            return null;
+        pendingBytes -= entry.length;
+        return entry.segment;
+    }
+
+    /**
+     * The total length of the segments not yet removed.
+     * @return the length in bytes
+     */
+    public long getPendingBytes()
+    {
+        return pendingBytes;
+    }
+}
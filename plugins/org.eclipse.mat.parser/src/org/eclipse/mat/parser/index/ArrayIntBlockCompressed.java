@@ -0,0 +1,287 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.parser.index;
+
+import org.eclipse.mat.collect.ArrayIntCompressed;
+
+/**
+ * A class which looks like an ArrayIntCompressed but stores each small block
+ * of values as differences from the smallest value in the block, for pages
+ * holding sorted runs of nearby ids such as the bodies of the inbound and
+ * outbound indices. Each block is packed with the number of bits needed for
+ * the largest difference in the block, rather than the largest value in the page.
+ * <pre>
+ * marker (1) {@link #BLOCK_PAGE}
+ * number of values (4)
+ * bit width of the differences of each block (1 per block)
+ * smallest value of each block (4 per block)
+ * packed differences
+ * padding (5)
+ * </pre>
+ * The marker cannot be the first byte of a plain ArrayIntCompressed, which is
+ * the number of varying bits, so the readers can tell the formats apart.
+ * Unlike differences between neighbouring values, any value can be read
+ * directly, which matters as the 1 to N readers start reading at arbitrary
+ * positions in the body. {@link MappedIndexReader} can also read the pages directly.
+ */
+class ArrayIntBlockCompressed extends ArrayIntCompressed
+{
+    /** First byte of a page in this format */
+    static final byte BLOCK_PAGE = 0x40;
+    static final int BLOCK_BITS = 5;
+    static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    /** Size of the marker and number of values */
+    static final int HEADER = 5;
+    /** So that each value can be read as 5 bytes without a bounds check */
+    static final int PADDING = 5;
+    /** Bits for the offset of the differences of a block in {@link #blocks} */
+    private static final int START_BITS = 26;
+    private static final int START_MASK = (1 << START_BITS) - 1;
+    /** An empty page in the original format, for the superclass */
+    private static final byte[] EMPTY = new byte[2];
+
+    private final int size;
+    /**
+     * For each block, the smallest value, the bit offset of the differences
+     * and the bit width of the differences, in one array so that
+     * reading a value usually only touches two cache lines.
+     */
+    private final long[] blocks;
+    /**
+     * The packed differences, with a spare word at the end.
+     * Reading whole words is quicker than assembling bytes.
+     */
+    private final long[] words;
+
+    /**
+     * Create a page from bytes formerly got from {@link #toByteArray()}.
+     * @param bytes the page
+     */
+    ArrayIntBlockCompressed(byte[] bytes)
+    {
+        super(EMPTY);
+        size = readInt(bytes, 1);
+        int nblocks = blocks(size);
+        blocks = new long[nblocks];
+        long pos = 0;
+        for (int b = 0; b < nblocks; ++b)
+        {
+            int w = bytes[HEADER + b];
+            blocks[b] = (long) readInt(bytes, HEADER + nblocks + b * 4) << 32 | pos << 6 | w;
+            pos += (long) blockLength(size, b) * w;
+        }
+        int dataStart = HEADER + nblocks * 5;
+        int len = bytes.length - PADDING - dataStart;
+        words = new long[len / 8 + 2];
+        for (int i = 0; i < len; ++i)
+            words[i >>> 3] |= (bytes[dataStart + i] & 0xffL) << (56 - ((i & 7) << 3));
+    }
+
+    /**
+     * Compress a page of values, choosing whichever format is smaller.
+     * @param ints the values
+     * @param offset the first value to compress
+     * @param length the number of values
+     * @return an {@link ArrayIntCompressed} or an {@link ArrayIntBlockCompressed}
+     */
+    static ArrayIntCompressed compress(int[] ints, int offset, int length)
+    {
+        int nblocks = blocks(length);
+        byte[] widths = new byte[nblocks];
+        int[] mins = new int[nblocks];
+        long bits = 0;
+        int mask = 0;
+        for (int b = 0; b < nblocks; ++b)
+        {
+            int start = offset + (b << BLOCK_BITS);
+            int end = start + blockLength(length, b);
+            int min = ints[start];
+            int max = min;
+            for (int i = start + 1; i < end; ++i)
+            {
+                min = Math.min(min, ints[i]);
+                max = Math.max(max, ints[i]);
+                mask |= ints[i];
+            }
+            mask |= ints[start];
+            mins[b] = min;
+            // The difference is unsigned
+            widths[b] = (byte) (32 - Integer.numberOfLeadingZeros(max - min));
+            bits += (long) (end - start) * widths[b];
+        }
+        // Size of the original format, ignoring trailing clear bits
+        long plain = 2 + ((long) length * (32 - Integer.numberOfLeadingZeros(mask)) + 7) / 8;
+        long packed = HEADER + nblocks * 5L + (bits + 7) / 8 + PADDING;
+        if (packed >= plain || bits > START_MASK)
+            return new ArrayIntCompressed(ints, offset, length);
+
+        byte[] data = new byte[(int) packed];
+        data[0] = BLOCK_PAGE;
+        writeInt(data, 1, length);
+        System.arraycopy(widths, 0, data, HEADER, nblocks);
+        int dataStart = HEADER + nblocks * 5;
+        long pos = 0;
+        for (int b = 0; b < nblocks; ++b)
+        {
+            int start = offset + (b << BLOCK_BITS);
+            int end = start + blockLength(length, b);
+            writeInt(data, HEADER + nblocks + b * 4, mins[b]);
+            int w = widths[b];
+            for (int i = start; i < end; ++i, pos += w)
+                writeBits(data, dataStart, pos, w, ints[i] - mins[b]);
+        }
+        return new ArrayIntBlockCompressed(data);
+    }
+
+    /**
+     * Is this page in the block format?
+     * @param bytes the page
+     * @return true if the page should be read with {@link #ArrayIntBlockCompressed(byte[])}
+     */
+    static boolean isBlockPage(byte[] bytes)
+    {
+        return bytes.length > 0 && bytes[0] == BLOCK_PAGE;
+    }
+
+    /**
+     * Create a page of either format from bytes formerly got from {@link #toByteArray()}.
+     * @param bytes the page
+     * @return the page
+     */
+    static ArrayIntCompressed fromBytes(byte[] bytes)
+    {
+        return isBlockPage(bytes) ? new ArrayIntBlockCompressed(bytes) : new ArrayIntCompressed(bytes);
+    }
+
+    static int blocks(int size)
+    {
+        return (size + BLOCK_SIZE - 1) >>> BLOCK_BITS;
+    }
+
+    /**
+     * The number of values in a block, which is only less than
+     * the block size for the last block.
+     */
+    static int blockLength(int size, int block)
+    {
+        return Math.min(BLOCK_SIZE, size - (block << BLOCK_BITS));
+    }
+
+    @Override
+    public int get(int index)
+    {
+        long block = blocks[index >>> BLOCK_BITS];
+        int w = (int) block & 63;
+        long pos = ((block >>> 6) & START_MASK) + (long) (index & (BLOCK_SIZE - 1)) * w;
+        return (int) (block >>> 32) + readBits(pos, w);
+    }
+
+    /**
+     * Read consecutive values.
+     * For each block the differences are unpacked, then the smallest value
+     * added, in separate loops. Each loop is simple and without branches,
+     * so can be unrolled or vectorized by the JIT compiler.
+     * @param index the index of the first value
+     * @param dest where to put the values
+     * @param destPos the first index in the destination
+     * @param length the number of values, which must not go beyond the page
+     */
+    void getNext(int index, int[] dest, int destPos, int length)
+    {
+        while (length > 0)
+        {
+            long block = blocks[index >>> BLOCK_BITS];
+            int take = Math.min(length, BLOCK_SIZE - (index & (BLOCK_SIZE - 1)));
+            int w = (int) block & 63;
+            int min = (int) (block >>> 32);
+            long pos = ((block >>> 6) & START_MASK) + (long) (index & (BLOCK_SIZE - 1)) * w;
+            int end = destPos + take;
+            for (int i = destPos; i < end; ++i, pos += w)
+                dest[i] = readBits(pos, w);
+            for (int i = destPos; i < end; ++i)
+                dest[i] += min;
+            index += take;
+            destPos += take;
+            length -= take;
+        }
+    }
+
+    /**
+     * Read packed bits, most significant first, as for ArrayIntCompressed.
+     * Two words are always read, which the spare word at the end allows.
+     */
+    private int readBits(long pos, int width)
+    {
+        int i = (int) (pos >>> 6);
+        int off = (int) pos & 63;
+        // Shift in two steps so that an offset or width of 0 works
+        long bits = words[i] << off | (words[i + 1] >>> 1) >>> (63 - off);
+        return (int) ((bits >>> 1) >>> (63 - width));
+    }
+
+    /**
+     * The pages are read-only.
+     */
+    @Override
+    public void set(int index, int value)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte[] toByteArray()
+    {
+        int nblocks = blocks.length;
+        int dataStart = HEADER + nblocks * 5;
+        long bits = 0;
+        if (nblocks > 0)
+        {
+            long last = blocks[nblocks - 1];
+            bits = ((last >>> 6) & START_MASK) + (long) blockLength(size, nblocks - 1) * ((int) last & 63);
+        }
+        int len = (int) ((bits + 7) / 8);
+        byte[] data = new byte[dataStart + len + PADDING];
+        data[0] = BLOCK_PAGE;
+        writeInt(data, 1, size);
+        for (int b = 0; b < nblocks; ++b)
+        {
+            data[HEADER + b] = (byte) (blocks[b] & 63);
+            writeInt(data, HEADER + nblocks + b * 4, (int) (blocks[b] >>> 32));
+        }
+        for (int i = 0; i < len; ++i)
+            data[dataStart + i] = (byte) (words[i >>> 3] >>> (56 - ((i & 7) << 3)));
+        return data;
+    }
+
+    private static void writeBits(byte[] data, int start, long pos, int width, int value)
+    {
+        for (int i = width - 1; i >= 0; --i, ++pos)
+        {
+            if ((value >>> i & 1) != 0)
+                data[start + (int) (pos >>> 3)] |= 0x80 >>> (pos & 7);
+        }
+    }
+
+    static int readInt(byte[] b, int i)
+    {
+        return (b[i] & 0xff) << 24 | (b[i + 1] & 0xff) << 16 | (b[i + 2] & 0xff) << 8 | (b[i + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] b, int i, int v)
+    {
+        b[i] = (byte) (v >>> 24);
+        b[i + 1] = (byte) (v >>> 16);
+        b[i + 2] = (byte) (v >>> 8);
+        b[i + 3] = (byte) v;
+    }
+}
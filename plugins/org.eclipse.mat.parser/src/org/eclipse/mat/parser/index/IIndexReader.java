@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2022 SAP AG and others.
+ * Copyright (c) 2008, 2023 SAP AG and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -9,6 +9,7 @@
  *
  * Contributors:
  *    SAP AG - initial API and implementation
+ *    IBM Corporation - batch lookups for sorted ids
  *******************************************************************************/
 package org.eclipse.mat.parser.index;
 
@@ -43,6 +44,21 @@ public interface IIndexReader
          */
         int[] getAll(int index[]);
 
+        /**
+         * Look up the items for several keys.
+         * Implementations reading from paged files find each page once when
+         * the keys are in ascending order, so sorting the keys first is worthwhile
+         * for large arrays.
+         * @param sortedIds the keys to look up, preferably in ascending order
+         * @param out the result for each key, at the same position as the key
+         * @since 1.15
+         */
+        default void getAll(int[] sortedIds, int[] out)
+        {
+            for (int ii = 0; ii < sortedIds.length; ii++)
+                out[ii] = get(sortedIds[ii]);
+        }
+
         /**
          * Look up all the items from the index from index to index + length - 1
          * and return the result in the index for each on
@@ -109,6 +125,36 @@ public interface IIndexReader
          * @return an array holding the object IDs
          */
         int[] get(int index);
+
+        /**
+         * Get the object IDs for each of several input object IDs.
+         * Implementations reading from paged files find each page once when
+         * the keys are in ascending order, so sorting the keys first is worthwhile
+         * for large arrays.
+         * @param sortedIds the object IDs to look up, preferably in ascending order
+         * @param visitor called with each input object ID and the object IDs for it,
+         * in the order of the input
+         * @since 1.15
+         */
+        default void forEach(int[] sortedIds, IOne2ManyVisitor visitor)
+        {
+            for (int index : sortedIds)
+                visitor.visit(index, get(index));
+        }
+    }
+
+    /**
+     * Receives the results of {@link IOne2ManyIndex#forEach(int[], IOne2ManyVisitor)}.
+     * @since 1.15
+     */
+    public interface IOne2ManyVisitor
+    {
+        /**
+         * Receive the object IDs for one key.
+         * @param index the input object ID
+         * @param values the object IDs corresponding to the input
+         */
+        void visit(int index, int[] values);
     }
 
     /**
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 SAP AG and others.
+ * Copyright (c) 2008, 2023 SAP AG and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -9,6 +9,8 @@
  *
  * Contributors:
  *    SAP AG - initial API and implementation
+ *    IBM Corporation - open the index files in parallel
+ *    IBM Corporation - summary of the top-level dominators
  *******************************************************************************/
 package org.eclipse.mat.parser.index;
 
@@ -16,8 +18,19 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.mat.parser.internal.Messages;
 import org.eclipse.mat.parser.internal.snapshot.RetainedSizeCache;
+import org.eclipse.mat.parser.internal.snapshot.TopDominatorsSummary;
 import org.eclipse.mat.util.MessageUtil;
 
 /**
@@ -25,34 +38,49 @@ import org.eclipse.mat.util.MessageUtil;
  */
 public class IndexManager
 {
+    /**
+     * System property to select the memory mapped index readers
+     * from {@link MappedIndexReader} when reopening a snapshot.
+     * For example <code>-Dmat.index.mapped=true</code>
+     * @since 1.15
+     */
+    public static final String MAPPED_INDEX_PROPERTY = "mat.index.mapped"; //$NON-NLS-1$
+
     /**
      * The different index types.
      */
     public enum Index
     {
         /** Inbounds: object id to N outbound object ids */
-        INBOUND("inbound", IndexReader.InboundReader.class), //$NON-NLS-1$
+        INBOUND("inbound", IndexReader.InboundReader.class, MappedIndexReader.InboundReader.class), //$NON-NLS-1$
         /** Outbounds: object id to N inbound object ids */
-        OUTBOUND("outbound", IndexReader.IntIndex1NSortedReader.class), //$NON-NLS-1$
+        OUTBOUND("outbound", IndexReader.IntIndex1NSortedReader.class, MappedIndexReader.IntIndex1NSortedReader.class), //$NON-NLS-1$
         /** Object to class: object id to 1 class id */
-        O2CLASS("o2c", IndexReader.IntIndexReader.class), //$NON-NLS-1$
+        O2CLASS("o2c", IndexReader.IntIndexReader.class, MappedIndexReader.IntIndexReader.class), //$NON-NLS-1$
         /** Index to address: object id to address (as a long) */
-        IDENTIFIER("idx", IndexReader.LongIndexReader.class), //$NON-NLS-1$
+        IDENTIFIER("idx", IndexReader.LongIndexReader.class, MappedIndexReader.LongIndexReader.class), //$NON-NLS-1$
         /** Array to size: array (or non-default sized object) id to size (as an encoded int) */
-        A2SIZE("a2s", IndexReader.SizeIndexReader.class), //$NON-NLS-1$
+        A2SIZE("a2s", IndexReader.SizeIndexReader.class, MappedIndexReader.SizeIndexReader.class), //$NON-NLS-1$
         /** Dominated: object id to N dominated object ids */
-        DOMINATED("domOut", IndexReader.IntIndex1NReader.class), //$NON-NLS-1$
+        DOMINATED("domOut", IndexReader.IntIndex1NReader.class, MappedIndexReader.IntIndex1NReader.class), //$NON-NLS-1$
         /** Object to retained size: object in dominator tree to retained size (as a long) */
-        O2RETAINED("o2ret", IndexReader.LongIndexReader.class), //$NON-NLS-1$
+        O2RETAINED("o2ret", IndexReader.LongIndexReader.class, MappedIndexReader.LongIndexReader.class), //$NON-NLS-1$
         /** Dominator of: object id to the id of its dominator */
-        DOMINATOR("domIn", IndexReader.IntIndexReader.class), //$NON-NLS-1$
+        DOMINATOR("domIn", IndexReader.IntIndexReader.class, MappedIndexReader.IntIndexReader.class), //$NON-NLS-1$
         /**
          * Retained size cache.
          * Retained size cache for a class: class+all instances.
          * Retained size cache for a class loader: loader+all classes+all instances. 
          * @since 1.2
          */
-        I2RETAINED("i2sv2", RetainedSizeCache.class); //$NON-NLS-1$
+        I2RETAINED("i2sv2", RetainedSizeCache.class, null), //$NON-NLS-1$
+        /**
+         * Top-level dominators summary.
+         * The biggest objects dominated by the root of the dominator tree, and the sizes
+         * of all those objects grouped by class and class loader.
+         * @since 1.15
+         */
+        DOMTOP("domTop", TopDominatorsSummary.class, null); //$NON-NLS-1$
         /*
          * Other indexes:
          * i2s
@@ -70,11 +98,16 @@ public class IndexManager
          * The index reader for the index and file name
          */
         Class<? extends IIndexReader> impl;
+        /**
+         * The memory mapped index reader, or null if there is none
+         */
+        Class<? extends IIndexReader> mappedImpl;
 
-        private Index(String filename, Class<? extends IIndexReader> impl)
+        private Index(String filename, Class<? extends IIndexReader> impl, Class<? extends IIndexReader> mappedImpl)
         {
             this.filename = filename;
             this.impl = impl;
+            this.mappedImpl = mappedImpl;
         }
 
         /**
@@ -126,6 +159,12 @@ public class IndexManager
      * @noreference This field is not intended to be referenced by clients.
      */
     public RetainedSizeCache i2sv2;
+    /**
+     * The summary of the top-level dominators
+     * @noreference This field is not intended to be referenced by clients.
+     * @since 1.15
+     */
+    public TopDominatorsSummary domTop;
 
     /**
      * Add index reader corresponding to the index to the index manager
@@ -170,62 +209,158 @@ public class IndexManager
     }
 
     /**
-     * Populate all the index readers
+     * Populate all the index readers.
+     * If the system property {@link #MAPPED_INDEX_PROPERTY} is set then
+     * memory mapped readers are used where available, falling back
+     * to the standard readers if the file cannot be mapped.
+     * The readers only read the page directory of each file, and the files are
+     * opened in parallel, which helps when the files are on slow or remote storage.
      * @param prefix the prefix of the snapshot
      * @throws IOException if a problem occurred reading the indices
      */
     public void init(final String prefix) throws IOException
     {
+        final boolean mapped = Boolean.getBoolean(MAPPED_INDEX_PROPERTY);
+        final List<Index> indexes = new ArrayList<Index>();
         new Visitor()
         {
 
             @Override
             void visit(Index index, IIndexReader reader) throws IOException
             {
-                if (reader != null)
-                    return;
+                if (reader == null && index.getFile(prefix).exists())
+                    indexes.add(index);
+            }
 
-                try
+        }.doIt();
+
+        int threads = Math.min(indexes.size(), Runtime.getRuntime().availableProcessors());
+        if (threads <= 1)
+        {
+            for (Index index : indexes)
+                setReader(index, open(index, index.getFile(prefix), mapped));
+            return;
+        }
+
+        ExecutorService es = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<IIndexReader>> readers = new ArrayList<Future<IIndexReader>>();
+            for (final Index index : indexes)
+            {
+                readers.add(es.submit(new Callable<IIndexReader>()
                 {
-                    File indexFile = index.getFile(prefix);
-                    if (indexFile.exists())
+                    public IIndexReader call() throws IOException
                     {
-                        Constructor<?> constructor = index.impl.getConstructor(new Class[] { File.class });
-                        reader = (IIndexReader) constructor.newInstance(new Object[] { indexFile });
-                        setReader(index, reader);
+                        return open(index, index.getFile(prefix), mapped);
                     }
-                }
-                catch (NoSuchMethodException e)
-                {
-                    throw new RuntimeException(e);
-                }
-                catch (InstantiationException e)
-                {
-                    throw new RuntimeException(e);
-                }
-                catch (IllegalAccessException e)
+                }));
+            }
+            // Set all the readers which opened before reporting a failure, so close() can close them
+            IOException failure = null;
+            for (int i = 0; i < indexes.size(); ++i)
+            {
+                try
                 {
-                    throw new RuntimeException(e);
+                    setReader(indexes.get(i), readers.get(i).get());
                 }
-                catch (InvocationTargetException e)
+                catch (ExecutionException e)
                 {
                     Throwable cause = e.getCause();
-                    IOException ioe = new IOException(MessageUtil.format("{0}: {1}", cause.getClass().getName(), //$NON-NLS-1$
-                                    cause.getMessage()));
-                    ioe.initCause(cause);
-                    throw ioe;
+                    if (cause instanceof Error)
+                        throw (Error) cause;
+                    if (failure == null)
+                        failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
                 }
-                catch (RuntimeException e)
+                catch (InterruptedException e)
                 {
-                    // re-wrap runtime exceptions caught during index processing
-                    // into IOExceptions -> trigger reparsing of hprof dump
-                    IOException ioe = new IOException();
-                    ioe.initCause(e);
-                    throw ioe;
+                    if (failure == null)
+                        failure = new IOException(e);
                 }
             }
+            if (failure != null)
+                throw failure;
+        }
+        finally
+        {
+            es.shutdown();
+        }
+    }
+
+    /**
+     * Create the reader for an index file.
+     * @param index the type of index
+     * @param indexFile the file
+     * @param mapped whether to try a memory mapped reader first
+     * @return the reader
+     * @throws IOException if a problem occurred reading the index
+     */
+    private static IIndexReader open(Index index, File indexFile, boolean mapped) throws IOException
+    {
+        try
+        {
+            IIndexReader reader = null;
+            if (mapped && index.mappedImpl != null)
+                reader = createMapped(index.mappedImpl, indexFile);
+            if (reader == null)
+            {
+                Constructor<?> constructor = index.impl.getConstructor(new Class[] { File.class });
+                reader = (IIndexReader) constructor.newInstance(new Object[] { indexFile });
+            }
+            return reader;
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (InstantiationException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (InvocationTargetException e)
+        {
+            Throwable cause = e.getCause();
+            IOException ioe = new IOException(MessageUtil.format("{0}: {1}", cause.getClass().getName(), //$NON-NLS-1$
+                            cause.getMessage()));
+            ioe.initCause(cause);
+            throw ioe;
+        }
+        catch (RuntimeException e)
+        {
+            // re-wrap runtime exceptions caught during index processing
+            // into IOExceptions -> trigger reparsing of hprof dump
+            IOException ioe = new IOException();
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
 
-        }.doIt();
+    /**
+     * Try to create a memory mapped index reader.
+     * @param impl the memory mapped reader class
+     * @param indexFile the index file
+     * @return the reader, or null if the file could not be mapped
+     */
+    private static IIndexReader createMapped(Class<? extends IIndexReader> impl, File indexFile)
+                    throws NoSuchMethodException, InstantiationException, IllegalAccessException
+    {
+        Constructor<? extends IIndexReader> constructor = impl.getConstructor(new Class<?>[] { File.class });
+        try
+        {
+            return constructor.newInstance(new Object[] { indexFile });
+        }
+        catch (InvocationTargetException e)
+        {
+            // For example, not enough address space for the mapping
+            Throwable cause = e.getCause();
+            Logger.getLogger(IndexManager.class.getName()).log(Level.WARNING,
+                            MessageUtil.format(Messages.IndexManager_MappedIndexFallback, indexFile, cause), cause);
+            return null;
+        }
     }
 
     /**
@@ -10,6 +10,9 @@
  * Contributors:
  *    SAP AG - initial API and implementation
  *    Andrew Johnson - enhancements for huge dumps
+ *    IBM Corporation - compressed index pages
+ *    IBM Corporation - block encoded pages for sorted 1 to N indices
+ *    IBM Corporation - batch lookups for sorted ids
  *******************************************************************************/
 package org.eclipse.mat.parser.index;
 
@@ -27,7 +30,9 @@ import org.eclipse.mat.SnapshotException;
 import org.eclipse.mat.collect.ArrayIntCompressed;
 import org.eclipse.mat.collect.ArrayLongCompressed;
 import org.eclipse.mat.collect.HashMapIntObject;
+import org.eclipse.mat.parser.index.IIndexReader.IOne2ManyVisitor;
 import org.eclipse.mat.parser.index.IndexWriter.ArrayIntLongCompressed;
+import org.eclipse.mat.parser.index.IndexWriter.IntIndex;
 import org.eclipse.mat.parser.internal.Messages;
 import org.eclipse.mat.parser.io.SimpleBufferedRandomAccessInputStream;
 
@@ -69,6 +74,12 @@ public abstract class IndexReader
      * This is experimental and index files with 2^31 entries or more
      * are not compatible with 1.1 or earlier and might not be compatible
      * with 1.3 or later.
+     * <p>
+     * Version 1.15: 
+     * If the pages are compressed by a {@link PageCodec} then the
+     * page size has the top bit set and is preceded by the codec identifier (4).
+     * A page can also be an {@link ArrayIntBlockCompressed}, which is
+     * recognized by its first byte.
      */
     public static class IntIndexReader extends IndexWriter.IntIndex<SoftReference<ArrayIntCompressed>> implements
                     IIndexReader.IOne2OneIndex
@@ -86,6 +97,8 @@ public abstract class IndexReader
         long[] pageStart;
         /** Thread-safe page cache */
         final ConcurrentHashMap<Integer,SoftReference<ArrayIntCompressed>> pages2 = new ConcurrentHashMap<Integer,SoftReference<ArrayIntCompressed>>();
+        /** How the pages are compressed */
+        PageCodec codec = PageCodec.NONE;
 
         IntIndexReader(File indexFile, IndexWriter.Pages<SoftReference<ArrayIntCompressed>> pages, long size,
                         int pageSize, long[] pageStart)
@@ -122,11 +135,21 @@ public abstract class IndexReader
         public IntIndexReader(SimpleBufferedRandomAccessInputStream in, long start, long length) throws IOException
         {
             this.in = in;
-            this.in.seek(start + length - 16);
+            this.in.seek(start + length - 8);
 
-            long lastOffset = this.in.readLong();
             int pageSize = this.in.readInt();
             int size = this.in.readInt();
+            // end of the page offsets
+            long offsetsEnd = start + length - 8;
+            if ((pageSize & PageCodec.CODEC_FLAG) != 0)
+            {
+                pageSize &= ~PageCodec.CODEC_FLAG;
+                offsetsEnd -= 4;
+                this.in.seek(offsetsEnd);
+                codec = PageCodec.forId(this.in.readInt());
+            }
+            this.in.seek(offsetsEnd - 8);
+            long lastOffset = this.in.readLong();
 
             int pages;
             if (size >= 0)
@@ -138,7 +161,7 @@ public abstract class IndexReader
             else
             {
                 // large dump format, find number of pages using offsets
-                pages = (int)((start + length - 8 - lastOffset) / 8);
+                pages = (int)((offsetsEnd - lastOffset) / 8);
                 // then find the total size from pages and entries in last page
                 long sizeL = (pages - 2L) * pageSize - size;
                 init(sizeL, pageSize);
@@ -146,7 +169,7 @@ public abstract class IndexReader
 
             pageStart = new long[pages];
 
-            this.in.seek(start + length - 8 - (pageStart.length * 8L));
+            this.in.seek(offsetsEnd - (pageStart.length * 8L));
             this.in.readLongArray(pageStart);
         }
 
@@ -222,6 +245,8 @@ public abstract class IndexReader
                 throw new RuntimeException(e);
             }
 
+            buffer = codec.decodePage(buffer);
+
             synchronized (LOCK)
             {
                 // if another thread finished a concurrent read, use it
@@ -233,7 +258,7 @@ public abstract class IndexReader
                     return array;
                 }
 
-                array = new ArrayIntCompressed(buffer);
+                array = ArrayIntBlockCompressed.fromBytes(buffer);
 
                 // no need for putIfAbsent because we only do this inside sync block
                 pages2.put(page, new SoftReference<>(array));
@@ -371,6 +396,17 @@ public abstract class IndexReader
             return idx.getAll(index);
         }
 
+        /**
+         * Delegate to the int index.
+         * Gets the encoded sizes for a list of object IDs
+         * @param sortedIds the object IDs, preferably in ascending order
+         * @param out the encoded sizes
+         */
+        public void getAll(int[] sortedIds, int[] out)
+        {
+            idx.getAll(sortedIds, out);
+        }
+
         /**
          * Delegate to the int index.
          * Gets the encoded sizes for a consecutive list of object IDs
@@ -469,6 +505,19 @@ public abstract class IndexReader
             return body.getNext(p + 1, length);
         }
 
+        public void forEach(int[] sortedIds, IOne2ManyVisitor visitor)
+        {
+            IntIndex<?>.PageCursor h = header.cursor();
+            IntIndex<?>.PageCursor b = body.cursor();
+            for (int index : sortedIds)
+            {
+                long p = h.getPos(index);
+                int[] values = new int[b.get(p)];
+                b.getNext(p + 1, values, 0, values.length);
+                visitor.visit(index, values);
+            }
+        }
+
         protected synchronized void open()
         {
             try
@@ -604,6 +653,37 @@ public abstract class IndexReader
             return body.getNext(p0 - 1, (int)(p1 - p0));
         }
 
+        /**
+         * Reads the header and body pages in order, as for {@link #get(int)}.
+         */
+        @Override
+        public void forEach(int[] sortedIds, IOne2ManyVisitor visitor)
+        {
+            IntIndex<?>.PageCursor h = header.cursor();
+            IntIndex<?>.PageCursor b = body.cursor();
+            int headerSize = header.size();
+            for (int index : sortedIds)
+            {
+                long p0 = h.getPos(index);
+                int[] values;
+                if (p0 == 0)
+                {
+                    values = new int[0];
+                }
+                else
+                {
+                    long p1 = 0;
+                    for (int i = index + 1; p1 < p0 && i < headerSize; i++)
+                        p1 = h.getPos(i);
+                    if (p1 < p0)
+                        p1 = body.size + 1;
+                    values = new int[(int)(p1 - p0)];
+                    b.getNext(p0 - 1, values, 0, values.length);
+                }
+                visitor.visit(index, values);
+            }
+        }
+
     }
 
     static class InboundReader extends IntIndex1NSortedReader implements IIndexReader.IOne2ManyObjectsIndex
@@ -666,6 +746,7 @@ public abstract class IndexReader
      * page size (4)
      * total size (4)
      * </pre>
+     * Compressed pages are marked in the same way as for {@link IntIndexReader}.
      */
     public static class LongIndexReader extends IndexWriter.LongIndex implements IIndexReader.IOne2LongIndex
     {
@@ -674,6 +755,8 @@ public abstract class IndexReader
         File indexFile;
         SimpleBufferedRandomAccessInputStream in;
         long[] pageStart;
+        /** How the pages are compressed */
+        PageCodec codec = PageCodec.NONE;
         /**
          * Thread-safe search cache.
          * Scale up the capacity so size doesn't exceed 75% capacity and 
@@ -718,6 +801,15 @@ public abstract class IndexReader
 
             int pageSize = this.in.readInt();
             int size = this.in.readInt();
+            // end of the page offsets
+            long offsetsEnd = start + length - 8;
+            if ((pageSize & PageCodec.CODEC_FLAG) != 0)
+            {
+                pageSize &= ~PageCodec.CODEC_FLAG;
+                offsetsEnd -= 4;
+                this.in.seek(offsetsEnd);
+                codec = PageCodec.forId(this.in.readInt());
+            }
 
             init(size, pageSize);
 
@@ -725,7 +817,7 @@ public abstract class IndexReader
 
             pageStart = new long[pages];
 
-            this.in.seek(start + length - 8 - (pageStart.length * 8L));
+            this.in.seek(offsetsEnd - (pageStart.length * 8L));
             this.in.readLongArray(pageStart);
         }
 
@@ -858,6 +950,8 @@ public abstract class IndexReader
                 throw new RuntimeException(e);
             }
 
+            buffer = codec.decodePage(buffer);
+
             synchronized (LOCK)
             {
                 // if another thread finished a concurrent read, use it
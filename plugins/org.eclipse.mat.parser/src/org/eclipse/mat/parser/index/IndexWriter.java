@@ -11,10 +11,18 @@
  *    SAP AG - initial API and implementation
  *    Andrew Johnson - enhancements for huge dumps
  *    Netflix (Jason Koch) - refactors for increased performance and concurrency
+ *    IBM Corporation - off-heap collection of object addresses
+ *    IBM Corporation - external merge sort for the inbound index
+ *    IBM Corporation - compressed index pages
+ *    IBM Corporation - block encoded pages for sorted 1 to N indices
+ *    IBM Corporation - batch lookups for sorted ids
  *******************************************************************************/
 package org.eclipse.mat.parser.index;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -28,6 +36,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
@@ -46,6 +55,7 @@ import org.eclipse.mat.collect.ArrayIntCompressed;
 import org.eclipse.mat.collect.ArrayLong;
 import org.eclipse.mat.collect.ArrayLongBig;
 import org.eclipse.mat.collect.ArrayLongCompressed;
+import org.eclipse.mat.collect.ArrayLongOffHeap;
 import org.eclipse.mat.collect.ArrayUtils;
 import org.eclipse.mat.collect.BitField;
 import org.eclipse.mat.collect.HashMapIntLong;
@@ -73,6 +83,24 @@ public abstract class IndexWriter
     public static final int PAGE_SIZE_INT = 1000000;
     /** Number of entries in a page of longs */
     public static final int PAGE_SIZE_LONG = 500000;
+    /**
+     * System property to compress the pages of new index files,
+     * to save disk space at the cost of some time to expand the pages when read.
+     * For example <code>-Dmat.index.codec=lz4</code>.
+     * The default is <code>none</code>, which keeps the index files readable
+     * by earlier versions.
+     * @since 1.15
+     */
+    public static final String INDEX_CODEC_PROPERTY = "mat.index.codec"; //$NON-NLS-1$
+    /**
+     * System property to control whether the bodies of the inbound and outbound
+     * indices store small blocks of ids as differences from the smallest id in
+     * the block, where that is smaller.
+     * The default is <code>false</code>, as earlier versions cannot read the index
+     * files and parse the dump again; <code>-Dmat.index.blocks=true</code> enables it.
+     * @since 1.15
+     */
+    public static final String INDEX_BLOCK_PROPERTY = "mat.index.blocks"; //$NON-NLS-1$
     /** Set this to true to test more code paths with smaller indices */
     private static final boolean TEST = false;
     /** How much to resize break points for large formats to make testing easier */
@@ -111,6 +139,28 @@ public abstract class IndexWriter
         long[] identifiers;
         int size;
         ArrayLongBig collect;
+        /** Where to collect addresses outside of the heap, or null to use the heap */
+        File scratchDirectory;
+        ArrayLongOffHeap collectOffHeap;
+
+        /**
+         * Collect the object addresses on the Java heap.
+         */
+        public Identifier()
+        {}
+
+        /**
+         * Collect the newly added object addresses outside of the Java heap,
+         * in a memory-mapped scratch file, until they are sorted.
+         * This avoids holding both the collected addresses and the sorted
+         * array on the heap at the same time.
+         * @param scratchDirectory where to create the scratch file
+         * @since 1.15
+         */
+        public Identifier(File scratchDirectory)
+        {
+            this.scratchDirectory = scratchDirectory;
+        }
 
         /**
          * Add an object.
@@ -118,17 +168,64 @@ public abstract class IndexWriter
          */
         public void add(long id)
         {
-            if (collect == null)
+            if (scratchDirectory != null)
+            {
+                if (collectOffHeap == null)
+                {
+                    try
+                    {
+                        collectOffHeap = new ArrayLongOffHeap(scratchDirectory);
+                    }
+                    catch (IOException e)
+                    {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+            else if (collect == null)
                 collect = new ArrayLongBig();
             // Avoid strange exceptions later
-            int s = collect.length();
+            int s = collected();
             long minCapacity = size + s + 1;
             int newCapacity = Math.min((int)minCapacity, Integer.MAX_VALUE - 8);
             if (newCapacity < minCapacity)
             {
                 throw new OutOfMemoryError(MessageUtil.format(Messages.IndexWriter_Error_ArrayLength, minCapacity, newCapacity));
             }
-            collect.add(id);
+            if (collectOffHeap != null)
+                collectOffHeap.add(id);
+            else
+                collect.add(id);
+        }
+
+        /**
+         * The number of addresses added since the last sort.
+         */
+        private int collected()
+        {
+            return collectOffHeap != null ? collectOffHeap.length() : collect != null ? collect.length() : 0;
+        }
+
+        private long getCollected(int index)
+        {
+            return collectOffHeap != null ? collectOffHeap.get(index) : collect.get(index);
+        }
+
+        private void releaseCollected()
+        {
+            collect = null;
+            if (collectOffHeap != null)
+            {
+                try
+                {
+                    collectOffHeap.close();
+                }
+                catch (IOException e)
+                {
+                    // Just a scratch file which will be deleted on exit
+                }
+                collectOffHeap = null;
+            }
         }
 
         /**
@@ -138,18 +235,18 @@ public abstract class IndexWriter
          */
         public void sort()
         {
-            if (collect == null)
+            if (collect == null && collectOffHeap == null)
             {
             }
             else if (identifiers == null)
             {
-                size = collect.length();
-                identifiers = collect.toArray();
-                collect = null;
+                size = collected();
+                identifiers = collectOffHeap != null ? collectOffHeap.toArray() : collect.toArray();
+                releaseCollected();
             }
             else
             {
-                int s = collect.length();
+                int s = collected();
                 long minCapacity = size + s;
                 int newCapacity = Math.min((int)minCapacity, Integer.MAX_VALUE - 8);
                 if (newCapacity < minCapacity)
@@ -160,10 +257,10 @@ public abstract class IndexWriter
                 identifiers = copyOf(identifiers, newCapacity);
                 for (int i = 0; i < s; ++i)
                 {
-                    identifiers[size + i] = collect.get(i);
+                    identifiers[size + i] = getCollected(i);
                 }
                 size += s;
-                collect = null;
+                releaseCollected();
             }
             Arrays.parallelSort(identifiers, 0, size);
             Arrays.sort(identifiers, 0, size); // Debug for bug 581932
@@ -171,7 +268,7 @@ public abstract class IndexWriter
 
         public int size()
         {
-            return size + (collect != null ? collect.length() : 0);
+            return size + collected();
         }
 
         public long get(int index)
@@ -179,7 +276,7 @@ public abstract class IndexWriter
             if (index < 0 || index >= size())
                 throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size()); //$NON-NLS-1$//$NON-NLS-2$
 
-            return index < size || collect == null ? identifiers[index] : collect.get(index - size);
+            return index < size ? identifiers[index] : getCollected(index - size);
         }
 
         public int reverse(long val)
@@ -246,7 +343,7 @@ public abstract class IndexWriter
         public void delete()
         {
             identifiers = null;
-            collect = null;
+            releaseCollected();
         }
 
         public void unload() throws IOException
@@ -540,44 +637,101 @@ public abstract class IndexWriter
         }
 
         private int[] getNext0(long index, int length)
-            {
+        {
             int answer[] = new int[length];
-            if (length == 0)
-                return answer;
-            int page = page(index);
-            int pageIndex = offset(index);
-
-            ArrayIntCompressed array = getPage(page);
-            for (int ii = 0; ii < length; ii++)
-            {
-                answer[ii] = array.get(pageIndex++);
-                if (pageIndex >= pageSize && ii + 1 < length)
-                {
-                    array = getPage(++page);
-                    pageIndex = 0;
-                }
-            }
-
+            cursor().getNext(index, answer, 0, length);
             return answer;
         }
 
         public int[] getAll(int index[])
         {
             int[] answer = new int[index.length];
+            getAll(index, answer);
+            return answer;
+        }
 
-            int page = -1;
-            ArrayIntCompressed array = null;
+        public void getAll(int[] sortedIds, int[] out)
+        {
+            PageCursor cursor = cursor();
+            for (int ii = 0; ii < sortedIds.length; ii++)
+                out[ii] = cursor.get(sortedIds[ii]);
+        }
+
+        /**
+         * Start a series of reads.
+         * @return a cursor which holds on to the page last read
+         */
+        PageCursor cursor()
+        {
+            return new PageCursor();
+        }
 
-            for (int ii = 0; ii < answer.length; ii++)
+        /**
+         * Holds on to the page last read, so a series of reads in ascending order
+         * finds each page once, rather than once per value.
+         * Not thread safe, so use one per series of reads.
+         */
+        final class PageCursor
+        {
+            private int page = -1;
+            private ArrayIntCompressed array;
+
+            private ArrayIntCompressed array(long index)
             {
-                int p = page(index[ii]);
+                int p = page(index);
                 if (p != page)
-                    array = getPage(page = p);
+                {
+                    array = getPage(p);
+                    page = p;
+                }
+                return array;
+            }
 
-                answer[ii] = array.get(offset(index[ii]));
+            int get(long index)
+            {
+                return array(index).get(offset(index));
             }
 
-            return answer;
+            /**
+             * The unsigned position, see {@link IntIndex#getPos(int)}.
+             */
+            long getPos(long index)
+            {
+                ArrayIntCompressed a = array(index);
+                if (a instanceof ArrayIntLongCompressed)
+                    return ((ArrayIntLongCompressed) a).getPos(offset(index));
+                return a.get(offset(index)) & 0xffffffffL;
+            }
+
+            /**
+             * Read consecutive values.
+             * @param index the first value
+             * @param dest where to put the values
+             * @param destPos the first index in the destination
+             * @param length the number of values
+             */
+            void getNext(long index, int[] dest, int destPos, int length)
+            {
+                while (length > 0)
+                {
+                    ArrayIntCompressed a = array(index);
+                    int pageIndex = offset(index);
+                    int n = Math.min(length, pageSize - pageIndex);
+                    if (a instanceof ArrayIntBlockCompressed)
+                    {
+                        // decode a block at a time
+                        ((ArrayIntBlockCompressed) a).getNext(pageIndex, dest, destPos, n);
+                    }
+                    else
+                    {
+                        for (int ii = 0; ii < n; ii++)
+                            dest[destPos + ii] = a.get(pageIndex + ii);
+                    }
+                    index += n;
+                    destPos += n;
+                    length -= n;
+                }
+            }
         }
 
         public void set(int index, int value)
@@ -766,6 +920,10 @@ public abstract class IndexWriter
     {
         DataOutputStream out;
         ArrayLong pageStart;
+        /** Compresses the pages as they are written */
+        PageCodec codec = PageCodec.NONE;
+        /** Store blocks of values as differences from the smallest where smaller, for sorted runs */
+        boolean blocks;
         int[] page;
         int left;
 
@@ -860,6 +1018,7 @@ public abstract class IndexWriter
             this.pageStart = new ArrayLong();
             this.pageStart.add(position);
             this.left = page.length;
+            this.codec = PageCodec.configured();
         }
 
         /**
@@ -907,7 +1066,7 @@ public abstract class IndexWriter
             for (int jj = 0; jj < pageStart.size(); jj++)
                 out.writeLong(pageStart.get(jj));
 
-            out.writeInt(pageSize);
+            writePageSize(out, pageSize, codec);
             // Encoded size is the negative number of entries in the last page
             int s = size <= FORMAT1_MAX_SIZE ? (int)size : -(int)((size + pageSize - 1) % pageSize + 1);
             out.writeInt(s);
@@ -916,12 +1075,14 @@ public abstract class IndexWriter
 
             this.out = null;
 
-            return this.pageStart.lastElement() + (8L * pageStart.size()) + 8 - this.pageStart.firstElement();
+            return this.pageStart.lastElement() + (8L * pageStart.size()) + trailerSize(codec) - this.pageStart.firstElement();
         }
 
         IndexReader.IntIndexReader getReader(File indexFile)
         {
-            return new IndexReader.IntIndexReader(indexFile, pages, size, pageSize, pageStart.toArray());
+            IndexReader.IntIndexReader reader = new IndexReader.IntIndexReader(indexFile, pages, size, pageSize, pageStart.toArray());
+            reader.codec = codec;
+            return reader;
         }
 
         void addAll(IteratorInt iterator) throws IOException
@@ -1005,9 +1166,10 @@ public abstract class IndexWriter
 
             public byte[] call()
             {
-                ArrayIntCompressed array = new ArrayIntCompressed(page, 0, page.length - left);
+                ArrayIntCompressed array = blocks ? ArrayIntBlockCompressed.compress(page, 0, page.length - left)
+                                : new ArrayIntCompressed(page, 0, page.length - left);
                 pages.put(pageNumber, new SoftReference<ArrayIntCompressed>(array));
-                return array.toByteArray();
+                return codec.encode(array.toByteArray());
             }
         }
 
@@ -1344,6 +1506,7 @@ public abstract class IndexWriter
         public IntArray1NSortedWriter(int size, File indexFile) throws IOException
         {
             super(size, indexFile);
+            body.blocks = blockPages();
         }
 
         protected void set(int index, int[] values, int offset, int length) throws IOException
@@ -1382,6 +1545,17 @@ public abstract class IndexWriter
         BitOutputStream[] segments;
         long[] segmentSizes;
 
+        /** Sorted runs of references, used instead of the segments when there is a memory budget */
+        long[] run;
+        int runLength;
+        List<File> runFiles;
+        long memoryBudget;
+
+        /** Most runs to merge at once */
+        private static final int MAX_MERGE = 256;
+        /** Smallest buffer for reading a run */
+        private static final int MIN_RUN_BUFFER = 8192;
+
         /**
          * Construct an inbound writer.
          * @param size the number of entries
@@ -1405,6 +1579,25 @@ public abstract class IndexWriter
             this.segmentSizes = new long[segments];
         }
 
+        /**
+         * Construct an inbound writer which uses a bounded amount of memory
+         * for the references, whatever the number of references.
+         * The references are collected into sorted runs which are spilled to
+         * temporary files, then merged while writing the index.
+         * The result is the same as for {@link #InboundWriter(int, File)}.
+         * @param size the number of entries
+         * @param indexFile the index file to be written to
+         * @param memoryBudget the approximate number of bytes to use for sorting the references
+         * @throws IOException if there is a problem writing the file
+         * @since 1.15
+         */
+        public InboundWriter(int size, File indexFile, long memoryBudget) throws IOException
+        {
+            this(size, indexFile);
+            this.memoryBudget = memoryBudget;
+            this.runFiles = new ArrayList<File>();
+        }
+
         /**
          * Record an inbound reference.
          * @param objectIndex the object has a reference from ref
@@ -1415,6 +1608,15 @@ public abstract class IndexWriter
          */
         public void log(int objectIndex, int refIndex, boolean isPseudo) throws IOException
         {
+            if (runFiles != null)
+            {
+                if (run == null)
+                    run = new long[(int) Math.max(1024, Math.min(memoryBudget / 8, Integer.MAX_VALUE - 8))];
+                else if (runLength == run.length)
+                    spillRun();
+                run[runLength++] = runKey(objectIndex, refIndex, isPseudo);
+                return;
+            }
             int segment = objectIndex / pageSize;
             if (segments[segment] == null)
             {
@@ -1464,18 +1666,26 @@ public abstract class IndexWriter
 
             IntIndexStreamer body = new IntIndexStreamer();
             body.openStream(index, 0);
+            body.blocks = blockPages();
             boolean bodyopen = true;
             try
             {
 
-                for (int segment = 0; segment < segments.length; segment++)
+                if (runFiles != null)
                 {
-                    if (monitor.isCanceled())
-                        throw new IProgressListener.OperationCanceledException();
+                    processRuns(monitor, keyWriter, body);
+                }
+                else
+                {
+                    for (int segment = 0; segment < segments.length; segment++)
+                    {
+                        if (monitor.isCanceled())
+                            throw new IProgressListener.OperationCanceledException();
 
-                    File segmentFile = new File(this.indexFile.getAbsolutePath() + segment + ".log");//$NON-NLS-1$
-                    int startIndex = segment * pageSize;
-                    processGiantSegmentFile(monitor, keyWriter, body, segmentFile, segmentSizes[segment], segment, startIndex);
+                        File segmentFile = new File(this.indexFile.getAbsolutePath() + segment + ".log");//$NON-NLS-1$
+                        int startIndex = segment * pageSize;
+                        processGiantSegmentFile(monitor, keyWriter, body, segmentFile, segmentSizes[segment], segment, startIndex);
+                    }
                 }
 
                 // write header
@@ -1859,6 +2069,311 @@ public abstract class IndexWriter
             }
         }
 
+        /**
+         * The sort key for a reference: by object, then the pseudo references
+         * in ascending order, then the other references in ascending order.
+         */
+        private static long runKey(int objectIndex, int refIndex, boolean isPseudo)
+        {
+            return ((long) objectIndex << 32) | (isPseudo ? 0 : 0x80000000L) | refIndex;
+        }
+
+        private File runFile(int run)
+        {
+            return new File(this.indexFile.getAbsolutePath() + "r" + run + ".log");//$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        /**
+         * Sort the collected references and write them to a new run file.
+         */
+        private void spillRun() throws IOException
+        {
+            Arrays.parallelSort(run, 0, runLength);
+            File file = runFile(runFiles.size());
+            runFiles.add(file);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1024 * 64));
+            try
+            {
+                out.writeLong(runLength);
+                for (int ii = 0; ii < runLength; ii++)
+                    out.writeLong(run[ii]);
+            }
+            finally
+            {
+                out.close();
+            }
+            runLength = 0;
+        }
+
+        /**
+         * Write the index body from the sorted runs.
+         */
+        private void processRuns(IProgressListener monitor, KeyWriter keyWriter, IntIndexStreamer body) throws IOException
+        {
+            RunOutput output = new RunOutput(keyWriter, body);
+            if (runFiles.isEmpty())
+            {
+                // Everything fitted in memory
+                if (run != null)
+                {
+                    Arrays.parallelSort(run, 0, runLength);
+                    for (int ii = 0; ii < runLength; ii++)
+                    {
+                        if (ii % 100000 == 0 && monitor.isCanceled())
+                            throw new IProgressListener.OperationCanceledException();
+                        output.add(run[ii]);
+                    }
+                }
+                run = null;
+                output.finish();
+                return;
+            }
+            if (runLength > 0)
+                spillRun();
+            run = null;
+
+            // Reduce the number of runs so that each can have a reasonable buffer
+            int maxMerge = (int) Math.max(2, Math.min(MAX_MERGE, memoryBudget / MIN_RUN_BUFFER));
+            int bufferSize = (int) Math.max(MIN_RUN_BUFFER, Math.min(1024 * 1024, memoryBudget / maxMerge));
+            while (runFiles.size() > maxMerge)
+            {
+                List<File> merged = new ArrayList<File>();
+                for (int ii = 0; ii < runFiles.size(); ii += maxMerge)
+                {
+                    List<File> group = runFiles.subList(ii, Math.min(runFiles.size(), ii + maxMerge));
+                    File file = runFile(runFiles.size() + merged.size());
+                    merged.add(file);
+                    RunMerger in = new RunMerger(group, bufferSize);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), bufferSize));
+                    try
+                    {
+                        out.writeLong(in.remaining);
+                        for (long jj = 0; in.hasNext(); ++jj)
+                        {
+                            if (jj % 100000 == 0 && monitor.isCanceled())
+                                throw new IProgressListener.OperationCanceledException();
+                            out.writeLong(in.next());
+                        }
+                    }
+                    finally
+                    {
+                        out.close();
+                        in.close();
+                    }
+                    deleteRuns(group);
+                }
+                runFiles = merged;
+            }
+
+            RunMerger in = new RunMerger(runFiles, bufferSize);
+            try
+            {
+                for (long jj = 0; in.hasNext(); ++jj)
+                {
+                    if (jj % 100000 == 0 && monitor.isCanceled())
+                        throw new IProgressListener.OperationCanceledException();
+                    output.add(in.next());
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+            output.finish();
+            deleteRuns(runFiles);
+            runFiles.clear();
+        }
+
+        private void deleteRuns(List<File> files)
+        {
+            for (File file : files)
+            {
+                if (file.exists() && !file.delete())
+                {
+                    logger.log(Level.WARNING, Messages.SnapshotFactoryImpl_UnableToDeleteIndexFile, file.toString());
+                }
+            }
+        }
+
+        /**
+         * Merges several sorted run files into one sorted sequence.
+         */
+        private static class RunMerger implements Closeable
+        {
+            private static class Run implements Comparable<Run>
+            {
+                DataInputStream in;
+                long remaining;
+                long head;
+
+                public int compareTo(Run o)
+                {
+                    return Long.compare(head, o.head);
+                }
+            }
+
+            private final PriorityQueue<Run> queue;
+            private final List<Run> runs = new ArrayList<Run>();
+            long remaining;
+
+            RunMerger(List<File> files, int bufferSize) throws IOException
+            {
+                queue = new PriorityQueue<Run>(Math.max(1, files.size()));
+                try
+                {
+                    for (File file : files)
+                    {
+                        Run r = new Run();
+                        runs.add(r);
+                        r.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), bufferSize));
+                        r.remaining = r.in.readLong();
+                        remaining += r.remaining;
+                        advance(r);
+                    }
+                }
+                catch (IOException e)
+                {
+                    close();
+                    throw e;
+                }
+            }
+
+            private void advance(Run r) throws IOException
+            {
+                if (r.remaining > 0)
+                {
+                    r.head = r.in.readLong();
+                    r.remaining--;
+                    queue.add(r);
+                }
+            }
+
+            boolean hasNext()
+            {
+                return !queue.isEmpty();
+            }
+
+            long next() throws IOException
+            {
+                Run r = queue.poll();
+                long ret = r.head;
+                advance(r);
+                return ret;
+            }
+
+            public void close() throws IOException
+            {
+                for (Run r : runs)
+                {
+                    if (r.in != null)
+                        r.in.close();
+                }
+            }
+        }
+
+        /**
+         * Writes the index body from the sorted references,
+         * with the same result as {@link #processObject}.
+         */
+        private class RunOutput
+        {
+            private final KeyWriter keyWriter;
+            private final IntIndexStreamer body;
+            private int objectId = -1;
+            private int pseudos;
+            private long previous = -1;
+            /** The pseudo references, while there are not too many */
+            private final ArrayInt pseudoList = new ArrayInt();
+            /** The pseudo references, once there are many */
+            private BitField pseudoBits;
+
+            RunOutput(KeyWriter keyWriter, IntIndexStreamer body)
+            {
+                this.keyWriter = keyWriter;
+                this.body = body;
+            }
+
+            void add(long key) throws IOException
+            {
+                int obj = (int) (key >>> 32);
+                boolean isPseudo = (key & 0x80000000L) == 0;
+                int ref = (int) (key & Integer.MAX_VALUE);
+                if (key == previous)
+                    return;
+                previous = key;
+                if (obj != objectId)
+                {
+                    finish();
+                    objectId = obj;
+                    setHeader(obj, body.size + 1);
+                }
+                if (isPseudo)
+                {
+                    body.add(ref);
+                    ++pseudos;
+                    if (pseudoBits != null)
+                    {
+                        pseudoBits.set(ref);
+                    }
+                    else
+                    {
+                        pseudoList.add(ref);
+                        if (pseudoList.size() > 100000)
+                        {
+                            pseudoBits = new BitField(size);
+                            for (int ii = 0; ii < pseudoList.size(); ++ii)
+                                pseudoBits.set(pseudoList.get(ii));
+                            pseudoList.clear();
+                        }
+                    }
+                }
+                else if (pseudos == 0 || !pseudoContains(ref))
+                {
+                    body.add(ref);
+                }
+            }
+
+            private boolean pseudoContains(int ref)
+            {
+                if (pseudoBits != null)
+                    return pseudoBits.get(ref);
+                // The pseudo references arrive in ascending order
+                int a = 0, c = pseudoList.size();
+                while (a < c)
+                {
+                    int b = (a + c) >>> 1;
+                    int v = pseudoList.get(b);
+                    if (v < ref)
+                        a = b + 1;
+                    else if (v > ref)
+                        c = b;
+                    else
+                        return true;
+                }
+                return false;
+            }
+
+            void finish() throws IOException
+            {
+                if (objectId >= 0 && pseudos > 0)
+                {
+                    long h = getHeader(objectId);
+                    if (h > INBOUND_MAX_KEY1)
+                    {
+                        keyWriter.storeKey(objectId, new long[] { h - 1, pseudos });
+                    }
+                    else
+                    {
+                        keyWriter.storeKey(objectId, new int[] { header[objectId] - 1, pseudos });
+                    }
+                }
+                objectId = -1;
+                pseudos = 0;
+                pseudoList.clear();
+                pseudoBits = null;
+            }
+        }
+
         /**
          * Terminate the InboundWriter and
          * delete any files which have been written so far.
@@ -1870,6 +2385,12 @@ public abstract class IndexWriter
             {
                 close();
 
+                run = null;
+                if (runFiles != null)
+                {
+                    deleteRuns(runFiles);
+                    runFiles.clear();
+                }
                 if (segments != null)
                 {
                     for (int ii = 0; ii < segments.length; ii++)
@@ -2251,6 +2772,8 @@ public abstract class IndexWriter
     {
         DataOutputStream out;
         ArrayLong pageStart;
+        /** Compresses the pages as they are written */
+        PageCodec codec = PageCodec.NONE;
         long[] page;
         int left;
 
@@ -2416,6 +2939,7 @@ public abstract class IndexWriter
             this.pageStart = new ArrayLong();
             this.pageStart.add(position);
             this.left = page.length;
+            this.codec = PageCodec.configured();
         }
 
         /**
@@ -2463,19 +2987,21 @@ public abstract class IndexWriter
             for (int jj = 0; jj < pageStart.size(); jj++)
                 out.writeLong(pageStart.get(jj));
 
-            out.writeInt(pageSize);
+            writePageSize(out, pageSize, codec);
             out.writeInt(size);
 
             this.page = null;
 
             this.out = null;
 
-            return this.pageStart.lastElement() + (8L * pageStart.size()) + 8 - this.pageStart.firstElement();
+            return this.pageStart.lastElement() + (8L * pageStart.size()) + trailerSize(codec) - this.pageStart.firstElement();
         }
 
         IndexReader.LongIndexReader getReader(File indexFile) throws IOException
         {
-            return new IndexReader.LongIndexReader(indexFile, pages, size, pageSize, pageStart.toArray());
+            IndexReader.LongIndexReader reader = new IndexReader.LongIndexReader(indexFile, pages, size, pageSize, pageStart.toArray());
+            reader.codec = codec;
+            return reader;
         }
 
         public void addAll(IteratorLong iterator) throws IOException
@@ -2559,7 +3085,7 @@ public abstract class IndexWriter
             {
                 ArrayLongCompressed array = new ArrayLongCompressed(page, 0, page.length - left);
                 pages.put(pageNumber, new SoftReference<ArrayLongCompressed>(array));
-                return array.toByteArray();
+                return codec.encode(array.toByteArray());
             }
         }
 
@@ -2659,7 +3185,9 @@ public abstract class IndexWriter
                     }
                 }
             }
-            return new IndexReader.PositionIndexReader(null, pages2, size, pageSize, pageStart.toArray());
+            IndexReader.PositionIndexReader reader = new IndexReader.PositionIndexReader(null, pages2, size, pageSize, pageStart.toArray());
+            reader.codec = codec;
+            return reader;
         }
     }
 
@@ -2814,6 +3342,52 @@ public abstract class IndexWriter
         return lead == 0x0 ? mostSignificantBit((int) x) : 32 + mostSignificantBit((int) lead);
     }
 
+    /**
+     * Write the page size in the trailer of a stream of pages,
+     * preceded by the codec if the pages are compressed.
+     */
+    static void writePageSize(DataOutputStream out, int pageSize, PageCodec codec) throws IOException
+    {
+        if (codec != PageCodec.NONE)
+        {
+            out.writeInt(codec.id);
+            out.writeInt(pageSize | PageCodec.CODEC_FLAG);
+        }
+        else
+        {
+            out.writeInt(pageSize);
+        }
+    }
+
+    /**
+     * The size of the trailer after the page offsets.
+     */
+    static int trailerSize(PageCodec codec)
+    {
+        return codec != PageCodec.NONE ? 12 : 8;
+    }
+
+    /**
+     * Whether sorted 1 to N indices should be written with {@link ArrayIntBlockCompressed} pages,
+     * from the {@link #INDEX_BLOCK_PROPERTY} system property.
+     */
+    static boolean blockPages()
+    {
+        return Boolean.parseBoolean(System.getProperty(INDEX_BLOCK_PROPERTY, Boolean.FALSE.toString()));
+    }
+
+    /**
+     * Whether new index files have pages which earlier versions cannot read,
+     * from the codec chosen by {@link #INDEX_CODEC_PROPERTY} and from {@link #INDEX_BLOCK_PROPERTY}.
+     * An unknown codec name leaves the pages uncompressed.
+     * @return true if the pages are compressed or block encoded
+     * @since 1.15
+     */
+    public static boolean isCompressedPages()
+    {
+        return PageCodec.configured() != PageCodec.NONE || blockPages();
+    }
+
     static ExecutorService singleThreadedExecutor(String name)
     {
         final int poolSize = 1;
@@ -0,0 +1,621 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *    IBM Corporation - block encoded pages for sorted 1 to N indices
+ *******************************************************************************/
+package org.eclipse.mat.parser.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.parser.internal.Messages;
+
+/**
+ * Implementations to read index files which memory map the file
+ * written by {@link IndexWriter} rather than reading and caching
+ * decompressed pages.
+ * Values are decoded directly from the mapping, so reads do not need
+ * any locks, and caching of the file contents is left to the
+ * operating system.
+ * The file formats are the same as for the corresponding {@link IndexReader}
+ * classes.
+ * @since 1.15
+ */
+public abstract class MappedIndexReader
+{
+    private static final Logger logger = Logger.getLogger(MappedIndexReader.class.getName());
+
+    /**
+     * A read-only mapping of a whole file.
+     * A single {@link java.nio.MappedByteBuffer} is limited to 2GB, so
+     * bigger files are mapped as several chunks.
+     */
+    static final class MappedFile
+    {
+        /** Size of each chunk of the mapping, a power of 2 */
+        private static final int CHUNK_BITS = 30;
+        private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+        private final ByteBuffer[] chunks;
+        private final long length;
+
+        MappedFile(File file) throws IOException
+        {
+            RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+            try
+            {
+                FileChannel channel = raf.getChannel();
+                length = channel.size();
+                int n = (int) ((length + CHUNK_MASK) >>> CHUNK_BITS);
+                chunks = new ByteBuffer[n];
+                for (int i = 0; i < n; ++i)
+                {
+                    long start = (long) i << CHUNK_BITS;
+                    chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(length - start, 1L << CHUNK_BITS));
+                }
+            }
+            finally
+            {
+                // the mapping remains valid after the channel is closed
+                raf.close();
+            }
+        }
+
+        /**
+         * Read a byte without changing the state of the buffers, so safe
+         * for concurrent use.
+         * @param pos the position in the file
+         * @return the byte
+         */
+        byte get(long pos)
+        {
+            return chunks[(int) (pos >>> CHUNK_BITS)].get((int) (pos & CHUNK_MASK));
+        }
+
+        int getInt(long pos)
+        {
+            return ((get(pos) & 0xff) << 24) | ((get(pos + 1) & 0xff) << 16) | ((get(pos + 2) & 0xff) << 8)
+                            | (get(pos + 3) & 0xff);
+        }
+
+        long getLong(long pos)
+        {
+            return ((long) getInt(pos) << 32) | (getInt(pos + 4) & 0xffffffffL);
+        }
+
+        long length()
+        {
+            return length;
+        }
+
+        /**
+         * Drop the buffers, so the file is unmapped once they are garbage collected.
+         */
+        void close()
+        {
+            Arrays.fill(chunks, null);
+        }
+    }
+
+    /**
+     * Decodes a stream of pages in {@link org.eclipse.mat.collect.ArrayIntCompressed} or
+     * {@link org.eclipse.mat.collect.ArrayLongCompressed} format from a mapped file.
+     * Both formats share the same layout: a byte giving the number of varying bits,
+     * a byte giving the number of trailing clear bits, then the packed values.
+     * Pages of ints can also be in {@link ArrayIntBlockCompressed} format.
+     * <pre>
+     * Page 0
+     * ...
+     * Page n
+     * page 0 start in file (8)
+     * ...
+     * page n+1 start in file (8)
+     * page size (4)
+     * total size (4)
+     * </pre>
+     */
+    static final class Pages
+    {
+        final MappedFile file;
+        final int pageSize;
+        final long size;
+        final long[] pageStart;
+        /** The page headers, held on the heap as they are needed for every read */
+        final byte[] varyingBits;
+        final byte[] trailingClearBits;
+        /** The bit offsets of the blocks of block encoded pages, otherwise null */
+        final int[][] blockStart;
+
+        /**
+         * Read the trailer of pages of ints.
+         * @param file the mapped file
+         * @param start start of the index in the file
+         * @param length length of the index in the file
+         */
+        static Pages forInts(MappedFile file, long start, long length) throws IOException
+        {
+            checkUncompressed(file, start, length);
+            long lastOffset = file.getLong(start + length - 16);
+            int pageSize = file.getInt(start + length - 8);
+            int size = file.getInt(start + length - 4);
+
+            int pages;
+            long sizeL;
+            if (size >= 0)
+            {
+                sizeL = size;
+                pages = (size / pageSize) + (size % pageSize > 0 ? 2 : 1);
+            }
+            else
+            {
+                // large dump format, find number of pages using offsets
+                pages = (int) ((start + length - 8 - lastOffset) / 8);
+                // then find the total size from pages and entries in last page
+                sizeL = (pages - 2L) * pageSize - size;
+            }
+            return new Pages(file, start + length - 8 - (pages * 8L), pages, pageSize, sizeL, true);
+        }
+
+        /**
+         * Read the trailer of pages of longs.
+         * @param file the mapped file
+         * @param start start of the index in the file
+         * @param length length of the index in the file
+         */
+        static Pages forLongs(MappedFile file, long start, long length) throws IOException
+        {
+            checkUncompressed(file, start, length);
+            int pageSize = file.getInt(start + length - 8);
+            int size = file.getInt(start + length - 4);
+            int pages = (size / pageSize) + (size % pageSize > 0 ? 2 : 1);
+            return new Pages(file, start + length - 8 - (pages * 8L), pages, pageSize, size, false);
+        }
+
+        /**
+         * Values can only be decoded directly from pages which are not compressed
+         * by a {@link PageCodec}.
+         */
+        private static void checkUncompressed(MappedFile file, long start, long length) throws IOException
+        {
+            if ((file.getInt(start + length - 8) & PageCodec.CODEC_FLAG) != 0)
+                throw new IOException(Messages.MappedIndexReader_Error_CompressedPages);
+        }
+
+        private Pages(MappedFile file, long offsets, int pages, int pageSize, long size, boolean ints)
+        {
+            this.file = file;
+            this.pageSize = pageSize;
+            this.size = size;
+            this.pageStart = new long[pages];
+            for (int i = 0; i < pages; ++i)
+                pageStart[i] = file.getLong(offsets + i * 8L);
+            // The last entry is the end of the final page, not a page
+            varyingBits = new byte[pages - 1];
+            trailingClearBits = new byte[pages - 1];
+            blockStart = new int[pages - 1][];
+            for (int i = 0; i < pages - 1; ++i)
+            {
+                varyingBits[i] = file.get(pageStart[i]);
+                trailingClearBits[i] = file.get(pageStart[i] + 1);
+                // 0x40 could also be the varying bits of a page of longs
+                if (ints && varyingBits[i] == ArrayIntBlockCompressed.BLOCK_PAGE)
+                {
+                    int n = file.getInt(pageStart[i] + 1);
+                    int starts[] = new int[ArrayIntBlockCompressed.blocks(n)];
+                    int pos = 0;
+                    for (int b = 0; b < starts.length; ++b)
+                    {
+                        starts[b] = pos;
+                        pos += ArrayIntBlockCompressed.blockLength(n, b) * file.get(pageStart[i] + ArrayIntBlockCompressed.HEADER + b);
+                    }
+                    blockStart[i] = starts;
+                }
+            }
+        }
+
+        /**
+         * Decode a value, following {@link org.eclipse.mat.collect.ArrayLongCompressed#get(int)}.
+         * Values in int pages are returned in the low 32 bits.
+         * @param index the index of the value in the whole index
+         * @return the value
+         */
+        long get(long index)
+        {
+            int page = (int) (index / pageSize);
+            int offset = (int) (index % pageSize);
+            if (blockStart[page] != null)
+                return getBlock(page, offset);
+            int bits = varyingBits[page];
+            long base = pageStart[page] + 2;
+
+            long value;
+            final long pos = (long) offset * bits;
+            long idx = base + (pos >>> 3);
+            int off = ((int) pos) & 0x7;
+            if ((off + bits) > 0x8)
+            {
+                value = ((file.get(idx++) << off) & 0xff) >>> off;
+                off += bits - 0x8;
+                while (off > 0x8)
+                {
+                    value <<= 0x8;
+                    value |= file.get(idx++) & 0xff;
+                    off -= 0x8;
+                }
+                value <<= off;
+                value |= (file.get(idx) & 0xff) >>> (0x8 - off);
+            }
+            else
+            {
+                value = ((file.get(idx) << off) & 0xff) >>> (0x8 - bits);
+            }
+            return value << trailingClearBits[page];
+        }
+
+        /**
+         * Decode a value from an {@link ArrayIntBlockCompressed} page,
+         * following {@link ArrayIntBlockCompressed#get(int)}.
+         * @param page the page
+         * @param offset the index in the page
+         * @return the value
+         */
+        private int getBlock(int page, int offset)
+        {
+            int[] starts = blockStart[page];
+            int b = offset >>> ArrayIntBlockCompressed.BLOCK_BITS;
+            long p = pageStart[page] + ArrayIntBlockCompressed.HEADER;
+            int w = file.get(p + b);
+            long pos = starts[b] + (long) (offset & (ArrayIntBlockCompressed.BLOCK_SIZE - 1)) * w;
+            long idx = p + starts.length * 5L + (pos >>> 3);
+            int off = (int) pos & 7;
+            // The padding allows 5 bytes to be read for any value
+            long word = (file.get(idx) & 0xffL) << 32 | (file.get(idx + 1) & 0xffL) << 24
+                            | (file.get(idx + 2) & 0xffL) << 16 | (file.get(idx + 3) & 0xffL) << 8
+                            | (file.get(idx + 4) & 0xffL);
+            int min = file.getInt(p + starts.length + b * 4L);
+            return min + (int) ((word >>> (40 - off - w)) & ((1L << w) - 1));
+        }
+
+        int getInt(long index)
+        {
+            return (int) get(index);
+        }
+
+        int[] getNext(long index, int length)
+        {
+            int answer[] = new int[length];
+            for (int ii = 0; ii < length; ii++)
+                answer[ii] = (int) get(index + ii);
+            return answer;
+        }
+
+        long[] getNextLong(long index, int length)
+        {
+            long answer[] = new long[length];
+            for (int ii = 0; ii < length; ii++)
+                answer[ii] = get(index + ii);
+            return answer;
+        }
+
+        int size()
+        {
+            if (size > Integer.MAX_VALUE)
+                throw new IllegalStateException();
+            return (int) size;
+        }
+    }
+
+    /**
+     * Common handling of the backing file.
+     */
+    abstract static class MappedIndex implements IIndexReader
+    {
+        File indexFile;
+        MappedFile file;
+
+        MappedIndex(File indexFile) throws IOException
+        {
+            this.indexFile = indexFile;
+            this.file = new MappedFile(indexFile);
+        }
+
+        /**
+         * Nothing to do - the operating system manages the pages.
+         */
+        public void unload()
+        {}
+
+        /**
+         * Drops the mapping and the pages decoded from it. The file is unmapped
+         * once the buffers are garbage collected.
+         */
+        public synchronized void close()
+        {
+            if (file != null)
+                file.close();
+            file = null;
+        }
+
+        /**
+         * Closes the reader then deletes the file. Some operating systems do not
+         * allow a file to be deleted while it is still mapped, so then the file is
+         * deleted when the virtual machine exits.
+         */
+        public synchronized void delete()
+        {
+            close();
+
+            if (indexFile != null)
+            {
+                if (indexFile.delete())
+                {
+                    indexFile = null;
+                }
+                else
+                {
+                    logger.log(Level.WARNING, Messages.SnapshotFactoryImpl_UnableToDeleteIndexFile, indexFile.toString());
+                    indexFile.deleteOnExit();
+                }
+            }
+        }
+    }
+
+    /**
+     * A memory mapped int to int index reader.
+     * @see IndexReader.IntIndexReader
+     */
+    public static class IntIndexReader extends MappedIndex implements IIndexReader.IOne2OneIndex
+    {
+        Pages pages;
+
+        public IntIndexReader(File indexFile) throws IOException
+        {
+            super(indexFile);
+            pages = Pages.forInts(file, 0, file.length());
+        }
+
+        @Override
+        public synchronized void close()
+        {
+            pages = null;
+            super.close();
+        }
+
+        public int get(int index)
+        {
+            return pages.getInt(index);
+        }
+
+        public int[] getAll(int[] index)
+        {
+            int[] answer = new int[index.length];
+            for (int ii = 0; ii < answer.length; ii++)
+                answer[ii] = pages.getInt(index[ii]);
+            return answer;
+        }
+
+        public int[] getNext(int index, int length)
+        {
+            return pages.getNext(index, length);
+        }
+
+        public int size()
+        {
+            return pages.size();
+        }
+    }
+
+    /**
+     * A memory mapped reader for array sizes.
+     * @see IndexReader.SizeIndexReader
+     */
+    public static class SizeIndexReader extends IndexReader.SizeIndexReader
+    {
+        public SizeIndexReader(File indexFile) throws IOException
+        {
+            super(new IntIndexReader(indexFile));
+        }
+    }
+
+    /**
+     * A memory mapped int to long index reader.
+     * @see IndexReader.LongIndexReader
+     */
+    public static class LongIndexReader extends MappedIndex implements IIndexReader.IOne2LongIndex
+    {
+        Pages pages;
+
+        public LongIndexReader(File indexFile) throws IOException
+        {
+            super(indexFile);
+            pages = Pages.forLongs(file, 0, file.length());
+        }
+
+        @Override
+        public synchronized void close()
+        {
+            pages = null;
+            super.close();
+        }
+
+        public long get(int index)
+        {
+            return pages.get(index);
+        }
+
+        public long[] getNext(int index, int length)
+        {
+            return pages.getNextLong(index, length);
+        }
+
+        public int reverse(long value)
+        {
+            int low = 0;
+            int high = pages.size() - 1;
+
+            while (low <= high)
+            {
+                // Avoid overflow problems by using unsigned divide by 2
+                int mid = (low + high) >>> 1;
+                long midVal = pages.get(mid);
+
+                if (midVal < value)
+                    low = mid + 1;
+                else if (midVal > value)
+                    high = mid - 1;
+                else
+                    return mid; // key found
+            }
+            return -(low + 1); // key not found.
+        }
+
+        public int size()
+        {
+            return pages.size();
+        }
+    }
+
+    /**
+     * A memory mapped int to int array index reader.
+     * @see IndexReader.IntIndex1NReader
+     */
+    public static class IntIndex1NReader extends MappedIndex implements IIndexReader.IOne2ManyIndex
+    {
+        Pages header;
+        Pages body;
+
+        public IntIndex1NReader(File indexFile) throws IOException
+        {
+            super(indexFile);
+            long indexLength = file.length();
+            long divider = file.getLong(indexLength - 8);
+
+            this.header = Pages.forInts(file, divider, indexLength - divider - 8);
+            this.body = Pages.forInts(file, 0, divider);
+        }
+
+        @Override
+        public synchronized void close()
+        {
+            header = null;
+            body = null;
+            super.close();
+        }
+
+        /**
+         * The header pages can be in int or long format, decoding
+         * as a long gives the unsigned position for either.
+         */
+        long getPos(int index)
+        {
+            return header.get(index);
+        }
+
+        public int[] get(int index)
+        {
+            long p = getPos(index);
+
+            int length = body.getInt(p);
+
+            return body.getNext(p + 1, length);
+        }
+
+        public int size()
+        {
+            return header.size();
+        }
+    }
+
+    /**
+     * A memory mapped reader for sorted int arrays.
+     * @see IndexReader.IntIndex1NSortedReader
+     */
+    public static class IntIndex1NSortedReader extends IntIndex1NReader
+    {
+        public IntIndex1NSortedReader(File indexFile) throws IOException
+        {
+            super(indexFile);
+        }
+
+        /**
+         * The header holds positions encoded as p+1 into the body,
+         * the length is up to the next non-zero position.
+         * See {@link IndexReader.IntIndex1NSortedReader#get(int)}.
+         */
+        public int[] get(int index)
+        {
+            long p0;
+            long p1;
+
+            int headerSize = header.size();
+            if (index + 1 < headerSize)
+            {
+                p0 = getPos(index++);
+                p1 = getPos(index);
+                if (p0 == 0)
+                    return new int[0];
+
+                for (index++; p1 < p0 && index < headerSize; index++)
+                    p1 = getPos(index);
+
+                if (p1 < p0)
+                    p1 = body.size + 1;
+            }
+            else
+            {
+                p0 = getPos(index);
+                if (p0 == 0)
+                    return new int[0];
+                p1 = body.size + 1;
+            }
+
+            return body.getNext(p0 - 1, (int) (p1 - p0));
+        }
+    }
+
+    /**
+     * A memory mapped reader for inbound references.
+     * @see IndexReader.InboundReader
+     */
+    public static class InboundReader extends IntIndex1NSortedReader implements IIndexReader.IOne2ManyObjectsIndex
+    {
+        public InboundReader(File indexFile) throws IOException
+        {
+            super(indexFile);
+        }
+
+        public int[] getObjectsOf(Serializable key) throws SnapshotException, IOException
+        {
+            if (key == null)
+                return new int[0];
+
+            if (key instanceof long[])
+            {
+                long[] pos = (long[]) key;
+                return body.getNext(pos[0], (int) pos[1]);
+            }
+            else
+            {
+                int[] pos = (int[]) key;
+                // Treat pos[0] as unsigned
+                return body.getNext(pos[0] & 0xffffffffL, pos[1]);
+            }
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.parser.index;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.eclipse.mat.parser.internal.Messages;
+import org.eclipse.mat.util.MessageUtil;
+
+/**
+ * Compresses the bytes of each page of an index file written by {@link IndexWriter},
+ * after the values have been packed by {@link org.eclipse.mat.collect.ArrayIntCompressed}
+ * or {@link org.eclipse.mat.collect.ArrayLongCompressed}.
+ * The codec is recorded in the trailer of the index file, so
+ * {@link IndexReader} knows how to expand the pages.
+ * Pages written with {@link #NONE} are in the original format.
+ */
+abstract class PageCodec
+{
+    /** The pages are not compressed further */
+    static final PageCodec NONE = new PageCodec(0, "none") //$NON-NLS-1$
+    {
+        @Override
+        byte[] encode(byte[] page)
+        {
+            return page;
+        }
+
+        @Override
+        byte[] decode(byte[] data)
+        {
+            return data;
+        }
+    };
+
+    /** LZ4 block compression */
+    static final PageCodec LZ4 = new LZ4Codec(1, "lz4"); //$NON-NLS-1$
+
+    private static final PageCodec[] CODECS = { NONE, LZ4 };
+
+    /**
+     * Marks the page size in the trailer of an index file to show
+     * that a codec identifier precedes it.
+     */
+    static final int CODEC_FLAG = 0x80000000;
+
+    final int id;
+    final String name;
+
+    PageCodec(int id, String name)
+    {
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * Compress a page.
+     * @param page the packed values
+     * @return the bytes to write to the file
+     */
+    abstract byte[] encode(byte[] page);
+
+    /**
+     * Expand a page.
+     * @param data the bytes read from the file
+     * @return the packed values
+     * @throws IOException if the data is corrupt
+     */
+    abstract byte[] decode(byte[] data) throws IOException;
+
+    /**
+     * The codec to use for new index files, from the
+     * {@link IndexWriter#INDEX_CODEC_PROPERTY} system property.
+     * @return the codec
+     */
+    static PageCodec configured()
+    {
+        String name = System.getProperty(IndexWriter.INDEX_CODEC_PROPERTY);
+        if (name != null)
+        {
+            name = name.toLowerCase(Locale.ENGLISH);
+            for (PageCodec codec : CODECS)
+            {
+                if (codec.name.equals(name))
+                    return codec;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Find the codec recorded in an index file.
+     * @param id the identifier of the codec
+     * @return the codec
+     * @throws IOException if the codec is unknown, perhaps from a later version
+     */
+    static PageCodec forId(int id) throws IOException
+    {
+        for (PageCodec codec : CODECS)
+        {
+            if (codec.id == id)
+                return codec;
+        }
+        throw new IOException(MessageUtil.format(Messages.IndexReader_Error_UnknownPageCodec, id));
+    }
+
+    /**
+     * Decode a page, reporting corrupt data as an unchecked exception
+     * as the index readers do for other I/O errors.
+     */
+    byte[] decodePage(byte[] data)
+    {
+        try
+        {
+            return decode(data);
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+
+    /**
+     * A pure Java implementation of the LZ4 block format.
+     * <pre>
+     * uncompressed length (4)
+     * LZ4 block, or the uncompressed bytes if the length in the file is the same
+     * </pre>
+     * Each sequence in a block is a token byte holding the literal length
+     * and the match length less 4, extra length bytes for the literals, the literals,
+     * a 2 byte little-endian match offset and extra length bytes for the match.
+     * The last sequence has only literals.
+     */
+    static final class LZ4Codec extends PageCodec
+    {
+        private static final int MIN_MATCH = 4;
+        /** The last match must start at least this far from the end */
+        private static final int MF_LIMIT = 12;
+        /** The last bytes are always literals */
+        private static final int LAST_LITERALS = 5;
+        private static final int MAX_DISTANCE = 65535;
+        private static final int HASH_BITS = 14;
+        /** Start skipping ahead faster after this many failed matches */
+        private static final int SKIP_TRIGGER = 6;
+
+        LZ4Codec(int id, String name)
+        {
+            super(id, name);
+        }
+
+        @Override
+        byte[] encode(byte[] src)
+        {
+            int len = src.length;
+            // Worst case expansion
+            byte[] dst = new byte[4 + len + len / 255 + 16];
+            writeInt(dst, 0, len);
+            int d = 4;
+            int anchor = 0;
+            if (len >= MF_LIMIT + 1)
+            {
+                int[] table = new int[1 << HASH_BITS];
+                Arrays.fill(table, -1);
+                int limit = len - MF_LIMIT;
+                int s = 0;
+                int searches = 1 << SKIP_TRIGGER;
+                while (s < limit)
+                {
+                    int seq = readInt(src, s);
+                    int h = hash(seq);
+                    int ref = table[h];
+                    table[h] = s;
+                    if (ref < 0 || s - ref > MAX_DISTANCE || readInt(src, ref) != seq)
+                    {
+                        // Incompressible data is skipped through more quickly
+                        s += searches++ >>> SKIP_TRIGGER;
+                        continue;
+                    }
+                    searches = 1 << SKIP_TRIGGER;
+                    // Extend the match backwards over literals
+                    while (s > anchor && ref > 0 && src[s - 1] == src[ref - 1])
+                    {
+                        --s;
+                        --ref;
+                    }
+                    // Extend the match forwards
+                    int matchEnd = s + MIN_MATCH;
+                    int r = ref + MIN_MATCH;
+                    int matchLimit = len - LAST_LITERALS;
+                    while (matchEnd < matchLimit && src[matchEnd] == src[r])
+                    {
+                        ++matchEnd;
+                        ++r;
+                    }
+                    d = writeSequence(src, anchor, s - anchor, s - ref, matchEnd - s - MIN_MATCH, dst, d);
+                    s = anchor = matchEnd;
+                    if (s < limit)
+                        table[hash(readInt(src, s - 2))] = s - 2;
+                }
+            }
+            // Final literals
+            d = writeSequence(src, anchor, len - anchor, 0, -1, dst, d);
+            if (d - 4 >= len)
+            {
+                // Not compressible, so store as is
+                byte[] raw = new byte[4 + len];
+                writeInt(raw, 0, len);
+                System.arraycopy(src, 0, raw, 4, len);
+                return raw;
+            }
+            return Arrays.copyOf(dst, d);
+        }
+
+        /**
+         * Write the literals then the match.
+         * @param matchLength the match length less the minimum, or -1 for the final literals
+         */
+        private static int writeSequence(byte[] src, int literalStart, int literalLength, int offset, int matchLength,
+                        byte[] dst, int d)
+        {
+            int token = d++;
+            int t = Math.min(literalLength, 15) << 4;
+            d = writeLength(dst, d, literalLength - 15);
+            System.arraycopy(src, literalStart, dst, d, literalLength);
+            d += literalLength;
+            if (matchLength >= 0)
+            {
+                dst[d++] = (byte) offset;
+                dst[d++] = (byte) (offset >>> 8);
+                t |= Math.min(matchLength, 15);
+                d = writeLength(dst, d, matchLength - 15);
+            }
+            dst[token] = (byte) t;
+            return d;
+        }
+
+        private static int writeLength(byte[] dst, int d, int extra)
+        {
+            if (extra < 0)
+                return d;
+            while (extra >= 255)
+            {
+                dst[d++] = (byte) 255;
+                extra -= 255;
+            }
+            dst[d++] = (byte) extra;
+            return d;
+        }
+
+        @Override
+        byte[] decode(byte[] src) throws IOException
+        {
+            if (src.length < 4)
+                throw corrupt();
+            int len = readInt(src, 0);
+            if (len < 0)
+                throw corrupt();
+            if (src.length == 4 + len)
+                return Arrays.copyOfRange(src, 4, src.length);
+            byte[] dst = new byte[len];
+            int s = 4;
+            int d = 0;
+            try
+            {
+                while (true)
+                {
+                    int token = src[s++] & 0xff;
+                    int literalLength = token >>> 4;
+                    if (literalLength == 15)
+                    {
+                        int b;
+                        do
+                        {
+                            b = src[s++] & 0xff;
+                            literalLength += b;
+                        }
+                        while (b == 255);
+                    }
+                    System.arraycopy(src, s, dst, d, literalLength);
+                    s += literalLength;
+                    d += literalLength;
+                    if (s == src.length)
+                        break;
+                    int offset = (src[s] & 0xff) | (src[s + 1] & 0xff) << 8;
+                    s += 2;
+                    int matchLength = token & 0xf;
+                    if (matchLength == 15)
+                    {
+                        int b;
+                        do
+                        {
+                            b = src[s++] & 0xff;
+                            matchLength += b;
+                        }
+                        while (b == 255);
+                    }
+                    matchLength += MIN_MATCH;
+                    int ref = d - offset;
+                    if (offset == 0 || ref < 0 || d + matchLength > len)
+                        throw corrupt();
+                    // The match can overlap the output, so copy byte by byte
+                    for (int i = 0; i < matchLength; ++i)
+                        dst[d++] = dst[ref++];
+                }
+            }
+            catch (IndexOutOfBoundsException e)
+            {
+                IOException e1 = corrupt();
+                e1.initCause(e);
+                throw e1;
+            }
+            if (d != len)
+                throw corrupt();
+            return dst;
+        }
+
+        private static IOException corrupt()
+        {
+            return new IOException(Messages.IndexReader_Error_CorruptPage);
+        }
+
+        private static int hash(int seq)
+        {
+            return (seq * -1640531535) >>> (32 - HASH_BITS);
+        }
+
+        private static int readInt(byte[] b, int i)
+        {
+            return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+        }
+
+        private static void writeInt(byte[] b, int i, int v)
+        {
+            b[i] = (byte) v;
+            b[i + 1] = (byte) (v >>> 8);
+            b[i + 2] = (byte) (v >>> 16);
+            b[i + 3] = (byte) (v >>> 24);
+        }
+    }
+}
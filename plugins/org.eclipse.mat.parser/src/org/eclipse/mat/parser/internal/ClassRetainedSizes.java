@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.parser.internal;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.collect.ArrayInt;
+import org.eclipse.mat.parser.index.IIndexReader;
+import org.eclipse.mat.parser.internal.snapshot.RetainedSizeCache;
+import org.eclipse.mat.snapshot.model.IClass;
+
+/**
+ * Finds the minimum retained sizes of every class and class loader
+ * while the dominator tree is walked depth first, so that they do not
+ * have to be calculated one at a time with {@link SnapshotImpl#getMinRetainedSize(int[], org.eclipse.mat.util.IProgressListener)}.
+ * <p>
+ * The objects of a class are the class object and its instances, and the objects of a
+ * class loader are the loader and the objects of the classes it defined, as for
+ * {@link IClass#getRetainedHeapSizeOfObjects(boolean, boolean, org.eclipse.mat.util.IProgressListener)}.
+ * The minimum retained size of a set of objects is the sum of the retained sizes
+ * of the objects in the set which are not dominated by another object in the set.
+ * The walk counts how many objects of each set are on the path from the root, so
+ * an object adds its retained size to a set when it is left and no
+ * dominator of the object is in the set.
+ */
+class ClassRetainedSizes
+{
+    private final IIndexReader.IOne2OneIndex o2class;
+    /** The class and class loader ids, sorted */
+    private final int[] ids;
+    /** For each class, the position in {@link #ids} of its class loader, or -1 */
+    private final int[] loaderOf;
+    /** How many objects of each set are on the current path */
+    private final int[] onPath;
+    private final long[] sizes;
+    /** The sets of the current object */
+    private final int[] sets = new int[5];
+
+    ClassRetainedSizes(SnapshotImpl snapshot) throws SnapshotException
+    {
+        this.o2class = snapshot.getIndexManager().o2class();
+
+        Collection<IClass> classes = snapshot.getClasses();
+        ArrayInt all = new ArrayInt();
+        for (IClass c : classes)
+            all.add(c.getObjectId());
+        all.addAll(snapshot.getClassLoaderIds());
+        int[] a = all.toArray();
+        Arrays.sort(a);
+        // A class loader could also be a class
+        int n = 0;
+        for (int i = 0; i < a.length; ++i)
+        {
+            if (n == 0 || a[n - 1] != a[i])
+                a[n++] = a[i];
+        }
+        ids = Arrays.copyOf(a, n);
+
+        loaderOf = new int[n];
+        Arrays.fill(loaderOf, -1);
+        for (IClass c : classes)
+            loaderOf[Arrays.binarySearch(ids, c.getObjectId())] = Arrays.binarySearch(ids, c.getClassLoaderId());
+        onPath = new int[n];
+        sizes = new long[n];
+    }
+
+    /**
+     * Find the sets the object belongs to.
+     * @return the number of sets, put into {@link #sets}
+     */
+    private int sets(int objectId)
+    {
+        int n = 0;
+        int type = Arrays.binarySearch(ids, o2class.get(objectId));
+        if (type >= 0)
+        {
+            n = add(n, type);
+            n = add(n, loaderOf[type]);
+        }
+        int self = Arrays.binarySearch(ids, objectId);
+        if (self >= 0)
+        {
+            // The class itself, its defining loader, or the loader itself
+            n = add(n, self);
+            n = add(n, loaderOf[self]);
+        }
+        return n;
+    }
+
+    private int add(int n, int set)
+    {
+        if (set < 0)
+            return n;
+        for (int i = 0; i < n; ++i)
+        {
+            if (sets[i] == set)
+                return n;
+        }
+        sets[n] = set;
+        return n + 1;
+    }
+
+    /**
+     * The walk has reached an object.
+     * @param objectId the object
+     */
+    void enter(int objectId)
+    {
+        for (int i = sets(objectId) - 1; i >= 0; --i)
+            onPath[sets[i]]++;
+    }
+
+    /**
+     * The walk has finished with an object and everything it dominates.
+     * @param objectId the object
+     * @param retainedSize the retained size of the object
+     */
+    void leave(int objectId, long retainedSize)
+    {
+        for (int i = sets(objectId) - 1; i >= 0; --i)
+        {
+            if (--onPath[sets[i]] == 0)
+                sizes[sets[i]] += retainedSize;
+        }
+    }
+
+    /**
+     * Store the sizes as approximate sizes, without replacing any size already
+     * in the cache.
+     * @param cache the cache of retained sizes of classes and class loaders
+     */
+    void store(RetainedSizeCache cache)
+    {
+        for (int i = 0; i < ids.length; ++i)
+        {
+            if (sizes[i] > 0 && cache.get(ids[i]) == 0)
+                cache.put(ids[i], -sizes[i]);
+        }
+    }
+}
@@ -1,21 +1,32 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2013 SAP AG and IBM Corporation.
+ * Copyright (c) 2008, 2023 SAP AG and IBM Corporation.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
- * https://www.eclipse.org/legal/epl-2.0/
- *
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
  * SPDX-License-Identifier: EPL-2.0
  *
  * Contributors:
  *    SAP AG - initial API and implementation
  *    IBM Corporation - allow larger resize of arrays 
+ *    IBM Corporation - parallel calculation of dominators
+ *    IBM Corporation - retained sizes of classes and class loaders
+ *    IBM Corporation - summary of the top-level dominators
  *******************************************************************************/
 package org.eclipse.mat.parser.internal;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.mat.SnapshotException;
 import org.eclipse.mat.collect.ArrayUtils;
@@ -25,9 +36,11 @@ import org.eclipse.mat.parser.index.IIndexReader;
 import org.eclipse.mat.parser.index.IndexManager;
 import org.eclipse.mat.parser.index.IndexWriter;
 import org.eclipse.mat.parser.index.IndexManager.Index;
+import org.eclipse.mat.parser.internal.snapshot.TopDominatorsSummary;
 import org.eclipse.mat.parser.internal.util.IntStack;
 import org.eclipse.mat.util.IProgressListener;
 import org.eclipse.mat.util.SimpleMonitor;
+import org.eclipse.mat.util.VoidProgressListener;
 
 public class DominatorTree
 {
@@ -35,7 +48,11 @@ public class DominatorTree
     public static void calculate(SnapshotImpl snapshot, IProgressListener listener) throws SnapshotException,
                     IOException
     {
-        new Calculator(snapshot, listener).compute();
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (Boolean.TRUE.equals(snapshot.getSnapshotInfo().getProperty("parallel_dominator_tree")) && threads > 1) //$NON-NLS-1$
+            new ParallelCalculator(snapshot, listener, threads).compute();
+        else
+            new Calculator(snapshot, listener).compute();
     }
 
     static class Calculator
@@ -49,13 +66,13 @@ public class DominatorTree
         private BitField gcRootsSet;
 
         int[] bucket;
-        private int r, n;
-        private int[] dom;
-        private int[] parent;
+        int r, n;
+        int[] dom;
+        int[] parent;
         private int[] anchestor;
-        private int[] vertex;
+        int[] vertex;
         private int[] label;
-        private int[] semi;
+        int[] semi;
 
         private static int ROOT_VALUE = -1;
         private static int[] ROOT_VALUE_ARR = new int[] { ROOT_VALUE };
@@ -91,10 +108,18 @@ public class DominatorTree
             r = 1;
 
             parent = new int[n + 1];
-            anchestor = new int[n + 1];
             vertex = new int[n + 1];
-            label = new int[n + 1];
             semi = new int[n + 1];
+            allocate();
+        }
+
+        /**
+         * Allocate the work arrays for the dominator calculation.
+         */
+        void allocate()
+        {
+            anchestor = new int[n + 1];
+            label = new int[n + 1];
 
             /*
              * Allocate these up front, to check for early OOM, but then free
@@ -116,6 +141,58 @@ public class DominatorTree
 
             outboundIndex.unload();
 
+            computeDominators();
+
+            if (progressListener0.isCanceled())
+                throw new IProgressListener.OperationCanceledException();
+
+            // pre-condition for index writing:
+            // retainedSetIdx is still sorted by object id
+            snapshot.getIndexManager().setReader(
+                            IndexManager.Index.DOMINATOR,
+                            new IndexWriter.IntIndexStreamer().writeTo(IndexManager.Index.DOMINATOR.getFile(snapshot
+                                            .getSnapshotInfo().getPrefix()), new IteratorInt()
+                            {
+                                int nextIndex = 2;
+
+                                public boolean hasNext()
+                                {
+                                    return nextIndex < dom.length;
+                                }
+
+                                public int next()
+                                {
+                                    return dom[nextIndex++];
+                                }
+
+                            }));
+
+            int[] objectIds = new int[snapshot.getSnapshotInfo().getNumberOfObjects() + 2];
+            for (int i = 0; i < objectIds.length; i++)
+                objectIds[i] = i - 2;
+
+            objectIds[0] = -2;
+            objectIds[1] = ROOT_VALUE;
+            progressListener0.worked(1);
+
+            ArrayUtils.sort(dom, objectIds, 2, dom.length - 2);
+            progressListener0.worked(1);
+
+            FlatDominatorTree tree = new FlatDominatorTree(snapshot, dom, objectIds, ROOT_VALUE);
+
+            if (progressListener0.isCanceled())
+                throw new IProgressListener.OperationCanceledException();
+
+            writeIndexFiles(tree);
+            progressListener0.done();
+
+        }
+
+        /**
+         * Fill in dom[] from the depth first search, using Lengauer-Tarjan.
+         */
+        void computeDominators() throws IOException
+        {
             IProgressListener progressListener = this.monitor.nextMonitor();
             progressListener.beginTask(Messages.DominatorTree_ComputingDominators, n / 1000);
 
@@ -127,6 +204,9 @@ public class DominatorTree
 
             Arrays.fill(bucket, -1);
 
+            for (int i = 1; i <= n; i++)
+                label[vertex[i]] = vertex[i];
+
             for (int i = n; i >= 2; i--)
             {
                 int w = vertex[i];
@@ -186,50 +266,6 @@ public class DominatorTree
 
             parent = anchestor = vertex = label = semi = bucket = null;
             inboundIndex.unload();
-
-            if (progressListener0.isCanceled())
-                throw new IProgressListener.OperationCanceledException();
-
-            // pre-condition for index writing:
-            // retainedSetIdx is still sorted by object id
-            snapshot.getIndexManager().setReader(
-                            IndexManager.Index.DOMINATOR,
-                            new IndexWriter.IntIndexStreamer().writeTo(IndexManager.Index.DOMINATOR.getFile(snapshot
-                                            .getSnapshotInfo().getPrefix()), new IteratorInt()
-                            {
-                                int nextIndex = 2;
-
-                                public boolean hasNext()
-                                {
-                                    return nextIndex < dom.length;
-                                }
-
-                                public int next()
-                                {
-                                    return dom[nextIndex++];
-                                }
-
-                            }));
-
-            int[] objectIds = new int[snapshot.getSnapshotInfo().getNumberOfObjects() + 2];
-            for (int i = 0; i < objectIds.length; i++)
-                objectIds[i] = i - 2;
-
-            objectIds[0] = -2;
-            objectIds[1] = ROOT_VALUE;
-            progressListener0.worked(1);
-
-            ArrayUtils.sort(dom, objectIds, 2, dom.length - 2);
-            progressListener0.worked(1);
-
-            FlatDominatorTree tree = new FlatDominatorTree(snapshot, dom, objectIds, ROOT_VALUE);
-
-            if (progressListener0.isCanceled())
-                throw new IProgressListener.OperationCanceledException();
-
-            writeIndexFiles(tree);
-            progressListener0.done();
-
         }
 
         private void dfs(int root) throws UnsupportedOperationException
@@ -270,8 +306,6 @@ public class DominatorTree
                     n = n + 1;
                     semi[v] = n;
                     vertex[n] = v;
-                    label[v] = v;
-                    anchestor[v] = 0;
                 }
 
                 if (currentSuccessor < successors.length)
@@ -338,7 +372,7 @@ public class DominatorTree
         }
 
         // gets retained set idx and returns the real indexes
-        private int[] getPredecessors(int v)
+        int[] getPredecessors(int v)
         {
             v -= 2;
             // for the GC roots return the artificial root
@@ -391,7 +425,7 @@ public class DominatorTree
             anchestor[w] = v;
         }
 
-        private void writeIndexFiles(FlatDominatorTree tree) throws IOException
+        private void writeIndexFiles(FlatDominatorTree tree) throws IOException, SnapshotException
         {
 
             IndexWriter.IntArray1NWriter writer = new IndexWriter.IntArray1NWriter(dom.length - 1,
@@ -402,11 +436,14 @@ public class DominatorTree
             IProgressListener progressListener = this.monitor.nextMonitor();
             progressListener.beginTask(Messages.DominatorTree_CreateDominatorsIndexFile, numberOfObjects / 1000);
 
+            int[] topDominators = null;
             for (int i = -1; i < numberOfObjects; i++)
             {
                 int[] successors = tree.getSuccessorsArr(i);
                 tree.sortByTotalSize(successors);
                 writer.log(i + 1, successors);
+                if (i == -1)
+                    topDominators = successors;
 
                 if (i % 1000 == 0)
                 {
@@ -418,6 +455,15 @@ public class DominatorTree
 
             snapshot.getIndexManager().setReader(IndexManager.Index.DOMINATED, writer.flush());
 
+            // the top-level dominators are sorted, so record the biggest and the totals by class
+            TopDominatorsSummary.Builder summary = new TopDominatorsSummary.Builder(snapshot,
+                            IndexManager.Index.DOMTOP.getFile(snapshot.getSnapshotInfo().getPrefix()));
+            for (int objectId : topDominators)
+                summary.add(objectId, tree.ts[objectId + 2]);
+            TopDominatorsSummary topSummary = summary.build();
+            topSummary.write();
+            snapshot.getIndexManager().setReader(IndexManager.Index.DOMTOP, topSummary);
+
             progressListener.done();
 
         }
@@ -540,6 +586,7 @@ public class DominatorTree
                 IndexWriter.LongIndexCollector retained = new IndexWriter.LongIndexCollector(dump.getSnapshotInfo()
                                 .getNumberOfObjects(), IndexWriter.mostSignificantBit(dump.getSnapshotInfo()
                                 .getUsedHeapSize()));
+                ClassRetainedSizes classSizes = new ClassRetainedSizes(dump);
 
                 int capacity = 2047; // capacity for the arrays - allows resize up to 2047<<20
                 int size = 0;
@@ -568,6 +615,8 @@ public class DominatorTree
                         currentSucc = getSuccessorsEnum(nextChild);
 
                         ts[nextChild + 2] = nextChild < 0 ? 0 : snapshot.getHeapSize(nextChild);
+                        if (nextChild >= 0)
+                            classSizes.enter(nextChild);
 
                         if (size == capacity)
                         {
@@ -596,6 +645,7 @@ public class DominatorTree
                         if (currentEntry >= 0)
                         {
                             retained.set(currentEntry, ts[currentEntry + 2]);
+                            classSizes.leave(currentEntry, ts[currentEntry + 2]);
                             if (++counter % 1000 == 0)
                             {
                                 if (progressListener.isCanceled())
@@ -612,9 +662,187 @@ public class DominatorTree
                                 retained.writeTo(IndexManager.Index.O2RETAINED.getFile(dump.getSnapshotInfo()
                                                 .getPrefix())));
                 retained = null;
+                classSizes.store(dump.getRetainedSizeCache());
 
                 progressListener.done();
             }
         }
     }
+
+    /**
+     * Calculates the same dominator tree as {@link Calculator}, but using several threads.
+     * The depth first search is unchanged, then the dominators are found with the iterative
+     * algorithm of Cooper, Harvey and Kennedy, starting from the depth first search tree.
+     * Each pass visits the objects in depth first order, in chunks shared between the threads,
+     * until a pass makes no changes.
+     * The candidate dominator of an object is always an ancestor in the depth first search tree,
+     * and only moves towards the root, so reading a candidate which another thread is about to
+     * change just means another pass is needed.
+     */
+    static class ParallelCalculator extends Calculator
+    {
+        private static final int CHUNK_SIZE = 4096;
+        private final int threads;
+
+        public ParallelCalculator(SnapshotImpl snapshot, IProgressListener listener, int threads)
+                        throws SnapshotException
+        {
+            super(snapshot, listener);
+            this.threads = threads;
+        }
+
+        @Override
+        void allocate()
+        {
+            /*
+             * Only dom[] is needed later, by computeDominators(). Allocate it now
+             * so a heap which is too small fails with OutOfMemoryError before the
+             * long depth first search rather than after it, then free it so
+             * that dfs() can use the space for outbound index caching.
+             */
+            dom = new int[n + 1];
+            dom = null;
+        }
+
+        @Override
+        void computeDominators() throws IOException
+        {
+            IProgressListener progressListener = this.monitor.nextMonitor();
+            progressListener.beginTask(Messages.DominatorTree_ComputingDominators, n / 1000);
+
+            dom = new int[snapshot.getSnapshotInfo().getNumberOfObjects() + 2];
+            for (int i = 2; i <= n; i++)
+            {
+                int w = vertex[i];
+                dom[w] = parent[w];
+            }
+            dom[r] = r;
+
+            ExecutorService es = Executors.newFixedThreadPool(threads - 1, task -> {
+                Thread t = new Thread(task, "MAT dominator tree"); //$NON-NLS-1$
+                t.setDaemon(true);
+                return t;
+            });
+            try
+            {
+                boolean changed;
+                IProgressListener listener = progressListener;
+                do
+                {
+                    AtomicInteger next = new AtomicInteger(2);
+                    AtomicInteger processed = new AtomicInteger();
+                    List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+                    for (int t = 1; t < threads; ++t)
+                        results.add(es.submit(new Pass(next, processed, null)));
+                    // This thread also reports progress for the first pass
+                    changed = new Pass(next, processed, listener).call();
+                    for (Future<Boolean> f : results)
+                        changed |= f.get();
+                    listener = new VoidProgressListener();
+                }
+                while (changed);
+            }
+            catch (InterruptedException e)
+            {
+                IOException ioe = new IOException(e.getMessage());
+                ioe.initCause(e);
+                throw ioe;
+            }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new IOException(e.getCause());
+            }
+            finally
+            {
+                // Also stops the other passes if one failed
+                es.shutdownNow();
+            }
+            dom[r] = 0;
+
+            progressListener.done();
+
+            parent = vertex = semi = null;
+            inboundIndex.unload();
+        }
+
+        /**
+         * The nearest common ancestor of a and b in the tree of candidate dominators.
+         * semi[] holds the depth first search number, which decreases towards the root.
+         */
+        private int intersect(int a, int b)
+        {
+            while (a != b)
+            {
+                while (semi[a] > semi[b])
+                    a = dom[a];
+                while (semi[b] > semi[a])
+                    b = dom[b];
+            }
+            return a;
+        }
+
+        /**
+         * One pass over the chunks of objects, until no chunks are left.
+         * Returns whether any candidate dominator changed.
+         */
+        private class Pass implements Callable<Boolean>
+        {
+            private final AtomicInteger next;
+            private final AtomicInteger processed;
+            private final IProgressListener listener;
+
+            Pass(AtomicInteger next, AtomicInteger processed, IProgressListener listener)
+            {
+                this.next = next;
+                this.processed = processed;
+                this.listener = listener;
+            }
+
+            public Boolean call()
+            {
+                boolean changed = false;
+                int reported = 0;
+                int start;
+                while ((start = next.getAndAdd(CHUNK_SIZE)) <= n)
+                {
+                    int end = Math.min(start + CHUNK_SIZE, n + 1);
+                    for (int i = start; i < end; i++)
+                    {
+                        int w = vertex[i];
+                        int newDom = 0;
+                        for (int v : getPredecessors(w))
+                        {
+                            v += 2;
+                            if (v < 0 || semi[v] == 0)
+                                continue;
+                            newDom = newDom == 0 ? v : intersect(v, newDom);
+                        }
+                        if (newDom != 0 && dom[w] != newDom)
+                        {
+                            dom[w] = newDom;
+                            changed = true;
+                        }
+                    }
+                    int done = processed.addAndGet(end - start) / 1000;
+                    if (listener != null)
+                    {
+                        if (listener.isCanceled())
+                        {
+                            // Stop the other threads
+                            next.set(n + 1);
+                            throw new IProgressListener.OperationCanceledException();
+                        }
+                        if (done > reported)
+                        {
+                            listener.worked(done - reported);
+                            reported = done;
+                        }
+                    }
+                }
+                return changed;
+            }
+        }
+    }
 }
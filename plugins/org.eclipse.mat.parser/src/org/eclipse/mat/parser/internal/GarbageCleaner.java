@@ -11,12 +11,14 @@
  *    SAP AG - initial API and implementation
  *    Netflix (Jason Koch) - refactors for increased performance and concurrency
  *    Andrew Johnson (IBM) - release some indexes for GC
+ *    IBM Corporation - parallel re-indexing
  *******************************************************************************/
 package org.eclipse.mat.parser.internal;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -63,6 +65,8 @@ import org.eclipse.mat.util.SilentProgressListener;
 {
 
     private final static int PARALLEL_CHUNK_SIZE = 16*1024*1024;
+    /** Number of old object IDs re-indexed by one task */
+    private final static int REINDEX_CHUNK_SIZE = 64*1024;
     public static int[] clean(final PreliminaryIndexImpl idx, final SnapshotImplBuilder builder,
                     Map<String, String> arguments, IProgressListener listener)
             throws IOException, InterruptedException, ExecutionException
@@ -225,8 +229,6 @@ import org.eclipse.mat.util.SilentProgressListener;
                                                 - newNoOfObjects, memFree), null);
             }
 
-            es.shutdown();
-
             // classes cannot be removed right away
             // as they are needed to remove instances of this class
             for (ClassImpl c : classes2remove)
@@ -266,13 +268,41 @@ import org.eclipse.mat.util.SilentProgressListener;
                 throw new IProgressListener.OperationCanceledException();
             listener.worked(1); // 5
 
+            /*
+             * Re-index ranges of objects in parallel if there is enough memory
+             * for the ranges waiting to be written, otherwise one at a time.
+             */
+            final int inFlight = 2 * numProcessors;
+            Object chunkOption = idx.getSnapshotInfo().getProperty("reindex_chunk_size"); //$NON-NLS-1$
+            final int chunkSize = chunkOption instanceof Integer ? (Integer) chunkOption : REINDEX_CHUNK_SIZE;
+            Runtime runtime = Runtime.getRuntime();
+            long freeMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+            Object parallelOption = idx.getSnapshotInfo().getProperty("parallel_reindex"); //$NON-NLS-1$
+            final boolean parallelReindex = parallelOption instanceof Boolean ? (Boolean) parallelOption
+                            : numProcessors > 1 && freeMemory >= (long) inFlight * chunkSize * 32;
+
             // //////////////////////////////////////////////////////////////
             // identifiers
             // //////////////////////////////////////////////////////////////
 
             File indexFile = Index.IDENTIFIER.getFile(idx.snapshotInfo.getPrefix());
             listener.subTask(MessageUtil.format(Messages.GarbageCleaner_Writing, indexFile.getAbsolutePath()));
-            idxManager.setReader(Index.IDENTIFIER, new LongIndexStreamer().writeTo(indexFile, new IteratorLong() {
+            final IOne2LongIndex identifiers0 = identifiers;
+            IteratorLong newIdentifiers = !parallelReindex ? null : new ParallelLongIterator(new ParallelReindex<long[]>(es, map, inFlight, chunkSize)
+            {
+                @Override
+                long[] reindex(int start, int end)
+                {
+                    long ret[] = new long[countLive(map, start, end)];
+                    for (int ii = start, jj = 0; ii < end; ii++)
+                    {
+                        if (map[ii] >= 0)
+                            ret[jj++] = identifiers0.get(ii);
+                    }
+                    return ret;
+                }
+            });
+            idxManager.setReader(Index.IDENTIFIER, new LongIndexStreamer().writeTo(indexFile, parallelReindex ? newIdentifiers : new IteratorLong() {
                 int i = 0;
                 @Override
                 public boolean hasNext()
@@ -303,7 +333,22 @@ import org.eclipse.mat.util.SilentProgressListener;
 
             indexFile = Index.O2CLASS.getFile(idx.snapshotInfo.getPrefix());
             listener.subTask(MessageUtil.format(Messages.GarbageCleaner_Writing, indexFile.getAbsolutePath()));
-            idxManager.setReader(Index.O2CLASS, new IntIndexStreamer().writeTo(indexFile,
+            final IOne2OneIndex object2classId0 = object2classId;
+            IteratorInt newObject2classId = !parallelReindex ? null : new ParallelIntIterator(new ParallelReindex<int[]>(es, map, inFlight, chunkSize)
+            {
+                @Override
+                int[] reindex(int start, int end)
+                {
+                    int ret[] = new int[countLive(map, start, end)];
+                    for (int ii = start, jj = 0; ii < end; ii++)
+                    {
+                        if (map[ii] >= 0)
+                            ret[jj++] = map[object2classId0.get(ii)];
+                    }
+                    return ret;
+                }
+            });
+            idxManager.setReader(Index.O2CLASS, new IntIndexStreamer().writeTo(indexFile, parallelReindex ? newObject2classId :
                             new NewObjectIntIterator()
                             {
                                 @Override
@@ -338,7 +383,40 @@ import org.eclipse.mat.util.SilentProgressListener;
                             .getAbsolutePath() }));
             final BitField arrayObjects = new BitField(newNoOfObjects);
             // arrayObjects
-            IOne2OneIndex newIdx = new IntIndexStreamer().writeTo(indexFile,
+            IteratorInt newA2size = !parallelReindex ? null : new IteratorInt()
+            {
+                final ParallelIntIterator sizes = new ParallelIntIterator(new ParallelReindex<int[]>(es, map, inFlight, chunkSize)
+                {
+                    @Override
+                    int[] reindex(int start, int end)
+                    {
+                        int ret[] = new int[countLive(map, start, end)];
+                        for (int ii = start, jj = 0; ii < end; ii++)
+                        {
+                            if (map[ii] >= 0)
+                                ret[jj++] = preA2size.get(ii);
+                        }
+                        return ret;
+                    }
+                });
+                int newIndex = 0;
+
+                public boolean hasNext()
+                {
+                    return sizes.hasNext();
+                }
+
+                public int next()
+                {
+                    int size = sizes.next();
+                    // Get the compressed size, 0 means 0
+                    if (size != 0)
+                        arrayObjects.set(newIndex);
+                    newIndex++;
+                    return size;
+                }
+            };
+            IOne2OneIndex newIdx = new IntIndexStreamer().writeTo(indexFile, parallelReindex ? newA2size :
                             new NewObjectIntIterator()
                             {
                                 IOne2SizeIndex a2size = preA2size;
@@ -379,10 +457,62 @@ import org.eclipse.mat.util.SilentProgressListener;
 
             IndexWriter.IntArray1NSortedWriter w_out = new IndexWriter.IntArray1NSortedWriter(newNoOfObjects,
                             IndexManager.Index.OUTBOUND.getFile(idx.snapshotInfo.getPrefix()));
-            IndexWriter.InboundWriter w_in = new IndexWriter.InboundWriter(newNoOfObjects, IndexManager.Index.INBOUND
-                            .getFile(idx.snapshotInfo.getPrefix()));
+            IndexWriter.InboundWriter w_in;
+            Object budget = idx.getSnapshotInfo().getProperty("inbound_memory_budget"); //$NON-NLS-1$
+            if (budget instanceof Integer)
+            {
+                // Sort the references in runs of a bounded size, given in megabytes
+                w_in = new IndexWriter.InboundWriter(newNoOfObjects, IndexManager.Index.INBOUND
+                                .getFile(idx.snapshotInfo.getPrefix()), (Integer) budget * 1024L * 1024L);
+            }
+            else
+            {
+                w_in = new IndexWriter.InboundWriter(newNoOfObjects, IndexManager.Index.INBOUND
+                                .getFile(idx.snapshotInfo.getPrefix()));
+            }
 
-            for (int ii = 0; ii < oldNoOfObjects; ii++)
+            if (parallelReindex)
+            {
+                final IOne2ManyIndex preOutbound0 = preOutbound;
+                ParallelReindex<int[][]> outbounds = new ParallelReindex<int[][]>(es, map, inFlight, chunkSize)
+                {
+                    @Override
+                    int[][] reindex(int start, int end)
+                    {
+                        int ret[][] = new int[countLive(map, start, end)][];
+                        for (int ii = start, jj = 0; ii < end; ii++)
+                        {
+                            if (map[ii] < 0)
+                                continue;
+                            int[] a = preOutbound0.get(ii);
+                            int[] tl = new int[a.length];
+                            for (int kk = 0; kk < a.length; kk++)
+                                tl[kk] = map[a[kk]];
+                            ret[jj++] = tl;
+                        }
+                        return ret;
+                    }
+                };
+                try
+                {
+                    // New object IDs are allocated in order
+                    int k = 0;
+                    while (outbounds.hasNext() && !listener.isCanceled())
+                    {
+                        for (int[] tl : outbounds.next())
+                        {
+                            for (int jj = 0; jj < tl.length; jj++)
+                                w_in.log(tl[jj], k, jj == 0);
+                            w_out.log(k++, tl);
+                        }
+                    }
+                }
+                finally
+                {
+                    outbounds.cancel();
+                }
+            }
+            else for (int ii = 0; ii < oldNoOfObjects; ii++)
             {
                 int k = map[ii];
 				if (k < 0) continue;
@@ -464,6 +594,8 @@ import org.eclipse.mat.util.SilentProgressListener;
         }
         finally
         {
+            es.shutdown();
+
             // delete all temporary indices
             idx.delete();
 
@@ -532,6 +664,167 @@ import org.eclipse.mat.util.SilentProgressListener;
 
     }
 
+    /**
+     * Count the objects which are kept in a range of old object IDs.
+     */
+    private static int countLive(int[] map, int start, int end)
+    {
+        int count = 0;
+        for (int ii = start; ii < end; ii++)
+        {
+            if (map[ii] >= 0)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Re-indexes ranges of old object IDs in parallel, returning the results
+     * in order of object ID. Only a limited number of ranges are in progress
+     * or waiting at once, so the memory used is bounded.
+     */
+    private static abstract class ParallelReindex<T>
+    {
+        private final ExecutorService es;
+        private final int[] map;
+        private final int inFlight;
+        private final int chunkSize;
+        private final ArrayDeque<Future<T>> pending = new ArrayDeque<Future<T>>();
+        private int nextStart;
+
+        ParallelReindex(ExecutorService es, int[] map, int inFlight, int chunkSize)
+        {
+            this.es = es;
+            this.map = map;
+            this.inFlight = inFlight;
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * Re-index the kept objects in a range of old object IDs.
+         * @param start the first old object ID
+         * @param end after the last old object ID
+         * @return the results for the kept objects, in order
+         */
+        abstract T reindex(int start, int end);
+
+        private void submit()
+        {
+            while (pending.size() < inFlight && nextStart < map.length)
+            {
+                final int start = nextStart;
+                final int end = (int) Math.min(map.length, (long) start + chunkSize);
+                pending.add(es.submit(new Callable<T>()
+                {
+                    public T call()
+                    {
+                        return reindex(start, end);
+                    }
+                }));
+                nextStart = end;
+            }
+        }
+
+        boolean hasNext()
+        {
+            submit();
+            return !pending.isEmpty();
+        }
+
+        T next()
+        {
+            submit();
+            Future<T> f = pending.poll();
+            if (f == null)
+                throw new NoSuchElementException();
+            try
+            {
+                return f.get();
+            }
+            catch (InterruptedException e)
+            {
+                cancel();
+                throw new RuntimeException(e);
+            }
+            catch (ExecutionException e)
+            {
+                cancel();
+                Throwable t = e.getCause();
+                if (t instanceof RuntimeException)
+                    throw (RuntimeException) t;
+                if (t instanceof Error)
+                    throw (Error) t;
+                throw new RuntimeException(t);
+            }
+        }
+
+        void cancel()
+        {
+            for (Future<T> f : pending)
+                f.cancel(true);
+            pending.clear();
+            nextStart = map.length;
+        }
+    }
+
+    private static class ParallelIntIterator implements IteratorInt
+    {
+        private final ParallelReindex<int[]> chunks;
+        private int[] chunk = new int[0];
+        private int index;
+
+        ParallelIntIterator(ParallelReindex<int[]> chunks)
+        {
+            this.chunks = chunks;
+        }
+
+        public boolean hasNext()
+        {
+            while (index == chunk.length && chunks.hasNext())
+            {
+                chunk = chunks.next();
+                index = 0;
+            }
+            return index < chunk.length;
+        }
+
+        public int next()
+        {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return chunk[index++];
+        }
+    }
+
+    private static class ParallelLongIterator implements IteratorLong
+    {
+        private final ParallelReindex<long[]> chunks;
+        private long[] chunk = new long[0];
+        private int index;
+
+        ParallelLongIterator(ParallelReindex<long[]> chunks)
+        {
+            this.chunks = chunks;
+        }
+
+        public boolean hasNext()
+        {
+            while (index == chunk.length && chunks.hasNext())
+            {
+                chunk = chunks.next();
+                index = 0;
+            }
+            return index < chunk.length;
+        }
+
+        public long next()
+        {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return chunk[index++];
+        }
+    }
+
     private static class KeyWriterImpl implements IndexWriter.KeyWriter
     {
         HashMapIntObject<ClassImpl> classesByNewId;
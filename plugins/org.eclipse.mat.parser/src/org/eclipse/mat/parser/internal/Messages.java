@@ -28,6 +28,8 @@ public class Messages extends NLS
     public static String DominatorTree_CreateDominatorsIndexFile;
     public static String DominatorTree_DepthFirstSearch;
     public static String DominatorTree_DominatorTreeCalculation;
+    public static String FieldColumnsImpl_ReadingField;
+    public static String FieldColumnsImpl_Warning_UnreadableColumn;
     public static String Function_Error_NeedsNumberAsInput;
     public static String Function_ErrorNoFunction;
     public static String Function_unknown;
@@ -39,13 +41,17 @@ public class Messages extends NLS
     public static String GarbageCleaner_SearchingForUnreachableObjects;
     public static String GarbageCleaner_Writing;
     public static String HistogramBuilder_Error_FailedToStoreInHistogram;
+    public static String IndexManager_MappedIndexFallback;
+    public static String IndexReader_Error_CorruptPage;
     public static String IndexReader_Error_IndexIsEmbedded;
     public static String IndexReader_Error_PageReadOverflow;
+    public static String IndexReader_Error_UnknownPageCodec;
     public static String IndexWriter_Error_ArrayLength;
     public static String IndexWriter_Error_ObjectArrayLength;
     public static String IndexWriter_NotImplemented;
     public static String IndexWriter_StoredError;
     public static String IndexWriter_StoredException;
+    public static String MappedIndexReader_Error_CompressedPages;
     public static String MethodCallExpression_Error_MethodNotFound;
     public static String MethodCallExpression_Error_MethodProhibited;
     public static String MultiplePathsFromGCRootsComputerImpl_FindingPaths;
@@ -83,18 +89,23 @@ public class Messages extends NLS
     public static String SnapshotFactoryImpl_ObjectsFoundButClassesHadObjectsAndClassesInTotal;
     public static String SnapshotFactoryImpl_ParsingHeapDump;
     public static String SnapshotFactoryImpl_ReparsingHeapDumpAsIndexOutOfDate;
+    public static String SnapshotFactoryImpl_ReparsingHeapDumpAsParseIncomplete;
     public static String SnapshotFactoryImpl_ReparsingHeapDumpWithOutOfDateIndex;
+    public static String SnapshotFactoryImpl_ResumingParse;
     public static String SnapshotFactoryImpl_UnableToDeleteIndexFile;
+    public static String SnapshotFactoryImpl_UnableToWriteCheckpoint;
     public static String SnapshotFactoryImpl_ValidatingGCRoots;
     public static String SnapshotFactoryImpl_ValidatingIndices;
     public static String SnapshotImpl_BuildingHistogram;
     public static String SnapshotImpl_CalculatingRetainedHeapSizeForClasses;
+    public static String SnapshotImpl_ErrorWritingTopDominatorsSummary;
     public static String SnapshotImpl_Error_DomTreeNotAvailable;
     public static String SnapshotImpl_Error_ObjectNotFound;
     public static String SnapshotImpl_Error_ParserNotFound;
     public static String SnapshotImpl_Error_ReplacingNonExistentClassLoader;
     public static String SnapshotImpl_Error_UnknownVersion;
     public static String SnapshotImpl_Error_UnrecognizedState;
+    public static String SnapshotImpl_FindingBiggestRetained;
     public static String SnapshotImpl_Histogram;
     public static String SnapshotImpl_Label;
     public static String SnapshotImpl_ReadingInboundReferrers;
@@ -102,6 +113,7 @@ public class Messages extends NLS
     public static String SnapshotImpl_ReopeningParsedHeapDumpFile;
     public static String SnapshotImpl_RetainedSetProgressName;
     public static String SnapshotImpl_RetrievingDominators;
+    public static String SnapshotImpl_SummarizingTopDominators;
     public static String ObjectArrayImpl_forArray;
     public static String ObjectMarker_MarkingObjects;
     public static String ObjectMarker_ErrorMarkingObjects;
@@ -145,6 +157,8 @@ public class Messages extends NLS
     public static String ThreadStackHelper_InvalidThread;
     public static String ThreadStackHelper_InvalidThreadLocal;
 
+    public static String TopDominatorsSummary_ErrorReadingSummary;
+
     static
     {
         // initialize resource bundle
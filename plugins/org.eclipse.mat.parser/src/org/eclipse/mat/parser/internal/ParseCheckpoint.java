@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.parser.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A marker file next to the index files recording the last completed phase
+ * of parsing a snapshot.
+ * Once the indexes and the main index file have been written, a parse which
+ * fails later, for example with an OutOfMemoryError while calculating the
+ * dominator tree, can be resumed from the marker instead of parsing the
+ * dump again.
+ * The marker is removed when the parse is complete, so no marker means
+ * either a complete parse or indexes written by an older version.
+ */
+class ParseCheckpoint
+{
+    /**
+     * The parsing phases, in order.
+     */
+    enum Phase
+    {
+        /** The index files are being written, so cannot be used */
+        STARTED,
+        /** The indexes and the main index file are complete */
+        INDEXED,
+        /** The dominator tree indexes are complete */
+        DOMINATOR_TREE
+    }
+
+    private ParseCheckpoint()
+    {}
+
+    /**
+     * The marker file.
+     * @param prefix the prefix of the index files
+     * @return the file
+     */
+    static File getFile(String prefix)
+    {
+        return new File(prefix + "checkpoint.index"); //$NON-NLS-1$
+    }
+
+    /**
+     * Find the last completed phase.
+     * @param prefix the prefix of the index files
+     * @return null if there is no marker,
+     * {@link Phase#STARTED} if the marker is not understood
+     * @throws IOException if the marker exists but cannot be read
+     */
+    static Phase read(String prefix) throws IOException
+    {
+        File file = getFile(prefix);
+        if (!file.exists())
+            return null;
+        String name = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+        for (Phase phase : Phase.values())
+        {
+            if (phase.name().equals(name))
+                return phase;
+        }
+        return Phase.STARTED;
+    }
+
+    /**
+     * Durably record the last completed phase.
+     * @param prefix the prefix of the index files
+     * @param phase the phase
+     * @throws IOException if the marker cannot be written
+     */
+    static void write(String prefix, Phase phase) throws IOException
+    {
+        try (FileChannel fc = FileChannel.open(getFile(prefix).toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            ByteBuffer buf = ByteBuffer.wrap(phase.name().getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining())
+                fc.write(buf);
+            fc.force(true);
+        }
+    }
+
+    /**
+     * Remove the marker once the parse is complete.
+     * @param prefix the prefix of the index files
+     * @throws IOException if the marker cannot be deleted
+     */
+    static void delete(String prefix) throws IOException
+    {
+        Files.deleteIfExists(getFile(prefix).toPath());
+    }
+}
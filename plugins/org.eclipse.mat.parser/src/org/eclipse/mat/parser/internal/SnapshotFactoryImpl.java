@@ -10,6 +10,7 @@
  * Contributors:
  *    SAP AG - initial API and implementation
  *    IBM Corporation - validation of indices
+ *    IBM Corporation - resumable parsing
  *******************************************************************************/
 package org.eclipse.mat.parser.internal;
 
@@ -33,6 +34,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Locale;
 import java.util.Map;
 import java.util.regex.Pattern;
 
@@ -48,6 +50,7 @@ import org.eclipse.mat.SnapshotException;
 import org.eclipse.mat.collect.HashMapIntObject;
 import org.eclipse.mat.collect.IteratorInt;
 import org.eclipse.mat.parser.IIndexBuilder;
+import org.eclipse.mat.parser.index.IndexManager;
 import org.eclipse.mat.parser.internal.oql.OQLQueryImpl;
 import org.eclipse.mat.parser.internal.util.ParserRegistry;
 import org.eclipse.mat.parser.internal.util.ParserRegistry.Parser;
@@ -189,7 +192,22 @@ public class SnapshotFactoryImpl implements SnapshotFactory.Implementation
                 // check if hprof file is newer than index file
                 if (file.lastModified() <= indexFile.lastModified())
                 {
-                    answer = SnapshotImpl.readFromFile(file, prefix, listener);
+                    ParseCheckpoint.Phase phase = ParseCheckpoint.read(prefix);
+                    if (phase == null)
+                    {
+                        answer = SnapshotImpl.readFromFile(file, prefix, listener);
+                    }
+                    else if (phase != ParseCheckpoint.Phase.STARTED)
+                    {
+                        answer = resume(file, prefix, listener);
+                    }
+                    else
+                    {
+                        String message = MessageUtil.format(Messages.SnapshotFactoryImpl_ReparsingHeapDumpAsParseIncomplete,
+                                        file.getPath());
+                        listener.sendUserMessage(Severity.INFO, message, null);
+                        listener.subTask(message);
+                    }
                 }
                 else
                 {
@@ -236,6 +254,136 @@ public class SnapshotFactoryImpl implements SnapshotFactory.Implementation
         return answer;
     }
 
+    /**
+     * Complete a parse which failed after the indexes were written.
+     * @param file the dump
+     * @param prefix the prefix of the index files
+     * @param listener to report progress
+     * @return the snapshot, or null if the dump should be parsed again
+     * @throws SnapshotException if a phase fails again
+     * @throws IOException if the indexes cannot be read, so the dump should be parsed again
+     */
+    private SnapshotImpl resume(File file, String prefix, IProgressListener listener)
+                    throws SnapshotException, IOException
+    {
+        File lockFile = new File(prefix + "lock.index"); //$NON-NLS-1$
+        /*
+         * Closing the lock when the parse is complete releases
+         * the lock and deletes the lock file.
+         */
+        final Closeable lock = lockParse(file, lockFile, listener);
+        try
+        {
+            // Another parse might have moved on while waiting for the lock
+            ParseCheckpoint.Phase phase = ParseCheckpoint.read(prefix);
+            if (phase == null)
+                return SnapshotImpl.readFromFile(file, prefix, listener);
+            if (phase == ParseCheckpoint.Phase.STARTED)
+            {
+                String message = MessageUtil.format(Messages.SnapshotFactoryImpl_ReparsingHeapDumpAsParseIncomplete,
+                                file.getPath());
+                listener.sendUserMessage(Severity.INFO, message, null);
+                listener.subTask(message);
+                return null;
+            }
+            if (phase == ParseCheckpoint.Phase.INDEXED)
+            {
+                // Discard anything left from a failed dominator tree calculation
+                for (IndexManager.Index index : new IndexManager.Index[] { IndexManager.Index.DOMINATED,
+                                IndexManager.Index.O2RETAINED, IndexManager.Index.DOMINATOR,
+                                IndexManager.Index.I2RETAINED, IndexManager.Index.DOMTOP })
+                {
+                    File f = index.getFile(prefix);
+                    if (f.exists() && !f.delete())
+                        throw new IOException(MessageUtil.format(Messages.SnapshotFactoryImpl_UnableToDeleteIndexFile, f.toString()));
+                }
+            }
+            listener.sendUserMessage(Severity.INFO, MessageUtil.format(Messages.SnapshotFactoryImpl_ResumingParse,
+                            file.getPath(), phase.name().toLowerCase(Locale.ENGLISH)), null);
+
+            SimpleMonitor monitor = new SimpleMonitor(MessageUtil
+                            .format(Messages.SnapshotFactoryImpl_ParsingHeapDump, file.getAbsolutePath()), listener,
+                            new int[] { 10, 150, 10 });
+            SnapshotImpl snapshot = SnapshotImpl.readFromFile(file, prefix, monitor.nextMonitor());
+            boolean done = false;
+            try
+            {
+                completeParse(snapshot, prefix, phase, monitor, listener);
+                done = true;
+            }
+            finally
+            {
+                if (!done)
+                {
+                    // Error in dominator tree, so close the index files
+                    snapshot.dispose();
+                }
+            }
+            listener.done();
+            return snapshot;
+        }
+        finally
+        {
+            lock.close();
+        }
+    }
+
+    /**
+     * Run the phases after the last completed phase, recording each one as it completes.
+     * @param snapshot the snapshot with its indexes
+     * @param prefix the prefix of the index files
+     * @param phase the last completed phase
+     * @param monitor for the progress of the dominator tree and class retained size phases
+     * @param listener to report problems with the checkpoint
+     */
+    private void completeParse(SnapshotImpl snapshot, String prefix, ParseCheckpoint.Phase phase,
+                    SimpleMonitor monitor, IProgressListener listener) throws SnapshotException
+    {
+        IProgressListener mon = monitor.nextMonitor();
+        if (phase == ParseCheckpoint.Phase.INDEXED)
+        {
+            snapshot.calculateDominatorTree(mon);
+            checkpoint(prefix, ParseCheckpoint.Phase.DOMINATOR_TREE, listener);
+        }
+        else
+        {
+            mon.done();
+        }
+        mon = monitor.nextMonitor();
+        snapshot.calculateMinRetainedHeapSizeForClasses(mon);
+        if (!mon.isCanceled())
+        {
+            try
+            {
+                ParseCheckpoint.delete(prefix);
+            }
+            catch (IOException e)
+            {
+                // The next open will just calculate the class retained sizes again
+                listener.sendUserMessage(Severity.WARNING, MessageUtil.format(
+                                Messages.SnapshotFactoryImpl_UnableToDeleteIndexFile, ParseCheckpoint.getFile(prefix)), e);
+            }
+        }
+    }
+
+    /**
+     * Record a completed phase.
+     * Failure is not fatal, as without a newer checkpoint
+     * a later open will just repeat some of the work.
+     */
+    private void checkpoint(String prefix, ParseCheckpoint.Phase phase, IProgressListener listener)
+    {
+        try
+        {
+            ParseCheckpoint.write(prefix, phase);
+        }
+        catch (IOException e)
+        {
+            listener.sendUserMessage(Severity.WARNING, MessageUtil.format(
+                            Messages.SnapshotFactoryImpl_UnableToWriteCheckpoint, ParseCheckpoint.getFile(prefix)), e);
+        }
+    }
+
     /**
      * Create a lock to stop concurrent parsing.
      * @param file The dump - used for a message in the lock file
@@ -412,6 +560,9 @@ public class SnapshotFactoryImpl implements SnapshotFactory.Implementation
 
         List<IOException> errors = new ArrayList<IOException>();
 
+        // Until the indexes are complete they cannot be reused
+        checkpoint(prefix, ParseCheckpoint.Phase.STARTED, listener);
+
         for (Parser parser : parsers)
         {
             IIndexBuilder indexBuilder = parser.create(IIndexBuilder.class, ParserRegistry.INDEX_BUILDER);
@@ -442,6 +593,31 @@ public class SnapshotFactoryImpl implements SnapshotFactory.Implementation
                         snapshotInfo.setProperty("discard_seed", Integer.parseInt(args.get("discard_seed"))); //$NON-NLS-1$ //$NON-NLS-2$
                 }
 
+                if (Boolean.parseBoolean(args.get("parallel_dominator_tree")))//$NON-NLS-1$
+                {
+                    snapshotInfo.setProperty("parallel_dominator_tree", Boolean.TRUE);//$NON-NLS-1$
+                }
+
+                if (Boolean.parseBoolean(args.get("off_heap")))//$NON-NLS-1$
+                {
+                    snapshotInfo.setProperty("off_heap", Boolean.TRUE);//$NON-NLS-1$
+                }
+
+                if (args.containsKey("inbound_memory_budget")) //$NON-NLS-1$
+                {
+                    snapshotInfo.setProperty("inbound_memory_budget", Integer.parseInt(args.get("inbound_memory_budget"))); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+
+                if (args.containsKey("parallel_reindex")) //$NON-NLS-1$
+                {
+                    snapshotInfo.setProperty("parallel_reindex", Boolean.parseBoolean(args.get("parallel_reindex"))); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+
+                if (args.containsKey("reindex_chunk_size")) //$NON-NLS-1$
+                {
+                    snapshotInfo.setProperty("reindex_chunk_size", Integer.parseInt(args.get("reindex_chunk_size"))); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+
                 String snapshot_identifier = args.get("snapshot_identifier"); //$NON-NLS-1$
                 if (snapshot_identifier != null)
                 {
@@ -470,11 +646,12 @@ public class SnapshotFactoryImpl implements SnapshotFactory.Implementation
                 purgedMapping = null;
 
                 SnapshotImpl snapshot = builder.create(parser, listener);
+                // A later failure can now be resumed from the indexes
+                checkpoint(prefix, ParseCheckpoint.Phase.INDEXED, listener);
                 boolean done = false;
                 try
                 {
-                    snapshot.calculateDominatorTree(monitor.nextMonitor());
-                    snapshot.calculateMinRetainedHeapSizeForClasses(monitor.nextMonitor());
+                    completeParse(snapshot, prefix, ParseCheckpoint.Phase.INDEXED, monitor, listener);
                     done = true;
                 }
                 finally
@@ -10,6 +10,16 @@
  * Contributors:
  *    SAP AG - initial API and implementation
  *    IBM Corporation - validation of indices
+ *    IBM Corporation - parallel customized retained set
+ *    IBM Corporation - configurable concurrent object cache
+ *    IBM Corporation - compressed index pages
+ *    IBM Corporation - batch lookups for sorted ids
+ *    IBM Corporation - columns of instance field values
+ *    IBM Corporation - retained sizes of classes and class loaders
+ *    IBM Corporation - open index files while reading the master index
+ *    IBM Corporation - build histograms of objects in parallel
+ *    IBM Corporation - biggest objects by retained size
+ *    IBM Corporation - summary of the top-level dominators
  *******************************************************************************/
 package org.eclipse.mat.parser.internal;
 
@@ -35,27 +45,36 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveTask;
 import java.util.regex.Pattern;
 
 import org.eclipse.mat.SnapshotException;
 import org.eclipse.mat.collect.ArrayInt;
 import org.eclipse.mat.collect.ArrayIntBig;
+import org.eclipse.mat.collect.ArrayUtils;
 import org.eclipse.mat.collect.BitField;
 import org.eclipse.mat.collect.HashMapIntObject;
 import org.eclipse.mat.collect.IteratorInt;
 import org.eclipse.mat.collect.SetInt;
 import org.eclipse.mat.parser.IObjectReader;
 import org.eclipse.mat.parser.index.IIndexReader;
+import org.eclipse.mat.parser.index.IIndexReader.IOne2LongIndex;
 import org.eclipse.mat.parser.index.IIndexReader.IOne2OneIndex;
 import org.eclipse.mat.parser.index.IIndexReader.IOne2SizeIndex;
 import org.eclipse.mat.parser.index.IndexManager;
 import org.eclipse.mat.parser.index.IndexManager.Index;
+import org.eclipse.mat.parser.index.IndexWriter;
+import org.eclipse.mat.parser.internal.snapshot.FieldColumnsImpl;
 import org.eclipse.mat.parser.internal.snapshot.HistogramBuilder;
 import org.eclipse.mat.parser.internal.snapshot.MultiplePathsFromGCRootsComputerImpl;
 import org.eclipse.mat.parser.internal.snapshot.ObjectCache;
 import org.eclipse.mat.parser.internal.snapshot.ObjectMarker;
 import org.eclipse.mat.parser.internal.snapshot.PathsFromGCRootsTreeBuilder;
 import org.eclipse.mat.parser.internal.snapshot.RetainedSizeCache;
+import org.eclipse.mat.parser.internal.snapshot.TopDominatorsSummary;
 import org.eclipse.mat.parser.internal.util.IntStack;
 import org.eclipse.mat.parser.internal.util.ParserRegistry;
 import org.eclipse.mat.parser.internal.util.ParserRegistry.Parser;
@@ -68,10 +87,13 @@ import org.eclipse.mat.parser.model.PrimitiveArrayImpl;
 import org.eclipse.mat.parser.model.XClassHistogramRecord;
 import org.eclipse.mat.parser.model.XGCRootInfo;
 import org.eclipse.mat.parser.model.XSnapshotInfo;
+import org.eclipse.mat.snapshot.ClassHistogramRecord;
+import org.eclipse.mat.snapshot.ClassLoaderHistogramRecord;
 import org.eclipse.mat.snapshot.DominatorsSummary;
 import org.eclipse.mat.snapshot.DominatorsSummary.ClassDominatorRecord;
 import org.eclipse.mat.snapshot.ExcludedReferencesDescriptor;
 import org.eclipse.mat.snapshot.Histogram;
+import org.eclipse.mat.snapshot.IFieldColumns;
 import org.eclipse.mat.snapshot.IMultiplePathsFromGCRootsComputer;
 import org.eclipse.mat.snapshot.IPathsFromGCRootsComputer;
 import org.eclipse.mat.snapshot.ISnapshot;
@@ -102,6 +124,21 @@ public final class SnapshotImpl implements ISnapshot
     // //////////////////////////////////////////////////////////////
 
     private static final String VERSION = "MAT_01";//$NON-NLS-1$
+    /**
+     * Version for snapshots whose index files might have compressed or block encoded pages,
+     * so that earlier versions reparse the dump rather than misread the indexes.
+     */
+    private static final String VERSION_COMPRESSED_PAGES = "MAT_02";//$NON-NLS-1$
+
+    /**
+     * System property to set the maximum number of objects held
+     * in the object cache of each snapshot.
+     * For example <code>-Dmat.snapshot.objectCacheSize=10000</code>
+     */
+    public static final String OBJECT_CACHE_SIZE_PROPERTY = "mat.snapshot.objectCacheSize"; //$NON-NLS-1$
+    private static final int DEFAULT_OBJECT_CACHE_SIZE = 1000;
+    /** The smallest number of objects for each task building a histogram */
+    private static final int HISTOGRAM_CHUNK = 1 << 16;
 
     /**
      * Read the snapshot from an already indexed dump.
@@ -118,6 +155,17 @@ public final class SnapshotImpl implements ISnapshot
     {
         listener.beginTask(Messages.SnapshotImpl_ReopeningParsedHeapDumpFile, 9);
 
+        // Open the index files while the master index file is read
+        final IndexManager indexManager = new IndexManager();
+        FutureTask<Void> opening = new FutureTask<Void>(() -> {
+            indexManager.init(prefix);
+            return null;
+        });
+        Thread openThread = new Thread(opening, "MAT open index files"); //$NON-NLS-1$
+        openThread.setDaemon(true);
+        openThread.start();
+        boolean done = false;
+
         File indexFile = new File(prefix + "index"); //$NON-NLS-1$
         try (FileInputStream fis = new FileInputStream(indexFile);
             /**
@@ -193,7 +241,7 @@ public final class SnapshotImpl implements ISnapshot
             listener.worked(1);
 
             String version = in.readUTF();
-            if (!VERSION.equals(version))
+            if (!VERSION.equals(version) && !VERSION_COMPRESSED_PAGES.equals(version))
                 throw new IOException(MessageUtil.format(Messages.SnapshotImpl_Error_UnknownVersion, version));
 
             String objectReaderUniqueIdentifier = in.readUTF();
@@ -242,27 +290,14 @@ public final class SnapshotImpl implements ISnapshot
                 snapshotInfo.setPath(file.getAbsolutePath());
             }
 
-            IndexManager indexManager = new IndexManager();
-            boolean done = false;
-            try
-            {
-                indexManager.init(prefix);
+            awaitIndexes(opening);
 
-                SnapshotImpl ret = new SnapshotImpl(snapshotInfo, heapObjectReader, classCache, roots, rootsPerThread, loaderLabels,
-                                arrayObjects, indexManager);
-                listener.worked(3);
-                done = true;
+            SnapshotImpl ret = new SnapshotImpl(snapshotInfo, heapObjectReader, classCache, roots, rootsPerThread, loaderLabels,
+                            arrayObjects, indexManager);
+            listener.worked(3);
+            done = true;
 
-                return ret;
-            }
-            finally
-            {
-                if (!done)
-                {
-                    // Close files on error to allow delete
-                    indexManager.close();
-                }
-            }
+            return ret;
         }
         catch (ClassNotFoundException e)
         {
@@ -278,10 +313,51 @@ public final class SnapshotImpl implements ISnapshot
         }
         finally
         {
+            if (!done)
+            {
+                // Close files on error to allow delete
+                try
+                {
+                    awaitIndexes(opening);
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    // Already failing, the readers which did open are closed below
+                }
+                indexManager.close();
+            }
             listener.done();
         }
     }
 
+    /**
+     * Wait for the index files to be opened.
+     * @param opening the task opening the files
+     * @throws IOException if an index file could not be read
+     */
+    private static void awaitIndexes(FutureTask<Void> opening) throws IOException
+    {
+        try
+        {
+            opening.get();
+        }
+        catch (InterruptedException e)
+        {
+            throw new IOException(e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
     /**
      * Create the snapshot after a fresh parse.
      * @param snapshotInfo the basic data about the snapshot
@@ -316,7 +392,7 @@ public final class SnapshotImpl implements ISnapshot
             FileOutputStream fos = new FileOutputStream(snapshotInfo.getPrefix() + "index");//$NON-NLS-1$
             ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(fos));)
         {
-            out.writeUTF(VERSION);
+            out.writeUTF(IndexWriter.isCompressedPages() ? VERSION_COMPRESSED_PAGES : VERSION);
             out.writeUTF(objectReaderUniqueIdentifier);
             out.writeObject(answer.snapshotInfo);
             out.writeObject(answer.classCache);
@@ -364,6 +440,7 @@ public final class SnapshotImpl implements ISnapshot
     private boolean dominatorTreeCalculated;
     private Map<String, List<IClass>> classCacheByName;
     private ObjectCache<IObject> objectCache;
+    private FieldColumnsImpl fieldColumns;
     
     private boolean parsedThreads = false;
     HashMapIntObject<IThreadStack> threadId2stack;
@@ -412,7 +489,8 @@ public final class SnapshotImpl implements ISnapshot
         this.dominatorTreeCalculated = indexManager.dominated() != null && indexManager.o2retained() != null
                         && indexManager.dominator() != null;
 
-        this.objectCache = new HeapObjectCache(this, 1000);
+        this.objectCache = new HeapObjectCache(this,
+                        Math.max(1, Integer.getInteger(OBJECT_CACHE_SIZE_PROPERTY, DEFAULT_OBJECT_CACHE_SIZE)));
 
         this.heapObjectReader.open(this);
 
@@ -588,64 +666,83 @@ public final class SnapshotImpl implements ISnapshot
         if (progressMonitor == null)
             progressMonitor = new VoidProgressListener();
 
-        HistogramBuilder histogramBuilder = new HistogramBuilder(Messages.SnapshotImpl_Histogram);
-
-        // Round up count
-        progressMonitor.beginTask(Messages.SnapshotImpl_BuildingHistogram, (objectIds.length >>> 8) + ((objectIds.length & 0xff) > 0 ? 1 : 0));
-
         int[] sortedObjectIds = Arrays.copyOf(objectIds, objectIds.length);
-        Arrays.sort(sortedObjectIds);
+        Arrays.parallelSort(sortedObjectIds);
 
-        IOne2OneIndex o2class = indexManager.o2class();
+        // split the sorted ids into ranges, each built into a histogram by a task in the common pool
+        int chunk = Math.max(HISTOGRAM_CHUNK, sortedObjectIds.length / (ForkJoinPool.getCommonPoolParallelism() * 4) + 1);
+        List<HistogramTask> tasks = new ArrayList<HistogramTask>();
+        for (int start = 0; start < sortedObjectIds.length; start += chunk)
+            tasks.add(new HistogramTask(sortedObjectIds, start, Math.min(sortedObjectIds.length, start + chunk)));
+        progressMonitor.beginTask(Messages.SnapshotImpl_BuildingHistogram, tasks.size());
 
-        // firstly, arrays we collect the size for each array separately
-        for(int i = 0; i < sortedObjectIds.length; i++) {
-            int objectId = sortedObjectIds[i];
-            if (arrayObjects.get(objectId)) {
-                int classId = o2class.get(objectId);
-                histogramBuilder.add(classId, objectId, indexManager.a2size().getSize(objectId));
-            }
+        for (int i = tasks.size() - 1; i >= 1; --i)
+            tasks.get(i).fork();
+        HistogramBuilder histogramBuilder = new HistogramBuilder(Messages.SnapshotImpl_Histogram);
+        for (int i = 0; i < tasks.size(); ++i)
+        {
+            // merge in order, so the objects of each class stay sorted
+            HistogramTask task = tasks.get(i);
+            histogramBuilder.addAll(i == 0 ? task.invoke() : task.join());
+            progressMonitor.worked(1);
         }
 
-        // for all of the non-array objects, group by class id
-        // we are going to accumulate these into arrays grouped by class id
-        HashMap<Integer, ArrayInt> classToObjectIds = new HashMap<>();
-        for(int i = 0; i < sortedObjectIds.length; i++) {
-            int objectId = sortedObjectIds[i];
-            if (!arrayObjects.get(objectId)) {
-                int classId = o2class.get(objectId);
-                ArrayInt thisClassObjIds = classToObjectIds.computeIfAbsent(classId, (k) -> new ArrayInt());
-                thisClassObjIds.add(objectId);
-            }
-        }
+        progressMonitor.done();
+        return histogramBuilder.toHistogram(this, false);
+    }
 
-        // load all of the objects; grouped by class id so all heap size lookups should be (relatively) hot
-        for (Iterator<Map.Entry<Integer, ArrayInt>> iter = classToObjectIds.entrySet().iterator(); iter.hasNext(); ) {
-            Map.Entry<Integer, ArrayInt> entry = iter.next();
-            int classId = entry.getKey();
-            ArrayInt thisClassObjIds = entry.getValue();
+    /**
+     * Builds the histogram of a range of sorted object ids.
+     * The class ids are read in one pass over the index, then the objects are
+     * added to a histogram builder with primitive keys, so that the ranges can
+     * be merged afterwards.
+     */
+    private class HistogramTask extends RecursiveTask<HistogramBuilder>
+    {
+        private static final long serialVersionUID = 1L;
+        private final int[] sortedObjectIds;
+        private final int start;
+        private final int end;
+
+        HistogramTask(int[] sortedObjectIds, int start, int end)
+        {
+            this.sortedObjectIds = sortedObjectIds;
+            this.start = start;
+            this.end = end;
+        }
 
-            for (int i = 0; i < thisClassObjIds.size(); i++) {
-                final int objectId = thisClassObjIds.get(i);
+        @Override
+        protected HistogramBuilder compute()
+        {
+            int[] ids = Arrays.copyOfRange(sortedObjectIds, start, end);
+            int[] classIds = new int[ids.length];
+            indexManager.o2class().getAll(ids, classIds);
+            IOne2SizeIndex a2size = indexManager.a2size();
 
-                // it would be preferable to call getHeapSize once per class id, but on occasion
-                // objects with the same class id might get a different reference in the classCache
+            HistogramBuilder histogramBuilder = new HistogramBuilder(null);
+            for (int i = 0; i < ids.length; i++)
+            {
+                int objectId = ids[i];
+                int classId = classIds[i];
                 final long heapSize;
-                IClass clazz = classCache.get(objectId);
-                if (clazz != null) {
-                    heapSize = clazz.getUsedHeapSize();
-                } else {
-                    heapSize = classCache.get(classId).getHeapSizePerInstance();
+                if (arrayObjects.get(objectId))
+                {
+                    // arrays have a size each
+                    heapSize = a2size.getSize(objectId);
+                }
+                else
+                {
+                    // objects with the same class id might get a different reference in the classCache
+                    IClass clazz = classCache.get(objectId);
+                    if (clazz != null)
+                        heapSize = clazz.getUsedHeapSize();
+                    else
+                        heapSize = classCache.get(classId).getHeapSizePerInstance();
                 }
-
                 histogramBuilder.add(classId, objectId, heapSize);
             }
-
-            iter.remove();
+            return histogramBuilder;
         }
-
-        progressMonitor.done();
-        return histogramBuilder.toHistogram(this, false);
     }
 
     @Override
@@ -675,75 +772,62 @@ public final class SnapshotImpl implements ISnapshot
     @Override
     public int[] getInboundRefererIds(int[] objectIds, IProgressListener progressMonitor) throws SnapshotException
     {
-        if (progressMonitor == null)
-            progressMonitor = new VoidProgressListener();
-
-        IIndexReader.IOne2ManyIndex inbound = indexManager.inbound();
-
-        SetInt result = new SetInt();
-        progressMonitor.beginTask(Messages.SnapshotImpl_ReadingInboundReferrers, objectIds.length / 100);
-
-        // Add a useful error message
-        int nobjs = indexManager.inbound().size();
-        for (int ii = 0; ii < objectIds.length; ii++)
-        {
-            int objectId = objectIds[ii];
-            if (objectId >= nobjs || objectId < 0)
-            {
-                throw new SnapshotException(MessageUtil.format(Messages.SnapshotImpl_Error_ObjectNotFound, objectId));
-            }
-            int[] referees = inbound.get(objectId);
-            for (int refereeId : referees)
-                result.add(refereeId);
-
-            if (ii % 100 == 0)
-            {
-                if (progressMonitor.isCanceled())
-                    return null;
-                progressMonitor.worked(1);
-            }
-        }
-
-        int[] endResult = result.toArray();
+        int[] endResult = getReferenceIds(indexManager.inbound(), objectIds, Messages.SnapshotImpl_ReadingInboundReferrers,
+                        progressMonitor);
         // It used to be sorted before (TreeSet<Integer>) but I don't
         // remember if this is needed
         // Arrays.sort(endResult);
-
-        progressMonitor.done();
-
         return endResult;
     }
 
     @Override
     public int[] getOutboundReferentIds(int[] objectIds, IProgressListener progressMonitor) throws SnapshotException
+    {
+        return getReferenceIds(indexManager.outbound(), objectIds, Messages.SnapshotImpl_ReadingOutboundReferrers,
+                        progressMonitor);
+    }
+
+    /**
+     * Collect the referrers or referents of several objects.
+     * The object ids are sorted so the index reads each page once.
+     * @return the distinct ids, or null if cancelled
+     */
+    private int[] getReferenceIds(IIndexReader.IOne2ManyIndex index, int[] objectIds, String task,
+                    IProgressListener progressMonitor) throws SnapshotException
     {
         if (progressMonitor == null)
             progressMonitor = new VoidProgressListener();
 
-        IIndexReader.IOne2ManyIndex outbound = indexManager.outbound();
-
-        SetInt result = new SetInt();
-        progressMonitor.beginTask(Messages.SnapshotImpl_ReadingOutboundReferrers, objectIds.length / 100);
+        int[] sortedObjectIds = Arrays.copyOf(objectIds, objectIds.length);
+        Arrays.sort(sortedObjectIds);
 
         // Add a useful error message
-        int nobjs = indexManager.outbound().size();
-        for (int ii = 0; ii < objectIds.length; ii++)
+        int nobjs = index.size();
+        if (sortedObjectIds.length > 0)
         {
-            int objectId = objectIds[ii];
+            int objectId = sortedObjectIds[0] < 0 ? sortedObjectIds[0] : sortedObjectIds[sortedObjectIds.length - 1];
             if (objectId >= nobjs || objectId < 0)
             {
                 throw new SnapshotException(MessageUtil.format(Messages.SnapshotImpl_Error_ObjectNotFound, objectId));
             }
-            int[] referees = outbound.get(objectId);
-            for (int refereeId : referees)
-                result.add(refereeId);
+        }
 
-            if (ii % 100 == 0)
-            {
-                if (progressMonitor.isCanceled())
-                    return null;
-                progressMonitor.worked(1);
-            }
+        SetInt result = new SetInt();
+        // One unit of work per batch read below
+        progressMonitor.beginTask(task, (objectIds.length + 99) / 100);
+
+        IIndexReader.IOne2ManyVisitor collector = (objectId, ids) -> {
+            for (int id : ids)
+                result.add(id);
+        };
+        // Read 100 objects at a time to check for cancellation
+        for (int ii = 0; ii < sortedObjectIds.length; ii += 100)
+        {
+            index.forEach(Arrays.copyOfRange(sortedObjectIds, ii, Math.min(ii + 100, sortedObjectIds.length)), collector);
+
+            if (progressMonitor.isCanceled())
+                return null;
+            progressMonitor.worked(1);
         }
 
         int[] endResult = result.toArray();
@@ -989,7 +1073,18 @@ public final class SnapshotImpl implements ISnapshot
         ObjectMarker marker = new ObjectMarker(getGCRoots(), firstPass, getIndexManager().outbound,
                         IndexManager.Index.OUTBOUND.getFile(getSnapshotInfo().getPrefix()).length(),
                         monitor.nextMonitor());
-        marker.markSingleThreaded(excludedReferences, this);
+        int availableProcessors = Runtime.getRuntime().availableProcessors();
+        try
+        {
+            if (availableProcessors > 1)
+                marker.markMultiThreaded(excludedReferences, this, availableProcessors);
+            else
+                marker.markSingleThreaded(excludedReferences, this);
+        }
+        catch (InterruptedException e)
+        {
+            throw new SnapshotException(e);
+        }
 
         // un-mark initial - they have to go into the retained set
         for (int objId : objectIds)
@@ -1006,7 +1101,14 @@ public final class SnapshotImpl implements ISnapshot
 
         ObjectMarker secondMarker = new ObjectMarker(objectIds, secondPass, getIndexManager().outbound,
                         monitor.nextMonitor());
-        secondMarker.markSingleThreaded();
+        try
+        {
+            secondMarker.markMultiThreaded(availableProcessors);
+        }
+        catch (InterruptedException e)
+        {
+            throw new SnapshotException(e);
+        }
 
         // Clear to make space
         objectIds = null;
@@ -1441,6 +1543,228 @@ public final class SnapshotImpl implements ISnapshot
         }
     }
 
+    @Override
+    public int[] getBiggestRetainedIds(int[] objectIds, int n, long minRetainedSize, IProgressListener listener)
+                    throws SnapshotException
+    {
+        if (!isDominatorTreeCalculated())
+            throw new SnapshotException(Messages.SnapshotImpl_Error_DomTreeNotAvailable);
+
+        if (listener == null)
+            listener = new VoidProgressListener();
+
+        IOne2LongIndex o2retained = indexManager.o2retained();
+        if (objectIds == null)
+        {
+            // the summary written with the dominator tree holds the biggest top-level dominators
+            TopDominatorsSummary summary = getTopDominatorsSummary(false, listener);
+            if (summary != null)
+            {
+                int[] ids = summary.getBiggestIds(n, minRetainedSize);
+                if (ids != null)
+                    return ids;
+            }
+
+            // the top-level dominators are already sorted by retained size
+            int[] top = getImmediateDominatedIds(-1);
+            int count = 0;
+            while (count < top.length && count < n && o2retained.get(top[count]) >= minRetainedSize)
+                count++;
+            return Arrays.copyOf(top, count);
+        }
+
+        int[] sortedObjectIds = Arrays.copyOf(objectIds, objectIds.length);
+        Arrays.sort(sortedObjectIds);
+
+        // Add a useful error message
+        int nobjs = o2retained.size();
+        if (sortedObjectIds.length > 0)
+        {
+            int objectId = sortedObjectIds[0] < 0 ? sortedObjectIds[0] : sortedObjectIds[sortedObjectIds.length - 1];
+            if (objectId >= nobjs || objectId < 0)
+            {
+                throw new SnapshotException(MessageUtil.format(Messages.SnapshotImpl_Error_ObjectNotFound, objectId));
+            }
+        }
+
+        /*
+         * Read the retained sizes in object id order, so each page of the index
+         * is read once, and keep the biggest objects so far in a min-heap with
+         * the smallest of them at the top.
+         */
+        int capacity = Math.max(0, Math.min(n, sortedObjectIds.length));
+        long[] heapSizes = new long[capacity];
+        int[] heapIds = new int[capacity];
+        int size = 0;
+        listener.beginTask(Messages.SnapshotImpl_FindingBiggestRetained, sortedObjectIds.length / 1000 + 1);
+        for (int ii = 0; ii < sortedObjectIds.length && capacity > 0; ii++)
+        {
+            int objectId = sortedObjectIds[ii];
+            if (ii > 0 && objectId == sortedObjectIds[ii - 1])
+                continue;
+            long retained = o2retained.get(objectId);
+            if (retained < minRetainedSize)
+                continue;
+            if (size < capacity)
+            {
+                heapSizes[size] = retained;
+                heapIds[size] = objectId;
+                siftUp(heapSizes, heapIds, size++);
+            }
+            else if (retained > heapSizes[0])
+            {
+                heapSizes[0] = retained;
+                heapIds[0] = objectId;
+                siftDown(heapSizes, heapIds, size);
+            }
+            if (ii % 1000 == 999)
+            {
+                if (listener.isCanceled())
+                    throw new IProgressListener.OperationCanceledException();
+                listener.worked(1);
+            }
+        }
+
+        long[] sizes = Arrays.copyOf(heapSizes, size);
+        int[] result = Arrays.copyOf(heapIds, size);
+        ArrayUtils.sortDesc(sizes, result);
+        listener.done();
+        return result;
+    }
+
+    private static void siftUp(long[] sizes, int[] ids, int pos)
+    {
+        while (pos > 0)
+        {
+            int parent = (pos - 1) / 2;
+            if (sizes[parent] <= sizes[pos])
+                break;
+            swap(sizes, ids, parent, pos);
+            pos = parent;
+        }
+    }
+
+    private static void siftDown(long[] sizes, int[] ids, int size)
+    {
+        int pos = 0;
+        while (true)
+        {
+            int child = 2 * pos + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && sizes[child + 1] < sizes[child])
+                child++;
+            if (sizes[pos] <= sizes[child])
+                break;
+            swap(sizes, ids, pos, child);
+            pos = child;
+        }
+    }
+
+    private static void swap(long[] sizes, int[] ids, int a, int b)
+    {
+        long size = sizes[a];
+        sizes[a] = sizes[b];
+        sizes[b] = size;
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+    }
+
+    @Override
+    public Histogram getTopDominatorsHistogram(IProgressListener listener) throws SnapshotException
+    {
+        if (!isDominatorTreeCalculated())
+            throw new SnapshotException(Messages.SnapshotImpl_Error_DomTreeNotAvailable);
+
+        if (listener == null)
+            listener = new VoidProgressListener();
+
+        TopDominatorsSummary summary = getTopDominatorsSummary(true, listener);
+
+        TopDominatorsSummary.Totals classTotals = summary.getClassTotals();
+        ArrayList<ClassHistogramRecord> classRecords = new ArrayList<ClassHistogramRecord>(classTotals.size());
+        HashMapIntObject<ArrayList<ClassHistogramRecord>> loaderClasses = new HashMapIntObject<ArrayList<ClassHistogramRecord>>();
+        for (int i = 0; i < classTotals.size(); i++)
+        {
+            ClassImpl clazz = classCache.get(classTotals.getId(i));
+            ClassHistogramRecord record = new ClassHistogramRecord(clazz.getName(), clazz.getObjectId(),
+                            classTotals.getNumberOfObjects(i), classTotals.getUsedHeapSize(i),
+                            classTotals.getRetainedHeapSize(i));
+            classRecords.add(record);
+
+            ArrayList<ClassHistogramRecord> records = loaderClasses.get(clazz.getClassLoaderId());
+            if (records == null)
+                loaderClasses.put(clazz.getClassLoaderId(), records = new ArrayList<ClassHistogramRecord>());
+            records.add(record);
+        }
+
+        TopDominatorsSummary.Totals loaderTotals = summary.getClassLoaderTotals();
+        ArrayList<ClassLoaderHistogramRecord> loaderRecords = new ArrayList<ClassLoaderHistogramRecord>(loaderTotals.size());
+        for (int i = 0; i < loaderTotals.size(); i++)
+        {
+            IObject classLoader = getObject(loaderTotals.getId(i));
+            String label = classLoader.getClassSpecificName();
+            if (label == null)
+                label = classLoader.getTechnicalName();
+            loaderRecords.add(new ClassLoaderHistogramRecord(label, classLoader.getObjectId(),
+                            loaderClasses.get(classLoader.getObjectId()), loaderTotals.getNumberOfObjects(i),
+                            loaderTotals.getUsedHeapSize(i), loaderTotals.getRetainedHeapSize(i)));
+        }
+
+        return new Histogram(Messages.SnapshotImpl_Histogram, classRecords, loaderRecords,
+                        summary.getNumberOfObjects(), summary.getUsedHeapSize(), summary.getRetainedHeapSize());
+    }
+
+    /**
+     * The summary of the top-level dominators written with the dominator tree.
+     * Snapshots parsed before the summary existed have it calculated and stored
+     * the first time it is needed.
+     * @param calculate whether to calculate the summary if it is not available
+     * @param listener to report progress
+     * @return the summary, or null if not available and not calculated
+     * @throws SnapshotException if there is a problem reading the top-level dominators
+     */
+    private synchronized TopDominatorsSummary getTopDominatorsSummary(boolean calculate, IProgressListener listener)
+                    throws SnapshotException
+    {
+        TopDominatorsSummary summary = indexManager.domTop;
+        if (summary != null && summary.isValid())
+            return summary;
+        if (!calculate)
+            return null;
+
+        int[] top = getImmediateDominatedIds(-1);
+        IOne2LongIndex o2retained = indexManager.o2retained();
+        listener.beginTask(Messages.SnapshotImpl_SummarizingTopDominators, top.length / 1000 + 1);
+        TopDominatorsSummary.Builder builder = new TopDominatorsSummary.Builder(this,
+                        Index.DOMTOP.getFile(snapshotInfo.getPrefix()));
+        for (int i = 0; i < top.length; i++)
+        {
+            builder.add(top[i], o2retained.get(top[i]));
+            if (i % 1000 == 0)
+            {
+                if (listener.isCanceled())
+                    throw new IProgressListener.OperationCanceledException();
+                listener.worked(1);
+            }
+        }
+        summary = builder.build();
+        try
+        {
+            summary.write();
+        }
+        catch (IOException e)
+        {
+            // still use the summary until the snapshot is closed
+            listener.sendUserMessage(IProgressListener.Severity.WARNING,
+                            Messages.SnapshotImpl_ErrorWritingTopDominatorsSummary, e);
+        }
+        indexManager.setReader(Index.DOMTOP, summary);
+        listener.done();
+        return summary;
+    }
+
     @Override
     public int[] getImmediateDominatedIds(int objectId) throws SnapshotException
     {
@@ -1718,6 +2042,8 @@ public final class SnapshotImpl implements ISnapshot
     /**
      * Calculate for each class an approximation for the retained size of all instances
      * of that class.
+     * These are usually already in the retained size cache from the dominator tree calculation,
+     * so this only has to calculate them when that was done by an earlier parse.
      * @param listener for reporting progress
      * @throws SnapshotException if there is a problem
      */
@@ -1831,6 +2157,12 @@ public final class SnapshotImpl implements ISnapshot
             error = e1;
         }
 
+        synchronized (this)
+        {
+            if (fieldColumns != null)
+                fieldColumns.close();
+        }
+
         classCacheByName.clear();
 
         if (error != null)
@@ -1883,6 +2215,15 @@ public final class SnapshotImpl implements ISnapshot
         return loaderLabels.containsKey(objectId);
     }
 
+    /**
+     * All the class loaders.
+     * @return the object ids of the class loaders
+     */
+    int[] getClassLoaderIds()
+    {
+        return loaderLabels.getAllKeys();
+    }
+
     /**
      * Finds the name associated with a class loader.
      * @param objectId the class loader
@@ -2396,6 +2737,15 @@ public final class SnapshotImpl implements ISnapshot
         return indexManager;
     }
 
+    /**
+     * Gets the cache of objects, for example to examine its hit and miss counts.
+     * @return the object cache
+     */
+    public ObjectCache<IObject> getObjectCache()
+    {
+        return objectCache;
+    }
+
     /**
      * Gets the reader for the particular snapshot type to read
      * individual objects.
@@ -2427,7 +2777,7 @@ public final class SnapshotImpl implements ISnapshot
     /**
      * Get additional JVM information, if available.
      * <p>
-     * A known type is {@link UnreachableObjectsHistogram}. 
+     * Known types are {@link UnreachableObjectsHistogram} and {@link IFieldColumns}.
      * Extra information can be obtained from an implementation of {@link IObjectReader#getAddon(Class)}.
      * @param addon the type of the data. For example, {@link UnreachableObjectsHistogram}.class
      * @return the extra data
@@ -2440,6 +2790,15 @@ public final class SnapshotImpl implements ISnapshot
         {
             return (A) this.getSnapshotInfo().getProperty(UnreachableObjectsHistogram.class.getName());
         }
+        else if (addon == IFieldColumns.class)
+        {
+            synchronized (this)
+            {
+                if (fieldColumns == null)
+                    fieldColumns = new FieldColumnsImpl(this, snapshotInfo.getPrefix());
+                return (A) fieldColumns;
+            }
+        }
         else
         {
             return heapObjectReader.getAddon(addon);
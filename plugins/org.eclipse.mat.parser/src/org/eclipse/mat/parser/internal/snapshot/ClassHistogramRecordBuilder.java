@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 SAP AG.
+ * Copyright (c) 2008, 2023 SAP AG and IBM Corporation.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -9,6 +9,7 @@
  *
  * Contributors:
  *    SAP AG - initial API and implementation
+ *    IBM Corporation - merge builders made in parallel
  *******************************************************************************/
 package org.eclipse.mat.parser.internal.snapshot;
 
@@ -57,6 +58,17 @@ public class ClassHistogramRecordBuilder extends HistogramRecord
         this.usedHeapSize += usedHeapSize;
     }
 
+    /**
+     * Add the objects of another builder for the same class.
+     * @param other the builder, with the objects after those of this builder
+     */
+    void addAll(ClassHistogramRecordBuilder other)
+    {
+        this.objectIds.addAll(other.objectIds.toArray());
+        this.numberOfObjects += other.numberOfObjects;
+        this.usedHeapSize += other.usedHeapSize;
+    }
+
     public ClassHistogramRecord toClassHistogramRecord()
     {
         if (objectIds.length() > 0 && this.numberOfObjects != objectIds.length())
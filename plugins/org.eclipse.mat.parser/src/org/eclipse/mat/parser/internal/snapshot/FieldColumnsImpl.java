@@ -0,0 +1,335 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.parser.internal.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.parser.index.IIndexReader;
+import org.eclipse.mat.parser.index.IndexReader;
+import org.eclipse.mat.parser.index.IndexWriter;
+import org.eclipse.mat.parser.internal.Messages;
+import org.eclipse.mat.snapshot.IFieldColumns;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.snapshot.model.Field;
+import org.eclipse.mat.snapshot.model.FieldDescriptor;
+import org.eclipse.mat.snapshot.model.IClass;
+import org.eclipse.mat.snapshot.model.IInstance;
+import org.eclipse.mat.snapshot.model.IObject;
+import org.eclipse.mat.snapshot.model.ObjectReference;
+import org.eclipse.mat.util.IProgressListener;
+import org.eclipse.mat.util.MessageUtil;
+import org.eclipse.mat.util.VoidProgressListener;
+
+/**
+ * Stores columns of instance field values as index files.
+ * Each column is an int index, or a long index for long and double fields,
+ * holding the values for the instances of the class in ascending object id order.
+ * The files are named after the class id and the position of the field
+ * in the fields of the class and its superclasses, for example
+ * <code>prefix.fc123f4.index</code>, so are deleted with the other index files.
+ */
+public class FieldColumnsImpl implements IFieldColumns
+{
+    private static final Logger logger = Logger.getLogger(FieldColumnsImpl.class.getName());
+
+    private final ISnapshot snapshot;
+    private final String prefix;
+    /** Open columns, by file name */
+    private final Map<String, ColumnImpl> columns = new HashMap<String, ColumnImpl>();
+
+    public FieldColumnsImpl(ISnapshot snapshot, String prefix)
+    {
+        this.snapshot = snapshot;
+        this.prefix = prefix;
+    }
+
+    public synchronized Column getColumn(IClass type, String fieldName, IProgressListener listener)
+                    throws SnapshotException
+    {
+        return getColumn(type, fieldName, listener, true);
+    }
+
+    public synchronized Column findColumn(IClass type, String fieldName) throws SnapshotException
+    {
+        return getColumn(type, fieldName, null, false);
+    }
+
+    private Column getColumn(IClass type, String fieldName, IProgressListener listener, boolean create)
+                    throws SnapshotException
+    {
+        // Find the field as IInstance.getField would, starting with the class itself
+        int position = 0;
+        FieldDescriptor field = null;
+        for (IClass c = type; c != null && field == null; c = c.getSuperClass())
+        {
+            for (FieldDescriptor fd : c.getFieldDescriptors())
+            {
+                if (fd.getName().equals(fieldName))
+                {
+                    field = fd;
+                    break;
+                }
+                position++;
+            }
+        }
+        if (field == null)
+            return null;
+
+        String name = "fc" + type.getObjectId() + "f" + position; //$NON-NLS-1$ //$NON-NLS-2$
+        ColumnImpl column = columns.get(name);
+        if (column != null)
+            return column;
+
+        File file = new File(prefix + name + ".index"); //$NON-NLS-1$
+        int[] objectIds = type.getObjectIds().clone();
+        Arrays.sort(objectIds);
+        if (file.exists())
+        {
+            try
+            {
+                column = open(file, field.getType(), objectIds);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                logger.log(Level.WARNING, MessageUtil.format(Messages.FieldColumnsImpl_Warning_UnreadableColumn, file), e);
+                if (!file.delete())
+                    logger.log(Level.WARNING, Messages.SnapshotFactoryImpl_UnableToDeleteIndexFile, file.toString());
+            }
+        }
+        if (column == null)
+        {
+            if (!create)
+                return null;
+            if (listener == null)
+                listener = new VoidProgressListener();
+            column = build(file, type, fieldName, field.getType(), objectIds, listener);
+            if (column == null)
+                return null;
+        }
+        columns.put(name, column);
+        return column;
+    }
+
+    private static ColumnImpl open(File file, int type, int[] objectIds) throws IOException
+    {
+        ColumnImpl column;
+        if (isLong(type))
+            column = new ColumnImpl(type, objectIds, null, new IndexReader.LongIndexReader(file));
+        else
+            column = new ColumnImpl(type, objectIds, new IndexReader.IntIndexReader(file), null);
+        if (column.size() != objectIds.length)
+        {
+            column.close();
+            throw new IOException(file.toString());
+        }
+        return column;
+    }
+
+    /**
+     * Read the field of each instance from the heap dump and write the column.
+     * The column is written to a temporary file and renamed so that
+     * an interrupted write does not leave a partial column.
+     * @return the column, or null if cancelled
+     */
+    private ColumnImpl build(File file, IClass type, String fieldName, int fieldType, int[] objectIds,
+                    IProgressListener listener) throws SnapshotException
+    {
+        listener.beginTask(MessageUtil.format(Messages.FieldColumnsImpl_ReadingField, type.getName(), fieldName),
+                        objectIds.length / 1000 + 1);
+        int[] ints = isLong(fieldType) ? null : new int[objectIds.length];
+        long[] longs = isLong(fieldType) ? new long[objectIds.length] : null;
+        for (int ii = 0; ii < objectIds.length; ii++)
+        {
+            IObject obj = snapshot.getObject(objectIds[ii]);
+            Object value = null;
+            if (obj instanceof IInstance)
+            {
+                Field field = ((IInstance) obj).getField(fieldName);
+                if (field != null)
+                    value = field.getValue();
+            }
+            if (ints != null)
+                ints[ii] = toInt(value);
+            else
+                longs[ii] = toLong(value);
+            if (ii % 1000 == 999)
+            {
+                if (listener.isCanceled())
+                    return null;
+                listener.worked(1);
+            }
+        }
+
+        File tmp = new File(file.getPath().replaceFirst("\\.index$", "t.index")); //$NON-NLS-1$ //$NON-NLS-2$
+        try
+        {
+            if (ints != null)
+                new IndexWriter.IntIndexStreamer().writeTo(tmp, ints).close();
+            else
+                new IndexWriter.LongIndexStreamer().writeTo(tmp, longs).close();
+            if (!tmp.renameTo(file))
+                throw new IOException(tmp.toString());
+            ColumnImpl column = open(file, fieldType, objectIds);
+            listener.done();
+            return column;
+        }
+        catch (IOException e)
+        {
+            tmp.delete();
+            throw new SnapshotException(e);
+        }
+    }
+
+    private static int toInt(Object value)
+    {
+        if (value == null)
+            return -1;
+        if (value instanceof ObjectReference)
+        {
+            try
+            {
+                return ((ObjectReference) value).getObjectId();
+            }
+            catch (SnapshotException e)
+            {
+                // Not an object in the snapshot
+                return -1;
+            }
+        }
+        if (value instanceof Boolean)
+            return ((Boolean) value) ? 1 : 0;
+        if (value instanceof Character)
+            return (Character) value;
+        if (value instanceof Float)
+            return Float.floatToRawIntBits((Float) value);
+        return ((Number) value).intValue();
+    }
+
+    private static long toLong(Object value)
+    {
+        if (value instanceof Double)
+            return Double.doubleToRawLongBits((Double) value);
+        return value == null ? 0 : ((Number) value).longValue();
+    }
+
+    private static boolean isLong(int type)
+    {
+        return type == IObject.Type.LONG || type == IObject.Type.DOUBLE;
+    }
+
+    /**
+     * Close the column files.
+     */
+    public synchronized void close()
+    {
+        for (ColumnImpl column : columns.values())
+            column.close();
+        columns.clear();
+    }
+
+    private static class ColumnImpl implements Column
+    {
+        private final int type;
+        private final int[] objectIds;
+        private final IIndexReader.IOne2OneIndex ints;
+        private final IIndexReader.IOne2LongIndex longs;
+
+        ColumnImpl(int type, int[] objectIds, IIndexReader.IOne2OneIndex ints, IIndexReader.IOne2LongIndex longs)
+        {
+            this.type = type;
+            this.objectIds = objectIds;
+            this.ints = ints;
+            this.longs = longs;
+        }
+
+        public int getType()
+        {
+            return type;
+        }
+
+        public int[] getObjectIds()
+        {
+            return objectIds.clone();
+        }
+
+        public int indexOf(int objectId)
+        {
+            return Arrays.binarySearch(objectIds, objectId);
+        }
+
+        int size()
+        {
+            return ints != null ? ints.size() : longs.size();
+        }
+
+        public int getInt(int index)
+        {
+            return ints != null ? ints.get(index) : (int) longs.get(index);
+        }
+
+        public long getLong(int index)
+        {
+            return ints != null ? ints.get(index) : longs.get(index);
+        }
+
+        public Object getValue(int index)
+        {
+            switch (type)
+            {
+                case IObject.Type.OBJECT:
+                    int objectId = ints.get(index);
+                    return objectId >= 0 ? Integer.valueOf(objectId) : null;
+                case IObject.Type.BOOLEAN:
+                    return ints.get(index) != 0;
+                case IObject.Type.CHAR:
+                    return (char) ints.get(index);
+                case IObject.Type.FLOAT:
+                    return Float.intBitsToFloat(ints.get(index));
+                case IObject.Type.DOUBLE:
+                    return Double.longBitsToDouble(longs.get(index));
+                case IObject.Type.BYTE:
+                    return (byte) ints.get(index);
+                case IObject.Type.SHORT:
+                    return (short) ints.get(index);
+                case IObject.Type.INT:
+                    return ints.get(index);
+                case IObject.Type.LONG:
+                    return longs.get(index);
+                default:
+                    return null;
+            }
+        }
+
+        void close()
+        {
+            try
+            {
+                if (ints != null)
+                    ints.close();
+                else
+                    longs.close();
+            }
+            catch (IOException e)
+            {
+                // $JL-EXC$
+            }
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 SAP AG.
+ * Copyright (c) 2008, 2023 SAP AG and IBM Corporation.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -9,6 +9,7 @@
  *
  * Contributors:
  *    SAP AG - initial API and implementation
+ *    IBM Corporation - merge builders made in parallel
  *******************************************************************************/
 package org.eclipse.mat.parser.internal.snapshot;
 
@@ -57,6 +58,25 @@ public class HistogramBuilder extends HistogramRecord
         object.add(objectId, heapSize);
     }
 
+    /**
+     * Add the objects from another builder, such as one which built part of
+     * the histogram on another thread. The objects of each class are
+     * added after those already in this builder.
+     * @param other a builder filled with {@link #add(int, int, long)}, which should not be used afterwards
+     */
+    public void addAll(HistogramBuilder other)
+    {
+        for (Iterator<HashMapIntObject.Entry<Object>> e = other.data.entries(); e.hasNext();)
+        {
+            HashMapIntObject.Entry<Object> entry = e.next();
+            ClassHistogramRecordBuilder record = (ClassHistogramRecordBuilder) data.get(entry.getKey());
+            if (record == null)
+                data.put(entry.getKey(), entry.getValue());
+            else
+                record.addAll((ClassHistogramRecordBuilder) entry.getValue());
+        }
+    }
+
     public Histogram toHistogram(SnapshotImpl snapshot, boolean isDefaultHistogram) throws SnapshotException
     {
         ArrayList<ClassHistogramRecord> classHistogramRecords = new ArrayList<ClassHistogramRecord>(data.size());
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 SAP AG.
+ * Copyright (c) 2008, 2023 SAP AG and IBM Corporation.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -9,15 +9,22 @@
  *
  * Contributors:
  *    SAP AG - initial API and implementation
+ *    IBM Corporation - striped segments, constant time eviction and statistics
  *******************************************************************************/
 package org.eclipse.mat.parser.internal.snapshot;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.eclipse.mat.collect.HashMapIntObject;
 
+/**
+ * A cache of objects loaded by key, evicting the least frequently used entries.
+ * The cache is split into segments, each with its own lock, so that several
+ * threads can use the cache at once. Objects are loaded outside of the lock.
+ * Within a segment entries are held in doubly linked lists, one per usage count,
+ * so that finding, revaluing and evicting an entry take constant time.
+ * @param <E> the type of the cached objects
+ */
 abstract public class ObjectCache<E>
 {
     static class Entry<E>
@@ -25,108 +32,253 @@ abstract public class ObjectCache<E>
         E object;
         int key;
         int numUsages;
+        Entry<E> prev;
+        Entry<E> next;
     }
 
-    private int maxSize;
-    private final HashMapIntObject<Entry<E>> map;
-    private final List<LinkedList<Entry<E>>> lfus;
-    private int maxLfuBuckets = 0;
-    private int lowestNonEmptyLfu = 0;
+    /** Segments should not be so small that the eviction policy suffers */
+    private static final int MIN_SEGMENT_SIZE = 64;
 
+    private final int maxSize;
+    private final Segment<E>[] segments;
+    private final int segmentMask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a cache with a number of segments suitable for the number of processors.
+     * @param maxSize the maximum number of entries
+     */
     public ObjectCache(int maxSize)
     {
+        this(maxSize, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * Create a cache.
+     * @param maxSize the maximum number of entries
+     * @param concurrency the expected number of threads using the cache,
+     * limited so that each segment holds a reasonable number of entries
+     */
+    @SuppressWarnings("unchecked")
+    public ObjectCache(int maxSize, int concurrency)
+    {
+        if (maxSize < 1)
+            throw new IllegalArgumentException(Integer.toString(maxSize));
         this.maxSize = maxSize;
-        this.map = new HashMapIntObject<Entry<E>>(maxSize);
-        this.lfus = new ArrayList<LinkedList<Entry<E>>>(5);
-        this.maxLfuBuckets = maxSize / 3;
+        int n = Integer.highestOneBit(Math.max(1, Math.min(concurrency, maxSize / MIN_SEGMENT_SIZE)));
+        this.segments = (Segment<E>[]) new Segment<?>[n];
+        this.segmentMask = n - 1;
+        int segmentSize = (maxSize + n - 1) / n;
+        for (int i = 0; i < n; ++i)
+            segments[i] = new Segment<E>(segmentSize);
     }
 
-    public synchronized E get(int objectId)
+    public E get(int objectId)
     {
-        Entry<E> e = map.get(objectId);
-        if (e != null)
+        Segment<E> s = segment(objectId);
+        synchronized (s)
         {
-            revalueEntry(e);
+            Entry<E> e = s.map.get(objectId);
+            if (e != null)
+            {
+                s.revalueEntry(e);
+                hits.increment();
+                return e.object;
+            }
         }
-        else
+
+        misses.increment();
+        E object = load(objectId);
+
+        synchronized (s)
         {
+            Entry<E> e = s.map.get(objectId);
+            if (e != null)
+            {
+                // Loaded by another thread in the meantime, so share that one
+                s.revalueEntry(e);
+                return e.object;
+            }
             e = new Entry<E>();
-            e.object = load(objectId);
+            e.object = object;
             e.key = objectId;
+            s.doInsert(e);
 
-            doInsert(e);
+            while (s.map.size() > s.maxSize)
+            {
+                s.removeLeastValuableNode();
+                evictions.increment();
+            }
+        }
+        return object;
+    }
 
-            while (map.size() > maxSize)
-                removeLeastValuableNode();
+    public void clear()
+    {
+        for (Segment<E> s : segments)
+        {
+            synchronized (s)
+            {
+                s.clear();
+            }
         }
+    }
 
-        return e.object;
+    protected abstract E load(int key);
+
+    /**
+     * The maximum number of entries held.
+     * @return the size limit
+     */
+    public int getMaxSize()
+    {
+        return maxSize;
     }
 
-    public synchronized void clear()
+    /**
+     * The number of entries currently held.
+     * @return the current size
+     */
+    public int size()
     {
-        this.map.clear();
-        this.lfus.clear();
+        int size = 0;
+        for (Segment<E> s : segments)
+        {
+            synchronized (s)
+            {
+                size += s.map.size();
+            }
+        }
+        return size;
     }
 
-    protected abstract E load(int key);
+    /**
+     * The number of requests satisfied from the cache.
+     * @return the hit count
+     */
+    public long getHitCount()
+    {
+        return hits.sum();
+    }
 
-    protected synchronized void doInsert(final Entry<E> e)
+    /**
+     * The number of requests which needed the object to be loaded.
+     * @return the miss count
+     */
+    public long getMissCount()
     {
-        lfu(e.numUsages).addFirst(e);
-        Entry<?> p = map.put(e.key, e);
-        lowestNonEmptyLfu = 0;
+        return misses.sum();
+    }
 
-        if (p != null)
-            lfu(p.numUsages).remove(p);
+    /**
+     * The number of entries removed to keep within the size limit.
+     * @return the eviction count
+     */
+    public long getEvictionCount()
+    {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + " size=" + size() + " maxSize=" + maxSize + " segments=" + segments.length //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                        + " hits=" + getHitCount() + " misses=" + getMissCount() + " evictions=" + getEvictionCount(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
     }
 
-    protected final LinkedList<Entry<E>> lfu(int numUsageIndex)
+    private Segment<E> segment(int objectId)
     {
-        int lfuIndex = Math.min(maxLfuBuckets, numUsageIndex);
+        // Spread nearby object ids over the segments
+        return segments[((objectId * 0x9e3779b9) >>> 16) & segmentMask];
+    }
+
+    /**
+     * Part of the cache, guarded by its own monitor.
+     */
+    private static final class Segment<E>
+    {
+        final int maxSize;
+        final HashMapIntObject<Entry<E>> map;
+        /** Circular lists with a sentinel, one per usage count, most recent first */
+        final Entry<E>[] lfus;
+        int lowestNonEmptyLfu = 0;
 
-        if (lfuIndex >= lfus.size())
+        @SuppressWarnings("unchecked")
+        Segment(int maxSize)
         {
-            LinkedList<Entry<E>> lfu = new LinkedList<Entry<E>>();
-            lfus.add(lfuIndex, lfu);
-            return lfu;
+            this.maxSize = maxSize;
+            this.map = new HashMapIntObject<Entry<E>>(maxSize);
+            this.lfus = (Entry<E>[]) new Entry<?>[maxSize / 3 + 1];
         }
-        else
+
+        void doInsert(Entry<E> e)
         {
-            return lfus.get(lfuIndex);
+            addFirst(lfu(e.numUsages), e);
+            Entry<E> p = map.put(e.key, e);
+            lowestNonEmptyLfu = 0;
+
+            if (p != null)
+                unlink(p);
         }
-    }
 
-    protected void revalueEntry(Entry<E> entry)
-    {
-        LinkedList<Entry<E>> currBucket = lfu(entry.numUsages);
-        LinkedList<Entry<E>> nextBucket = lfu(++entry.numUsages);
+        void revalueEntry(Entry<E> e)
+        {
+            unlink(e);
+            addFirst(lfu(++e.numUsages), e);
+        }
 
-        currBucket.remove(entry);
-        nextBucket.addFirst(entry);
-    }
+        void removeLeastValuableNode()
+        {
+            for (int i = lowestNonEmptyLfu; i < lfus.length; ++i)
+            {
+                Entry<E> head = lfus[i];
+                if (head != null && head.prev != head)
+                {
+                    lowestNonEmptyLfu = i;
+                    Entry<E> lln = head.prev;
+                    unlink(lln);
+                    map.remove(lln.key);
+                    return;
+                }
+            }
+        }
 
-    protected LinkedList<Entry<E>> getLowestNonEmptyLfu()
-    {
-        LinkedList<Entry<E>> lfu = null;
-        for (int i = lowestNonEmptyLfu; i < lfus.size(); i++)
+        void clear()
         {
-            lfu = lfu(i);
+            map.clear();
+            for (int i = 0; i < lfus.length; ++i)
+                lfus[i] = null;
+            lowestNonEmptyLfu = 0;
+        }
 
-            if (lfu.size() != 0)
+        private Entry<E> lfu(int numUsages)
+        {
+            int lfuIndex = Math.min(lfus.length - 1, numUsages);
+            Entry<E> head = lfus[lfuIndex];
+            if (head == null)
             {
-                lowestNonEmptyLfu = i;
-                return lfu;
+                head = new Entry<E>();
+                head.prev = head.next = head;
+                lfus[lfuIndex] = head;
             }
+            return head;
         }
-        return lfu;
-    }
 
-    protected void removeLeastValuableNode()
-    {
-        LinkedList<Entry<E>> lfu = getLowestNonEmptyLfu();
-        Entry<?> lln = lfu.remove(lfu.size() - 1);
-        map.remove(lln.key);
-    }
+        private static <E> void addFirst(Entry<E> head, Entry<E> e)
+        {
+            e.prev = head;
+            e.next = head.next;
+            head.next.prev = e;
+            head.next = e;
+        }
 
+        private static <E> void unlink(Entry<E> e)
+        {
+            e.prev.next = e.next;
+            e.next.prev = e.prev;
+            e.prev = e.next = null;
+        }
+    }
 }
@@ -11,6 +11,7 @@
  *    SAP AG - initial API and implementation
  *    Andrew Johnson (IBM Corporation) - improved multithreading using local stacks
  *    Jason Koch (Netflix, Inc) - switch implementation to use FJ Pool
+ *    IBM Corporation - parallel marking with excluded references
  *******************************************************************************/
 package org.eclipse.mat.parser.internal.snapshot;
 
@@ -22,11 +23,14 @@ import java.util.Set;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import org.eclipse.mat.SnapshotException;
 import org.eclipse.mat.collect.BitField;
+import org.eclipse.mat.collect.ConcurrentBitField;
 import org.eclipse.mat.parser.index.IIndexReader;
 import org.eclipse.mat.parser.internal.Messages;
 import org.eclipse.mat.snapshot.ExcludedReferencesDescriptor;
@@ -180,12 +184,8 @@ public class ObjectMarker
         return marked;
     }
 
-    public int markSingleThreaded(ExcludedReferencesDescriptor[] excludeSets, ISnapshot snapshot)
-                    throws SnapshotException, IProgressListener.OperationCanceledException
+    private static BitField excludedObjects(ExcludedReferencesDescriptor[] excludeSets, ISnapshot snapshot)
     {
-        /*
-         * prepare the exclude stuff
-         */
         BitField excludeObjectsBF = new BitField(snapshot.getSnapshotInfo().getNumberOfObjects());
         for (ExcludedReferencesDescriptor set : excludeSets)
         {
@@ -194,6 +194,174 @@ public class ObjectMarker
                 excludeObjectsBF.set(k);
             }
         }
+        return excludeObjectsBF;
+    }
+
+    /**
+     * Marks the objects reachable from the roots, not following references
+     * from the excluded objects through the excluded fields, using a fork-join pool.
+     * Marks the same objects as {@link #markSingleThreaded(ExcludedReferencesDescriptor[], ISnapshot)}.
+     * The marks are claimed in a {@link ConcurrentBitField} so that each object
+     * is only processed and counted once, then copied to the boolean[] at the end.
+     * @param excludeSets the excluded objects and fields
+     * @param snapshot used to read the fields of the excluded objects
+     * @param threads the parallelism of the pool
+     * @return the number of newly marked objects
+     * @throws SnapshotException if the excluded objects cannot be read
+     * @throws InterruptedException if interrupted waiting for the pool
+     * @throws IProgressListener.OperationCanceledException if the operation is canceled
+     */
+    public int markMultiThreaded(ExcludedReferencesDescriptor[] excludeSets, ISnapshot snapshot, int threads)
+                    throws SnapshotException, InterruptedException, IProgressListener.OperationCanceledException
+    {
+        BitField excludeObjectsBF = excludedObjects(excludeSets, snapshot);
+        ConcurrentBitField visited = new ConcurrentBitField(bits.length);
+        for (int i = 0; i < bits.length; ++i)
+        {
+            if (bits[i])
+                visited.set(i);
+        }
+        ExcludedMark mark = new ExcludedMark(excludeSets, excludeObjectsBF, visited, snapshot);
+
+        List<FjExcludedObjectMarker> rootTasks = new ArrayList<FjExcludedObjectMarker>();
+        for (int rootId : roots)
+        {
+            if (!visited.getAndSet(rootId))
+                rootTasks.add(new FjExcludedObjectMarker(rootId, mark, true));
+        }
+        mark.marked.add(rootTasks.size());
+
+        progressListener.beginTask(Messages.ObjectMarker_MarkingObjects, rootTasks.size());
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try
+        {
+            rootTasks.forEach(r -> pool.execute(r));
+            rootTasks.forEach(FjExcludedObjectMarker::join);
+        }
+        finally
+        {
+            pool.shutdown();
+            while (!pool.awaitTermination(1000, TimeUnit.MILLISECONDS))
+            {
+                // wait until completion
+            }
+        }
+
+        Exception failure = mark.failure.get();
+        if (failure instanceof SnapshotException)
+            throw (SnapshotException) failure;
+        if (failure != null)
+            throw (RuntimeException) failure;
+        if (progressListener.isCanceled())
+            throw new IProgressListener.OperationCanceledException();
+
+        for (int i = 0; i < bits.length; ++i)
+        {
+            if (!bits[i] && visited.get(i))
+                bits[i] = true;
+        }
+
+        progressListener.done();
+
+        return (int) mark.marked.sum();
+    }
+
+    /**
+     * State shared by all the tasks of one excluded reference marking.
+     */
+    private static final class ExcludedMark
+    {
+        final ExcludedReferencesDescriptor[] excludeSets;
+        final BitField excludeObjectsBF;
+        final ConcurrentBitField visited;
+        final ISnapshot snapshot;
+        final LongAdder marked = new LongAdder();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        ExcludedMark(ExcludedReferencesDescriptor[] excludeSets, BitField excludeObjectsBF,
+                        ConcurrentBitField visited, ISnapshot snapshot)
+        {
+            this.excludeSets = excludeSets;
+            this.excludeObjectsBF = excludeObjectsBF;
+            this.visited = visited;
+            this.snapshot = snapshot;
+        }
+    }
+
+    private class FjExcludedObjectMarker extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        final int position;
+        final ExcludedMark mark;
+        final boolean topLevel;
+        int marked;
+
+        /**
+         * The object must already have been claimed in the visited bits.
+         */
+        private FjExcludedObjectMarker(final int position, final ExcludedMark mark, final boolean topLevel)
+        {
+            this.position = position;
+            this.mark = mark;
+            this.topLevel = topLevel;
+        }
+
+        public void compute()
+        {
+            if (progressListener.isCanceled() || mark.failure.get() != null)
+            { return; }
+
+            try
+            {
+                compute(position, LEVELS_RUN_INLINE);
+            }
+            catch (SnapshotException | RuntimeException e)
+            {
+                mark.failure.compareAndSet(null, e);
+            }
+            mark.marked.add(marked);
+
+            if (topLevel)
+            {
+                synchronized (progressListener) {
+                    progressListener.worked(1);
+                }
+            }
+        }
+
+        void compute(final int current, final int levelsLeft) throws SnapshotException
+        {
+            // Only the excluded objects need their references examined
+            List<NamedReference> refCache = mark.excludeObjectsBF.get(current) ? new ArrayList<NamedReference>() : null;
+            for (int child : outbound.get(current))
+            {
+                if (!mark.visited.get(child)
+                                && !refersOnlyThroughExcluded(current, child, mark.excludeSets,
+                                                mark.excludeObjectsBF, refCache, mark.snapshot)
+                                && !mark.visited.getAndSet(child))
+                {
+                    marked++;
+                    if (levelsLeft <= 0)
+                    {
+                        new FjExcludedObjectMarker(child, mark, false).fork();
+                    }
+                    else
+                    {
+                        compute(child, levelsLeft - 1);
+                    }
+                }
+            }
+        }
+    }
+
+    public int markSingleThreaded(ExcludedReferencesDescriptor[] excludeSets, ISnapshot snapshot)
+                    throws SnapshotException, IProgressListener.OperationCanceledException
+    {
+        /*
+         * prepare the exclude stuff
+         */
+        BitField excludeObjectsBF = excludedObjects(excludeSets, snapshot);
 
         int count = 0; // # of processed objects in the stack
         int rootsToProcess = 0; // counter to report progress
@@ -0,0 +1,372 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.parser.internal.snapshot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.collect.ArrayInt;
+import org.eclipse.mat.collect.ArrayLong;
+import org.eclipse.mat.collect.HashMapIntObject;
+import org.eclipse.mat.parser.index.IIndexReader;
+import org.eclipse.mat.parser.internal.Messages;
+import org.eclipse.mat.parser.internal.SnapshotImpl;
+import org.eclipse.mat.snapshot.model.IClass;
+
+/**
+ * A summary of the top-level dominators, the objects dominated by the root of
+ * the dominator tree, so that reports starting from them do not have to read
+ * the retained size of every top-level dominator each time the snapshot is opened.
+ * <p>
+ * The summary holds the biggest top-level dominators with their retained sizes,
+ * and the number, shallow size and retained size of the top-level dominators
+ * of each class and of the classes defined by each class loader.
+ */
+public class TopDominatorsSummary implements IIndexReader
+{
+    /** How many of the biggest top-level dominators are kept */
+    public static final int TOP = 1000;
+
+    private static final Logger logger = Logger.getLogger(TopDominatorsSummary.class.getName());
+
+    private final String filename;
+    private boolean valid;
+
+    private int numberOfObjects;
+    private long usedHeapSize;
+    private long retainedHeapSize;
+
+    /** The biggest top-level dominators, biggest first */
+    private int[] topIds;
+    private long[] topRetained;
+
+    private Totals classes;
+    private Totals loaders;
+
+    /**
+     * The totals for each class or class loader.
+     */
+    public static class Totals
+    {
+        private final int[] ids;
+        private final int[] counts;
+        private final long[] usedHeapSizes;
+        private final long[] retainedHeapSizes;
+
+        Totals(int n)
+        {
+            ids = new int[n];
+            counts = new int[n];
+            usedHeapSizes = new long[n];
+            retainedHeapSizes = new long[n];
+        }
+
+        public int size()
+        {
+            return ids.length;
+        }
+
+        public int getId(int i)
+        {
+            return ids[i];
+        }
+
+        public int getNumberOfObjects(int i)
+        {
+            return counts[i];
+        }
+
+        public long getUsedHeapSize(int i)
+        {
+            return usedHeapSizes[i];
+        }
+
+        public long getRetainedHeapSize(int i)
+        {
+            return retainedHeapSizes[i];
+        }
+
+        private void write(DataOutputStream out) throws IOException
+        {
+            out.writeInt(ids.length);
+            for (int i = 0; i < ids.length; ++i)
+            {
+                out.writeInt(ids[i]);
+                out.writeInt(counts[i]);
+                out.writeLong(usedHeapSizes[i]);
+                out.writeLong(retainedHeapSizes[i]);
+            }
+        }
+
+        private static Totals read(DataInputStream in) throws IOException
+        {
+            Totals totals = new Totals(in.readInt());
+            for (int i = 0; i < totals.ids.length; ++i)
+            {
+                totals.ids[i] = in.readInt();
+                totals.counts[i] = in.readInt();
+                totals.usedHeapSizes[i] = in.readLong();
+                totals.retainedHeapSizes[i] = in.readLong();
+            }
+            return totals;
+        }
+    }
+
+    /**
+     * Collects the summary from the top-level dominators.
+     */
+    public static class Builder
+    {
+        private final SnapshotImpl snapshot;
+        private final TopDominatorsSummary summary;
+        private final ArrayInt topIds = new ArrayInt();
+        private final ArrayLong topRetained = new ArrayLong();
+        /** class id to number of objects, used heap size, retained heap size */
+        private final HashMapIntObject<long[]> classTotals = new HashMapIntObject<long[]>();
+
+        /**
+         * Start a summary.
+         * @param snapshot the snapshot
+         * @param file where the summary will be stored
+         */
+        public Builder(SnapshotImpl snapshot, File file)
+        {
+            this.snapshot = snapshot;
+            this.summary = new TopDominatorsSummary(file.getAbsolutePath());
+        }
+
+        /**
+         * Add the next top-level dominator.
+         * The top-level dominators must be added biggest retained size first.
+         * @param objectId the top-level dominator
+         * @param retainedSize its retained size
+         * @throws SnapshotException if there is a problem reading the object
+         */
+        public void add(int objectId, long retainedSize) throws SnapshotException
+        {
+            long usedHeapSize = snapshot.getHeapSize(objectId);
+            summary.numberOfObjects++;
+            summary.usedHeapSize += usedHeapSize;
+            summary.retainedHeapSize += retainedSize;
+
+            if (topIds.size() < TOP)
+            {
+                topIds.add(objectId);
+                topRetained.add(retainedSize);
+            }
+
+            int classId = snapshot.getIndexManager().o2class().get(objectId);
+            long[] totals = classTotals.get(classId);
+            if (totals == null)
+                classTotals.put(classId, totals = new long[3]);
+            totals[0]++;
+            totals[1] += usedHeapSize;
+            totals[2] += retainedSize;
+        }
+
+        /**
+         * Finish the summary, adding up the classes for each class loader.
+         * @return the summary
+         * @throws SnapshotException if there is a problem reading a class
+         */
+        public TopDominatorsSummary build() throws SnapshotException
+        {
+            summary.topIds = topIds.toArray();
+            summary.topRetained = topRetained.toArray();
+
+            int[] classIds = classTotals.getAllKeys();
+            Arrays.sort(classIds);
+            summary.classes = new Totals(classIds.length);
+            HashMapIntObject<long[]> loaderTotals = new HashMapIntObject<long[]>();
+            for (int i = 0; i < classIds.length; ++i)
+            {
+                long[] totals = classTotals.get(classIds[i]);
+                summary.classes.ids[i] = classIds[i];
+                summary.classes.counts[i] = (int) totals[0];
+                summary.classes.usedHeapSizes[i] = totals[1];
+                summary.classes.retainedHeapSizes[i] = totals[2];
+
+                int loaderId = ((IClass) snapshot.getObject(classIds[i])).getClassLoaderId();
+                long[] sums = loaderTotals.get(loaderId);
+                if (sums == null)
+                    loaderTotals.put(loaderId, sums = new long[3]);
+                for (int j = 0; j < sums.length; ++j)
+                    sums[j] += totals[j];
+            }
+
+            int[] loaderIds = loaderTotals.getAllKeys();
+            Arrays.sort(loaderIds);
+            summary.loaders = new Totals(loaderIds.length);
+            for (int i = 0; i < loaderIds.length; ++i)
+            {
+                long[] totals = loaderTotals.get(loaderIds[i]);
+                summary.loaders.ids[i] = loaderIds[i];
+                summary.loaders.counts[i] = (int) totals[0];
+                summary.loaders.usedHeapSizes[i] = totals[1];
+                summary.loaders.retainedHeapSizes[i] = totals[2];
+            }
+            summary.valid = true;
+            return summary;
+        }
+    }
+
+    private TopDominatorsSummary(String filename)
+    {
+        this.filename = filename;
+    }
+
+    /**
+     * Read the summary. If the file cannot be read then the summary is not valid
+     * and the file is deleted, so that the summary is calculated again.
+     * @param f the file holding the summary
+     */
+    public TopDominatorsSummary(File f)
+    {
+        this.filename = f.getAbsolutePath();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f))))
+        {
+            numberOfObjects = in.readInt();
+            usedHeapSize = in.readLong();
+            retainedHeapSize = in.readLong();
+            int n = in.readInt();
+            topIds = new int[n];
+            topRetained = new long[n];
+            for (int i = 0; i < n; ++i)
+            {
+                topIds[i] = in.readInt();
+                topRetained[i] = in.readLong();
+            }
+            classes = Totals.read(in);
+            loaders = Totals.read(in);
+            valid = true;
+        }
+        catch (IOException e)
+        {
+            logger.log(Level.WARNING, Messages.TopDominatorsSummary_ErrorReadingSummary, e);
+            if (!f.delete())
+                logger.log(Level.WARNING, Messages.SnapshotFactoryImpl_UnableToDeleteIndexFile, f.toString());
+        }
+    }
+
+    /**
+     * Store the summary.
+     * @throws IOException if the summary could not be written
+     */
+    public void write() throws IOException
+    {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename))))
+        {
+            out.writeInt(numberOfObjects);
+            out.writeLong(usedHeapSize);
+            out.writeLong(retainedHeapSize);
+            out.writeInt(topIds.length);
+            for (int i = 0; i < topIds.length; ++i)
+            {
+                out.writeInt(topIds[i]);
+                out.writeLong(topRetained[i]);
+            }
+            classes.write(out);
+            loaders.write(out);
+        }
+    }
+
+    /**
+     * Whether the summary was read or built successfully.
+     * @return true if the summary can be used
+     */
+    public boolean isValid()
+    {
+        return valid;
+    }
+
+    /**
+     * The biggest top-level dominators, if the summary holds all those wanted.
+     * @param n the most objects to return
+     * @param minRetainedSize only return objects retaining at least this many bytes
+     * @return the objects, biggest first, or null if there could be more objects
+     * than those in the summary
+     */
+    public int[] getBiggestIds(int n, long minRetainedSize)
+    {
+        int count = 0;
+        while (count < topIds.length && count < n && topRetained[count] >= minRetainedSize)
+            count++;
+        if (count == topIds.length && count < n && count < numberOfObjects)
+            return null;
+        return Arrays.copyOf(topIds, count);
+    }
+
+    public int getNumberOfObjects()
+    {
+        return numberOfObjects;
+    }
+
+    public long getUsedHeapSize()
+    {
+        return usedHeapSize;
+    }
+
+    public long getRetainedHeapSize()
+    {
+        return retainedHeapSize;
+    }
+
+    /**
+     * The totals of the top-level dominators of each class, sorted by class id.
+     * @return the totals
+     */
+    public Totals getClassTotals()
+    {
+        return classes;
+    }
+
+    /**
+     * The totals of the top-level dominators of the classes defined by each class loader,
+     * sorted by class loader id.
+     * @return the totals
+     */
+    public Totals getClassLoaderTotals()
+    {
+        return loaders;
+    }
+
+    public int size()
+    {
+        return numberOfObjects;
+    }
+
+    public void close()
+    {}
+
+    public void unload()
+    {}
+
+    public void delete()
+    {
+        File file = new File(filename);
+        if (file.exists() && !file.delete())
+        {
+            logger.log(Level.WARNING, Messages.SnapshotFactoryImpl_UnableToDeleteIndexFile, file.toString());
+        }
+    }
+}
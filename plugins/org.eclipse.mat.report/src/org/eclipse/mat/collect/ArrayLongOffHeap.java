@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.collect;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A growing array of longs like {@link ArrayLongBig}, but with the
+ * data held outside of the Java heap, either in direct byte buffers
+ * or in a memory-mapped scratch file. This allows very large arrays
+ * to be collected without needing a correspondingly large heap.
+ * The storage should be released with {@link #close()} when done.
+ * @since 1.15
+ */
+public final class ArrayLongOffHeap implements Closeable
+{
+    /** Start with 1MB pages */
+    private static final long INITIAL_BYTES = 1 << 20;
+
+    private final OffHeapBuffer buffer;
+    private int length;
+
+    /**
+     * Create an <code>ArrayLongOffHeap</code> held in direct byte buffers.
+     */
+    public ArrayLongOffHeap()
+    {
+        buffer = new OffHeapBuffer(INITIAL_BYTES);
+    }
+
+    /**
+     * Create an <code>ArrayLongOffHeap</code> held in a memory-mapped scratch file.
+     *
+     * @param scratchDirectory
+     *            where to create the scratch file, or null for the default temporary directory
+     * @throws IOException
+     *            if the scratch file cannot be created
+     */
+    public ArrayLongOffHeap(File scratchDirectory) throws IOException
+    {
+        buffer = new OffHeapBuffer(INITIAL_BYTES, scratchDirectory);
+    }
+
+    /**
+     * Add long to <code>ArrayLongOffHeap</code>.
+     *
+     * @param element
+     *            long which should be added
+     */
+    public final void add(long element)
+    {
+        long offset = (long) length << 3;
+        buffer.ensureCapacity(offset + 8);
+        buffer.putLong(offset, element);
+        length++;
+    }
+
+    /**
+     * Add long[] to <code>ArrayLongOffHeap</code>.
+     *
+     * @param elements
+     *            long[] which should be added
+     */
+    public final void addAll(long[] elements)
+    {
+        long offset = (long) length << 3;
+        buffer.ensureCapacity(offset + ((long) elements.length << 3));
+        for (int i = 0; i < elements.length; ++i, offset += 8)
+            buffer.putLong(offset, elements[i]);
+        length += elements.length;
+    }
+
+    /**
+     * Get long at index from <code>ArrayLongOffHeap</code>.
+     *
+     * @param index
+     *            index of long which should be returned
+     * @return long at index
+     * @throws IndexOutOfBoundsException if the index is beyond the end.
+     */
+    public final long get(int index) throws IndexOutOfBoundsException
+    {
+        if (index < 0 || index >= length) { throw new IndexOutOfBoundsException(); }
+        return buffer.getLong((long) index << 3);
+    }
+
+    /**
+     * Get length of <code>ArrayLongOffHeap</code>.
+     *
+     * @return length of <code>ArrayLongOffHeap</code>
+     */
+    public final int length()
+    {
+        return length;
+    }
+
+    /**
+     * Get off-heap memory consumption of <code>ArrayLongOffHeap</code>.
+     *
+     * @return memory consumption in bytes outside of the Java heap
+     */
+    public final long consumption()
+    {
+        return buffer.capacity();
+    }
+
+    /**
+     * Convert <code>ArrayLongOffHeap</code> to long[] on the Java heap.
+     *
+     * @return long[] representing the <code>ArrayLongOffHeap</code>
+     */
+    public final long[] toArray()
+    {
+        long[] elements = new long[length];
+        buffer.getLongs(0, elements, 0, length);
+        return elements;
+    }
+
+    /**
+     * Release the off-heap storage and delete any scratch file.
+     * The array must not be used afterwards.
+     */
+    public void close() throws IOException
+    {
+        length = 0;
+        buffer.close();
+    }
+}
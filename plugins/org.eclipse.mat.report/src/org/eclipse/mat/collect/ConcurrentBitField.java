@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.collect;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A bit field like {@link BitField} which can safely be updated by several
+ * threads at once. It uses 1/8th of the space of a boolean[] and
+ * {@link #getAndSet(int)} allows exactly one thread to claim a bit.
+ * Out of performance reasons no method does any parameter checking,
+ * i.e. only valid values are expected.
+ * @since 1.15
+ */
+public final class ConcurrentBitField
+{
+    private final AtomicIntegerArray bits;
+
+    /**
+     * Creates a bit field with the given number of bits. Size is expected to be
+     * positive - out of performance reasons no checks are done!
+     * @param size the maximum size of the ConcurrentBitField
+     */
+    public ConcurrentBitField(int size)
+    {
+        bits = new AtomicIntegerArray((((size) - 1) >>> 0x5) + 1);
+    }
+
+    /**
+     * Sets the bit on the given index. Index is expected to be in range - out
+     * of performance reasons no checks are done!
+     * @param index The 0-based index into the ConcurrentBitField.
+     */
+    public final void set(int index)
+    {
+        getAndSet(index);
+    }
+
+    /**
+     * Sets the bit on the given index and reports whether it was already set.
+     * If several threads set the same bit at once exactly one of them sees false.
+     * Index is expected to be in range - out of performance reasons no checks are done!
+     * @param index The 0-based index into the ConcurrentBitField.
+     * @return true if the bit was already set, false if this call set it.
+     */
+    public final boolean getAndSet(int index)
+    {
+        int i = index >>> 0x5;
+        int mask = 1 << (index & 0x1f);
+        int old = bits.get(i);
+        while ((old & mask) == 0)
+        {
+            if (bits.compareAndSet(i, old, old | mask))
+                return false;
+            old = bits.get(i);
+        }
+        return true;
+    }
+
+    /**
+     * Clears the bit on the given index. Index is expected to be in range - out
+     * of performance reasons no checks are done!
+     * @param index The 0-based index into the ConcurrentBitField.
+     */
+    public final void clear(int index)
+    {
+        int i = index >>> 0x5;
+        int mask = 1 << (index & 0x1f);
+        int old = bits.get(i);
+        while ((old & mask) != 0 && !bits.compareAndSet(i, old, old & ~mask))
+            old = bits.get(i);
+    }
+
+    /**
+     * Gets the bit on the given index. Index is expected to be in range - out
+     * of performance reasons no checks are done!
+     * @param index The 0-based index into the ConcurrentBitField.
+     * @return true if the ConcurrentBitField was set, false if it was cleared or never set.
+     */
+    public final boolean get(int index)
+    {
+        return (bits.get(index >>> 0x5) & (1 << (index & 0x1f))) != 0;
+    }
+}
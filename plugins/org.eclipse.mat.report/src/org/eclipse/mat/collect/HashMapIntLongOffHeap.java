@@ -0,0 +1,525 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.collect;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A map from int to long like {@link HashMapIntLong}, but with the
+ * entries held outside of the Java heap, either in direct byte buffers
+ * or in a memory-mapped scratch file. This allows very large maps
+ * to be built without needing a correspondingly large heap.
+ * The storage should be released with {@link #close()} when done.
+ * @since 1.15
+ */
+public final class HashMapIntLongOffHeap implements Closeable
+{
+    /**
+     * An entry from the map
+     */
+    public interface Entry
+    {
+        /**
+         * Get the key.
+         * @return the key
+         */
+        int getKey();
+
+        /**
+         * Get the corresponding value.
+         * @return the value
+         */
+        long getValue();
+    }
+
+    private static final NoSuchElementException noSuchElementException = new NoSuchElementException(
+                    "This is static exception, there is no stack trace available. It is thrown by get() method."); //$NON-NLS-1$
+
+    /**
+     * Largest requested size.
+     * Size will be rounded up to the next prime, so choose prime - 1.
+     */
+    private static final int BIG_CAPACITY = PrimeFinder.findPrevPrime(Integer.MAX_VALUE - 8 + 1) - 1;
+
+    /** Each slot holds an int used flag, an int key and a long value */
+    private static final int SLOT_SHIFT = 4;
+    private static final int KEY_OFFSET = 4;
+    private static final int VALUE_OFFSET = 8;
+
+    private final boolean mapped;
+    private final File scratchDirectory;
+    private OffHeapBuffer buffer;
+    private int capacity;
+    private int step;
+    private int limit;
+    private int size;
+    private int mod;
+
+    /**
+     * Create a map of default size held in direct byte buffers.
+     */
+    public HashMapIntLongOffHeap()
+    {
+        this(10);
+    }
+
+    /**
+     * Create a map of given size held in direct byte buffers.
+     * @param initialCapacity in entries.
+     */
+    public HashMapIntLongOffHeap(int initialCapacity)
+    {
+        mapped = false;
+        scratchDirectory = null;
+        buffer = new OffHeapBuffer(slot(PrimeFinder.findNextPrime(initialCapacity)));
+        init(initialCapacity);
+    }
+
+    /**
+     * Create a map of given size held in a memory-mapped scratch file.
+     * @param initialCapacity in entries.
+     * @param scratchDirectory where to create the scratch file, or null for the default temporary directory
+     * @throws IOException if the scratch file cannot be created
+     */
+    public HashMapIntLongOffHeap(int initialCapacity, File scratchDirectory) throws IOException
+    {
+        mapped = true;
+        this.scratchDirectory = scratchDirectory;
+        buffer = new OffHeapBuffer(slot(PrimeFinder.findNextPrime(initialCapacity)), scratchDirectory);
+        init(initialCapacity);
+    }
+
+    /**
+     * Add a mapping
+     * @param key the key
+     * @param value the corresponding value
+     * @return true if an entry with the key already exists
+     */
+    public boolean put(int key, long value)
+    {
+        int hash = hash(key);
+        while (used(hash))
+        {
+            if (key(hash) == key)
+            {
+                buffer.putLong(slot(hash) + VALUE_OFFSET, value);
+                return true;
+            }
+            hash = step(hash);
+        }
+        if (size == limit)
+        {
+            // Double in size but avoid overflow or limits
+            resize(capacity <= BIG_CAPACITY >> 1 ? capacity << 1 : capacity < BIG_CAPACITY ? BIG_CAPACITY : capacity + 1);
+            // Find the spot
+            hash = hash(key);
+            while (used(hash))
+            {
+                if (key(hash) == key)
+                {
+                    // Should never happen as we searched above, so must have been modified by another thread
+                    throw new ConcurrentModificationException();
+                }
+                hash = step(hash);
+            }
+        }
+        set(hash, key, value);
+        size++;
+        mod++;
+        return false;
+    }
+
+    private static long slot(int hash)
+    {
+        return (long) hash << SLOT_SHIFT;
+    }
+
+    private boolean used(int hash)
+    {
+        return buffer.getInt(slot(hash)) != 0;
+    }
+
+    private int key(int hash)
+    {
+        return buffer.getInt(slot(hash) + KEY_OFFSET);
+    }
+
+    private long value(int hash)
+    {
+        return buffer.getLong(slot(hash) + VALUE_OFFSET);
+    }
+
+    private void set(int hash, int key, long value)
+    {
+        long slot = slot(hash);
+        buffer.putInt(slot, 1);
+        buffer.putInt(slot + KEY_OFFSET, key);
+        buffer.putLong(slot + VALUE_OFFSET, value);
+    }
+
+    private int step(int hash)
+    {
+        hash += step;
+        // Allow for overflow
+        if (hash >= capacity || hash < 0)
+            hash -= capacity;
+        return hash;
+    }
+
+    /**
+     * Hash function, the same as for {@link HashMapIntLong}.
+     * @param key
+     * @return the first slot to try
+     */
+    private int hash(int key)
+    {
+        int r = (int)(((key * 0x9e3779b97f4a7c15L >>> 31) * capacity) >>> 33);
+        return r;
+    }
+
+    /**
+     * Remove an mapping from the map
+     * @param key the key to remove
+     * @return true if entry was found
+     */
+    public boolean remove(int key)
+    {
+        int hash = hash(key);
+        while (used(hash))
+        {
+            if (key(hash) == key)
+            {
+                buffer.putInt(slot(hash), 0);
+                size--;
+                // Re-hash all follow-up entries anew; Do not fiddle with the
+                // capacity limit (75 %) otherwise this code may loop forever
+                hash = step(hash);
+                while (used(hash))
+                {
+                    key = key(hash);
+                    long value = value(hash);
+                    buffer.putInt(slot(hash), 0);
+                    int newHash = hash(key);
+                    while (used(newHash))
+                    {
+                        newHash = step(newHash);
+                    }
+                    set(newHash, key, value);
+                    hash = step(hash);
+                }
+                mod++;
+                return true;
+            }
+            hash = step(hash);
+        }
+
+        return false;
+    }
+
+    /**
+     * find if key is present in map
+     * @param key the key
+     * @return true if the key was found
+     */
+    public boolean containsKey(int key)
+    {
+        int hash = hash(key);
+        while (used(hash))
+        {
+            if (key(hash) == key) { return true; }
+            hash = step(hash);
+        }
+        return false;
+    }
+
+    /**
+     * Retrieve the value corresponding to the key
+     * @param key the key
+     * @return the value
+     * @throws NoSuchElementException if the key is not found
+     */
+    public long get(int key)
+    {
+        int hash = hash(key);
+        while (used(hash))
+        {
+            if (key(hash) == key) { return value(hash); }
+            hash = step(hash);
+        }
+
+        throw noSuchElementException;
+    }
+
+    /**
+     * Get all the used keys
+     * @return an array of the used keys
+     */
+    public int[] getAllKeys()
+    {
+        int[] array = new int[size];
+        int j = 0;
+        for (int i = 0; i < capacity; i++)
+        {
+            if (used(i))
+            {
+                array[j++] = key(i);
+            }
+        }
+        return array;
+    }
+
+    /**
+     * Get all the values corresponding to the used keys.
+     * Duplicate values are possible if they correspond to different keys.
+     * @return an array of the used values
+     */
+    public long[] getAllValues()
+    {
+        long[] a = new long[size];
+        int index = 0;
+        for (int i = 0; i < capacity; i++)
+        {
+            if (used(i))
+                a[index++] = value(i);
+        }
+        return a;
+    }
+
+    /**
+     * The number of mappings
+     * @return the size of the map
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Is the map empty
+     * @return true if no current mappings
+     */
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    /**
+     * Remove all the existing mappings,
+     * leaving the capacity unchanged.
+     */
+    public void clear()
+    {
+        size = 0;
+        buffer.clear(slot(capacity));
+        mod++;
+    }
+
+    /**
+     * Get a way of iterating over the keys
+     * @return an iterator over the keys
+     */
+    public IteratorInt keys()
+    {
+        return new IteratorInt()
+        {
+            int n = 0;
+            int i = -1;
+            final int mod0 = mod;
+
+            public boolean hasNext()
+            {
+                return n < size;
+            }
+
+            public int next() throws NoSuchElementException
+            {
+                if (mod != mod0)
+                    throw new ConcurrentModificationException();
+                while (++i < capacity)
+                {
+                    if (used(i))
+                    {
+                        n++;
+                        return key(i);
+                    }
+                }
+                throw new NoSuchElementException();
+            }
+        };
+    }
+
+    /**
+     * Get a way of iterating over the values.
+     * @return an iterator over the values
+     */
+    public IteratorLong values()
+    {
+        return new IteratorLong()
+        {
+            int n = 0;
+            int i = -1;
+            final int mod0 = mod;
+
+            public boolean hasNext()
+            {
+                return n < size;
+            }
+
+            public long next() throws NoSuchElementException
+            {
+                if (mod != mod0)
+                    throw new ConcurrentModificationException();
+                while (++i < capacity)
+                {
+                    if (used(i))
+                    {
+                        n++;
+                        return value(i);
+                    }
+                }
+                throw new NoSuchElementException();
+            }
+        };
+    }
+
+    /**
+     * Iterate over all the map entries
+     * @return the iterator over the entries
+     */
+    public Iterator<Entry> entries()
+    {
+        return new Iterator<Entry>()
+        {
+            int n = 0;
+            int i = -1;
+            final int mod0 = mod;
+
+            public boolean hasNext()
+            {
+                return n < size;
+            }
+
+            public Entry next() throws NoSuchElementException
+            {
+                if (mod != mod0)
+                    throw new ConcurrentModificationException();
+                while (++i < capacity)
+                {
+                    if (used(i))
+                    {
+                        n++;
+                        final int slot = i;
+                        return new Entry()
+                        {
+                            public int getKey()
+                            {
+                                if (mod != mod0)
+                                    throw new ConcurrentModificationException();
+                                return key(slot);
+                            }
+
+                            public long getValue()
+                            {
+                                if (mod != mod0)
+                                    throw new ConcurrentModificationException();
+                                return value(slot);
+                            }
+                        };
+                    }
+                }
+                throw new NoSuchElementException();
+            }
+
+            public void remove() throws UnsupportedOperationException
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Get off-heap memory consumption of the map.
+     * @return memory consumption in bytes outside of the Java heap
+     */
+    public long consumption()
+    {
+        return buffer.capacity();
+    }
+
+    /**
+     * Release the off-heap storage and delete any scratch file.
+     * The map must not be used afterwards.
+     */
+    public void close() throws IOException
+    {
+        size = 0;
+        capacity = 0;
+        buffer.close();
+    }
+
+    private void init(int initialCapacity)
+    {
+        capacity = PrimeFinder.findNextPrime(initialCapacity);
+        step = Math.max(1, PrimeFinder.findPrevPrime(initialCapacity / 3));
+        limit = (int) (capacity * 0.75);
+        // New storage is already zero-filled
+        buffer.ensureCapacity(slot(capacity));
+        size = 0;
+    }
+
+    private void resize(int newCapacity)
+    {
+        int oldSize = size;
+        int oldCapacity = capacity;
+        OffHeapBuffer oldBuffer = buffer;
+        try
+        {
+            long bytes = slot(PrimeFinder.findNextPrime(newCapacity));
+            buffer = mapped ? new OffHeapBuffer(bytes, scratchDirectory) : new OffHeapBuffer(bytes);
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+        init(newCapacity);
+        for (int i = 0; i < oldCapacity; i++)
+        {
+            long slot = slot(i);
+            if (oldBuffer.getInt(slot) != 0)
+            {
+                int key = oldBuffer.getInt(slot + KEY_OFFSET);
+                int hash = hash(key);
+                while (used(hash))
+                {
+                    hash = step(hash);
+                }
+                set(hash, key, oldBuffer.getLong(slot + VALUE_OFFSET));
+            }
+        }
+        size = oldSize;
+        mod++;
+        try
+        {
+            oldBuffer.close();
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+}
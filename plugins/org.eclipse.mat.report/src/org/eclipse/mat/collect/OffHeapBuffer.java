@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.collect;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Growable storage outside of the Java heap, used by the off-heap collections.
+ * The storage is a list of fixed size pages, either direct byte buffers
+ * or pages of a memory-mapped scratch file. Pages are never copied
+ * when the storage grows, and new pages are zero-filled.
+ * Values must be aligned to their size so that they never cross a page.
+ */
+final class OffHeapBuffer implements Closeable
+{
+    /** Largest page size, 8MB */
+    static final int MAX_PAGE_SHIFT = 23;
+    /** Smallest page size, 4KB */
+    static final int MIN_PAGE_SHIFT = 12;
+
+    private final int pageShift;
+    private final int pageSize;
+    private final int pageMask;
+
+    private final ArrayList<ByteBuffer> pages = new ArrayList<ByteBuffer>();
+    private final File scratchFile;
+    private RandomAccessFile raf;
+
+    /**
+     * Create storage in direct byte buffers.
+     * @param bytes the expected size, used to choose the page size
+     */
+    OffHeapBuffer(long bytes)
+    {
+        pageShift = choosePageShift(bytes);
+        pageSize = 1 << pageShift;
+        pageMask = pageSize - 1;
+        scratchFile = null;
+    }
+
+    /**
+     * Create storage in a memory-mapped scratch file.
+     * @param bytes the expected size, used to choose the page size
+     * @param scratchDirectory where to create the file, or null for the default temporary directory
+     * @throws IOException if the file cannot be created
+     */
+    OffHeapBuffer(long bytes, File scratchDirectory) throws IOException
+    {
+        pageShift = choosePageShift(bytes);
+        pageSize = 1 << pageShift;
+        pageMask = pageSize - 1;
+        scratchFile = File.createTempFile("mat", ".offheap", scratchDirectory); //$NON-NLS-1$ //$NON-NLS-2$
+        scratchFile.deleteOnExit();
+        raf = new RandomAccessFile(scratchFile, "rw"); //$NON-NLS-1$
+    }
+
+    /**
+     * Small collections should not use large pages.
+     */
+    private static int choosePageShift(long bytes)
+    {
+        int shift = MIN_PAGE_SHIFT;
+        while (shift < MAX_PAGE_SHIFT && 1L << shift < bytes)
+            ++shift;
+        return shift;
+    }
+
+    /**
+     * Make sure the storage holds at least the given number of bytes.
+     * @param bytes the required capacity
+     */
+    void ensureCapacity(long bytes)
+    {
+        while (capacity() < bytes)
+        {
+            ByteBuffer page;
+            if (scratchFile == null)
+            {
+                page = ByteBuffer.allocateDirect(pageSize);
+            }
+            else
+            {
+                try
+                {
+                    page = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, capacity(), pageSize);
+                }
+                catch (IOException e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+            pages.add(page.order(ByteOrder.nativeOrder()));
+        }
+    }
+
+    /**
+     * The number of bytes available without growing.
+     * @return the capacity in bytes
+     */
+    long capacity()
+    {
+        return (long) pages.size() << pageShift;
+    }
+
+    long getLong(long offset)
+    {
+        return pages.get((int) (offset >>> pageShift)).getLong((int) (offset & pageMask));
+    }
+
+    void putLong(long offset, long value)
+    {
+        pages.get((int) (offset >>> pageShift)).putLong((int) (offset & pageMask), value);
+    }
+
+    int getInt(long offset)
+    {
+        return pages.get((int) (offset >>> pageShift)).getInt((int) (offset & pageMask));
+    }
+
+    void putInt(long offset, int value)
+    {
+        pages.get((int) (offset >>> pageShift)).putInt((int) (offset & pageMask), value);
+    }
+
+    /**
+     * Copy longs out of the storage.
+     * @param offset the byte offset of the first long
+     * @param dest the destination array
+     * @param start the first index in the destination
+     * @param length the number of longs
+     */
+    void getLongs(long offset, long[] dest, int start, int length)
+    {
+        while (length > 0)
+        {
+            ByteBuffer page = pages.get((int) (offset >>> pageShift)).duplicate().order(ByteOrder.nativeOrder());
+            page.position((int) (offset & pageMask));
+            int bite = Math.min(length, page.remaining() >>> 3);
+            page.asLongBuffer().get(dest, start, bite);
+            offset += (long) bite << 3;
+            start += bite;
+            length -= bite;
+        }
+    }
+
+    /**
+     * Set the first bytes of the storage to zero.
+     * @param bytes the number of bytes to clear
+     */
+    void clear(long bytes)
+    {
+        byte zeros[] = new byte[Math.min(pageSize, (int) Math.min(bytes, Integer.MAX_VALUE))];
+        for (int i = 0; i < pages.size() && bytes > 0; ++i)
+        {
+            ByteBuffer page = pages.get(i).duplicate();
+            int len = (int) Math.min(bytes, pageSize);
+            for (int done = 0; done < len; done += zeros.length)
+                page.put(zeros, 0, Math.min(zeros.length, len - done));
+            bytes -= len;
+        }
+    }
+
+    /**
+     * Release the storage and delete any scratch file.
+     * Direct and mapped memory is freed once the buffers are garbage collected.
+     */
+    public void close() throws IOException
+    {
+        pages.clear();
+        if (raf != null)
+        {
+            raf.close();
+            raf = null;
+            // Might fail on some platforms while pages are still mapped, but the file is deleted on exit
+            scratchFile.delete();
+        }
+    }
+}
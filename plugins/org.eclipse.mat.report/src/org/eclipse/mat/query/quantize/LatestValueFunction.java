@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 SAP AG.
+ * Copyright (c) 2008, 2023 SAP AG and IBM Corporation.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -9,6 +9,7 @@
  *
  * Contributors:
  *    SAP AG - initial API and implementation
+ *    IBM Corporation - merge distributions built by separate threads
  *******************************************************************************/
 package org.eclipse.mat.query.quantize;
 
@@ -28,25 +29,36 @@ public final class LatestValueFunction implements Quantize.Function.Factory
 {
     public Function build() throws Exception
     {
-        return new Quantize.Function()
-        {
-            Object latest;
-
-            public void add(Object object)
-            {
-                latest = object;
-            }
-
-            public Object getValue()
-            {
-                return latest;
-            }
-
-        };
+        return new Latest();
     }
 
     public Column column(String label)
     {
         return new Column(label, Integer.class);
     }
+
+    private static class Latest implements Quantize.MergeableFunction
+    {
+        Object latest;
+        boolean hasValue;
+
+        public void add(Object object)
+        {
+            latest = object;
+            hasValue = true;
+        }
+
+        public void merge(Function other)
+        {
+            // the values of the other function were added later
+            Latest o = (Latest) other;
+            if (o.hasValue)
+                add(o.latest);
+        }
+
+        public Object getValue()
+        {
+            return latest;
+        }
+    }
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2020 SAP AG and IBM Corporation.
+ * Copyright (c) 2008, 2023 SAP AG and IBM Corporation.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -10,6 +10,7 @@
  * Contributors:
  *    SAP AG - initial API and implementation
  *    IBM Corporation/Andrew Johnson - Javadoc updates
+ *    IBM Corporation - merge distributions built by separate threads
  *******************************************************************************/
 package org.eclipse.mat.query.quantize;
 
@@ -22,6 +23,8 @@ import java.util.Map;
 
 import org.eclipse.mat.SnapshotException;
 import org.eclipse.mat.collect.ArrayInt;
+import org.eclipse.mat.collect.IteratorLong;
+import org.eclipse.mat.collect.SetLong;
 import org.eclipse.mat.query.Bytes;
 import org.eclipse.mat.query.Column;
 import org.eclipse.mat.query.Column.SortDirection;
@@ -33,12 +36,17 @@ import org.eclipse.mat.query.IResultTable;
 import org.eclipse.mat.query.ResultMetaData;
 import org.eclipse.mat.query.quantize.Quantize.Function.Factory;
 import org.eclipse.mat.report.internal.Messages;
+import org.eclipse.mat.util.MessageUtil;
 
 import com.ibm.icu.text.DecimalFormat;
 import com.ibm.icu.text.NumberFormat;
 
 /**
  * Create a value or frequency distribution out of arbitrary values.
+ * <p>
+ * A distribution is not thread safe. To build a distribution using several threads,
+ * each thread adds values to its own part from {@link #split()}, and the parts
+ * are then combined with {@link #merge(Quantize)}.
  */
 public final class Quantize
 {
@@ -101,6 +109,22 @@ public final class Quantize
         Object getValue();
     }
 
+    /**
+     * A function which can combine the values added to another instance,
+     * so that the parts of a distribution can be merged.
+     * All the functions supplied by Quantize can be merged.
+     * @since 1.15
+     */
+    public interface MergeableFunction extends Function
+    {
+        /**
+         * Add the values of another instance of the same function to this one,
+         * as though they had been added after the values of this function.
+         * @param other the other function, which should not be used afterwards
+         */
+        void merge(Function other);
+    }
+
     /**
      * Function to count values.
      */
@@ -163,6 +187,13 @@ public final class Quantize
      */
     public static final Function.Factory AVERAGE_BYTES = new FnFactoryImpl(AverageBytes.class, Bytes.class, true);
 
+    /**
+     * Function to count the distinct values.
+     * 
+     * @since 1.15
+     */
+    public static final Function.Factory COUNT_DISTINCT = new FnFactoryImpl(CountDistinct.class, Integer.class, true);
+
 
     // //////////////////////////////////////////////////////////////
     // factory methods
@@ -406,6 +437,75 @@ public final class Quantize
             bucket.objectIds.addAll(objectIds);
     }
 
+    /**
+     * Creates an empty part of this distribution, with the same columns and functions.
+     * Values can be added to the part by another thread, then the part combined
+     * with this distribution using {@link #merge(Quantize)}.
+     * 
+     * @return the new part
+     * @since 1.15
+     */
+    public Quantize split()
+    {
+        Quantize part = new Quantize(keyCalculator);
+        part.keyLength = keyLength;
+        part.columns = columns;
+        part.functions = functions;
+        part.resultMetaData = resultMetaData;
+        part.init();
+        return part;
+    }
+
+    /**
+     * Adds the values of another part of this distribution, as though they
+     * had been added after the values already added.
+     * The objects of each bucket stay in the order they were added, so merging
+     * parts in order gives the same distribution as adding all the values to
+     * one distribution, and merging is associative.
+     * 
+     * @param other
+     *            a part from {@link #split()}, or a distribution split from the
+     *            same distribution, which should not be used afterwards
+     * @throws UnsupportedOperationException
+     *             if the distributions have different columns or a
+     *             function is not a {@link MergeableFunction}
+     * @since 1.15
+     */
+    public void merge(Quantize other)
+    {
+        if (other.columns != columns)
+            throw new UnsupportedOperationException(Messages.Quantize_Error_MergeDifferentColumns);
+
+        // Check every function before changing anything, so a failed merge leaves both unchanged
+        for (BucketImpl from : other.key2bucket.values())
+        {
+            BucketImpl bucket = key2bucket.get(from.key);
+            if (bucket == null)
+                continue;
+            for (Function function : bucket.functions)
+            {
+                if (!(function instanceof MergeableFunction))
+                    throw new UnsupportedOperationException(MessageUtil.format(Messages.Quantize_Error_NotMergeable,
+                                    function.getClass().getName()));
+            }
+        }
+
+        for (BucketImpl from : other.key2bucket.values())
+        {
+            BucketImpl bucket = key2bucket.get(from.key);
+            if (bucket == null)
+            {
+                key2bucket.put(from.key, from);
+                continue;
+            }
+
+            bucket.objectIds.addAll(from.objectIds);
+            for (int ii = 0; ii < bucket.functions.length; ii++)
+                ((MergeableFunction) bucket.functions[ii]).merge(from.functions[ii]);
+        }
+        other.init();
+    }
+
     private BucketImpl internalAddValue(Object[] columnValues) throws SnapshotException
     {
         if (columnValues.length != columns.size())
@@ -585,7 +685,7 @@ public final class Quantize
     // default function implementations
     // //////////////////////////////////////////////////////////////
 
-    /* package */static class Count implements Function
+    /* package */static class Count implements MergeableFunction
     {
         int count;
 
@@ -594,13 +694,18 @@ public final class Quantize
             count++;
         }
 
+        public void merge(Function other)
+        {
+            count += ((Count) other).count;
+        }
+
         public Object getValue()
         {
             return count;
         }
     }
 
-    /* package */static class Sum implements Function
+    /* package */static class Sum implements MergeableFunction
     {
         double sum;
 
@@ -610,13 +715,18 @@ public final class Quantize
                 sum += ((Number) object).doubleValue();
         }
 
+        public void merge(Function other)
+        {
+            sum += ((Sum) other).sum;
+        }
+
         public Object getValue()
         {
             return sum;
         }
     }
 
-    /* package */static class SumLong implements Function
+    /* package */static class SumLong implements MergeableFunction
     {
         long sum;
 
@@ -626,13 +736,18 @@ public final class Quantize
                 sum += ((Number) object).longValue();
         }
 
+        public void merge(Function other)
+        {
+            sum += ((SumLong) other).sum;
+        }
+
         public Object getValue()
         {
             return sum;
         }
     }
 
-    /* package */static class SumBytes implements Function
+    /* package */static class SumBytes implements MergeableFunction
     {
         Bytes sum;
 
@@ -656,6 +771,11 @@ public final class Quantize
             }
         }
 
+        public void merge(Function other)
+        {
+            add(((SumBytes) other).sum);
+        }
+
         public Object getValue()
         {
             if (sum == null)
@@ -665,7 +785,7 @@ public final class Quantize
         }
     }
 
-    /* package */static class Min implements Function
+    /* package */static class Min implements MergeableFunction
     {
         boolean hasValue = false;
         double min;
@@ -686,13 +806,20 @@ public final class Quantize
             }
         }
 
+        public void merge(Function other)
+        {
+            Min o = (Min) other;
+            if (o.hasValue)
+                add(o.min);
+        }
+
         public Object getValue()
         {
             return min;
         }
     }
 
-    /* package */static class MinLong implements Function
+    /* package */static class MinLong implements MergeableFunction
     {
         boolean hasValue = false;
         long min;
@@ -713,13 +840,20 @@ public final class Quantize
             }
         }
 
+        public void merge(Function other)
+        {
+            MinLong o = (MinLong) other;
+            if (o.hasValue)
+                add(o.min);
+        }
+
         public Object getValue()
         {
             return min;
         }
     }
 
-    /* package */static class MinBytes implements Function
+    /* package */static class MinBytes implements MergeableFunction
     {
         Bytes min;
 
@@ -731,7 +865,7 @@ public final class Quantize
             if (min != null)
             {
                 if (object instanceof Bytes)
-                    min = min.compareTo(object) >= 0 ? min : (Bytes)object;
+                    min = min.compareTo(object) <= 0 ? min : (Bytes)object;
                 else
                     min = new Bytes(Math.min(min.getValue(), ((Number) object).longValue()));
             }
@@ -744,13 +878,18 @@ public final class Quantize
             }
         }
 
+        public void merge(Function other)
+        {
+            add(((MinBytes) other).min);
+        }
+
         public Object getValue()
         {
             return min;
         }
     }
 
-    /* package */static class Max implements Function
+    /* package */static class Max implements MergeableFunction
     {
         boolean hasValue = false;
         double max;
@@ -771,13 +910,20 @@ public final class Quantize
             }
         }
 
+        public void merge(Function other)
+        {
+            Max o = (Max) other;
+            if (o.hasValue)
+                add(o.max);
+        }
+
         public Object getValue()
         {
             return max;
         }
     }
 
-    /* package */static class MaxLong implements Function
+    /* package */static class MaxLong implements MergeableFunction
     {
         boolean hasValue = false;
         long max;
@@ -798,13 +944,20 @@ public final class Quantize
             }
         }
 
+        public void merge(Function other)
+        {
+            MaxLong o = (MaxLong) other;
+            if (o.hasValue)
+                add(o.max);
+        }
+
         public Object getValue()
         {
             return max;
         }
     }
 
-    /* package */static class MaxBytes implements Function
+    /* package */static class MaxBytes implements MergeableFunction
     {
         Bytes max;
 
@@ -816,7 +969,7 @@ public final class Quantize
             if (max != null)
             {
                 if (object instanceof Bytes)
-                    max = max.compareTo(object) <= 0 ? max : (Bytes)object;
+                    max = max.compareTo(object) >= 0 ? max : (Bytes)object;
                 else
                     max = new Bytes(Math.max(max.getValue(), ((Number) object).longValue()));
             }
@@ -829,13 +982,18 @@ public final class Quantize
             }
         }
 
+        public void merge(Function other)
+        {
+            add(((MaxBytes) other).max);
+        }
+
         public Object getValue()
         {
             return max;
         }
     }
 
-    /* package */static class Average implements Function
+    /* package */static class Average implements MergeableFunction
     {
         int count;
         double sum;
@@ -849,13 +1007,20 @@ public final class Quantize
             count++;
         }
 
+        public void merge(Function other)
+        {
+            Average o = (Average) other;
+            sum += o.sum;
+            count += o.count;
+        }
+
         public Object getValue()
         {
             return count > 0 ? sum / count : 0;
         }
     }
 
-    /* package */static class AverageLong implements Function
+    /* package */static class AverageLong implements MergeableFunction
     {
         int count;
         long sum;
@@ -869,13 +1034,20 @@ public final class Quantize
             count++;
         }
 
+        public void merge(Function other)
+        {
+            AverageLong o = (AverageLong) other;
+            sum += o.sum;
+            count += o.count;
+        }
+
         public Object getValue()
         {
             return count > 0 ? sum / count : 0L;
         }
     }
 
-    /* package */static class AverageBytes implements Function
+    /* package */static class AverageBytes implements MergeableFunction
     {
         int count;
         Bytes sum;
@@ -901,6 +1073,18 @@ public final class Quantize
             count++;
         }
 
+        public void merge(Function other)
+        {
+            AverageBytes o = (AverageBytes) other;
+            if (o.count == 0)
+                return;
+            if (count == 0)
+                sum = o.sum;
+            else
+                sum = sum.add(o.sum.getValue());
+            count += o.count;
+        }
+
         public Object getValue()
         {
             if (count == 0)
@@ -912,6 +1096,39 @@ public final class Quantize
         }
     }
 
+    /* package */static class CountDistinct implements MergeableFunction
+    {
+        /** Whole numbers, kept without boxing */
+        SetLong longs = new SetLong();
+        /** Other values */
+        HashMap<Object, Object> others = new HashMap<Object, Object>();
+
+        public void add(Object object)
+        {
+            if (object == null)
+                return;
+
+            if (object instanceof Long || object instanceof Integer || object instanceof Short
+                            || object instanceof Byte)
+                longs.add(((Number) object).longValue());
+            else
+                others.put(object, object);
+        }
+
+        public void merge(Function other)
+        {
+            CountDistinct o = (CountDistinct) other;
+            for (IteratorLong it = o.longs.iterator(); it.hasNext();)
+                longs.add(it.next());
+            others.putAll(o.others);
+        }
+
+        public Object getValue()
+        {
+            return longs.size() + others.size();
+        }
+    }
+
     // //////////////////////////////////////////////////////////////
     // mama's little helpers
     // //////////////////////////////////////////////////////////////
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2018 SAP AG and IBM Corporation.
+ * Copyright (c) 2008, 2023 SAP AG and IBM Corporation.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -10,11 +10,16 @@
  * Contributors:
  *    SAP AG - initial API and implementation
  *    IBM Corporation/Andrew Johnson - Javadoc updates
+ *    IBM Corporation - results still being computed
  *******************************************************************************/
 package org.eclipse.mat.report;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 import org.eclipse.mat.query.IResult;
 import org.eclipse.mat.report.internal.Messages;
+import org.eclipse.mat.util.IProgressListener;
 import org.eclipse.mat.util.MessageUtil;
 
 /**
@@ -25,6 +30,7 @@ public class QuerySpec extends Spec
 {
     private String command;
     private IResult result;
+    private Future<? extends IResult> pending;
 
     /**
      * Create a QuerySpec with no title
@@ -73,10 +79,27 @@ public class QuerySpec extends Spec
 
     /**
      * Gets the body of this section which is the result of a query.
+     * If the result is still being computed then waits for it.
      * @return the body of the section
      */
     public IResult getResult()
     {
+        if (pending != null)
+        {
+            try
+            {
+                setResult(pending.get());
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IProgressListener.OperationCanceledException();
+            }
+            catch (ExecutionException e)
+            {
+                throw new RuntimeException(e.getCause());
+            }
+        }
         return result;
     }
 
@@ -87,6 +110,30 @@ public class QuerySpec extends Spec
     public void setResult(IResult result)
     {
         this.result = result;
+        this.pending = null;
+    }
+
+    /**
+     * Gets the result of a query which is still being computed.
+     * @return the result still being computed, or null if the result is known
+     * @since 1.15
+     */
+    public Future<? extends IResult> getPendingResult()
+    {
+        return pending;
+    }
+
+    /**
+     * Sets the body of this section to the result of a query which is still being computed,
+     * for example on another thread, so a report can show the sections before this one
+     * without waiting.
+     * @param result the result once computed
+     * @since 1.15
+     */
+    public void setPendingResult(Future<? extends IResult> result)
+    {
+        this.result = null;
+        this.pending = result;
     }
 
     @Override
@@ -100,8 +147,11 @@ public class QuerySpec extends Spec
         if (command == null)
             command = ((QuerySpec) other).command;
 
-        if (result == null)
+        if (result == null && pending == null)
+        {
             result = ((QuerySpec) other).result;
+            pending = ((QuerySpec) other).pending;
+        }
     }
 
 }
@@ -74,7 +74,9 @@ public final class Messages extends NLS
     public static String PartsFactory_Error_Construction;
     public static String PropertyResult_Column_Name;
     public static String PropertyResult_Column_Value;
+    public static String Quantize_Error_MergeDifferentColumns;
     public static String Quantize_Error_MismatchArgumentsColumns;
+    public static String Quantize_Error_NotMergeable;
     public static String Quantize_LessEq_Prefix;
     public static String Queries_Error_NotAvialable;
     public static String Queries_Error_UnknownArgument;
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2021 SAP AG and IBM Corporation.
+ * Copyright (c) 2008, 2023 SAP AG and IBM Corporation.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -10,6 +10,7 @@
  * Contributors:
  *    SAP AG - initial API and implementation
  *    Andrew Johnson (IBM Corporation) - accessibility improvements
+ *    IBM Corporation - results still being computed
  *******************************************************************************/
 package org.eclipse.mat.report.internal;
 
@@ -393,8 +394,9 @@ import org.eclipse.mat.util.HTMLUtils;
         Spec s = part.spec();
         if (s instanceof SectionSpec)
             status = ITestResult.Status.max(status, ((SectionSpec)s).getStatus());
-        else if (s instanceof QuerySpec)
+        else if (s instanceof QuerySpec && ((QuerySpec)s).getPendingResult() == null)
         {
+            // do not wait for a result still being computed
             IResult result = ((QuerySpec)s).getResult();
             if (result instanceof ITestResult)
                 status = ITestResult.Status.max(status, ((ITestResult)result).getStatus());
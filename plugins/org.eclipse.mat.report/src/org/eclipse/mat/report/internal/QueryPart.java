@@ -10,6 +10,7 @@
  * Contributors:
  *    SAP AG - initial API and implementation
  *    Andrew Johnson/IBM Corporation - internationalization of filters
+ *    IBM Corporation - wait for results still being computed
  *******************************************************************************/
 package org.eclipse.mat.report.internal;
 
@@ -20,6 +21,10 @@ import java.text.ParsePosition;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -59,6 +64,9 @@ import com.ibm.icu.text.NumberFormat;
 
 public class QueryPart extends AbstractPart
 {
+    /** How often to check for cancellation while waiting for a result */
+    private static final long POLL_MILLIS = 200;
+
     /* package */PartsFactory factory;
 
     public QueryPart(String id, AbstractPart parent, DataFile artefact, QuerySpec spec)
@@ -92,10 +100,23 @@ public class QueryPart extends AbstractPart
         String subTaskName = MessageUtil.format(Messages.QueryPart_Msg_TestProgress, spec().getName(), sectionName);
         listener.subTask(subTaskName);
 
-        IResult result = spec().getResult();
+        Future<? extends IResult> pending = spec().getPendingResult();
+        IResult result = pending == null ? spec().getResult() : null;
 
         SimpleMonitor monitor = new SimpleMonitor(subTaskName, listener, new int[] { 80, 20 });
-        if (result == null)
+        if (pending != null)
+        {
+            try
+            {
+                result = waitFor(pending, monitor.nextMonitor());
+            }
+            catch (Exception e)
+            {
+                result = ignoringResult(e);
+            }
+            spec().setResult(result);
+        }
+        else if (result == null)
         {
             if (getCommand() == null)
             {
@@ -110,13 +131,7 @@ public class QueryPart extends AbstractPart
                 }
                 catch (Exception e)
                 {
-                    String msg = e.getMessage();
-                    if (msg == null)
-                        msg = e.getClass().getName();
-
-                    ReportPlugin.log(e, MessageUtil.format(Messages.QueryPart_Error_IgnoringResult, spec().getName(),
-                                    msg));
-                    result = new TextResult(e.getLocalizedMessage());
+                    result = ignoringResult(e);
                 }
             }
         }
@@ -184,6 +199,47 @@ public class QueryPart extends AbstractPart
         return this;
     }
 
+    /**
+     * Wait for a result which is still being computed, checking for cancellation.
+     */
+    private static IResult waitFor(Future<? extends IResult> pending, IProgressListener listener) throws Exception
+    {
+        while (true)
+        {
+            if (listener.isCanceled())
+            {
+                // interrupting might close the files the computation is reading
+                pending.cancel(false);
+                throw new IProgressListener.OperationCanceledException();
+            }
+            try
+            {
+                return pending.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException e)
+            {
+                // still running
+            }
+            catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        }
+    }
+
+    private IResult ignoringResult(Exception e)
+    {
+        String msg = e.getMessage();
+        if (msg == null)
+            msg = e.getClass().getName();
+
+        ReportPlugin.log(e, MessageUtil.format(Messages.QueryPart_Error_IgnoringResult, spec().getName(), msg));
+        return new TextResult(e.getLocalizedMessage());
+    }
+
     private boolean hasParameterThatNeedRefining()
     {
         String[] providers = params().getStringArray(Params.Rendering.DERIVED_DATA_COLUMN);
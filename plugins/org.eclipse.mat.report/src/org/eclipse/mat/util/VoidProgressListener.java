@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 SAP AG.
+ * Copyright (c) 2008, 2023 SAP AG and IBM Corporation.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
  * which accompanies this distribution, and is available at
@@ -9,6 +9,7 @@
  *
  * Contributors:
  *    SAP AG - initial API and implementation
+ *    IBM Corporation - cancel from another thread
  *******************************************************************************/
 package org.eclipse.mat.util;
 
@@ -21,7 +22,7 @@ package org.eclipse.mat.util;
  */
 public class VoidProgressListener implements IProgressListener
 {
-    private boolean cancelled = false;
+    private volatile boolean cancelled = false;
 
     /**
      * Does nothing.
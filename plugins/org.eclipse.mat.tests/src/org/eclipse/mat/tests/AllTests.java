@@ -27,21 +27,40 @@ import org.junit.runners.Suite.SuiteClasses;
                 org.eclipse.mat.tests.collect.QueueIntTest.class, //
                 org.eclipse.mat.tests.collect.PrimitiveArrayTests.class, //
                 org.eclipse.mat.tests.collect.PrimitiveMapTests.class, //
+                org.eclipse.mat.tests.collect.OffHeapCollectionsTest.class, //
+                org.eclipse.mat.tests.collect.ConcurrentBitFieldTest.class, //
                 org.eclipse.mat.tests.collect.CommandTests.class, //
                 org.eclipse.mat.tests.collect.SortTest.class, //
                 org.eclipse.mat.tests.collect.ExtractCollectionEntriesTest.class, //
                 org.eclipse.mat.tests.parser.GzipTests.class, //
+                org.eclipse.mat.tests.parser.ObjectCacheTest.class, //
                 org.eclipse.mat.tests.parser.TestIndex.class, //
                 org.eclipse.mat.tests.parser.TestIndex1to1.class, //
+                org.eclipse.mat.tests.parser.TestIndexCodec.class, //
+                org.eclipse.mat.tests.parser.TestPendingSegments.class, //
+                org.eclipse.mat.tests.parser.TestResumeParse.class, //
                 org.eclipse.mat.tests.snapshot.DominatorTreeTest.class, //
+                org.eclipse.mat.tests.snapshot.TestParallelDominatorTree.class, //
+                org.eclipse.mat.tests.snapshot.TestBiggestRetainedIds.class, //
+                org.eclipse.mat.tests.snapshot.TestTopDominatorsHistogram.class, //
+                org.eclipse.mat.tests.snapshot.TestParallelReindex.class, //
+                org.eclipse.mat.tests.snapshot.TestReopenSnapshot.class, //
                 org.eclipse.mat.tests.snapshot.TestUnreachableObjects.class, //
                 org.eclipse.mat.tests.snapshot.GeneralSnapshotTests.class, //
                 org.eclipse.mat.tests.snapshot.TestInstanceSizes.class, //
+                org.eclipse.mat.tests.snapshot.TestFieldColumns.class, //
+                org.eclipse.mat.tests.snapshot.TestClassRetainedSizes.class, //
+                org.eclipse.mat.tests.snapshot.TestHistogramGrouping.class, //
+                org.eclipse.mat.tests.snapshot.TestParallelHistogram.class, //
+                org.eclipse.mat.tests.snapshot.TestObjectScan.class, //
+                org.eclipse.mat.tests.queries.QuantizeTest.class, //
+                org.eclipse.mat.tests.queries.QuerySpecTest.class, //
                 org.eclipse.mat.tests.snapshot.QueryLookupTest.class, //
                 org.eclipse.mat.tests.snapshot.QueriesTest.class, //
                 org.eclipse.mat.tests.snapshot.AllQueries.class, //
                 org.eclipse.mat.tests.snapshot.OQLTest.class, //
                 org.eclipse.mat.tests.snapshot.MultipleSnapshots.class, //
+                org.eclipse.mat.tests.snapshot.TestConcurrentReads.class, //
                 org.eclipse.mat.tests.acquire.AcquireDumpTest.class,
                 org.eclipse.mat.tests.collect.ExtractCollectionEntriesTest3.class, //
                 org.eclipse.mat.tests.collect.ExtractCollectionEntriesTest4.class, //
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.mat.collect.BitField;
+import org.eclipse.mat.collect.ConcurrentBitField;
+import org.junit.Test;
+
+public class ConcurrentBitFieldTest
+{
+    private static final int SIZE = 100003;
+    private static final int THREADS = 8;
+
+    @Test
+    public void testSameAsBitField()
+    {
+        BitField b = new BitField(SIZE);
+        ConcurrentBitField c = new ConcurrentBitField(SIZE);
+        for (int i = 0; i < SIZE; i += 3)
+        {
+            b.set(i);
+            c.set(i);
+        }
+        for (int i = 0; i < SIZE; i += 7)
+        {
+            b.clear(i);
+            c.clear(i);
+        }
+        for (int i = 0; i < SIZE; ++i)
+            assertEquals(b.get(i), c.get(i));
+        assertFalse(c.getAndSet(SIZE - 1));
+        assertTrue(c.getAndSet(SIZE - 1));
+        assertTrue(c.get(SIZE - 1));
+    }
+
+    /**
+     * Each bit should be claimed by exactly one thread.
+     */
+    @Test
+    public void testGetAndSetClaimsOnce() throws InterruptedException, ExecutionException
+    {
+        final ConcurrentBitField c = new ConcurrentBitField(SIZE);
+        final AtomicInteger claimed = new AtomicInteger();
+        ExecutorService es = Executors.newFixedThreadPool(THREADS);
+        try
+        {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < THREADS; ++t)
+            {
+                final int start = t;
+                futures.add(es.submit(new Runnable()
+                {
+                    public void run()
+                    {
+                        for (int i = 0; i < SIZE; ++i)
+                        {
+                            // Each thread walks in a different order so that threads collide
+                            int j = (i + start * 9973) % SIZE;
+                            if (!c.getAndSet(j))
+                                claimed.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> f : futures)
+                f.get();
+        }
+        finally
+        {
+            es.shutdown();
+        }
+        assertEquals(SIZE, claimed.get());
+        for (int i = 0; i < SIZE; ++i)
+            assertTrue(c.get(i));
+    }
+}
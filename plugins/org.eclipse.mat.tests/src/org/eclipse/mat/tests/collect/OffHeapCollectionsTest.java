@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.collect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.eclipse.mat.collect.ArrayLongBig;
+import org.eclipse.mat.collect.ArrayLongOffHeap;
+import org.eclipse.mat.collect.HashMapIntLong;
+import org.eclipse.mat.collect.HashMapIntLongOffHeap;
+import org.eclipse.mat.collect.IteratorInt;
+import org.eclipse.mat.collect.IteratorLong;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check the off-heap collections behave the same as the heap versions.
+ */
+public class OffHeapCollectionsTest
+{
+    private static final int KEYS = 300000;
+    private static final int COUNT = 20;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testArrayLongDirect() throws IOException
+    {
+        try (ArrayLongOffHeap a = new ArrayLongOffHeap())
+        {
+            compare(a, new Random(1));
+        }
+    }
+
+    @Test
+    public void testArrayLongMapped() throws IOException
+    {
+        File dir = tmp.newFolder();
+        try (ArrayLongOffHeap a = new ArrayLongOffHeap(dir))
+        {
+            assertEquals(1, dir.list().length);
+            compare(a, new Random(2));
+        }
+        assertEquals("Scratch file should be deleted", 0, dir.list().length); //$NON-NLS-1$
+    }
+
+    private void compare(ArrayLongOffHeap a, Random r)
+    {
+        ArrayLongBig b = new ArrayLongBig();
+        for (int i = 0; i < KEYS; ++i)
+        {
+            if (r.nextInt(100) == 0)
+            {
+                long l[] = new long[r.nextInt(5000)];
+                for (int j = 0; j < l.length; ++j)
+                    l[j] = r.nextLong();
+                a.addAll(l);
+                b.addAll(l);
+            }
+            else
+            {
+                long v = r.nextLong();
+                a.add(v);
+                b.add(v);
+            }
+        }
+        assertEquals(b.length(), a.length());
+        for (int i = 0; i < b.length(); ++i)
+            assertEquals(b.get(i), a.get(i));
+        assertArrayEquals(b.toArray(), a.toArray());
+        assertTrue(a.consumption() >= 8L * a.length());
+        try
+        {
+            a.get(a.length());
+            fail("Expected IndexOutOfBoundsException"); //$NON-NLS-1$
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testIntLongMapDirect() throws IOException
+    {
+        Random r = new Random(3);
+        for (int i = 0; i < COUNT; ++i)
+        {
+            try (HashMapIntLongOffHeap m = new HashMapIntLongOffHeap(r.nextInt(100)))
+            {
+                compare(m, r, KEYS / COUNT);
+            }
+        }
+    }
+
+    @Test
+    public void testIntLongMapMapped() throws IOException
+    {
+        File dir = tmp.newFolder();
+        try (HashMapIntLongOffHeap m = new HashMapIntLongOffHeap(10, dir))
+        {
+            compare(m, new Random(4), KEYS);
+        }
+        assertEquals("Scratch files should be deleted", 0, dir.list().length); //$NON-NLS-1$
+    }
+
+    private void compare(HashMapIntLongOffHeap m, Random r, int keys)
+    {
+        HashMapIntLong h = new HashMapIntLong();
+        // Small key range so that there are repeated keys and removals hit
+        int range = keys * 2;
+        for (int i = 0; i < keys; ++i)
+        {
+            int k = r.nextInt(range);
+            if (r.nextInt(4) == 0)
+            {
+                assertEquals(h.remove(k), m.remove(k));
+            }
+            else
+            {
+                long v = r.nextLong();
+                assertEquals(h.put(k, v), m.put(k, v));
+            }
+        }
+        assertEquals(h.size(), m.size());
+        assertEquals(h.isEmpty(), m.isEmpty());
+        for (int k = 0; k < range; ++k)
+        {
+            assertEquals(h.containsKey(k), m.containsKey(k));
+            if (h.containsKey(k))
+                assertEquals(h.get(k), m.get(k));
+        }
+        int keys1[] = h.getAllKeys();
+        int keys2[] = m.getAllKeys();
+        Arrays.sort(keys1);
+        Arrays.sort(keys2);
+        assertArrayEquals(keys1, keys2);
+        long values1[] = h.getAllValues();
+        long values2[] = m.getAllValues();
+        Arrays.sort(values1);
+        Arrays.sort(values2);
+        assertArrayEquals(values1, values2);
+
+        int n = 0;
+        for (IteratorInt it = m.keys(); it.hasNext(); ++n)
+            assertTrue(h.containsKey(it.next()));
+        assertEquals(h.size(), n);
+        n = 0;
+        for (IteratorLong it = m.values(); it.hasNext(); ++n)
+            it.next();
+        assertEquals(h.size(), n);
+        for (Iterator<HashMapIntLongOffHeap.Entry> it = m.entries(); it.hasNext();)
+        {
+            HashMapIntLongOffHeap.Entry e = it.next();
+            assertEquals(h.get(e.getKey()), e.getValue());
+        }
+
+        m.clear();
+        assertTrue(m.isEmpty());
+        assertFalse(m.keys().hasNext());
+        if (keys1.length > 0)
+        {
+            assertFalse(m.containsKey(keys1[0]));
+            try
+            {
+                m.get(keys1[0]);
+                fail("Expected NoSuchElementException"); //$NON-NLS-1$
+            }
+            catch (NoSuchElementException e)
+            {
+                // expected
+            }
+        }
+    }
+}
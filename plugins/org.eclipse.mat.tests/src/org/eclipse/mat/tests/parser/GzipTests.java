@@ -16,15 +16,19 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.anyOf;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.core.IsEqual.equalTo;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Random;
@@ -35,8 +39,11 @@ import java.util.zip.GZIPOutputStream;
 
 import org.eclipse.mat.hprof.ChunkedGZIPRandomAccessFile;
 import org.eclipse.mat.hprof.GZIPInputStream2;
+import org.eclipse.mat.hprof.ParallelGZIPRandomAccessFile;
 import org.eclipse.mat.hprof.SeekableStream;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
@@ -65,6 +72,9 @@ public class GzipTests
     }
     int comp;
     private static boolean verbose = false;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
     public GzipTests(int comp)
     {
         this.comp = comp;
@@ -395,4 +405,131 @@ public class GzipTests
         }, ras, 10, inputLen);
         checkSeekableStream(b, ss);
     }
+    /**
+     * Read a Gzipped file by decompressing regions in parallel.
+     * The first read saves the decompressor states, later reads use them.
+     */
+    @Test
+    public void testParallelGZip() throws IOException
+    {
+        byte b[] = randomText(216962);
+
+        b = extendData(b, 13);
+
+        byte bo[] = comp == 5 ? chunkedGzip1(b) : gzip1(b);
+        File f = tmp.newFile("parallel.gz"); //$NON-NLS-1$
+        Files.write(f.toPath(), bo);
+        try
+        {
+            for (int i = 0; i < 2; ++i)
+            {
+                try (ParallelGZIPRandomAccessFile raf = new ParallelGZIPRandomAccessFile(f, 100000, 4))
+                {
+                    byte b2[] = new byte[b.length];
+                    int n = 0;
+                    int r;
+                    while (n < b2.length && (r = raf.read(b2, n, Math.min(9999, b2.length - n))) > 0)
+                        n += r;
+                    assertThat(n, equalTo(b.length));
+                    assertThat(raf.read(b2, 0, 1), equalTo(-1));
+                    assertThat(b2, equalTo(b));
+                    assertThat(raf.length(), equalTo((long) b.length));
+                }
+            }
+            for (int i = 0; i < 2; ++i)
+            {
+                if (i == 0)
+                    ParallelGZIPRandomAccessFile.forget(f);
+                try (ParallelGZIPRandomAccessFile raf = new ParallelGZIPRandomAccessFile(f, 100000, 4))
+                {
+                    checkRandomAccess(b, raf);
+                }
+            }
+        }
+        finally
+        {
+            ParallelGZIPRandomAccessFile.forget(f);
+        }
+    }
+
+    /**
+     * Read a Gzipped file once to store the decompressor states in an index file,
+     * then use the index file for random access without reading the whole file again.
+     */
+    @Test
+    public void testGZipCheckpointIndex() throws IOException
+    {
+        byte b[] = randomText(216962);
+
+        b = extendData(b, 13);
+
+        byte bo[] = comp == 5 ? chunkedGzip1(b) : gzip1(b);
+        File f = tmp.newFile("indexed.gz"); //$NON-NLS-1$
+        Files.write(f.toPath(), bo);
+        String prefix = new File(tmp.getRoot(), "indexed.").getPath(); //$NON-NLS-1$
+        File index = new File(prefix + "gzipcheckpoint.index"); //$NON-NLS-1$
+        try
+        {
+            assertThat(ParallelGZIPRandomAccessFile.getRandomAccess(f, prefix), nullValue());
+            try (ParallelGZIPRandomAccessFile raf = new ParallelGZIPRandomAccessFile(f, prefix, 100000, 4))
+            {
+                byte b2[] = new byte[b.length + 1];
+                int n = 0;
+                int r;
+                while ((r = raf.read(b2, n, Math.min(9999, b2.length - n))) > 0)
+                    n += r;
+                assertThat(n, equalTo(b.length));
+            }
+            assertThat(index.isFile(), equalTo(true));
+            for (int i = 0; i < 2; ++i)
+            {
+                // Second time round the states are not in memory, so must be read from the index file
+                if (i == 1)
+                    ParallelGZIPRandomAccessFile.forget(f);
+                try (ParallelGZIPRandomAccessFile raf = ParallelGZIPRandomAccessFile.getRandomAccess(f, prefix))
+                {
+                    assertThat(raf, notNullValue());
+                    assertThat(raf.length(), equalTo((long) b.length));
+                    checkRandomAccess(b, raf);
+                }
+            }
+            // The index file can also be used for sequential reading
+            ParallelGZIPRandomAccessFile.forget(f);
+            try (ParallelGZIPRandomAccessFile raf = new ParallelGZIPRandomAccessFile(f, prefix, 100000, 4))
+            {
+                assertThat(raf.length(), equalTo((long) b.length));
+                checkRandomAccess(b, raf);
+            }
+            // A stale index file is not used
+            ParallelGZIPRandomAccessFile.forget(f);
+            assertThat(f.setLastModified(f.lastModified() - 10000), equalTo(true));
+            assertThat(ParallelGZIPRandomAccessFile.getRandomAccess(f, prefix), nullValue());
+        }
+        finally
+        {
+            ParallelGZIPRandomAccessFile.forget(f);
+        }
+    }
+
+    private void checkRandomAccess(byte[] b, ParallelGZIPRandomAccessFile raf) throws IOException
+    {
+        Random rn = new Random(1);
+        byte b2[] = new byte[b.length];
+        for (int i = 0; i < 100; ++i)
+        {
+            int pos = rn.nextInt(b.length);
+            int l = rn.nextInt(Math.min(300000, b.length - pos));
+            raf.seek(pos);
+            assertThat(raf.getFilePointer(), equalTo((long) pos));
+            int n = 0;
+            int r;
+            while (n < l && (r = raf.read(b2, pos + n, l - n)) > 0)
+                n += r;
+            assertThat(n, equalTo(l));
+            for (int j = pos; j < pos + l; ++j)
+            {
+                assertThat("Offset " + j, b2[j], equalTo(b[j])); //$NON-NLS-1$
+            }
+        }
+    }
 }
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.mat.parser.internal.snapshot.ObjectCache;
+import org.junit.Test;
+
+/**
+ * Check the statistics, eviction policy and thread safety of the object cache.
+ */
+public class ObjectCacheTest
+{
+    /**
+     * Loads the key as a string, counting the loads.
+     */
+    private static class StringCache extends ObjectCache<String>
+    {
+        final AtomicInteger loads = new AtomicInteger();
+
+        StringCache(int maxSize, int concurrency)
+        {
+            super(maxSize, concurrency);
+        }
+
+        @Override
+        protected String load(int key)
+        {
+            loads.incrementAndGet();
+            return Integer.toString(key);
+        }
+    }
+
+    @Test
+    public void testHitsAndMisses()
+    {
+        StringCache cache = new StringCache(100, 1);
+        assertEquals("1", cache.get(1));
+        assertEquals("1", cache.get(1));
+        assertEquals("2", cache.get(2));
+        assertEquals("1", cache.get(1));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.loads.get());
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(2, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals("1", cache.get(1));
+        assertEquals(3, cache.getMissCount());
+    }
+
+    /**
+     * The least frequently used entry is evicted,
+     * and of those the least recently used.
+     */
+    @Test
+    public void testEvictionOrder()
+    {
+        // A single segment, so the eviction order is exact
+        final int size = 64;
+        StringCache cache = new StringCache(size, 1);
+        for (int i = 0; i < size; ++i)
+            cache.get(i);
+        assertEquals(size, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+
+        // None used since loading, so the oldest goes
+        cache.get(size);
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(size, cache.size());
+        for (int i = 1; i < size; ++i)
+            cache.get(i);
+        assertEquals(size - 1, cache.getHitCount());
+
+        // Of the two entries not used since loading, the older one goes
+        cache.get(0);
+        assertEquals(2, cache.getEvictionCount());
+        for (int i = 1; i < size; ++i)
+            cache.get(i);
+        assertEquals(2 * (size - 1), cache.getHitCount());
+        cache.get(0);
+        assertEquals(2 * (size - 1) + 1, cache.getHitCount());
+        long misses = cache.getMissCount();
+        cache.get(size);
+        assertEquals(misses + 1, cache.getMissCount());
+        assertEquals(size + 3, cache.loads.get());
+    }
+
+    @Test
+    public void testConcurrentGet() throws Exception
+    {
+        final int threads = 8;
+        final int gets = 20000;
+        final int keys = 1000;
+        final StringCache cache = new StringCache(256, threads);
+        ExecutorService es = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < threads; ++t)
+            {
+                final long seed = t;
+                results.add(es.submit(new Callable<Integer>()
+                {
+                    public Integer call()
+                    {
+                        Random r = new Random(seed);
+                        int wrong = 0;
+                        for (int i = 0; i < gets; ++i)
+                        {
+                            // Favour some keys, so there are hits as well as misses
+                            int key = r.nextBoolean() ? r.nextInt(keys / 10) : r.nextInt(keys);
+                            if (!Integer.toString(key).equals(cache.get(key)))
+                                ++wrong;
+                        }
+                        return wrong;
+                    }
+                }));
+            }
+            for (Future<Integer> f : results)
+                assertEquals(Integer.valueOf(0), f.get());
+        }
+        finally
+        {
+            es.shutdown();
+        }
+        assertEquals(threads * gets, cache.getHitCount() + cache.getMissCount());
+        assertEquals(cache.getMissCount(), cache.loads.get());
+        assertTrue(cache.getHitCount() > 0);
+        assertTrue(cache.toString(), cache.size() <= cache.getMaxSize());
+        // Some misses may share an object loaded at the same time by another thread
+        assertTrue(cache.toString(), cache.getEvictionCount() <= cache.getMissCount() - cache.size());
+    }
+}
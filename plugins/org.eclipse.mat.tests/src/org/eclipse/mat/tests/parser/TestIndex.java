@@ -12,6 +12,8 @@
  *******************************************************************************/
 package org.eclipse.mat.tests.parser;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeTrue;
 
@@ -20,6 +22,8 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
 
 import org.eclipse.mat.parser.index.IIndexReader.IOne2ManyIndex;
@@ -27,6 +31,7 @@ import org.eclipse.mat.parser.index.IIndexReader.IOne2ManyObjectsIndex;
 import org.eclipse.mat.parser.index.IndexReader;
 import org.eclipse.mat.parser.index.IndexWriter;
 import org.eclipse.mat.parser.index.IndexWriter.KeyWriter;
+import org.eclipse.mat.parser.index.MappedIndexReader;
 import org.eclipse.mat.util.VoidProgressListener;
 import org.junit.Assert;
 import org.junit.Test;
@@ -208,6 +213,90 @@ public class TestIndex
         }
     }
     
+    /**
+     * The external merge sort should give the same index as the segments.
+     * Includes duplicate references, several pseudo references and
+     * an object with very many pseudo references.
+     */
+    @Test
+    public void testInboundExternalSort() throws IOException
+    {
+        assumeTrue((long) M * N < MAXELEMENTS);
+        int mx = Math.max(M, N + P) + 1;
+        File indexFile1 = File.createTempFile("Inbound", ".index");
+        File indexFile2 = File.createTempFile("Inbound", ".index");
+        try
+        {
+            IndexWriter.InboundWriter f1 = new IndexWriter.InboundWriter(mx, indexFile1);
+            // Small budget for many runs and several merge passes
+            IndexWriter.InboundWriter f2 = new IndexWriter.InboundWriter(mx, indexFile2, 16384);
+            Random r = new Random(M + N);
+            for (int j = 0; j < M; ++j)
+            {
+                int p = j % (P + 1);
+                for (int k = 0; k < N + p; ++k)
+                {
+                    int ref = r.nextInt(mx);
+                    boolean pseudo = r.nextInt(10) == 0;
+                    f1.log(j, ref, pseudo);
+                    f2.log(j, ref, pseudo);
+                }
+            }
+            if (M > 0)
+            {
+                for (int k = 0; k < 200000; ++k)
+                {
+                    int ref = r.nextInt(mx);
+                    boolean pseudo = r.nextInt(4) != 0;
+                    f1.log(mx - 1, ref, pseudo);
+                    f2.log(mx - 1, ref, pseudo);
+                }
+            }
+            final Map<Integer, String> keys1 = new HashMap<Integer, String>();
+            final Map<Integer, String> keys2 = new HashMap<Integer, String>();
+            IOne2ManyObjectsIndex z1 = f1.flush(new VoidProgressListener(), new KeyWriter()
+            {
+                public void storeKey(int index, Serializable key)
+                {
+                    keys1.put(index, key instanceof int[] ? Arrays.toString((int[]) key) : Arrays.toString((long[]) key));
+                }
+            });
+            IOne2ManyObjectsIndex z2 = f2.flush(new VoidProgressListener(), new KeyWriter()
+            {
+                public void storeKey(int index, Serializable key)
+                {
+                    keys2.put(index, key instanceof int[] ? Arrays.toString((int[]) key) : Arrays.toString((long[]) key));
+                }
+            });
+            try
+            {
+                for (int j = 0; j < mx; ++j)
+                {
+                    int i1[] = z1.get(j);
+                    int i2[] = z2.get(j);
+                    if (!Arrays.equals(i1, i2))
+                        Assert.assertArrayEquals("Object " + j, i1, i2);
+                }
+                assertEquals(keys1, keys2);
+            }
+            finally
+            {
+                z1.close();
+                z2.close();
+            }
+            String runs[] = indexFile2.getParentFile().list();
+            for (String run : runs)
+            {
+                assertFalse(run, run.startsWith(indexFile2.getName() + "r"));
+            }
+        }
+        finally
+        {
+            assertTrue(indexFile1.delete());
+            assertTrue(indexFile2.delete());
+        }
+    }
+
     @Test
     public void testLong() throws IOException
     {
@@ -365,4 +454,108 @@ public class TestIndex
             assertTrue(indexFile.delete());
         }
     }
+
+    @Test
+    public void test1ToNSortedForEach() throws IOException
+    {
+        assumeTrue((long) M * N < MAXELEMENTS2);
+        int ii[][] = new int[P + 1][];
+        for (int p = 0; p < P + 1; p++)
+        {
+            int nn = N + p;
+            ii[p] = new int[nn];
+            for (int i = 0; i < nn; ++i)
+            {
+                ii[p][i] = i;
+            }
+        }
+        File indexFile = File.createTempFile("1toN", ".index");
+        try
+        {
+            IndexWriter.IntArray1NSortedWriter f = new IndexWriter.IntArray1NSortedWriter(M, indexFile);
+            for (int j = 0; j < M; ++j)
+            {
+                // Vary the length a little
+                int p = j % (P + 1);
+                f.log(j, ii[p]);
+            }
+            IOne2ManyIndex i2 = f.flush();
+            i2.close();
+            i2 = new IndexReader.IntIndex1NSortedReader(indexFile);
+            try
+            {
+                // Skip some entries, so the next position is not always the next entry
+                int ids[] = new int[(M + 1) / 2];
+                for (int j = 0; j < ids.length; ++j)
+                    ids[j] = j * 2;
+                int seen[] = new int[1];
+                i2.forEach(ids, (j, i3) -> {
+                    assertEquals(ids[seen[0]++], j);
+                    int p = j % (P + 1);
+                    // Junit array comparison is too slow
+                    if (!Arrays.equals(ii[p], i3))
+                        Assert.assertArrayEquals(ii[p], i3);
+                });
+                assertEquals(ids.length, seen[0]);
+            }
+            finally
+            {
+                i2.close();
+            }
+        }
+        finally
+        {
+            assertTrue(indexFile.delete());
+        }
+    }
+
+    @Test
+    public void test1ToNSortedMappedReader() throws IOException
+    {
+        assumeTrue((long) M * N < MAXELEMENTS2);
+        int ii[][] = new int[P + 1][];
+        for (int p = 0; p < P + 1; p++)
+        {
+            int nn = N + p;
+            ii[p] = new int[nn];
+            for (int i = 0; i < nn; ++i)
+            {
+                ii[p][i] = i;
+            }
+        }
+        File indexFile = File.createTempFile("1toN", ".index");
+        try
+        {
+            IndexWriter.IntArray1NSortedWriter f = new IndexWriter.IntArray1NSortedWriter(M, indexFile);
+            for (int j = 0; j < M; ++j)
+            {
+                // Vary the length a little
+                int p = j % (P + 1);
+                f.log(j, ii[p]);
+            }
+            IOne2ManyIndex i2 = f.flush();
+            i2.close();
+            i2 = new MappedIndexReader.IntIndex1NSortedReader(indexFile);
+            try
+            {
+                assertEquals(M, i2.size());
+                for (int j = 0; j < M; ++j)
+                {
+                    int i3[] = i2.get(j);
+                    int p = j % (P + 1);
+                    // Junit array comparison is too slow
+                    if (!Arrays.equals(ii[p], i3))
+                        Assert.assertArrayEquals(ii[p], i3);
+                }
+            }
+            finally
+            {
+                i2.close();
+            }
+        }
+        finally
+        {
+            assertTrue(indexFile.delete());
+        }
+    }
 }
@@ -12,7 +12,9 @@
  *******************************************************************************/
 package org.eclipse.mat.tests.parser;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeTrue;
 
@@ -32,6 +34,7 @@ import org.eclipse.mat.parser.index.IndexWriter;
 import org.eclipse.mat.parser.index.IndexWriter.Identifier;
 import org.eclipse.mat.parser.index.IndexWriter.LongIndexCollector;
 import org.eclipse.mat.parser.index.IndexWriter.LongIndexStreamer;
+import org.eclipse.mat.parser.index.MappedIndexReader;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -298,6 +301,167 @@ public class TestIndex1to1
         }
     }
 
+    @Test
+    public void intIndexGetAllSorted() throws IOException
+    {
+        assumeTrue(N < MAXELEMENTS2);
+        File indexFile = File.createTempFile("int1_", ".index");
+        int n2 = (int) Math.min(N, Integer.MAX_VALUE);
+        IndexWriter.IntIndexCollector ic = new IndexWriter.IntIndexCollector(n2, 31);
+        for (int i = 0; i < n2; ++i)
+        {
+            ic.set(i, i);
+        }
+
+        try
+        {
+            IIndexReader.IOne2OneIndex i2 = ic.writeTo(indexFile);
+            i2.close();
+            i2 = new IndexReader.IntIndexReader(indexFile);
+            try
+            {
+                // every third id, crossing page boundaries
+                int ids[] = new int[(n2 + 2) / 3];
+                for (int i = 0; i < ids.length; ++i)
+                    ids[i] = i * 3;
+                int out[] = new int[ids.length];
+                i2.getAll(ids, out);
+                // Junit array comparison is too slow
+                if (!Arrays.equals(ids, out))
+                    assertArrayEquals(ids, out);
+            }
+            finally
+            {
+                i2.close();
+            }
+        }
+        finally
+        {
+            assertTrue(indexFile.delete());
+        }
+    }
+
+    @Test
+    public void intIndexMapped() throws IOException
+    {
+        assumeTrue(N < MAXELEMENTS2);
+        File indexFile = File.createTempFile("int1_", ".index");
+        long n = N;
+        int n2 = (int) Math.min(n, Integer.MAX_VALUE);
+        IndexWriter.SizeIndexCollectorUncompressed ic = new IndexWriter.SizeIndexCollectorUncompressed(n2);
+        for (int i = 0; i < n2; ++i)
+        {
+            ic.set(i, i);
+        }
+
+        try
+        {
+            IIndexReader.IOne2SizeIndex i2 = ic.writeTo(indexFile);
+            i2.close();
+            i2 = new MappedIndexReader.SizeIndexReader(indexFile);
+            try
+            {
+                for (int i = 0; i < n2; ++i)
+                {
+                    int jj = i2.get(i);
+                    if (i != jj)
+                        assertEquals(i, jj);
+                }
+                if (n2 > 0)
+                {
+                    int jj[] = i2.getNext(0, n2);
+                    for (int i = 0; i < n2; ++i)
+                    {
+                        if (i != jj[i])
+                            assertEquals(i, jj[i]);
+                    }
+                }
+                if (n < Integer.MAX_VALUE)
+                    assertEquals(n, i2.size());
+            }
+            finally
+            {
+                i2.close();
+            }
+        }
+        finally
+        {
+            assertTrue(indexFile.delete());
+        }
+    }
+
+    @Test
+    public void longIndexMapped() throws IOException
+    {
+        assumeTrue(N < MAXELEMENTS2);
+        assumeTrue(N > 0);
+        File indexFile = File.createTempFile("long1_", ".index");
+        LongIndexStreamer ls = new LongIndexStreamer();
+        Random r = new Random(N);
+        long l1 = 0;
+        long[] values = new long[(int) N];
+        for (int i = 0; 0 <= i && i < N; ++i)
+        {
+            l1 += r.nextInt(Integer.MAX_VALUE) + 1L;
+            values[i] = l1;
+        }
+        try
+        {
+            IOne2LongIndex i2 = ls.writeTo(indexFile, values);
+            i2.close();
+            i2 = new MappedIndexReader.LongIndexReader(indexFile);
+            try
+            {
+                assertEquals(N, i2.size());
+                for (int i = 0; 0 <= i && i < N; ++i)
+                {
+                    if (values[i] != i2.get(i))
+                        assertEquals(values[i], i2.get(i));
+                    if (i2.reverse(values[i]) != i)
+                        assertEquals(i, i2.reverse(values[i]));
+                }
+                assertEquals(-1, i2.reverse(values[0] - 1));
+                assertEquals(-(int)N - 1, i2.reverse(values[(int)N - 1] + 1));
+            }
+            finally
+            {
+                i2.close();
+            }
+        }
+        finally
+        {
+            assertTrue(indexFile.delete());
+        }
+    }
+
+    /**
+     * A mapped reader closes itself before deleting the file.
+     */
+    @Test
+    public void longIndexMappedDelete() throws IOException
+    {
+        assumeTrue(N < MAXELEMENTS2);
+        assumeTrue(N > 0);
+        File indexFile = File.createTempFile("long1_", ".index");
+        long[] values = new long[(int) N];
+        for (int i = 0; i < N; ++i)
+            values[i] = i * 3L;
+        try
+        {
+            new LongIndexStreamer().writeTo(indexFile, values).close();
+            IOne2LongIndex i2 = new MappedIndexReader.LongIndexReader(indexFile);
+            assertEquals(values[(int) N - 1], i2.get((int) N - 1));
+            i2.delete();
+            assertFalse(indexFile.exists());
+            // closing again does nothing
+            i2.close();
+        }
+        finally
+        {
+            indexFile.delete();
+        }
+    }
+
     @Test
     public void intIdentifier1()
     {
@@ -349,6 +513,52 @@ public class TestIndex1to1
         }
     }
 
+    /**
+     * Collecting the addresses off-heap should give the same result.
+     */
+    @Test
+    public void intIdentifierOffHeap() throws IOException
+    {
+        assumeTrue(N < MAXELEMENTS2);
+        assumeTrue(N > 0);
+        File dir = File.createTempFile("identifier", null); //$NON-NLS-1$
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        try
+        {
+            Identifier id = new Identifier();
+            Identifier id2 = new Identifier(dir);
+            Random r = new Random(N);
+            for (int i = 0; 0 <= i && i < N; ++i)
+            {
+                long l1 = r.nextLong();
+                id.add(l1);
+                id2.add(l1);
+                // Sort part way through, then add some more
+                if (i == N / 2)
+                {
+                    id.sort();
+                    id2.sort();
+                }
+            }
+            assertEquals(id.size(), id2.size());
+            for (int i = 0; i < id.size(); ++i)
+                assertEquals(id.get(i), id2.get(i));
+            id.sort();
+            id2.sort();
+            for (int i = 0; i < id.size(); ++i)
+                assertEquals(id.get(i), id2.get(i));
+            id2.delete();
+            assertEquals(0, dir.list().length);
+        }
+        finally
+        {
+            for (File f : dir.listFiles())
+                f.delete();
+            dir.delete();
+        }
+    }
+
     @Test
     public void intIdentifier4()
     {
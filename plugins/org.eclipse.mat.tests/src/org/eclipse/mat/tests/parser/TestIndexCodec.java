@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.eclipse.mat.parser.index.IIndexReader;
+import org.eclipse.mat.parser.index.IIndexReader.IOne2LongIndex;
+import org.eclipse.mat.parser.index.IIndexReader.IOne2ManyIndex;
+import org.eclipse.mat.parser.index.IndexReader;
+import org.eclipse.mat.parser.index.IndexWriter;
+import org.eclipse.mat.parser.index.MappedIndexReader;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check index files with compressed or block encoded pages can be read back.
+ */
+public class TestIndexCodec
+{
+    private static final int SIZE = IndexWriter.PAGE_SIZE_INT * 2 + 17;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @After
+    public void clearCodec()
+    {
+        System.clearProperty(IndexWriter.INDEX_CODEC_PROPERTY);
+        System.clearProperty(IndexWriter.INDEX_BLOCK_PROPERTY);
+    }
+
+    /**
+     * Values like object addresses or class ids, which the codec can compress.
+     */
+    private static int[] ints(Random r)
+    {
+        int a[] = new int[SIZE];
+        for (int i = 0; i < a.length; ++i)
+            a[i] = r.nextInt(8) == 0 ? r.nextInt(SIZE) : i / 50;
+        return a;
+    }
+
+    private File writeInts(String codec, int[] a) throws IOException
+    {
+        System.setProperty(IndexWriter.INDEX_CODEC_PROPERTY, codec);
+        File f = tmp.newFile(codec + ".int.index"); //$NON-NLS-1$
+        new IndexWriter.IntIndexStreamer().writeTo(f, a).close();
+        return f;
+    }
+
+    @Test
+    public void testIntIndex() throws IOException
+    {
+        int a[] = ints(new Random(1));
+        File plain = writeInts("none", a); //$NON-NLS-1$
+        File lz4 = writeInts("lz4", a); //$NON-NLS-1$
+        assertTrue(lz4.length() + " " + plain.length(), lz4.length() < plain.length()); //$NON-NLS-1$
+        // The reader does not depend on the setting
+        System.clearProperty(IndexWriter.INDEX_CODEC_PROPERTY);
+        IIndexReader.IOne2OneIndex r = new IndexReader.IntIndexReader(lz4);
+        try
+        {
+            assertEquals(a.length, r.size());
+            for (int i = 0; i < a.length; i += 997)
+                assertEquals(a[i], r.get(i));
+            assertArrayEquals(a, r.getNext(0, a.length));
+        }
+        finally
+        {
+            r.close();
+        }
+    }
+
+    /**
+     * The snapshot records a new format only when the pages really are compressed.
+     */
+    @Test
+    public void testCompressedPagesSetting()
+    {
+        assertFalse(IndexWriter.isCompressedPages());
+        System.setProperty(IndexWriter.INDEX_CODEC_PROPERTY, "none"); //$NON-NLS-1$
+        assertFalse(IndexWriter.isCompressedPages());
+        System.setProperty(IndexWriter.INDEX_CODEC_PROPERTY, "unknown"); //$NON-NLS-1$
+        assertFalse(IndexWriter.isCompressedPages());
+        System.setProperty(IndexWriter.INDEX_CODEC_PROPERTY, "LZ4"); //$NON-NLS-1$
+        assertTrue(IndexWriter.isCompressedPages());
+        System.clearProperty(IndexWriter.INDEX_CODEC_PROPERTY);
+        System.setProperty(IndexWriter.INDEX_BLOCK_PROPERTY, "true"); //$NON-NLS-1$
+        assertTrue(IndexWriter.isCompressedPages());
+    }
+
+    @Test
+    public void testIncompressible() throws IOException
+    {
+        Random r = new Random(2);
+        int a[] = new int[SIZE];
+        for (int i = 0; i < a.length; ++i)
+            a[i] = r.nextInt();
+        IIndexReader.IOne2OneIndex rd = new IndexReader.IntIndexReader(writeInts("lz4", a)); //$NON-NLS-1$
+        try
+        {
+            assertArrayEquals(a, rd.getNext(0, a.length));
+        }
+        finally
+        {
+            rd.close();
+        }
+    }
+
+    @Test
+    public void testLongIndex() throws IOException
+    {
+        System.setProperty(IndexWriter.INDEX_CODEC_PROPERTY, "lz4"); //$NON-NLS-1$
+        Random r = new Random(3);
+        long a[] = new long[IndexWriter.PAGE_SIZE_LONG * 3 + 5];
+        long addr = 0x7f0000000L;
+        for (int i = 0; i < a.length; ++i)
+            a[i] = addr += 8 * (2 + r.nextInt(6));
+        File f = tmp.newFile("long.index"); //$NON-NLS-1$
+        new IndexWriter.LongIndexStreamer().writeTo(f, a).close();
+        IOne2LongIndex rd = new IndexReader.LongIndexReader(f);
+        try
+        {
+            assertEquals(a.length, rd.size());
+            for (int i = 0; i < a.length; i += 101)
+                assertEquals(a[i], rd.get(i));
+            assertEquals(a.length - 1, rd.reverse(a[a.length - 1]));
+        }
+        finally
+        {
+            rd.close();
+        }
+    }
+
+    @Test
+    public void test1ToN() throws IOException
+    {
+        System.setProperty(IndexWriter.INDEX_CODEC_PROPERTY, "lz4"); //$NON-NLS-1$
+        Random r = new Random(4);
+        int n = 50000;
+        int values[][] = new int[n][];
+        File f = tmp.newFile("1toN.index"); //$NON-NLS-1$
+        IndexWriter.IntArray1NSortedWriter w = new IndexWriter.IntArray1NSortedWriter(n, f);
+        for (int i = 0; i < n; ++i)
+        {
+            values[i] = new int[r.nextInt(60)];
+            for (int j = 0; j < values[i].length; ++j)
+                values[i][j] = r.nextInt(n);
+            Arrays.sort(values[i]);
+            w.log(i, values[i]);
+        }
+        w.flush().close();
+        IOne2ManyIndex rd = new IndexReader.IntIndex1NSortedReader(f);
+        try
+        {
+            for (int i = 0; i < n; ++i)
+                assertArrayEquals(values[i], rd.get(i));
+        }
+        finally
+        {
+            rd.close();
+        }
+    }
+
+    @Test
+    public void testMappedReaderRejectsCompressed() throws IOException
+    {
+        File f = writeInts("lz4", ints(new Random(5))); //$NON-NLS-1$
+        try
+        {
+            new MappedIndexReader.IntIndexReader(f).close();
+            fail("Expected IOException"); //$NON-NLS-1$
+        }
+        catch (IOException e)
+        {
+            // expected, so the caller uses IndexReader instead
+        }
+    }
+
+    /**
+     * Sorted lists of ids which are near each other, like inbound references.
+     */
+    private static int[][] sortedLists(Random r, int n)
+    {
+        int values[][] = new int[n][];
+        for (int i = 0; i < n; ++i)
+        {
+            values[i] = new int[r.nextInt(10) == 0 ? r.nextInt(200) : r.nextInt(4)];
+            int v = Math.max(0, i - r.nextInt(100));
+            for (int j = 0; j < values[i].length; ++j)
+                values[i][j] = v += 1 + (r.nextInt(16) == 0 ? r.nextInt(n) : r.nextInt(30));
+        }
+        return values;
+    }
+
+    private File writeSorted(String blocks, int[][] values) throws IOException
+    {
+        System.setProperty(IndexWriter.INDEX_BLOCK_PROPERTY, blocks);
+        File f = tmp.newFile(blocks + ".1toN.index"); //$NON-NLS-1$
+        IndexWriter.IntArray1NSortedWriter w = new IndexWriter.IntArray1NSortedWriter(values.length, f);
+        for (int i = 0; i < values.length; ++i)
+            w.log(i, values[i]);
+        IOne2ManyIndex rd = w.flush();
+        try
+        {
+            // Check the pages cached by the writer
+            for (int i = 0; i < values.length; i += 7)
+                assertArrayEquals(values[i], rd.get(i));
+        }
+        finally
+        {
+            rd.close();
+        }
+        return f;
+    }
+
+    @Test
+    public void testBlockSorted() throws IOException
+    {
+        int values[][] = sortedLists(new Random(6), 600000);
+        File plain = writeSorted("false", values); //$NON-NLS-1$
+        File blocks = writeSorted("true", values); //$NON-NLS-1$
+        assertTrue(blocks.length() + " " + plain.length(), blocks.length() < plain.length()); //$NON-NLS-1$
+        IOne2ManyIndex rd = new IndexReader.IntIndex1NSortedReader(blocks);
+        try
+        {
+            for (int i = 0; i < values.length; ++i)
+                assertArrayEquals(values[i], rd.get(i));
+        }
+        finally
+        {
+            rd.close();
+        }
+        rd = new MappedIndexReader.IntIndex1NSortedReader(blocks);
+        try
+        {
+            for (int i = 0; i < values.length; ++i)
+                assertArrayEquals(values[i], rd.get(i));
+        }
+        finally
+        {
+            rd.close();
+        }
+    }
+
+    @Test
+    public void testBlockSortedLZ4() throws IOException
+    {
+        System.setProperty(IndexWriter.INDEX_CODEC_PROPERTY, "lz4"); //$NON-NLS-1$
+        int values[][] = sortedLists(new Random(7), 100000);
+        IOne2ManyIndex rd = new IndexReader.IntIndex1NSortedReader(writeSorted("true", values)); //$NON-NLS-1$
+        try
+        {
+            for (int i = 0; i < values.length; ++i)
+                assertArrayEquals(values[i], rd.get(i));
+        }
+        finally
+        {
+            rd.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.mat.hprof.PendingSegments;
+import org.junit.Test;
+
+/**
+ * Check the accounting of heap dump segments decoded on other threads
+ * while they wait to be replayed in file order.
+ */
+public class TestPendingSegments
+{
+    private static final long LIMIT = 1000;
+
+    @Test
+    public void testOverLimit()
+    {
+        PendingSegments<Integer> pending = new PendingSegments<Integer>(LIMIT, 1);
+        int added = 0;
+        int removed = 0;
+        for (int i = 0; i < 50; ++i)
+        {
+            long length = 100 + 37 * i;
+            // replay as the parser does before decoding another segment
+            while (pending.mustReplay(length))
+            {
+                assertEquals(Integer.valueOf(removed++), pending.removeFirst());
+                assertTrue(pending.getPendingBytes() >= 0);
+            }
+            assertTrue(pending.getPendingBytes() + length <= LIMIT || pending.getPendingBytes() == 0);
+            pending.add(added++, length);
+        }
+        // replay everything at the end
+        while (pending.mustReplay(0))
+            assertEquals(Integer.valueOf(removed++), pending.removeFirst());
+        assertEquals(added, removed);
+        assertEquals(0, pending.getPendingBytes());
+        assertNull(pending.removeFirst());
+    }
+
+    @Test
+    public void testOneSegmentOverLimit()
+    {
+        PendingSegments<String> pending = new PendingSegments<String>(LIMIT, 1);
+        assertFalse(pending.mustReplay(LIMIT * 10));
+        pending.add("big", LIMIT * 10); //$NON-NLS-1$
+        assertEquals(LIMIT * 10, pending.getPendingBytes());
+        assertTrue(pending.mustReplay(1));
+        assertEquals("big", pending.removeFirst()); //$NON-NLS-1$
+        assertEquals(0, pending.getPendingBytes());
+        assertFalse(pending.mustReplay(0));
+    }
+
+    /**
+     * Segments bigger than the limit are still decoded
+     * by as many threads as are available.
+     */
+    @Test
+    public void testMinimumSegments()
+    {
+        final int threads = 4;
+        PendingSegments<Integer> pending = new PendingSegments<Integer>(LIMIT, threads);
+        for (int i = 0; i < threads; ++i)
+        {
+            assertFalse(pending.mustReplay(LIMIT * 2));
+            pending.add(i, LIMIT * 2);
+        }
+        assertEquals(LIMIT * 2 * threads, pending.getPendingBytes());
+        // now over the limit with enough segments pending
+        assertTrue(pending.mustReplay(LIMIT * 2));
+        assertEquals(Integer.valueOf(0), pending.removeFirst());
+        assertFalse(pending.mustReplay(LIMIT * 2));
+        // with enough segments pending the length limit applies again
+        pending.add(threads, 1);
+        assertTrue(pending.mustReplay(1));
+        assertTrue(pending.mustReplay(0));
+    }
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.parser;
+
+import static org.eclipse.mat.tests.snapshot.DominatorTrees.compareDominatorTrees;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.snapshot.SnapshotFactory;
+import org.eclipse.mat.tests.TestSnapshots;
+import org.eclipse.mat.util.VoidProgressListener;
+import org.junit.Test;
+
+/**
+ * Check a parse which failed after a checkpoint is completed
+ * with the same result as a full parse.
+ */
+public class TestResumeParse
+{
+    /**
+     * Simulate a failure calculating the dominator tree,
+     * then check the parse is resumed from the indexes.
+     */
+    @Test
+    public void testResumeParseAfterIndexes() throws SnapshotException, IOException
+    {
+        resumeParse(TestSnapshots.SUN_JDK6_32BIT, "INDEXED", "domOut.index");
+    }
+
+    /**
+     * Simulate a failure calculating the class retained sizes,
+     * then check the parse is resumed from the dominator tree.
+     */
+    @Test
+    public void testResumeParseAfterDominatorTree() throws SnapshotException, IOException
+    {
+        resumeParse(TestSnapshots.SUN_JDK6_32BIT, "DOMINATOR_TREE", null);
+    }
+
+    /**
+     * Simulate a failure while building the indexes,
+     * then check the dump is parsed again.
+     */
+    @Test
+    public void testReparseAfterStarted() throws SnapshotException, IOException
+    {
+        resumeParse(TestSnapshots.SUN_JDK6_32BIT, "STARTED", null);
+    }
+
+    private void resumeParse(String snapshotName, String phase, String partialIndex) throws SnapshotException, IOException
+    {
+        ISnapshot classic = TestSnapshots.getSnapshot(snapshotName, false);
+        ISnapshot snapshot = TestSnapshots.getSnapshot(snapshotName, true);
+        File dump = new File(snapshot.getSnapshotInfo().getPath());
+        String prefix = snapshot.getSnapshotInfo().getPrefix();
+        SnapshotFactory.dispose(snapshot);
+
+        File checkpoint = new File(prefix + "checkpoint.index");
+        Files.write(checkpoint.toPath(), phase.getBytes(StandardCharsets.UTF_8));
+        if (partialIndex != null)
+            assertTrue(partialIndex, new File(prefix + partialIndex).delete());
+
+        ISnapshot resumed = SnapshotFactory.openSnapshot(dump, Collections.<String, String> emptyMap(),
+                        new VoidProgressListener());
+        try
+        {
+            assertFalse("Checkpoint should be removed after the parse completes", checkpoint.exists());
+            compareDominatorTrees(classic, resumed);
+        }
+        finally
+        {
+            SnapshotFactory.dispose(resumed);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.queries;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.query.Bytes;
+import org.eclipse.mat.query.Column;
+import org.eclipse.mat.query.IContextObject;
+import org.eclipse.mat.query.IContextObjectSet;
+import org.eclipse.mat.query.IResultTable;
+import org.eclipse.mat.query.quantize.LatestValueFunction;
+import org.eclipse.mat.query.quantize.Quantize;
+import org.junit.Test;
+
+/**
+ * Check that the parts of a distribution built separately and merged give the
+ * same distribution as adding all the values to one distribution.
+ */
+public class QuantizeTest
+{
+    private static final int VALUES = 10000;
+
+    private static Quantize valueDistribution()
+    {
+        return Quantize.valueDistribution("key") //$NON-NLS-1$
+                        .column("count", Quantize.COUNT) //$NON-NLS-1$
+                        .column("sum", Quantize.SUM) //$NON-NLS-1$
+                        .column("sumLong", Quantize.SUM_LONG) //$NON-NLS-1$
+                        .column("sumBytes", Quantize.SUM_BYTES) //$NON-NLS-1$
+                        .column("min", Quantize.MIN) //$NON-NLS-1$
+                        .column("minLong", Quantize.MIN_LONG) //$NON-NLS-1$
+                        .column("minBytes", Quantize.MIN_BYTES) //$NON-NLS-1$
+                        .column("max", Quantize.MAX) //$NON-NLS-1$
+                        .column("maxLong", Quantize.MAX_LONG) //$NON-NLS-1$
+                        .column("maxBytes", Quantize.MAX_BYTES) //$NON-NLS-1$
+                        .column("average", Quantize.AVERAGE) //$NON-NLS-1$
+                        .column("averageLong", Quantize.AVERAGE_LONG) //$NON-NLS-1$
+                        .column("averageBytes", Quantize.AVERAGE_BYTES) //$NON-NLS-1$
+                        .column("distinct", Quantize.COUNT_DISTINCT) //$NON-NLS-1$
+                        .column("distinctNames", Quantize.COUNT_DISTINCT) //$NON-NLS-1$
+                        .column("latest", new LatestValueFunction()) //$NON-NLS-1$
+                        .build();
+    }
+
+    private static void add(Quantize quantize, int from, int to) throws SnapshotException
+    {
+        for (int i = from; i < to; ++i)
+        {
+            Object[] values = new Object[17];
+            values[0] = "k" + (i % 37); //$NON-NLS-1$
+            values[1] = null;
+            for (int j = 2; j < 15; ++j)
+                values[j] = Long.valueOf((i * 7919L + j) % 1013);
+            values[4] = new Bytes((Long) values[4]);
+            values[14] = Integer.valueOf(i % 11);
+            values[15] = "n" + (i % 13); //$NON-NLS-1$
+            values[16] = Integer.valueOf(i);
+            quantize.addValue(i, values);
+        }
+    }
+
+    private static void assertSameResult(Quantize expected, Quantize actual)
+    {
+        IResultTable e = (IResultTable) expected.getResult();
+        IResultTable a = (IResultTable) actual.getResult();
+        Column[] columns = e.getColumns();
+        assertEquals(e.getRowCount(), a.getRowCount());
+        for (int row = 0; row < e.getRowCount(); ++row)
+        {
+            Object er = e.getRow(row);
+            Object ar = a.getRow(row);
+            for (int col = 0; col < columns.length; ++col)
+                assertEquals(columns[col].getLabel(), e.getColumnValue(er, col), a.getColumnValue(ar, col));
+            assertArrayEquals(objectIds(e.getContext(er)), objectIds(a.getContext(ar)));
+        }
+    }
+
+    private static int[] objectIds(IContextObject context)
+    {
+        if (context instanceof IContextObjectSet)
+            return ((IContextObjectSet) context).getObjectIds();
+        return new int[] { context.getObjectId() };
+    }
+
+    @Test
+    public void testMerge() throws SnapshotException
+    {
+        Quantize all = valueDistribution();
+        add(all, 0, VALUES);
+
+        Quantize merged = valueDistribution();
+        Quantize part1 = merged.split();
+        Quantize part2 = merged.split();
+        add(merged, 0, VALUES / 3);
+        add(part1, VALUES / 3, VALUES / 2);
+        add(part2, VALUES / 2, VALUES);
+        merged.merge(part1);
+        merged.merge(part2);
+
+        assertSameResult(all, merged);
+    }
+
+    @Test
+    public void testMergeAssociative() throws SnapshotException
+    {
+        Quantize left = valueDistribution();
+        Quantize b = left.split();
+        Quantize c = left.split();
+        add(left, 0, 1000);
+        add(b, 1000, 5000);
+        add(c, 5000, VALUES);
+        left.merge(b);
+        left.merge(c);
+
+        Quantize right = valueDistribution();
+        Quantize e = right.split();
+        Quantize f = right.split();
+        add(right, 0, 1000);
+        add(e, 1000, 5000);
+        add(f, 5000, VALUES);
+        e.merge(f);
+        right.merge(e);
+
+        assertSameResult(left, right);
+    }
+
+    @Test
+    public void testMergeEmpty() throws SnapshotException
+    {
+        Quantize all = valueDistribution();
+        add(all, 0, VALUES);
+
+        Quantize merged = valueDistribution();
+        Quantize part = merged.split();
+        add(part, 0, VALUES);
+        merged.merge(merged.split());
+        merged.merge(part);
+        merged.merge(merged.split());
+
+        assertSameResult(all, merged);
+    }
+
+    @Test
+    public void testMergeNotMergeable() throws SnapshotException
+    {
+        Quantize quantize = Quantize.valueDistribution("key") //$NON-NLS-1$
+                        .column("fn", new Quantize.Function.Factory() //$NON-NLS-1$
+                        {
+                            public Quantize.Function build()
+                            {
+                                return new Quantize.Function()
+                                {
+                                    public void add(Object value)
+                                    {}
+
+                                    public Object getValue()
+                                    {
+                                        return null;
+                                    }
+                                };
+                            }
+
+                            public Column column(String label)
+                            {
+                                return new Column(label);
+                            }
+                        }).build();
+        Quantize part = quantize.split();
+        quantize.addValue(1, "a", null); //$NON-NLS-1$
+        for (int i = 0; i < 10; ++i)
+            part.addValue(2 + i, "b" + i, null); //$NON-NLS-1$
+        part.addValue(20, "a", null); //$NON-NLS-1$
+        try
+        {
+            quantize.merge(part);
+            fail("Expected UnsupportedOperationException"); //$NON-NLS-1$
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // expected
+        }
+        // Nothing was merged
+        IResultTable table = (IResultTable) quantize.getResult();
+        assertEquals(1, table.getRowCount());
+        assertArrayEquals(new int[] { 1 }, objectIds(table.getContext(table.getRow(0))));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testMergeDifferentColumns()
+    {
+        valueDistribution().merge(valueDistribution());
+    }
+}
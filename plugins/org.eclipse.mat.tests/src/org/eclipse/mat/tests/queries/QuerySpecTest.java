@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.queries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.query.IResult;
+import org.eclipse.mat.query.results.TextResult;
+import org.eclipse.mat.report.QuerySpec;
+import org.junit.Test;
+
+/**
+ * Check a section of a report with a result still being computed on another thread.
+ */
+public class QuerySpecTest
+{
+    private static FutureTask<IResult> pending(Callable<IResult> callable)
+    {
+        FutureTask<IResult> task = new FutureTask<IResult>(callable);
+        new Thread(task, "QuerySpecTest").start(); //$NON-NLS-1$
+        return task;
+    }
+
+    @Test
+    public void testPendingResult()
+    {
+        final TextResult result = new TextResult("done"); //$NON-NLS-1$
+        QuerySpec spec = new QuerySpec("pending"); //$NON-NLS-1$
+        spec.setPendingResult(pending(new Callable<IResult>()
+        {
+            public IResult call() throws InterruptedException
+            {
+                Thread.sleep(100);
+                return result;
+            }
+        }));
+        assertSame(result, spec.getResult());
+        assertNull(spec.getPendingResult());
+        assertSame(result, spec.getResult());
+    }
+
+    @Test
+    public void testPendingFailure()
+    {
+        QuerySpec spec = new QuerySpec("failed"); //$NON-NLS-1$
+        spec.setPendingResult(pending(new Callable<IResult>()
+        {
+            public IResult call() throws SnapshotException
+            {
+                throw new SnapshotException("failed"); //$NON-NLS-1$
+            }
+        }));
+        try
+        {
+            spec.getResult();
+            fail("Expected an exception"); //$NON-NLS-1$
+        }
+        catch (RuntimeException e)
+        {
+            assertEquals(SnapshotException.class, e.getCause().getClass());
+        }
+    }
+
+    @Test
+    public void testMergePending()
+    {
+        final TextResult result = new TextResult("merged"); //$NON-NLS-1$
+        QuerySpec other = new QuerySpec("other"); //$NON-NLS-1$
+        other.setPendingResult(pending(new Callable<IResult>()
+        {
+            public IResult call()
+            {
+                return result;
+            }
+        }));
+        QuerySpec spec = new QuerySpec("spec"); //$NON-NLS-1$
+        spec.merge(other);
+        assertSame(result, spec.getResult());
+
+        // a known result is kept
+        QuerySpec known = new QuerySpec("known", new TextResult("known")); //$NON-NLS-1$ //$NON-NLS-2$
+        IResult before = known.getResult();
+        known.merge(other);
+        assertSame(before, known.getResult());
+    }
+}
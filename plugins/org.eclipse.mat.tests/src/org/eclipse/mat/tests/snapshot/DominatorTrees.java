@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.snapshot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.tests.TestSnapshots;
+
+/**
+ * Shared fixtures and checks for tests of the dominator tree
+ * and of the queries built on it.
+ */
+public final class DominatorTrees
+{
+    private DominatorTrees()
+    {}
+
+    /**
+     * The dump used by the tests of the dominator tree and the queries built on it,
+     * parsed once and shared.
+     */
+    public static ISnapshot snapshot() throws SnapshotException
+    {
+        return TestSnapshots.getSnapshot(TestSnapshots.SUN_JDK6_32BIT, false);
+    }
+
+    /**
+     * Check that two snapshots of the same dump have exactly the same
+     * dominator tree and retained sizes.
+     */
+    public static void compareDominatorTrees(ISnapshot expected, ISnapshot actual) throws SnapshotException
+    {
+        int numberOfObjects = expected.getSnapshotInfo().getNumberOfObjects();
+        assertEquals(numberOfObjects, actual.getSnapshotInfo().getNumberOfObjects());
+        assertArrayEquals("Top level dominated", expected.getImmediateDominatedIds(-1),
+                        actual.getImmediateDominatedIds(-1));
+        for (int i = 0; i < numberOfObjects; ++i)
+        {
+            assertEquals("Dominator of " + i, expected.getImmediateDominatorId(i),
+                            actual.getImmediateDominatorId(i));
+            assertEquals("Retained size of " + i, expected.getRetainedHeapSize(i),
+                            actual.getRetainedHeapSize(i));
+            assertArrayEquals("Dominated by " + i, expected.getImmediateDominatedIds(i),
+                            actual.getImmediateDominatedIds(i));
+        }
+    }
+}
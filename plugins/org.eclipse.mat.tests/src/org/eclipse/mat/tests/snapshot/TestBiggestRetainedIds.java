@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.snapshot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.util.VoidProgressListener;
+import org.junit.Test;
+
+/**
+ * The biggest objects by retained size are chosen without sorting
+ * all the objects, and must match a full sort.
+ */
+public class TestBiggestRetainedIds
+{
+    @Test
+    public void testTopLevelDominators() throws SnapshotException
+    {
+        ISnapshot snapshot = DominatorTrees.snapshot();
+
+        // the top-level dominators are already sorted
+        int[] top = snapshot.getImmediateDominatedIds(-1);
+        int[] biggest = snapshot.getBiggestRetainedIds(null, 10, 0, new VoidProgressListener());
+        assertArrayEquals(Arrays.copyOf(top, Math.min(10, top.length)), biggest);
+    }
+
+    @Test
+    public void testSelectedObjects() throws SnapshotException
+    {
+        ISnapshot snapshot = DominatorTrees.snapshot();
+
+        // every other object, in descending order
+        int n = snapshot.getSnapshotInfo().getNumberOfObjects();
+        int[] objectIds = new int[n / 2];
+        for (int i = 0; i < objectIds.length; ++i)
+            objectIds[i] = n - 1 - 2 * i;
+        checkBiggestRetainedIds(snapshot, objectIds, 20, 0);
+        checkBiggestRetainedIds(snapshot, objectIds, n, 1000);
+        checkBiggestRetainedIds(snapshot, objectIds, 0, 0);
+        checkBiggestRetainedIds(snapshot, new int[0], 10, 0);
+    }
+
+    /**
+     * Compare with sorting the retained sizes of all the objects.
+     */
+    private void checkBiggestRetainedIds(ISnapshot snapshot, int[] objectIds, int n, long minRetainedSize)
+                    throws SnapshotException
+    {
+        int[] biggest = snapshot.getBiggestRetainedIds(objectIds, n, minRetainedSize, new VoidProgressListener());
+
+        long[] sizes = new long[objectIds.length];
+        int count = 0;
+        for (int objectId : objectIds)
+        {
+            long size = snapshot.getRetainedHeapSize(objectId);
+            if (size >= minRetainedSize)
+                sizes[count++] = -size;
+        }
+        Arrays.sort(sizes, 0, count);
+        assertEquals(Math.min(n, count), biggest.length);
+
+        Set<Integer> all = new HashSet<Integer>();
+        for (int objectId : objectIds)
+            all.add(objectId);
+        Set<Integer> seen = new HashSet<Integer>();
+        for (int i = 0; i < biggest.length; ++i)
+        {
+            assertTrue(all.contains(biggest[i]));
+            assertTrue(seen.add(biggest[i]));
+            assertEquals(-sizes[i], snapshot.getRetainedHeapSize(biggest[i]));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.collect.SetInt;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.snapshot.model.IClass;
+import org.eclipse.mat.snapshot.model.IClassLoader;
+import org.eclipse.mat.tests.TestSnapshots;
+import org.eclipse.mat.util.VoidProgressListener;
+import org.junit.Test;
+
+/**
+ * Check the approximate retained sizes of classes and class loaders
+ * found with the dominator tree match those calculated for each set of objects.
+ */
+public class TestClassRetainedSizes
+{
+    private final ISnapshot snapshot = TestSnapshots.getSnapshot(TestSnapshots.SUN_JDK6_18_64BIT, false);
+
+    private long minRetainedSize(SetInt objectIds) throws SnapshotException
+    {
+        return snapshot.getMinRetainedSize(objectIds.toArray(), new VoidProgressListener());
+    }
+
+    @Test
+    public void testClasses() throws SnapshotException
+    {
+        int checked = 0;
+        for (IClass cls : snapshot.getClasses())
+        {
+            // Available without calculating
+            long size = cls.getRetainedHeapSizeOfObjects(false, true, null);
+            if (size > 0)
+                // A precise size from another test
+                continue;
+            SetInt objectIds = new SetInt();
+            objectIds.add(cls.getObjectId());
+            for (int objectId : cls.getObjectIds())
+                objectIds.add(objectId);
+            assertEquals(cls.getName(), minRetainedSize(objectIds), -size);
+            checked++;
+        }
+        assertTrue(checked > 0);
+    }
+
+    @Test
+    public void testClassLoaders() throws SnapshotException
+    {
+        int checked = 0;
+        for (IClass loaderClass : snapshot.getClassesByName(IClass.JAVA_LANG_CLASSLOADER, true))
+        {
+            for (int loaderId : loaderClass.getObjectIds())
+            {
+                IClassLoader loader = (IClassLoader) snapshot.getObject(loaderId);
+                long size = loader.getRetainedHeapSizeOfObjects(false, true, null);
+                if (size > 0)
+                    continue;
+                SetInt objectIds = new SetInt();
+                objectIds.add(loaderId);
+                for (IClass cls : loader.getDefinedClasses())
+                {
+                    objectIds.add(cls.getObjectId());
+                    for (int objectId : cls.getObjectIds())
+                        objectIds.add(objectId);
+                }
+                assertEquals(loader.getTechnicalName(), minRetainedSize(objectIds), -size);
+                checked++;
+            }
+        }
+        assertTrue(checked > 0);
+    }
+}
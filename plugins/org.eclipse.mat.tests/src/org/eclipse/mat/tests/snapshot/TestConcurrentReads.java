@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.snapshot;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.snapshot.model.IObject;
+import org.eclipse.mat.tests.TestSnapshots;
+import org.junit.Test;
+
+/**
+ * Reads the objects of a snapshot with {@link ISnapshot#getObject(int)} from 1 to N threads,
+ * and checks the objects read concurrently against a single-threaded read.
+ */
+public class TestConcurrentReads
+{
+    @Test
+    public void testGetObjectConcurrently() throws Exception
+    {
+        ISnapshot snapshot = TestSnapshots.getSnapshot(TestSnapshots.SUN_JDK6_18_64BIT, true);
+        try
+        {
+            long expected[] = readAll(snapshot, 1);
+            int maxThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+            for (int threads = 2; threads <= maxThreads; threads *= 2)
+            {
+                long actual[] = readAll(snapshot, threads);
+                assertArrayEquals("Threads " + threads, expected, actual); //$NON-NLS-1$
+            }
+        }
+        finally
+        {
+            TestSnapshots.freeSnapshot(TestSnapshots.SUN_JDK6_18_64BIT);
+        }
+    }
+
+    /**
+     * Read every object in the snapshot, with the work interleaved across the threads.
+     * @return the address of each object, indexed by object ID
+     */
+    private long[] readAll(final ISnapshot snapshot, final int threads) throws InterruptedException, ExecutionException
+    {
+        final long addresses[] = new long[snapshot.getSnapshotInfo().getNumberOfObjects()];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int t = 0; t < threads; ++t)
+            {
+                final int start = t;
+                results.add(executor.submit(new Callable<Void>()
+                {
+                    public Void call() throws SnapshotException
+                    {
+                        for (int id = start; id < addresses.length; id += threads)
+                        {
+                            IObject o = snapshot.getObject(id);
+                            addresses[id] = o.getObjectAddress() ^ o.getClazz().getObjectAddress();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : results)
+                f.get();
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        return addresses;
+    }
+}
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.snapshot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.snapshot.IFieldColumns;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.snapshot.model.IClass;
+import org.eclipse.mat.snapshot.model.IInstance;
+import org.eclipse.mat.snapshot.model.IObject;
+import org.eclipse.mat.snapshot.model.ObjectReference;
+import org.eclipse.mat.tests.TestSnapshots;
+import org.eclipse.mat.util.VoidProgressListener;
+import org.junit.Test;
+
+/**
+ * Check columns of instance field values match the fields read from the dump.
+ */
+public class TestFieldColumns
+{
+    private final ISnapshot snapshot = TestSnapshots.getSnapshot(TestSnapshots.SUN_JDK6_18_64BIT, false);
+
+    private IFieldColumns fieldColumns() throws SnapshotException
+    {
+        IFieldColumns fieldColumns = snapshot.getSnapshotAddons(IFieldColumns.class);
+        assertNotNull(fieldColumns);
+        return fieldColumns;
+    }
+
+    private IClass getClass(String name) throws SnapshotException
+    {
+        Collection<IClass> classes = snapshot.getClassesByName(name, false);
+        assertNotNull(name, classes);
+        return classes.iterator().next();
+    }
+
+    /**
+     * Compare each value in the column with the field of the instance.
+     */
+    private void checkColumn(IClass type, String fieldName, int expectedType) throws SnapshotException
+    {
+        IFieldColumns.Column column = fieldColumns().getColumn(type, fieldName, new VoidProgressListener());
+        assertNotNull(fieldName, column);
+        assertEquals(expectedType, column.getType());
+        int[] objectIds = type.getObjectIds().clone();
+        Arrays.sort(objectIds);
+        assertArrayEquals(objectIds, column.getObjectIds());
+        for (int objectId : objectIds)
+        {
+            IInstance obj = (IInstance) snapshot.getObject(objectId);
+            Object expected = obj.getField(fieldName).getValue();
+            if (expected instanceof ObjectReference)
+                expected = ((ObjectReference) expected).getObjectId();
+            Object value = column.getValue(column.indexOf(objectId));
+            assertEquals(obj.getTechnicalName() + " " + fieldName, expected, value); //$NON-NLS-1$
+        }
+        // Now it is stored it can be found without building it
+        assertSame(column, fieldColumns().findColumn(type, fieldName));
+    }
+
+    @Test
+    public void testIntField() throws SnapshotException
+    {
+        checkColumn(getClass("java.lang.String"), "count", IObject.Type.INT); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    @Test
+    public void testReferenceField() throws SnapshotException
+    {
+        checkColumn(getClass("java.lang.String"), "value", IObject.Type.OBJECT); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    @Test
+    public void testLongField() throws SnapshotException
+    {
+        checkColumn(getClass("java.lang.Thread"), "tid", IObject.Type.LONG); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    @Test
+    public void testBooleanField() throws SnapshotException
+    {
+        checkColumn(getClass("java.lang.Thread"), "daemon", IObject.Type.BOOLEAN); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    @Test
+    public void testInheritedField() throws SnapshotException
+    {
+        // modCount is declared by java.util.AbstractList
+        checkColumn(getClass("java.util.ArrayList"), "modCount", IObject.Type.INT); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    @Test
+    public void testNoField() throws SnapshotException
+    {
+        IClass type = getClass("java.lang.String"); //$NON-NLS-1$
+        assertNull(fieldColumns().getColumn(type, "noSuchField", new VoidProgressListener())); //$NON-NLS-1$
+        assertNull(fieldColumns().findColumn(type, "noSuchField")); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testNotIndexOf() throws SnapshotException
+    {
+        IClass type = getClass("java.lang.String"); //$NON-NLS-1$
+        IFieldColumns.Column column = fieldColumns().getColumn(type, "hash", new VoidProgressListener()); //$NON-NLS-1$
+        assertTrue(column.indexOf(type.getObjectId()) < 0);
+    }
+}
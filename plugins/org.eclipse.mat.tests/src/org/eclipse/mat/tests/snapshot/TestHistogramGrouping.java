@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.mat.query.IResultTree;
+import org.eclipse.mat.snapshot.ClassHistogramRecord;
+import org.eclipse.mat.snapshot.ClassLoaderHistogramRecord;
+import org.eclipse.mat.snapshot.Histogram;
+import org.eclipse.mat.snapshot.HistogramRecord;
+import org.junit.Test;
+
+/**
+ * Check the groupings of a histogram, including one large enough
+ * to be grouped by package using several threads.
+ */
+public class TestHistogramGrouping
+{
+    private static Histogram histogram(int classes)
+    {
+        ArrayList<ClassHistogramRecord> records = new ArrayList<ClassHistogramRecord>();
+        long objects = 0;
+        long shallow = 0;
+        for (int i = 0; i < classes; ++i)
+        {
+            String name = "p" + (i % 7) + ".q" + (i % 13) + ".C" + i; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            if (i % 101 == 0)
+                name = "C" + i; //$NON-NLS-1$
+            records.add(new ClassHistogramRecord(name, i, i % 5 + 1, (i % 5 + 1) * 16L, 0));
+            objects += i % 5 + 1;
+            shallow += (i % 5 + 1) * 16L;
+        }
+        return new Histogram("test", records, new ArrayList<ClassLoaderHistogramRecord>(), objects, shallow, 0); //$NON-NLS-1$
+    }
+
+    /**
+     * Check the totals of each package and collect the classes in tree order.
+     */
+    private static void check(IResultTree tree, List<?> elements, String prefix, List<ClassHistogramRecord> classes)
+    {
+        for (Object element : elements)
+        {
+            if (tree.hasChildren(element))
+            {
+                HistogramRecord node = (HistogramRecord) element;
+                List<ClassHistogramRecord> inPackage = new ArrayList<ClassHistogramRecord>();
+                check(tree, tree.getChildren(node), prefix + node.getLabel() + ".", inPackage); //$NON-NLS-1$
+                long objects = 0;
+                long shallow = 0;
+                for (ClassHistogramRecord record : inPackage)
+                {
+                    objects += record.getNumberOfObjects();
+                    shallow += record.getUsedHeapSize();
+                }
+                assertEquals(node.getLabel(), objects, node.getNumberOfObjects());
+                assertEquals(node.getLabel(), shallow, node.getUsedHeapSize());
+                classes.addAll(inPackage);
+            }
+            else
+            {
+                ClassHistogramRecord record = (ClassHistogramRecord) element;
+                assertTrue(record.getLabel(), record.getLabel().startsWith(prefix));
+                assertFalse(record.getLabel(), record.getLabel().substring(prefix.length()).contains(".")); //$NON-NLS-1$
+                classes.add(record);
+            }
+        }
+    }
+
+    private static void checkPackages(int size)
+    {
+        Histogram histogram = histogram(size);
+        IResultTree tree = histogram.groupByPackage();
+        List<ClassHistogramRecord> classes = new ArrayList<ClassHistogramRecord>();
+        check(tree, tree.getElements(), "", classes); //$NON-NLS-1$
+        assertEquals(size, classes.size());
+        // Each class once, and the classes of a package in histogram order
+        boolean seen[] = new boolean[size];
+        int last = -1;
+        String lastPackage = null;
+        for (ClassHistogramRecord record : classes)
+        {
+            assertFalse(record.getLabel(), seen[record.getClassId()]);
+            seen[record.getClassId()] = true;
+            String pkg = record.getLabel().substring(0, record.getLabel().lastIndexOf('.') + 1);
+            if (pkg.equals(lastPackage))
+                assertTrue(record.getLabel(), record.getClassId() > last);
+            last = record.getClassId();
+            lastPackage = pkg;
+        }
+    }
+
+    @Test
+    public void testPackagesSmall()
+    {
+        checkPackages(1000);
+    }
+
+    @Test
+    public void testPackagesLarge()
+    {
+        checkPackages(100000);
+    }
+
+    @Test
+    public void testGroupingsKept()
+    {
+        Histogram histogram = histogram(100);
+        assertSame(histogram.groupByPackage(), histogram.groupByPackage());
+        assertSame(histogram.groupByClassLoader(), histogram.groupByClassLoader());
+    }
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.snapshot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.collect.ArrayInt;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.snapshot.model.IClass;
+import org.eclipse.mat.snapshot.model.IObject;
+import org.eclipse.mat.snapshot.query.IHeapObjectArgument;
+import org.eclipse.mat.snapshot.query.ObjectScan;
+import org.eclipse.mat.tests.TestSnapshots;
+import org.eclipse.mat.util.IProgressListener;
+import org.eclipse.mat.util.VoidProgressListener;
+import org.junit.Test;
+
+/**
+ * Check a scan of objects using several threads sees every object once,
+ * and gives the objects in the order of the argument, each int[] in ascending order.
+ */
+public class TestObjectScan
+{
+    private final ISnapshot snapshot = TestSnapshots.getSnapshot(TestSnapshots.SUN_JDK6_18_64BIT, false);
+
+    /**
+     * All the objects, a class at a time.
+     */
+    private IHeapObjectArgument allObjects() throws SnapshotException
+    {
+        final List<int[]> blocks = new ArrayList<int[]>();
+        for (IClass cls : snapshot.getClasses())
+            blocks.add(cls.getObjectIds());
+        return new IHeapObjectArgument()
+        {
+            public Iterator<int[]> iterator()
+            {
+                return blocks.iterator();
+            }
+
+            public int[] getIds(IProgressListener listener)
+            {
+                ArrayInt all = new ArrayInt();
+                for (int[] objectIds : blocks)
+                    all.addAll(objectIds);
+                return all.toArray();
+            }
+
+            public String getLabel()
+            {
+                return "all objects"; //$NON-NLS-1$
+            }
+        };
+    }
+
+    /**
+     * Collects the ids of the objects visited.
+     */
+    private class Collect extends ObjectScan<ArrayInt>
+    {
+        Collect()
+        {
+            super(TestObjectScan.this.snapshot);
+        }
+
+        protected ArrayInt createAccumulator()
+        {
+            return new ArrayInt();
+        }
+
+        protected void visit(ArrayInt found, IObject object) throws SnapshotException
+        {
+            found.add(object.getObjectId());
+        }
+
+        protected void merge(ArrayInt found, ArrayInt other)
+        {
+            found.addAll(other);
+        }
+    }
+
+    @Test
+    public void testOrder() throws SnapshotException
+    {
+        IHeapObjectArgument objects = allObjects();
+        final int total[] = new int[1];
+        final int work[] = new int[1];
+        ArrayInt found = new Collect().run(objects, "test", new VoidProgressListener() //$NON-NLS-1$
+        {
+            public void beginTask(String name, int totalWork)
+            {
+                total[0] = totalWork;
+            }
+
+            public void worked(int w)
+            {
+                assertTrue(w >= 0);
+                work[0] += w;
+            }
+        });
+        assertArrayEquals(objects.getIds(null), found.toArray());
+        assertTrue(work[0] <= total[0]);
+    }
+
+    @Test
+    public void testUnsortedBlock() throws SnapshotException
+    {
+        int objectIds[] = allObjects().getIds(null);
+        int reversed[] = new int[objectIds.length];
+        for (int i = 0; i < objectIds.length; ++i)
+            reversed[i] = objectIds[objectIds.length - 1 - i];
+        ArrayInt found = new Collect().run(Collections.singletonList(reversed), "test", new VoidProgressListener()); //$NON-NLS-1$
+        Arrays.sort(objectIds);
+        assertArrayEquals(objectIds, found.toArray());
+        // The argument is not changed
+        assertEquals(objectIds[objectIds.length - 1], reversed[0]);
+    }
+
+    @Test
+    public void testCancel() throws SnapshotException
+    {
+        IHeapObjectArgument objects = allObjects();
+        final AtomicInteger visits = new AtomicInteger();
+        final IProgressListener listener = new VoidProgressListener();
+        ArrayInt found = new Collect()
+        {
+            protected void visit(ArrayInt found, IObject object) throws SnapshotException
+            {
+                if (visits.incrementAndGet() == 1000)
+                    listener.setCanceled(true);
+                super.visit(found, object);
+            }
+        }.run(objects, "test", listener); //$NON-NLS-1$
+        assertTrue(found.size() >= 1000);
+        assertTrue(found.size() < objects.getIds(null).length);
+    }
+
+    @Test
+    public void testException() throws SnapshotException
+    {
+        final int last = snapshot.getSnapshotInfo().getNumberOfObjects() - 1;
+        try
+        {
+            new Collect()
+            {
+                protected void visit(ArrayInt found, IObject object) throws SnapshotException
+                {
+                    if (object.getObjectId() == last)
+                        throw new SnapshotException("last"); //$NON-NLS-1$
+                    super.visit(found, object);
+                }
+            }.run(allObjects(), "test", new VoidProgressListener()); //$NON-NLS-1$
+            fail("Expected SnapshotException"); //$NON-NLS-1$
+        }
+        catch (SnapshotException e)
+        {
+            assertEquals("last", e.getMessage()); //$NON-NLS-1$
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.snapshot;
+
+import static org.eclipse.mat.tests.snapshot.DominatorTrees.compareDominatorTrees;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.tests.TestSnapshots;
+import org.junit.Test;
+
+/**
+ * The parallel calculation must give exactly the same dominator tree and
+ * retained sizes as the standard calculation.
+ */
+public class TestParallelDominatorTree
+{
+    @Test
+    public void testParallelDomTreeSunJdk6_32() throws SnapshotException
+    {
+        compareParallel(TestSnapshots.SUN_JDK6_32BIT);
+    }
+
+    @Test
+    public void testParallelDomTreeSunJdk5_64() throws SnapshotException
+    {
+        compareParallel(TestSnapshots.SUN_JDK5_64BIT);
+    }
+
+    @Test
+    public void testParallelDomTreeIBMJdk6_32_System() throws SnapshotException
+    {
+        compareParallel(TestSnapshots.IBM_JDK6_32BIT_SYSTEM);
+    }
+
+    private void compareParallel(String snapshotName) throws SnapshotException
+    {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("parallel_dominator_tree", "true");
+        ISnapshot parallel = TestSnapshots.getSnapshot(snapshotName, options, true);
+        ISnapshot classic = TestSnapshots.getSnapshot(snapshotName, false);
+        try
+        {
+            compareDominatorTrees(classic, parallel);
+        }
+        finally
+        {
+            // Tidy up this pristine snapshot early
+            parallel.dispose();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.snapshot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.collect.ArrayInt;
+import org.eclipse.mat.snapshot.ClassHistogramRecord;
+import org.eclipse.mat.snapshot.Histogram;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.tests.TestSnapshots;
+import org.eclipse.mat.util.VoidProgressListener;
+import org.junit.Test;
+
+/**
+ * The histogram of a set of objects is built from ranges in parallel,
+ * and must be the same as adding the objects one at a time.
+ */
+public class TestParallelHistogram
+{
+    /** More than the smallest range built by one task, so there are several ranges */
+    private static final int MANY = 3 * 65536 + 17;
+
+    @Test
+    public void testManyObjects() throws SnapshotException
+    {
+        ISnapshot snapshot = TestSnapshots.getSnapshot(TestSnapshots.SUN_JDK6_32BIT, false);
+        int n = snapshot.getSnapshotInfo().getNumberOfObjects();
+        // Every object, several times, in random order
+        int[] objectIds = new int[MANY];
+        Random r = new Random(1);
+        for (int i = 0; i < objectIds.length; ++i)
+            objectIds[i] = i < n ? i : r.nextInt(n);
+        for (int i = objectIds.length - 1; i > 0; --i)
+        {
+            int j = r.nextInt(i + 1);
+            int t = objectIds[i];
+            objectIds[i] = objectIds[j];
+            objectIds[j] = t;
+        }
+        compareHistogram(snapshot, objectIds);
+    }
+
+    @Test
+    public void testFewObjects() throws SnapshotException
+    {
+        ISnapshot snapshot = TestSnapshots.getSnapshot(TestSnapshots.SUN_JDK6_32BIT, false);
+        int n = snapshot.getSnapshotInfo().getNumberOfObjects();
+        compareHistogram(snapshot, new int[] { n - 1, 0, n / 2, 0 });
+        compareHistogram(snapshot, new int[0]);
+    }
+
+    private void compareHistogram(ISnapshot snapshot, int[] objectIds) throws SnapshotException
+    {
+        Map<Integer, ArrayInt> objectsByClass = new HashMap<Integer, ArrayInt>();
+        Map<Integer, Long> sizeByClass = new HashMap<Integer, Long>();
+        long total = 0;
+        for (int objectId : objectIds)
+        {
+            int classId = snapshot.getClassOf(objectId).getObjectId();
+            ArrayInt objects = objectsByClass.get(classId);
+            if (objects == null)
+                objectsByClass.put(classId, objects = new ArrayInt());
+            objects.add(objectId);
+            long size = snapshot.getHeapSize(objectId);
+            Long classSize = sizeByClass.get(classId);
+            sizeByClass.put(classId, classSize == null ? size : classSize + size);
+            total += size;
+        }
+
+        Histogram histogram = snapshot.getHistogram(objectIds, new VoidProgressListener());
+        assertEquals(objectIds.length, histogram.getNumberOfObjects());
+        assertEquals(total, histogram.getUsedHeapSize());
+        assertEquals(objectsByClass.size(), histogram.getClassHistogramRecords().size());
+        for (ClassHistogramRecord record : histogram.getClassHistogramRecords())
+        {
+            ArrayInt objects = objectsByClass.get(record.getClassId());
+            assertNotNull(record.getLabel(), objects);
+            objects.sort();
+            assertEquals(record.getLabel(), objects.size(), record.getNumberOfObjects());
+            assertEquals(record.getLabel(), sizeByClass.get(record.getClassId()).longValue(), record.getUsedHeapSize());
+            assertArrayEquals(record.getLabel(), objects.toArray(), record.getObjectIds());
+        }
+    }
+}
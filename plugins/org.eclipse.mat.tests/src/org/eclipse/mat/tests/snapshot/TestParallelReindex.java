@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.snapshot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.tests.TestSnapshots;
+import org.junit.Test;
+
+/**
+ * Re-indexing the objects after removing unreachable objects
+ * in parallel must give exactly the same indexes as doing it sequentially,
+ * as happens with one processor or little free memory.
+ */
+public class TestParallelReindex
+{
+    /**
+     * Many small ranges, so most ranges end with a mix of
+     * kept and discarded objects.
+     */
+    @Test
+    public void testSmallChunks() throws SnapshotException
+    {
+        compareReindex(TestSnapshots.SUN_JDK6_32BIT, 7);
+    }
+
+    /**
+     * Ranges of a power of two, as for the default range size.
+     */
+    @Test
+    public void testPowerOfTwoChunks() throws SnapshotException
+    {
+        compareReindex(TestSnapshots.SUN_JDK6_32BIT, 1024);
+    }
+
+    /**
+     * One object per range, so every object is at a range boundary.
+     */
+    @Test
+    public void testSingleObjectChunks() throws SnapshotException
+    {
+        compareReindex(TestSnapshots.SUN_JDK5_64BIT, 1);
+    }
+
+    /**
+     * The default range size, which is bigger than the dump,
+     * so there is a single range.
+     */
+    @Test
+    public void testDefaultChunks() throws SnapshotException
+    {
+        compareReindex(TestSnapshots.SUN_JDK6_32BIT, 0);
+    }
+
+    /**
+     * @param chunkSize the number of old object IDs in each range, or 0 for the default
+     */
+    private void compareReindex(String snapshotName, int chunkSize) throws SnapshotException
+    {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("parallel_reindex", "false");
+        ISnapshot sequential = TestSnapshots.getSnapshot(snapshotName, options, true);
+        try
+        {
+            options.put("parallel_reindex", "true");
+            if (chunkSize > 0)
+                options.put("reindex_chunk_size", Integer.toString(chunkSize));
+            ISnapshot parallel = TestSnapshots.getSnapshot(snapshotName, options, true);
+            try
+            {
+                compareIndexes(sequential, parallel);
+            }
+            finally
+            {
+                parallel.dispose();
+            }
+        }
+        finally
+        {
+            sequential.dispose();
+        }
+    }
+
+    private void compareIndexes(ISnapshot expected, ISnapshot actual) throws SnapshotException
+    {
+        int numberOfObjects = expected.getSnapshotInfo().getNumberOfObjects();
+        assertEquals(numberOfObjects, actual.getSnapshotInfo().getNumberOfObjects());
+        assertEquals(expected.getSnapshotInfo().getNumberOfClasses(), actual.getSnapshotInfo().getNumberOfClasses());
+        for (int i = 0; i < numberOfObjects; ++i)
+        {
+            assertEquals("Address of " + i, expected.mapIdToAddress(i), actual.mapIdToAddress(i));
+            assertEquals("Class of " + i, expected.getClassOf(i).getObjectId(), actual.getClassOf(i).getObjectId());
+            assertEquals("Size of " + i, expected.getHeapSize(i), actual.getHeapSize(i));
+            assertArrayEquals("Outbound of " + i, expected.getOutboundReferentIds(i), actual.getOutboundReferentIds(i));
+            assertArrayEquals("Inbound of " + i, expected.getInboundRefererIds(i), actual.getInboundRefererIds(i));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.snapshot.SnapshotFactory;
+import org.eclipse.mat.tests.TestSnapshots;
+import org.eclipse.mat.util.VoidProgressListener;
+import org.junit.Test;
+
+/**
+ * Reopening a parsed dump opens the index files on another thread
+ * while the master index file is read.
+ */
+public class TestReopenSnapshot
+{
+    /**
+     * Records the problems reported while opening a snapshot.
+     */
+    private static class WarningListener extends VoidProgressListener
+    {
+        final List<Throwable> problems = new ArrayList<Throwable>();
+
+        @Override
+        public void sendUserMessage(Severity severity, String message, Throwable exception)
+        {
+            if (severity == Severity.WARNING && exception != null)
+                problems.add(exception);
+        }
+    }
+
+    @Test
+    public void testReopen() throws SnapshotException
+    {
+        ISnapshot snapshot = TestSnapshots.getSnapshot(TestSnapshots.SUN_JDK6_32BIT, true);
+        File dump = new File(snapshot.getSnapshotInfo().getPath());
+        int numberOfObjects = snapshot.getSnapshotInfo().getNumberOfObjects();
+        int lastClassId = snapshot.getClassOf(numberOfObjects - 1).getObjectId();
+        SnapshotFactory.dispose(snapshot);
+
+        WarningListener listener = new WarningListener();
+        ISnapshot reopened = SnapshotFactory.openSnapshot(dump, Collections.<String, String> emptyMap(), listener);
+        try
+        {
+            assertEquals(Collections.emptyList(), listener.problems);
+            assertEquals(numberOfObjects, reopened.getSnapshotInfo().getNumberOfObjects());
+            assertEquals(lastClassId, reopened.getClassOf(numberOfObjects - 1).getObjectId());
+        }
+        finally
+        {
+            SnapshotFactory.dispose(reopened);
+        }
+    }
+
+    /**
+     * A failure opening an index file on the other thread reaches
+     * the caller, so the dump is parsed again.
+     */
+    @Test
+    public void testIndexOpenError() throws SnapshotException, IOException
+    {
+        ISnapshot snapshot = TestSnapshots.getSnapshot(TestSnapshots.SUN_JDK6_32BIT, true);
+        File dump = new File(snapshot.getSnapshotInfo().getPath());
+        String prefix = snapshot.getSnapshotInfo().getPrefix();
+        int numberOfObjects = snapshot.getSnapshotInfo().getNumberOfObjects();
+        SnapshotFactory.dispose(snapshot);
+
+        // An empty object to class index cannot be opened
+        File o2class = new File(prefix + "o2c.index");
+        try (RandomAccessFile raf = new RandomAccessFile(o2class, "rw"))
+        {
+            raf.setLength(0);
+        }
+
+        WarningListener listener = new WarningListener();
+        ISnapshot reparsed = SnapshotFactory.openSnapshot(dump, Collections.<String, String> emptyMap(), listener);
+        try
+        {
+            assertEquals(listener.problems.toString(), 1, listener.problems.size());
+            assertTrue(listener.problems.get(0).toString(), listener.problems.get(0) instanceof IOException);
+            assertEquals(numberOfObjects, reparsed.getSnapshotInfo().getNumberOfObjects());
+            assertTrue("Index should be written again", o2class.length() > 0);
+        }
+        finally
+        {
+            SnapshotFactory.dispose(reparsed);
+        }
+    }
+}
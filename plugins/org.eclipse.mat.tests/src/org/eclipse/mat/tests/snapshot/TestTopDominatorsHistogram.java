@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2023 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.mat.tests.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.snapshot.ClassHistogramRecord;
+import org.eclipse.mat.snapshot.ClassLoaderHistogramRecord;
+import org.eclipse.mat.snapshot.Histogram;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.util.VoidProgressListener;
+import org.junit.Test;
+
+/**
+ * The summary of the top-level dominators is kept with the dominator tree,
+ * and must match the histogram of the top-level dominators.
+ */
+public class TestTopDominatorsHistogram
+{
+    @Test
+    public void testClasses() throws SnapshotException
+    {
+        ISnapshot snapshot = DominatorTrees.snapshot();
+        int[] top = snapshot.getImmediateDominatedIds(-1);
+        Histogram summary = snapshot.getTopDominatorsHistogram(new VoidProgressListener());
+        Histogram expected = snapshot.getHistogram(top, new VoidProgressListener());
+
+        assertEquals(top.length, summary.getNumberOfObjects());
+        assertEquals(expected.getUsedHeapSize(), summary.getUsedHeapSize());
+        assertEquals(expected.getClassHistogramRecords().size(), summary.getClassHistogramRecords().size());
+
+        Map<Integer, ClassHistogramRecord> classes = new HashMap<Integer, ClassHistogramRecord>();
+        for (ClassHistogramRecord record : summary.getClassHistogramRecords())
+            classes.put(record.getClassId(), record);
+        long total = 0;
+        for (ClassHistogramRecord record : expected.getClassHistogramRecords())
+        {
+            ClassHistogramRecord found = classes.get(record.getClassId());
+            assertNotNull(record.getLabel(), found);
+            assertEquals(record.getLabel(), found.getLabel());
+            assertEquals(record.getLabel(), record.getNumberOfObjects(), found.getNumberOfObjects());
+            assertEquals(record.getLabel(), record.getUsedHeapSize(), found.getUsedHeapSize());
+            long retained = 0;
+            for (int objectId : record.getObjectIds())
+                retained += snapshot.getRetainedHeapSize(objectId);
+            assertEquals(record.getLabel(), retained, found.getRetainedHeapSize());
+            total += retained;
+        }
+        assertEquals(total, summary.getRetainedHeapSize());
+    }
+
+    @Test
+    public void testClassLoaders() throws SnapshotException
+    {
+        ISnapshot snapshot = DominatorTrees.snapshot();
+        int[] top = snapshot.getImmediateDominatedIds(-1);
+        Histogram summary = snapshot.getTopDominatorsHistogram(new VoidProgressListener());
+        Histogram expected = snapshot.getHistogram(top, new VoidProgressListener());
+
+        assertEquals(expected.getClassLoaderHistogramRecords().size(), summary.getClassLoaderHistogramRecords().size());
+
+        Map<Integer, ClassLoaderHistogramRecord> loaders = new HashMap<Integer, ClassLoaderHistogramRecord>();
+        for (ClassLoaderHistogramRecord record : summary.getClassLoaderHistogramRecords())
+            loaders.put(record.getClassLoaderId(), record);
+        for (ClassLoaderHistogramRecord record : expected.getClassLoaderHistogramRecords())
+        {
+            ClassLoaderHistogramRecord found = loaders.get(record.getClassLoaderId());
+            assertNotNull(record.getLabel(), found);
+            assertEquals(record.getLabel(), record.getNumberOfObjects(), found.getNumberOfObjects());
+            long retained = 0;
+            for (ClassHistogramRecord classRecord : found.getClassHistogramRecords())
+                retained += classRecord.getRetainedHeapSize();
+            assertEquals(record.getLabel(), retained, found.getRetainedHeapSize());
+        }
+    }
+}